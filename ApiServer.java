@@ -0,0 +1,777 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Embedded HTTP/JSON API over the same operations as the console menu.
+ * Every request gets its own virtual thread when the JDK has them (21+); on older JDKs a cached
+ * platform thread pool stands in. At most http.maxInFlight requests do work at once; a request that
+ * cannot get a slot within http.queueTimeoutMs is answered 503 right away, as is one that times out
+ * waiting for a pooled connection. Each route's latency is recorded in the query metrics as
+ * "op:http GET /patients" etc. GETs read from a replica when db.replicas has any. For read-your-writes,
+ * a client is one ReplicaRouter session, keyed by its X-Session header or else its address. Audit
+ * events name the caller as "http:" + the X-User header (if sent) + "@" + its address.
+ * <pre>
+ * GET    /patients?after=&amp;limit=   GET /patients?q=text     GET /patients/{id}
+ * PUT    /patients/{id}              DELETE /patients/{id}   PATCH /patients (batch)
+ * GET    /doctors?q=  /doctors/{id}  GET /hospitals?q=  /hospitals/{id}
+ * GET    /medications?after=&amp;limit= | ?patientId=    POST /medications   PUT /medications/{id}
+ * GET    /appointments?after=&amp;limit= | ?patientId= | ?doctorId=       POST /appointments
+ * POST   /transfers                  GET /stats
+ * POST   /appointments also takes {"appointments":[...], "allOrNothing":false} to book many in one call
+ * </pre>
+ */
+final class ApiServer implements AutoCloseable {
+
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final String JSON = "application/json; charset=utf-8";
+    private static final Set<String> ROUTES = Set.of(
+            "GET /patients", "GET /patients/{id}", "PUT /patients/{id}", "PATCH /patients/{id}",
+            "DELETE /patients/{id}", "PATCH /patients", "GET /doctors", "GET /doctors/{id}", "GET /hospitals", "GET /hospitals/{id}",
+            "GET /medications", "POST /medications", "PUT /medications/{id}", "PATCH /medications/{id}",
+            "GET /appointments", "POST /appointments", "POST /transfers", "GET /stats");
+
+    /**
+     * A finished response; body is already serialized.
+     */
+    private record Response(int status, String body, String contentType) {
+        static Response json(int status, String body) {
+            return new Response(status, body, JSON);
+        }
+
+        static Response error(int status, String message) {
+            return json(status, "{\"error\":" + Json.quote(message) + "}");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final long queueTimeoutMs;
+    private final int maxLimit;
+    private final ConnectionSource source;
+    private final ReferenceCache refs;
+    private final QueryMetrics metrics; // may be null
+    private final ReplicaRouter router;
+    private final AuditLog audit;
+
+    ApiServer(int port, int backlog, int maxInFlight, long queueTimeoutMs, int maxLimit,
+              ReplicaRouter router, ReferenceCache refs, QueryMetrics metrics, AuditLog audit) throws IOException {
+        this.router = router;
+        this.audit = audit;
+        this.source = router::read;
+        this.refs = refs;
+        this.metrics = metrics;
+        this.inFlight = new Semaphore(Math.max(1, maxInFlight), true);
+        this.queueTimeoutMs = Math.max(0, queueTimeoutMs);
+        this.maxLimit = Math.max(1, maxLimit);
+        this.executor = perRequestExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(port), backlog);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    static ApiServer fromProperties(Properties props, ReplicaRouter router, ReferenceCache refs,
+                                    QueryMetrics metrics, AuditLog audit) throws IOException {
+        return new ApiServer(
+                ConnectionPool.intProp(props, "http.port", 8080),
+                ConnectionPool.intProp(props, "http.backlog", 0),
+                ConnectionPool.intProp(props, "http.maxInFlight", 200),
+                ConnectionPool.longProp(props, "http.queueTimeoutMs", 1000),
+                ConnectionPool.intProp(props, "http.maxLimit", 500),
+                router, refs, metrics, audit);
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() when running on JDK 21+, looked up reflectively so
+     * the code still compiles for 17. The fallback also makes a thread per waiting request; the
+     * in-flight semaphore plus the queue timeout keep that number bounded.
+     */
+    static ExecutorService perRequestExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "http-worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    void start() {
+        server.start();
+    }
+
+    InetSocketAddress address() {
+        return server.getAddress();
+    }
+
+    boolean usesVirtualThreads() {
+        return !(executor instanceof ThreadPoolExecutor);
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    // ===== Dispatch =====
+
+    private void handle(HttpExchange ex) {
+        long start = System.nanoTime();
+        String[] segments = segments(ex.getRequestURI().getPath());
+        String route = ex.getRequestMethod() + " /" + (segments.length == 0 ? "" : segments[0])
+                + (segments.length == 2 ? "/{id}" : segments.length > 2 ? "/*" : "");
+        // Unknown paths share one metrics label so clients cannot grow the stats map without bound.
+        String label = "http " + (ROUTES.contains(route) ? route : "unmatched");
+        Response response;
+        boolean admitted = false;
+        String address = ex.getRemoteAddress().getAddress().getHostAddress();
+        String client = ex.getRequestHeaders().getFirst("X-Session");
+        String user = ex.getRequestHeaders().getFirst("X-User");
+        ReplicaRouter.Session previous = router.bind(router.session(client != null ? client : address));
+        String previousActor = AuditLog.bindActor("http:" + (user != null ? user + "@" : "") + address);
+        try {
+            admitted = inFlight.tryAcquire(queueTimeoutMs, TimeUnit.MILLISECONDS);
+            if (!admitted) {
+                response = Response.error(503, "Server busy, retry later");
+            } else {
+                QueryMetrics.Scope scope = QueryMetrics.operation(label);
+                try {
+                    response = dispatch(route, segments, ex);
+                } finally {
+                    scope.close();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response = Response.error(503, "Interrupted");
+        } catch (IllegalArgumentException e) {
+            response = Response.error(400, e.getMessage());
+        } catch (SQLException e) {
+            int status = statusOf(e);
+            response = status < 500 ? Response.error(status, e.getMessage()) : serverError(status, route, e);
+        } catch (IOException | RuntimeException e) {
+            response = serverError(500, route, e);
+        } finally {
+            if (admitted) {
+                inFlight.release();
+            }
+            router.bind(previous);
+            AuditLog.bindActor(previousActor);
+        }
+
+        try {
+            send(ex, response);
+        } catch (IOException e) {
+            // The client went away; nothing left to tell it.
+        } finally {
+            ex.close();
+        }
+        if (metrics != null) {
+            metrics.recordOperation(label, System.nanoTime() - start, response.status() >= 500);
+        }
+    }
+
+    private Response dispatch(String route, String[] seg, HttpExchange ex) throws SQLException, IOException {
+        Map<String, String> q = query(ex.getRequestURI().getRawQuery());
+        switch (route) {
+            case "GET /patients" -> {
+                return q.containsKey("q") ? searchPatients(q.get("q"), limit(q)) : page(TableListing.Source.PATIENT, q);
+            }
+            case "GET /patients/{id}" -> {
+                return getPatient(id(seg));
+            }
+            case "PUT /patients/{id}", "PATCH /patients/{id}" -> {
+                return updatePatient(id(seg), body(ex));
+            }
+            case "PATCH /patients" -> {
+                return updatePatients(body(ex));
+            }
+            case "DELETE /patients/{id}" -> {
+                int rows = Main.deletePatient(id(seg));
+                return rows == 0 ? Response.error(404, "No patient found with that ID.") : rowsResponse(200, rows);
+            }
+            case "GET /doctors" -> {
+                return listDoctors(q.get("q"));
+            }
+            case "GET /doctors/{id}" -> {
+                ReferenceCache.Doctor d = refs.doctor(id(seg));
+                return d == null ? Response.error(404, "No doctor found with that ID.") : Response.json(200, doctorJson(d));
+            }
+            case "GET /hospitals" -> {
+                return listHospitals(q.get("q"));
+            }
+            case "GET /hospitals/{id}" -> {
+                ReferenceCache.Hospital h = refs.hospital(id(seg));
+                return h == null ? Response.error(404, "No hospital found with that ID.") : Response.json(200, hospitalJson(h));
+            }
+            case "GET /medications" -> {
+                if (q.containsKey("patientId")) {
+                    return filtered(TableListing.Source.MEDICATION, "PatientID", intParam(q, "patientId"), limit(q));
+                }
+                return page(TableListing.Source.MEDICATION, q);
+            }
+            case "POST /medications" -> {
+                return insertMedication(body(ex));
+            }
+            case "PUT /medications/{id}", "PATCH /medications/{id}" -> {
+                int rows = Main.updateMedicationStatus(id(seg), requiredString(body(ex), "status"));
+                return rows == 0 ? Response.error(404, "No medication found with that ID.") : rowsResponse(200, rows);
+            }
+            case "GET /appointments" -> {
+                if (q.containsKey("patientId")) {
+                    return filtered(TableListing.Source.APPOINTMENT, "PatientID", intParam(q, "patientId"), limit(q));
+                }
+                if (q.containsKey("doctorId")) {
+                    return filtered(TableListing.Source.APPOINTMENT, "DoctorID", intParam(q, "doctorId"), limit(q));
+                }
+                return page(TableListing.Source.APPOINTMENT, q);
+            }
+            case "POST /appointments" -> {
+                return schedule(body(ex));
+            }
+            case "POST /transfers" -> {
+                return transfer(body(ex));
+            }
+            case "GET /stats" -> {
+                return stats();
+            }
+            default -> {
+                return Response.error(404, "No route for " + route);
+            }
+        }
+    }
+
+    /**
+     * Maps driver and server errors onto HTTP statuses.
+     */
+    /**
+     * A 5xx whose detail (SQL text, stack trace) stays in the server log; the client gets an id to quote.
+     */
+    private static Response serverError(int status, String route, Exception e) {
+        String id = UUID.randomUUID().toString().substring(0, 8);
+        System.err.println("Error handling " + route + " [" + id + "]: " + e);
+        if (!(e instanceof SQLException)) {
+            e.printStackTrace();
+        }
+        String message = status == 503 ? "Service unavailable, retry later" : "Internal error";
+        return Response.json(status, "{\"error\":" + Json.quote(message) + ",\"errorId\":" + Json.quote(id) + "}");
+    }
+
+    static int statusOf(SQLException e) {
+        if (e instanceof SQLTransientException) {
+            return 503; // pool saturated, lock wait timeout, ...
+        }
+        String state = e.getSQLState();
+        if (state != null && state.startsWith("23")) {
+            return 409; // duplicate key, foreign key
+        }
+        if ("45000".equals(state) || e.getErrorCode() == 3819) {
+            return 409; // SIGNAL from a procedure/trigger, CHECK constraint
+        }
+        return 500;
+    }
+
+    // ===== Reads =====
+
+    private Response page(TableListing.Source table, Map<String, String> q) throws SQLException {
+        Object[] after = null;
+        String afterParam = q.get("after");
+        if (afterParam != null && !afterParam.isEmpty()) {
+            // Keys of the last row of the previous page, comma separated, as returned in "next".
+            String[] parts = afterParam.split(",", -1);
+            if (parts.length != table.keyColumns.length) {
+                throw new IllegalArgumentException("after must have " + table.keyColumns.length + " comma separated value(s)");
+            }
+            after = parts;
+        }
+        StringBuilder items = new StringBuilder(4096);
+        Object[] next;
+        try (Connection conn = source.get()) {
+            next = TableListing.page(conn, table, after, limit(q), rowAppender(items));
+        }
+        StringBuilder sb = new StringBuilder(items.length() + 64);
+        sb.append("{\"items\":[").append(items).append("],\"next\":");
+        if (next == null) {
+            sb.append("null");
+        } else {
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < next.length; i++) {
+                key.append(i == 0 ? "" : ",").append(next[i]);
+            }
+            Json.appendString(sb, key.toString());
+        }
+        return Response.json(200, sb.append('}').toString());
+    }
+
+    /**
+     * Rows of one table for one patient or doctor; each is a short index range scan.
+     */
+    private Response filtered(TableListing.Source table, String column, int value, int limit) throws SQLException {
+        String sql = table.select + " WHERE " + column + " = ?" + table.orderBy() + " LIMIT ?";
+        return items(sql, limit, value);
+    }
+
+    /**
+     * Ranked matches from the patient search index: {"items":[{"PatientID":1,...,"rank":0}]}.
+     */
+    private Response searchPatients(String query, int limit) throws SQLException {
+        StringBuilder sb = new StringBuilder(1024).append("{\"items\":[");
+        List<PatientSearchIndex.Match> matches = Main.searchPatients(query, limit);
+        for (int i = 0; i < matches.size(); i++) {
+            PatientSearchIndex.Match m = matches.get(i);
+            sb.append(i == 0 ? "{" : ",{").append("\"PatientID\":").append(m.patientId()).append(",\"Name\":");
+            Json.appendString(sb, m.name());
+            sb.append(",\"Email\":");
+            Json.appendString(sb, m.email());
+            sb.append(",\"PhoneNumber\":");
+            Json.appendString(sb, m.phone());
+            sb.append(",\"rank\":").append(m.rank()).append('}');
+        }
+        return Response.json(200, sb.append("]}").toString());
+    }
+
+    private Response getPatient(int id) throws SQLException {
+        // RowVersion lets the client send it back with its update ("version") to detect lost edits.
+        String sql = "SELECT PatientID, Name, Birthdate, Email, PhoneNumber, Address, PlanID, RowVersion FROM Patient "
+                + "WHERE PatientID = ?";
+        StringBuilder sb = new StringBuilder(256);
+        try (Connection conn = source.get();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return Response.error(404, "No patient found with that ID.");
+                }
+                Json.appendRow(sb, rs, rs.getMetaData());
+            }
+        }
+        return Response.json(200, sb.toString());
+    }
+
+    private Response items(String sql, int limit, Object... params) throws SQLException {
+        StringBuilder sb = new StringBuilder(4096).append("{\"items\":[");
+        TableListing.RowHandler append = rowAppender(sb);
+        try (Connection conn = source.get();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            int idx = 1;
+            for (Object p : params) {
+                ps.setObject(idx++, p);
+            }
+            ps.setInt(idx, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    append.handle(rs);
+                }
+            }
+        }
+        return Response.json(200, sb.append("]}").toString());
+    }
+
+    private static TableListing.RowHandler rowAppender(StringBuilder sb) {
+        int start = sb.length();
+        ResultSetMetaData[] md = new ResultSetMetaData[1];
+        return rs -> {
+            if (md[0] == null) {
+                md[0] = rs.getMetaData();
+            }
+            if (sb.length() > start) {
+                sb.append(',');
+            }
+            Json.appendRow(sb, rs, md[0]);
+        };
+    }
+
+    private Response listDoctors(String filter) throws SQLException {
+        String f = filter == null ? null : filter.toLowerCase(Locale.ROOT);
+        StringBuilder sb = new StringBuilder(4096).append("{\"items\":[");
+        boolean first = true;
+        for (ReferenceCache.Doctor d : refs.allDoctors()) {
+            if (f != null && !d.name().toLowerCase(Locale.ROOT).contains(f)
+                    && !d.discipline().toLowerCase(Locale.ROOT).contains(f)) {
+                continue;
+            }
+            sb.append(first ? "" : ",").append(doctorJson(d));
+            first = false;
+        }
+        return Response.json(200, sb.append("]}").toString());
+    }
+
+    private Response listHospitals(String filter) throws SQLException {
+        String f = filter == null ? null : filter.toLowerCase(Locale.ROOT);
+        StringBuilder sb = new StringBuilder(1024).append("{\"items\":[");
+        boolean first = true;
+        for (ReferenceCache.Hospital h : refs.allHospitals()) {
+            if (f != null && !h.name().toLowerCase(Locale.ROOT).contains(f)) {
+                continue;
+            }
+            sb.append(first ? "" : ",").append(hospitalJson(h));
+            first = false;
+        }
+        return Response.json(200, sb.append("]}").toString());
+    }
+
+    private static String doctorJson(ReferenceCache.Doctor d) {
+        return "{\"DoctorID\":" + d.id() + ",\"Name\":" + Json.quote(d.name())
+                + ",\"Discipline\":" + Json.quote(d.discipline()) + ",\"Email\":" + Json.quote(d.email())
+                + ",\"PhoneNumber\":" + Json.quote(d.phone()) + "}";
+    }
+
+    private static String hospitalJson(ReferenceCache.Hospital h) {
+        return "{\"HospitalID\":" + h.id() + ",\"Name\":" + Json.quote(h.name())
+                + ",\"Address\":" + Json.quote(h.address()) + ",\"PhoneNumber\":" + Json.quote(h.phone()) + "}";
+    }
+
+    private Response stats() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(router.primaryPool().stats()).append('\n')
+          .append(router.statsSummary()).append('\n')
+          .append(audit.stats()).append('\n')
+          .append(StatementCache.statsSummary()).append('\n')
+          .append(ReferenceCache.statsSummary()).append('\n')
+          .append("http: ").append(inFlight.availablePermits()).append(" free in-flight slot(s), ")
+          .append(inFlight.getQueueLength()).append(" waiting\n");
+        if (metrics != null) {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            PrintStream ps = new PrintStream(buf, true, StandardCharsets.UTF_8);
+            metrics.print(ps);
+            ps.flush();
+            sb.append(buf.toString(StandardCharsets.UTF_8));
+        }
+        return new Response(200, sb.toString(), "text/plain; charset=utf-8");
+    }
+
+    // ===== Writes =====
+
+    private Response insertMedication(Map<String, Object> b) throws SQLException {
+        int rows = Main.insertMedication(requiredInt(b, "patientId"), requiredInt(b, "doctorId"),
+                requiredString(b, "name"), requiredDouble(b, "cost"), requiredString(b, "status"),
+                requiredString(b, "dosage"), requiredString(b, "frequency"), optionalInt(b, "planId"));
+        return rowsResponse(201, rows);
+    }
+
+    private Response updatePatient(int id, Map<String, Object> b) throws SQLException {
+        Main.PatientRecord p = Main.loadPatient(id);
+        if (p == null) {
+            return Response.error(404, "No patient found with that ID.");
+        }
+        Main.PatientRecord[] edit = patientEdit(p, b);
+        Main.UpdateResult r = Main.updatePatient(edit[0], edit[1]);
+        return switch (r.status()) {
+            case NOT_FOUND -> Response.error(404, "No patient found with that ID.");
+            case CONFLICT -> Response.json(409, "{\"error\":" + Json.quote("Patient " + id + " was changed by someone else")
+                    + ",\"version\":" + r.version() + "}");
+            default -> Response.json(200, updateResultJson(new StringBuilder(), r).toString());
+        };
+    }
+
+    /**
+     * Body is {"updates":[{"id":4,"version":2,"planId":5}, ...]}; applied in statement batches,
+     * each patient reported on its own (UPDATED, UNCHANGED, NOT_FOUND, CONFLICT).
+     */
+    @SuppressWarnings("unchecked")
+    private Response updatePatients(Map<String, Object> b) throws SQLException {
+        if (!(b.get("updates") instanceof List<?> list)) {
+            throw new IllegalArgumentException("updates must be a list of objects");
+        }
+        List<Integer> ids = new ArrayList<>();
+        for (Object o : list) {
+            if (!(o instanceof Map)) {
+                throw new IllegalArgumentException("updates must be a list of objects");
+            }
+            ids.add(requiredInt((Map<String, Object>) o, "id"));
+        }
+        Map<Integer, Main.PatientRecord> current = Main.loadPatients(ids);
+        // results[i] answers updates[i]; positions remembers where each edit came from.
+        Main.UpdateResult[] results = new Main.UpdateResult[list.size()];
+        List<Main.PatientRecord[]> edits = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < list.size(); i++) {
+            Main.PatientRecord p = current.get(ids.get(i));
+            if (p == null) {
+                results[i] = new Main.UpdateResult(ids.get(i), Main.UpdateStatus.NOT_FOUND, List.of(), -1);
+            } else {
+                edits.add(patientEdit(p, (Map<String, Object>) list.get(i)));
+                positions.add(i);
+            }
+        }
+        List<Main.UpdateResult> applied = Main.updatePatients(edits);
+        for (int j = 0; j < applied.size(); j++) {
+            results[positions.get(j)] = applied.get(j);
+        }
+        StringBuilder sb = new StringBuilder(64 * list.size()).append("{\"results\":[");
+        int updated = 0;
+        int conflicts = 0;
+        for (int i = 0; i < results.length; i++) {
+            Main.UpdateResult r = results[i];
+            updated += r.status() == Main.UpdateStatus.UPDATED ? 1 : 0;
+            conflicts += r.status() == Main.UpdateStatus.CONFLICT ? 1 : 0;
+            updateResultJson(sb.append(i == 0 ? "" : ","), r);
+        }
+        sb.append("],\"updated\":").append(updated).append(",\"conflicts\":").append(conflicts).append('}');
+        return Response.json(200, sb.toString());
+    }
+
+    /**
+     * {before, after} for one patient. Fields left out of the body keep their current value; an explicit null
+     * clears the column. "version" is the RowVersion the client read; without it the current one is used.
+     */
+    private static Main.PatientRecord[] patientEdit(Main.PatientRecord p, Map<String, Object> b) {
+        String name = b.containsKey("name") ? requiredString(b, "name") : p.name();
+        Date birthdate = p.birthdate();
+        if (b.containsKey("birthdate")) {
+            Object v = b.get("birthdate");
+            birthdate = v == null ? null : Date.valueOf(v.toString());
+        }
+        String email = b.containsKey("email") ? stringOrNull(b, "email") : p.email();
+        String phone = b.containsKey("phone") ? stringOrNull(b, "phone") : p.phone();
+        String address = b.containsKey("address") ? stringOrNull(b, "address") : p.address();
+        Integer planId = b.containsKey("planId") ? optionalInt(b, "planId") : p.planId();
+        int version = b.containsKey("version") ? requiredInt(b, "version") : p.version();
+
+        Main.PatientRecord before = new Main.PatientRecord(p.id(), p.name(), p.birthdate(), p.email(), p.phone(),
+                p.address(), p.planId(), version);
+        return new Main.PatientRecord[]{before,
+                new Main.PatientRecord(p.id(), name, birthdate, email, phone, address, planId, version)};
+    }
+
+    private static StringBuilder updateResultJson(StringBuilder sb, Main.UpdateResult r) {
+        sb.append("{\"id\":").append(r.id())
+          .append(",\"status\":\"").append(r.status()).append('"')
+          .append(",\"rows\":").append(r.status() == Main.UpdateStatus.UPDATED ? 1 : 0)
+          .append(",\"version\":").append(r.version())
+          .append(",\"columns\":[");
+        for (int i = 0; i < r.columns().size(); i++) {
+            sb.append(i == 0 ? "" : ",");
+            Json.appendString(sb, r.columns().get(i));
+        }
+        return sb.append("]}");
+    }
+
+    /**
+     * Body is one appointment, or {"appointments":[...]} for many: 201 when all were booked, 200 when
+     * some were, 409 when none were. Each item reports BOOKED, CONFLICT, INVALID or ROLLED_BACK.
+     */
+    @SuppressWarnings("unchecked")
+    private Response schedule(Map<String, Object> b) throws SQLException {
+        if (!(b.get("appointments") instanceof List<?> list)) {
+            Main.scheduleAppointment(requiredInt(b, "patientId"), requiredInt(b, "doctorId"),
+                    requiredInt(b, "hospitalId"), requiredString(b, "date"), requiredString(b, "time"),
+                    requiredString(b, "reason"), requiredDouble(b, "cost"));
+            return rowsResponse(201, 1);
+        }
+        List<AppointmentScheduler.Request> requests = new ArrayList<>();
+        for (Object o : list) {
+            if (!(o instanceof Map)) {
+                throw new IllegalArgumentException("appointments must be a list of objects");
+            }
+            Map<String, Object> a = (Map<String, Object>) o;
+            requests.add(new AppointmentScheduler.Request(requiredInt(a, "patientId"), requiredInt(a, "doctorId"),
+                    requiredInt(a, "hospitalId"), requiredString(a, "date"), requiredString(a, "time"),
+                    requiredString(a, "reason"), requiredDouble(a, "cost")));
+        }
+        if (requests.isEmpty()) {
+            throw new IllegalArgumentException("appointments is empty");
+        }
+        Object allOrNothing = b.get("allOrNothing");
+        if (allOrNothing != null && !(allOrNothing instanceof Boolean)) {
+            throw new IllegalArgumentException("allOrNothing must be true or false");
+        }
+
+        AppointmentScheduler.Result r = Main.scheduleAppointments(requests, Boolean.TRUE.equals(allOrNothing));
+        long booked = r.count(AppointmentScheduler.Status.BOOKED);
+        StringBuilder sb = new StringBuilder(64 + r.items().size() * 48);
+        sb.append("{\"committed\":").append(r.committed())
+          .append(",\"rows\":").append(booked)
+          .append(",\"calls\":").append(r.calls())
+          .append(",\"items\":[");
+        for (int i = 0; i < r.items().size(); i++) {
+            AppointmentScheduler.Item item = r.items().get(i);
+            sb.append(i == 0 ? "{" : ",{").append("\"index\":").append(i)
+              .append(",\"status\":\"").append(item.status()).append('"');
+            if (item.message() != null) {
+                sb.append(",\"message\":");
+                Json.appendString(sb, item.message());
+            }
+            sb.append('}');
+        }
+        sb.append("]}");
+        return Response.json(booked == r.items().size() ? 201 : booked > 0 ? 200 : 409, sb.toString());
+    }
+
+    /**
+     * Body is one transfer object, or {"transfers":[...]} for several doctors in one transaction.
+     */
+    @SuppressWarnings("unchecked")
+    private Response transfer(Map<String, Object> b) throws SQLException {
+        List<Map<String, Object>> items = new ArrayList<>();
+        if (b.get("transfers") instanceof List<?> list) {
+            for (Object o : list) {
+                if (!(o instanceof Map)) {
+                    throw new IllegalArgumentException("transfers must be a list of objects");
+                }
+                items.add((Map<String, Object>) o);
+            }
+        } else {
+            items.add(b);
+        }
+        List<DoctorTransferService.Transfer> transfers = new ArrayList<>();
+        for (Map<String, Object> t : items) {
+            transfers.add(new DoctorTransferService.Transfer(requiredInt(t, "doctorId"),
+                    requiredInt(t, "fromHospitalId"), requiredInt(t, "toHospitalId")));
+        }
+
+        DoctorTransferService.Result r = Main.transferDoctors(transfers, false);
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("{\"committed\":").append(r.committed())
+          .append(",\"linkRows\":").append(r.linkRows())
+          .append(",\"appointmentRows\":").append(r.appointmentRows())
+          .append(",\"attempts\":").append(r.attempts())
+          .append(",\"problems\":[");
+        for (int i = 0; i < r.problems().size(); i++) {
+            sb.append(i == 0 ? "" : ",");
+            Json.appendString(sb, r.problems().get(i));
+        }
+        sb.append("]}");
+        return Response.json(r.problems().isEmpty() ? 200 : 409, sb.toString());
+    }
+
+    private static Response rowsResponse(int status, int rows) {
+        return Response.json(status, "{\"rows\":" + rows + "}");
+    }
+
+    // ===== Request helpers =====
+
+    private static String[] segments(String path) {
+        String trimmed = path.replaceAll("^/+|/+$", "");
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("/+");
+    }
+
+    private static int id(String[] seg) {
+        return parseInt(seg[1], "id");
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> q = new HashMap<>();
+        if (raw == null || raw.isEmpty()) {
+            return q;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            q.put(key, value);
+        }
+        return q;
+    }
+
+    private int limit(Map<String, String> q) {
+        String v = q.get("limit");
+        return v == null ? Math.min(50, maxLimit) : Math.max(1, Math.min(maxLimit, parseInt(v, "limit")));
+    }
+
+    private static int intParam(Map<String, String> q, String name) {
+        return parseInt(q.get(name), name);
+    }
+
+    private static int parseInt(String s, String name) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a whole number");
+        }
+    }
+
+    private static Map<String, Object> body(HttpExchange ex) throws IOException {
+        try (InputStream in = ex.getRequestBody()) {
+            byte[] bytes = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (bytes.length > MAX_BODY_BYTES) {
+                throw new IllegalArgumentException("Request body larger than " + MAX_BODY_BYTES + " bytes");
+            }
+            return Json.parseObject(new String(bytes, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static int requiredInt(Map<String, Object> b, String key) {
+        Object v = b.get(key);
+        if (v instanceof Long l && l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) {
+            return l.intValue();
+        }
+        if (v instanceof String s) {
+            return parseInt(s, key);
+        }
+        throw new IllegalArgumentException(key + " is required and must be a whole number");
+    }
+
+    private static Integer optionalInt(Map<String, Object> b, String key) {
+        return b.get(key) == null ? null : requiredInt(b, key);
+    }
+
+    private static double requiredDouble(Map<String, Object> b, String key) {
+        Object v = b.get(key);
+        if (v instanceof Number n) {
+            return n.doubleValue();
+        }
+        throw new IllegalArgumentException(key + " is required and must be a number");
+    }
+
+    private static String requiredString(Map<String, Object> b, String key) {
+        Object v = b.get(key);
+        if (v instanceof String s && !s.isBlank()) {
+            return s.trim();
+        }
+        throw new IllegalArgumentException(key + " is required");
+    }
+
+    private static String stringOrNull(Map<String, Object> b, String key) {
+        Object v = b.get(key);
+        return v == null ? null : v.toString();
+    }
+
+    private static void send(HttpExchange ex, Response r) throws IOException {
+        byte[] bytes = r.body().getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", r.contentType());
+        if (r.status() == 503) {
+            ex.getResponseHeaders().set("Retry-After", "1");
+        }
+        ex.sendResponseHeaders(r.status(), bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream os = ex.getResponseBody()) {
+                os.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,289 @@
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Properties;
+
+/**
+ * Moves appointments dated before a cutoff from Appointment to AppointmentArchive, and deletes
+ * patients with long histories a chunk at a time.
+ * <p>
+ * Archival walks PatientID ranges. Each range is one short REPEATABLE READ transaction: copy the
+ * range's old rows, delete them, commit. The range is sent as PatientID IN (...) rather than
+ * BETWEEN: with the primary key starting (PatientID, ApptDate), that makes each patient its own
+ * index range ending at the cutoff, so only old rows are read and locked, never a patient's
+ * upcoming bookings. The span of the next range is adjusted so chunks hold about
+ * archive.chunkRows rows and finish within archive.maxChunkMs. Between chunks
+ * the job sleeps archive.pauseMs. Chunks wait at most archive.lockWaitSeconds for a lock. A chunk
+ * that times out or deadlocks is rolled back and retried on a smaller range, so live scheduling
+ * always gets its locks first.
+ */
+final class AppointmentArchiver {
+
+    /**
+     * Totals of one run.
+     */
+    record Result(long rows, int chunks, int retries, long elapsedNanos) {
+        double rowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+        }
+    }
+
+    /**
+     * Receives progress after every committed chunk; return false to stop after it.
+     */
+    @FunctionalInterface
+    interface Progress {
+        boolean chunkDone(int lastPatientId, int maxPatientId, long rowsSoFar);
+    }
+
+    private static final String COLUMNS = "PatientID, DoctorID, HospitalID, ApptDate, ApptTime, VisitReason, Cost, PlanID";
+    private static final int MAX_SPAN = 1000; // patient IDs per IN list
+
+    // An appointment archived earlier and booked again at the same time replaces the old copy.
+    private static String copySql(int ids) {
+        return "INSERT INTO AppointmentArchive (" + COLUMNS + ") SELECT " + COLUMNS + " FROM Appointment "
+                + "WHERE PatientID IN (" + placeholders(ids) + ") AND ApptDate < ? "
+                + "ON DUPLICATE KEY UPDATE DoctorID = VALUES(DoctorID), HospitalID = VALUES(HospitalID), "
+                + "VisitReason = VALUES(VisitReason), Cost = VALUES(Cost), PlanID = VALUES(PlanID), ArchivedAt = NOW()";
+    }
+
+    private static String removeSql(int ids) {
+        return "DELETE FROM Appointment WHERE PatientID IN (" + placeholders(ids) + ") AND ApptDate < ?";
+    }
+
+    private final ConnectionSource source;
+    private final int chunkRows;
+    private final long maxChunkMs;
+    private final long pauseMs;
+    private final int lockWaitSeconds;
+    private final int maxRetries;
+
+    AppointmentArchiver(ConnectionSource source, int chunkRows, long maxChunkMs, long pauseMs, int lockWaitSeconds,
+                        int maxRetries) {
+        this.source = source;
+        this.chunkRows = Math.max(1, chunkRows);
+        this.maxChunkMs = Math.max(1, maxChunkMs);
+        this.pauseMs = Math.max(0, pauseMs);
+        this.lockWaitSeconds = Math.max(1, lockWaitSeconds);
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    static AppointmentArchiver fromProperties(Properties props, ConnectionSource source) {
+        return new AppointmentArchiver(source,
+                ConnectionPool.intProp(props, "archive.chunkRows", 2000),
+                ConnectionPool.longProp(props, "archive.maxChunkMs", 200),
+                ConnectionPool.longProp(props, "archive.pauseMs", 50),
+                ConnectionPool.intProp(props, "archive.lockWaitSeconds", 2),
+                ConnectionPool.intProp(props, "archive.maxRetries", 5));
+    }
+
+    /**
+     * Cutoff for archive.olderThanDays (default two years) before today.
+     */
+    static LocalDate defaultCutoff(Properties props) {
+        return LocalDate.now().minusDays(ConnectionPool.intProp(props, "archive.olderThanDays", 730));
+    }
+
+    // ===== Archival =====
+
+    /**
+     * Archives every appointment dated before cutoff.
+     */
+    Result archive(LocalDate cutoff, Progress progress) throws SQLException {
+        long start = System.nanoTime();
+        Date before = Date.valueOf(cutoff);
+        long rows = 0;
+        int chunks = 0;
+        int retries = 0;
+        try (Connection conn = source.get()) {
+            int[] range = patientRange(conn, before);
+            if (range == null) {
+                return new Result(0, 0, 0, System.nanoTime() - start);
+            }
+            int avgRows = Math.max(1, averageRowsPerPatient(conn, before, range));
+            long span = Math.min(MAX_SPAN, Math.max(1, chunkRows / avgRows));
+            int failures = 0;
+            boolean autoCommit = conn.getAutoCommit();
+            int isolation = conn.getTransactionIsolation();
+            setLockWait(conn, lockWaitSeconds);
+            // Gap locks keep an old-dated booking from slipping in between the copy and the delete.
+            conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            conn.setAutoCommit(false);
+            try {
+                int lo = range[0];
+                while (lo <= range[1]) {
+                    int hi = (int) Math.min(range[1], lo + span - 1);
+                    long chunkStart = System.nanoTime();
+                    int moved;
+                    try {
+                        moved = moveChunk(conn, lo, hi, before);
+                        conn.commit();
+                    } catch (SQLException e) {
+                        conn.rollback();
+                        if (!DoctorTransferService.isRetryable(e) || ++failures > maxRetries) {
+                            throw e;
+                        }
+                        retries++;
+                        span = Math.max(1, span / 4); // smaller range, fewer locks to wait for
+                        sleep(pauseMs * (1L << Math.min(failures, 6)));
+                        continue;
+                    }
+                    failures = 0;
+                    rows += moved;
+                    chunks++;
+                    span = nextSpan(span, moved, (System.nanoTime() - chunkStart) / 1_000_000);
+                    lo = hi + 1;
+                    if (progress != null && !progress.chunkDone(hi, range[1], rows)) {
+                        break;
+                    }
+                    sleep(pauseMs);
+                }
+            } finally {
+                conn.setAutoCommit(autoCommit);
+                conn.setTransactionIsolation(isolation);
+                setLockWait(conn, -1);
+            }
+        }
+        return new Result(rows, chunks, retries, System.nanoTime() - start);
+    }
+
+    private static int moveChunk(Connection conn, int lo, int hi, Date before) throws SQLException {
+        int ids = hi - lo + 1;
+        try (PreparedStatement copy = conn.prepareStatement(copySql(ids));
+             PreparedStatement remove = conn.prepareStatement(removeSql(ids))) {
+            bindRange(copy, lo, hi, before);
+            copy.executeUpdate();
+            bindRange(remove, lo, hi, before);
+            return remove.executeUpdate();
+        }
+    }
+
+    private static void bindRange(PreparedStatement ps, int lo, int hi, Date before) throws SQLException {
+        int idx = 1;
+        for (int id = lo; id <= hi; id++) {
+            ps.setInt(idx++, id);
+        }
+        ps.setDate(idx, before);
+    }
+
+    private static String placeholders(int n) {
+        return "?" + ", ?".repeat(n - 1);
+    }
+
+    // Aim for chunkRows rows, but shrink whenever a chunk ran over maxChunkMs; grow at most 2x per step.
+    private long nextSpan(long span, int moved, long chunkMs) {
+        double byRows = moved == 0 ? 2.0 : (double) chunkRows / moved;
+        double byTime = chunkMs <= 0 ? 2.0 : (double) maxChunkMs / chunkMs;
+        double factor = Math.min(2.0, Math.min(byRows, byTime));
+        return Math.min(MAX_SPAN, Math.max(1, (long) (span * Math.max(0.25, factor))));
+    }
+
+    private static int[] patientRange(Connection conn, Date before) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT MIN(PatientID), MAX(PatientID) FROM Appointment WHERE ApptDate < ?")) {
+            ps.setDate(1, before);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                int min = rs.getInt(1);
+                return rs.wasNull() ? null : new int[]{min, rs.getInt(2)};
+            }
+        }
+    }
+
+    // Old rows per patient ID in the first slice of the range, to size the first chunk.
+    private int averageRowsPerPatient(Connection conn, Date before, int[] range) throws SQLException {
+        int hi = (int) Math.min(range[1], (long) range[0] + 99);
+        try (PreparedStatement ps = conn.prepareStatement(
+                "SELECT COUNT(*) FROM Appointment WHERE PatientID BETWEEN ? AND ? AND ApptDate < ?")) {
+            ps.setInt(1, range[0]);
+            ps.setInt(2, hi);
+            ps.setDate(3, before);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return (int) Math.ceil(rs.getLong(1) / (double) (hi - range[0] + 1));
+            }
+        }
+    }
+
+    // ===== Chunked patient delete =====
+
+    /**
+     * Deletes one patient's appointments and medications chunkRows at a time, each chunk its own
+     * transaction, then the patient row itself. Medication rows go through Med_AD_Summary on the way,
+     * so PatientMedicationSummary stays right while the delete is under way.
+     *
+     * @return rows deleted from Patient (0 when there was no such patient)
+     */
+    int deletePatient(int patientId) throws SQLException {
+        try (Connection conn = source.get()) {
+            setLockWait(conn, lockWaitSeconds);
+            try {
+                deleteInChunks(conn, "DELETE FROM Appointment WHERE PatientID = ? ORDER BY ApptDate, ApptTime LIMIT ?",
+                        patientId);
+                deleteInChunks(conn, "DELETE FROM Medication WHERE PatientID = ? ORDER BY MedicationID LIMIT ?",
+                        patientId);
+                // Anything booked meanwhile goes with the patient through the FK cascade.
+                try (PreparedStatement ps = conn.prepareStatement("DELETE FROM Patient WHERE PatientID = ?")) {
+                    ps.setInt(1, patientId);
+                    return ps.executeUpdate();
+                }
+            } finally {
+                setLockWait(conn, -1);
+            }
+        }
+    }
+
+    private void deleteInChunks(Connection conn, String sql, int patientId) throws SQLException {
+        int failures = 0;
+        int limit = chunkRows;
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            while (true) {
+                ps.setInt(1, patientId);
+                ps.setInt(2, limit);
+                int deleted;
+                try {
+                    deleted = ps.executeUpdate(); // autocommit: one transaction per chunk
+                } catch (SQLException e) {
+                    if (!DoctorTransferService.isRetryable(e) || ++failures > maxRetries) {
+                        throw e;
+                    }
+                    limit = Math.max(1, limit / 4);
+                    sleep(pauseMs * (1L << Math.min(failures, 6)));
+                    continue;
+                }
+                if (deleted < limit) {
+                    return;
+                }
+                failures = 0;
+                sleep(pauseMs);
+            }
+        }
+    }
+
+    // ===== Helpers =====
+
+    // seconds < 0 restores the server default before the connection goes back to the pool.
+    private static void setLockWait(Connection conn, int seconds) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.execute(seconds < 0
+                    ? "SET SESSION innodb_lock_wait_timeout = DEFAULT"
+                    : "SET SESSION innodb_lock_wait_timeout = " + seconds);
+        }
+    }
+
+    private static void sleep(long ms) throws SQLException {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted between archive chunks", e);
+        }
+    }
+}
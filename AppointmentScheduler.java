@@ -0,0 +1,283 @@
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Books many appointments through schedule_appointments: one call per schedule.batchSize items instead
+ * of one schedule_appointment call each. The server inserts every item on its own, so a taken slot
+ * fails only that item, and each item comes back BOOKED, CONFLICT or INVALID.
+ * <p>
+ * Each call is one transaction, retried on deadlock or lock wait timeout. In all-or-nothing mode
+ * (a recurring series) every call runs in a single transaction that commits only if every item was
+ * booked; otherwise nothing is, and the report still shows which items were in the way.
+ */
+final class AppointmentScheduler {
+
+    record Request(int patientId, int doctorId, int hospitalId, String date, String time, String reason, double cost) {
+    }
+
+    /**
+     * ROLLED_BACK: would have been booked, but all-or-nothing undid it. FAILED: not attempted because
+     * an earlier call failed outright.
+     */
+    enum Status { BOOKED, CONFLICT, INVALID, ROLLED_BACK, FAILED }
+
+    record Item(Request request, Status status, String message) {
+        // The doctor's slot is taken (uq_doctor_slot), rather than the patient being busy at that time.
+        boolean slotTaken() {
+            return status == Status.CONFLICT && message.startsWith(DOCTOR_BUSY);
+        }
+    }
+
+    /**
+     * Items in request order. calls counts round trips to schedule_appointments, attempts includes retries.
+     */
+    record Result(List<Item> items, boolean committed, int calls, int attempts, long elapsedNanos) {
+        long count(Status status) {
+            return items.stream().filter(i -> i.status() == status).count();
+        }
+    }
+
+    private static final String CALL = "{ CALL schedule_appointments(?) }";
+    private static final String DOCTOR_BUSY = "Doctor busy: ";
+    private static final int ER_BAD_NULL = 1048;
+    private static final int ER_DUP_ENTRY = 1062;
+    static final int ER_NO_REFERENCED_ROW = 1452;
+    private static final int ER_CHECK_CONSTRAINT_VIOLATED = 3819;
+
+    private final ConnectionSource source;
+    private final int batchSize;
+    private final int maxRetries;
+    private final long backoffMs;
+
+    AppointmentScheduler(ConnectionSource source, int batchSize, int maxRetries, long backoffMs) {
+        this.source = source;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.backoffMs = Math.max(1, backoffMs);
+    }
+
+    static AppointmentScheduler fromProperties(Properties props, ConnectionSource source) {
+        return new AppointmentScheduler(source,
+                ConnectionPool.intProp(props, "schedule.batchSize", 500),
+                ConnectionPool.intProp(props, "schedule.maxRetries", 3),
+                ConnectionPool.longProp(props, "schedule.retryBackoffMs", 50));
+    }
+
+    /**
+     * count appointments for one patient, every intervalDays from first at the same time.
+     *
+     * @throws IllegalArgumentException when first is not a YYYY-MM-DD date
+     */
+    static List<Request> series(int patientId, int doctorId, int hospitalId, String first, String time, String reason,
+                                double cost, int count, int intervalDays) {
+        LocalDate date;
+        try {
+            date = LocalDate.parse(first);
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("Date must be YYYY-MM-DD: " + first);
+        }
+        if (count < 1 || intervalDays < 1) {
+            throw new IllegalArgumentException("A series needs at least one appointment and an interval of at least one day.");
+        }
+        List<Request> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            requests.add(new Request(patientId, doctorId, hospitalId, date.plusDays((long) i * intervalDays).toString(),
+                    time, reason, cost));
+        }
+        return requests;
+    }
+
+    /**
+     * Books what it can (or, with allOrNothing, everything or nothing) and reports every item.
+     *
+     * @throws SQLException when the first call fails outright (nothing was booked); a later failure
+     *                      leaves the items it did not reach FAILED instead
+     */
+    Result schedule(List<Request> requests, boolean allOrNothing) throws SQLException {
+        long start = System.nanoTime();
+        Item[] items = new Item[requests.size()];
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            String problem = check(requests.get(i));
+            if (problem != null) {
+                items[i] = new Item(requests.get(i), Status.INVALID, problem);
+            } else {
+                pending.add(i);
+            }
+        }
+
+        int[] counters = new int[2]; // calls, attempts
+        boolean committed;
+        if (allOrNothing) {
+            committed = withRetries(counters, () -> runAtomic(requests, pending, items, counters));
+        } else {
+            committed = true;
+            for (int from = 0; from < pending.size(); from += batchSize) {
+                List<Integer> chunk = pending.subList(from, Math.min(pending.size(), from + batchSize));
+                try {
+                    withRetries(counters, () -> runChunk(requests, chunk, items, counters));
+                } catch (SQLException e) {
+                    if (from == 0) {
+                        throw e;
+                    }
+                    for (int i : pending.subList(from, pending.size())) {
+                        items[i] = new Item(requests.get(i), Status.FAILED, e.getMessage());
+                    }
+                    break;
+                }
+            }
+        }
+        return new Result(Arrays.asList(items), committed, counters[0], counters[1], System.nanoTime() - start);
+    }
+
+    // Cheap checks first, so a bad line never costs a round trip or reaches the JSON as a null.
+    // Doctors and hospitals are left to the FKs on the primary: a cached or replica lookup could
+    // still miss one created a moment ago.
+    private static String check(Request r) {
+        try {
+            LocalDate.parse(r.date());
+        } catch (DateTimeException e) {
+            return "Date must be YYYY-MM-DD: " + r.date();
+        }
+        try {
+            LocalTime.parse(r.time());
+        } catch (DateTimeException e) {
+            return "Time must be HH:MM or HH:MM:SS: " + r.time();
+        }
+        return null;
+    }
+
+    private interface Attempt {
+        boolean run() throws SQLException;
+    }
+
+    private boolean withRetries(int[] counters, Attempt attempt) throws SQLException {
+        return DoctorTransferService.withRetries(maxRetries, backoffMs, "appointment scheduling", n -> {
+            counters[1]++;
+            return attempt.run();
+        });
+    }
+
+    private boolean runChunk(List<Request> requests, List<Integer> chunk, Item[] items, int[] counters)
+            throws SQLException {
+        try (Connection conn = source.get()) {
+            conn.setAutoCommit(false);
+            try {
+                call(conn, requests, chunk, items, counters);
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private boolean runAtomic(List<Request> requests, List<Integer> pending, Item[] items, int[] counters)
+            throws SQLException {
+        try (Connection conn = source.get()) {
+            conn.setAutoCommit(false);
+            try {
+                for (int from = 0; from < pending.size(); from += batchSize) {
+                    call(conn, requests, pending.subList(from, Math.min(pending.size(), from + batchSize)), items, counters);
+                }
+                if (Arrays.stream(items).allMatch(i -> i != null && i.status() == Status.BOOKED)) {
+                    conn.commit();
+                    return true;
+                }
+                conn.rollback();
+                for (int i = 0; i < items.length; i++) {
+                    if (items[i] != null && items[i].status() == Status.BOOKED) {
+                        items[i] = new Item(items[i].request(), Status.ROLLED_BACK, "Not booked: another item in the series failed.");
+                    }
+                }
+                return false;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    // One schedule_appointments round trip for the chunk; fills in its items.
+    private static void call(Connection conn, List<Request> requests, List<Integer> chunk, Item[] items,
+                             int[] counters) throws SQLException {
+        StringBuilder json = new StringBuilder(chunk.size() * 128).append('[');
+        for (int k = 0; k < chunk.size(); k++) {
+            Request r = requests.get(chunk.get(k));
+            json.append(k == 0 ? "{" : ",{")
+                .append("\"patient\":").append(r.patientId())
+                .append(",\"doctor\":").append(r.doctorId())
+                .append(",\"hospital\":").append(r.hospitalId())
+                .append(",\"date\":");
+            Json.appendString(json, r.date());
+            json.append(",\"time\":");
+            Json.appendString(json, r.time());
+            json.append(",\"reason\":");
+            Json.appendString(json, r.reason());
+            json.append(",\"cost\":").append(String.format(Locale.ROOT, "%.2f", r.cost())).append('}');
+        }
+        json.append(']');
+
+        counters[0]++;
+        try (CallableStatement cs = conn.prepareCall(CALL)) {
+            cs.setString(1, json.toString());
+            if (!cs.execute()) {
+                throw new SQLException("schedule_appointments returned no result set");
+            }
+            try (ResultSet rs = cs.getResultSet()) {
+                while (rs.next()) {
+                    int i = chunk.get(rs.getInt(1) - 1);
+                    items[i] = item(requests.get(i), rs.getInt(2), rs.getString(3));
+                }
+            }
+        }
+    }
+
+    private static Item item(Request r, int errno, String message) {
+        return switch (errno) {
+            case 0 -> new Item(r, Status.BOOKED, null);
+            case ER_DUP_ENTRY -> new Item(r, Status.CONFLICT, message != null && message.contains("uq_doctor_slot")
+                    ? DOCTOR_BUSY + "DoctorID " + r.doctorId() + " is already booked at that time."
+                    : "Patient " + r.patientId() + " already has an appointment at that time.");
+            case ER_NO_REFERENCED_ROW -> new Item(r, Status.INVALID, missingReference(message));
+            case ER_CHECK_CONSTRAINT_VIOLATED -> new Item(r, Status.INVALID, "Cost must be between 0 and 5000.");
+            case ER_BAD_NULL -> new Item(r, Status.INVALID, message);
+            default -> new Item(r, Status.INVALID, "Error " + errno + ": " + message);
+        };
+    }
+
+    /**
+     * The user-facing text for a foreign key failure (error 1452) on Appointment or Medication,
+     * named after the table the missing row belongs in; also used by Main's single inserts.
+     */
+    static String missingReference(String message) {
+        if (message == null) {
+            return "Unknown patient, doctor, hospital or plan.";
+        }
+        if (message.contains("REFERENCES `Patient`")) {
+            return "No patient found with that ID.";
+        }
+        if (message.contains("REFERENCES `Doctor`")) {
+            return "No doctor found with that ID.";
+        }
+        if (message.contains("REFERENCES `Hospital`")) {
+            return "No hospital found with that ID.";
+        }
+        return message.contains("REFERENCES `InsurancePlan`") ? "No insurance plan found with that ID." : message;
+    }
+}
@@ -0,0 +1,799 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Write-behind audit trail of clinical changes: who changed which patient, medication or appointment,
+ * with before/after images.
+ * <p>
+ * record() runs after the change has committed. It puts the event on a bounded lock-free queue and
+ * returns; the caller never makes a round trip for it. One writer thread takes whatever has queued up
+ * (up to audit.batchSize events) and group-commits it: audit.sink=file appends JSON lines to
+ * audit.file and forces them to disk once per batch, audit.sink=table inserts them into AuditLog as
+ * one batched transaction. audit.durability: none = no fsync; batch = fsync per batch,
+ * the caller does not wait; sync = the caller waits until its batch is on disk or committed. On a full queue,
+ * audit.overflow=block waits up to audit.blockTimeoutMs for room, drop gives up at once. Either way a
+ * lost event is counted and leaves a DROPPED record in the log.
+ */
+final class AuditLog implements AutoCloseable {
+
+    enum Sink { FILE, TABLE, OFF }
+
+    enum Durability { NONE, BATCH, SYNC }
+
+    enum Overflow { BLOCK, DROP }
+
+    /**
+     * One committed change for recordAll(); images as in record().
+     */
+    record Change(String action, String entity, Object key, Object[] before, Object[] after) {
+    }
+
+    /**
+     * Which events show() prints; null fields match everything.
+     */
+    record Filter(String entity, String key, String actor, Instant since) {
+        boolean matches(String entity, String key, String actor, Instant at) {
+            return (this.entity == null || this.entity.equalsIgnoreCase(entity))
+                    && (this.key == null || this.key.equals(key))
+                    && (this.actor == null || (actor != null && actor.contains(this.actor)))
+                    && (since == null || !at.isBefore(since));
+        }
+    }
+
+    /**
+     * What verify() found in a log file.
+     */
+    record FileCheck(long events, long firstSeq, long lastSeq, long gaps, long dropped, long badLines) {
+    }
+
+    /**
+     * Point-in-time view of the writer, for the stats screen.
+     */
+    record Stats(long published, long written, long dropped, long batches, long syncs, int queued,
+                 double avgBatch, double maxBatchMs, long failures) {
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "audit: published=%d written=%d dropped=%d queued=%d | batches=%d avgBatch=%.1f maxBatch=%.2fms "
+                            + "syncs=%d failures=%d", published, written, dropped, queued, batches, avgBatch,
+                    maxBatchMs, syncs, failures);
+        }
+    }
+
+    // One change. Images are alternating column names and values, turned into JSON by the writer.
+    private static final class Event {
+        final long timeMillis = System.currentTimeMillis();
+        final String actor;
+        final String action;
+        final String entity;
+        final String key;
+        final Object[] before; // null = no image
+        final Object[] after;
+        long seq; // assigned by the writer, in file order
+        volatile Thread waiter; // durability=sync
+        volatile boolean done;
+
+        Event(String actor, String action, String entity, String key, Object[] before, Object[] after) {
+            this.actor = actor;
+            this.action = action;
+            this.entity = entity;
+            this.key = key;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    private static final String INSERT = "INSERT INTO AuditLog "
+            + "(Origin, Seq, LoggedAt, Actor, Action, Entity, EntityKey, BeforeImage, AfterImage) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final ThreadLocal<String> boundActor = new ThreadLocal<>();
+
+    private final Sink sink;
+    private final Durability durability;
+    private final Overflow overflow;
+    private final int capacity;
+    private final int batchSize;
+    private final long blockTimeoutNanos;
+    private final Path file;
+    private final ConnectionSource source; // table sink
+    private final String origin;
+    private final String user;
+    private volatile String defaultActor;
+
+    private final ConcurrentLinkedQueue<Event> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Thread writer; // null when the sink is off
+    private volatile boolean closing;
+    private FileChannel channel; // file sink, writer thread only
+    private long nextSeq;
+    private long droppedLogged;
+
+    // ===== Stats =====
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong maxBatchNanos = new AtomicLong();
+
+    AuditLog(Sink sink, Durability durability, Overflow overflow, int capacity, int batchSize, long blockTimeoutMs,
+             Path file, ConnectionSource source, String origin, String user) throws IOException, SQLException {
+        this.sink = sink;
+        this.durability = durability;
+        this.overflow = overflow;
+        this.capacity = Math.max(1, capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, blockTimeoutMs));
+        this.file = file;
+        this.source = source;
+        this.origin = origin;
+        this.user = user;
+        this.defaultActor = user;
+        if (sink == Sink.OFF) {
+            this.writer = null;
+            return;
+        }
+        if (sink == Sink.FILE) {
+            nextSeq = openFile() + 1;
+        } else {
+            nextSeq = lastTableSeq() + 1;
+        }
+        this.writer = new Thread(this::runWriter, "audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Builds the log from the audit.* keys of app.properties; source is for audit.sink=table.
+     */
+    static AuditLog fromProperties(Properties props, ConnectionSource source) throws IOException, SQLException {
+        return new AuditLog(
+                option(props, "audit.sink", Sink.FILE),
+                option(props, "audit.durability", Durability.BATCH),
+                option(props, "audit.overflow", Overflow.BLOCK),
+                ConnectionPool.intProp(props, "audit.queueCapacity", 65_536),
+                ConnectionPool.intProp(props, "audit.batchSize", 1000),
+                ConnectionPool.longProp(props, "audit.blockTimeoutMs", 5000),
+                auditFile(props), source, origin(props),
+                props.getProperty("audit.actor", System.getProperty("user.name", "unknown")).trim());
+    }
+
+    static Path auditFile(Properties props) {
+        return Path.of(props.getProperty("audit.file", "audit/audit.log").trim());
+    }
+
+    // audit.origin, else the host name: names this installation's events in the AuditLog table.
+    static String origin(Properties props) {
+        String value = props.getProperty("audit.origin", "").trim();
+        if (!value.isEmpty()) {
+            return value;
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "local";
+        }
+    }
+
+    private static <E extends Enum<E>> E option(Properties props, String key, E defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(defaultValue.getDeclaringClass(), value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid value for " + key + ", using " + defaultValue.name().toLowerCase(Locale.ROOT));
+            return defaultValue;
+        }
+    }
+
+    Sink sink() {
+        return sink;
+    }
+
+    // ===== Actors =====
+
+    /**
+     * False with audit.sink=off; callers can skip work done only to build an image.
+     */
+    boolean enabled() {
+        return writer != null;
+    }
+
+    /**
+     * Sets the actor for threads with none bound to channel + ":" + audit.actor, e.g. "console:alice".
+     */
+    void setChannel(String channel) {
+        this.defaultActor = channel + ":" + user;
+    }
+
+    /**
+     * Makes actor this thread's (null unbinds) and returns the previous one, to restore afterwards.
+     */
+    static String bindActor(String actor) {
+        String previous = boundActor.get();
+        if (actor == null) {
+            boundActor.remove();
+        } else {
+            boundActor.set(actor);
+        }
+        return previous;
+    }
+
+    // ===== Publishing =====
+
+    /**
+     * Queues one committed change. before and after are alternating column names and values (null when
+     * there is no image); the values must not change afterwards.
+     */
+    void record(String action, String entity, Object key, Object[] before, Object[] after) {
+        if (writer == null) {
+            return;
+        }
+        Event e = publish(action, entity, key, before, after);
+        if (e != null && durability == Durability.SYNC) {
+            awaitWritten(e);
+        }
+    }
+
+    /**
+     * record() for many changes; with durability=sync the caller waits once, for the last of them.
+     */
+    void recordAll(List<Change> changes) {
+        if (writer == null) {
+            return;
+        }
+        Event last = null;
+        for (Change c : changes) {
+            Event e = publish(c.action(), c.entity(), c.key(), c.before(), c.after());
+            last = e != null ? e : last;
+        }
+        // One thread's events are taken off the queue in the order it put them on.
+        if (last != null && durability == Durability.SYNC) {
+            awaitWritten(last);
+        }
+    }
+
+    private Event publish(String action, String entity, Object key, Object[] before, Object[] after) {
+        String actor = boundActor.get();
+        Event e = new Event(actor != null ? actor : defaultActor, action, entity, String.valueOf(key), before, after);
+        if (durability == Durability.SYNC) {
+            e.waiter = Thread.currentThread();
+        }
+        if (!offer(e)) {
+            dropped.increment();
+            return null;
+        }
+        published.increment();
+        return e;
+    }
+
+    private boolean offer(Event e) {
+        long deadline = 0;
+        while (true) {
+            int n = queued.get();
+            if (n < capacity) {
+                if (queued.compareAndSet(n, n + 1)) {
+                    queue.offer(e);
+                    if (n == 0) {
+                        LockSupport.unpark(writer); // it may be idle
+                    }
+                    return true;
+                }
+                continue;
+            }
+            if (overflow == Overflow.DROP || closing) {
+                return false;
+            }
+            long now = System.nanoTime();
+            if (deadline == 0) {
+                deadline = now + blockTimeoutNanos;
+            } else if (now - deadline >= 0) {
+                return false;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(this, 50_000);
+        }
+    }
+
+    private void awaitWritten(Event e) {
+        long deadline = System.nanoTime() + Math.max(blockTimeoutNanos, TimeUnit.SECONDS.toNanos(1));
+        while (!e.done) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                System.err.println("Audit record for " + e.entity + " " + e.key
+                        + " is queued but not yet written; the change itself is committed.");
+                return;
+            }
+            LockSupport.parkNanos(e, left);
+        }
+    }
+
+    // ===== Writer =====
+
+    private void runWriter() {
+        List<Event> batch = new ArrayList<>(Math.min(batchSize, 4096));
+        while (true) {
+            Event e;
+            while (batch.size() < batchSize && (e = queue.poll()) != null) {
+                queued.decrementAndGet();
+                batch.add(e);
+            }
+            long lost = dropped.sum() - droppedLogged;
+            if (lost > 0) {
+                droppedLogged += lost;
+                batch.add(new Event("audit", "DROPPED", "AuditLog", "", null, new Object[]{"events", lost}));
+            }
+            if (batch.isEmpty()) {
+                if (closing) {
+                    return;
+                }
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    // Retries until the batch is written; meanwhile the queue fills and the overflow policy applies.
+    private void writeBatch(List<Event> batch) {
+        for (Event e : batch) {
+            e.seq = nextSeq++;
+        }
+        long backoffMs = 10;
+        boolean reported = false;
+        while (true) {
+            long start = System.nanoTime();
+            try {
+                if (sink == Sink.FILE) {
+                    appendToFile(batch);
+                } else {
+                    insertIntoTable(batch);
+                }
+                long elapsed = System.nanoTime() - start;
+                maxBatchNanos.accumulateAndGet(elapsed, Math::max);
+                batches.incrementAndGet();
+                written.addAndGet(batch.size());
+                if (reported) {
+                    System.err.println("Audit log writable again.");
+                }
+                for (Event e : batch) {
+                    e.done = true;
+                    Thread waiter = e.waiter;
+                    if (waiter != null) {
+                        LockSupport.unpark(waiter);
+                    }
+                }
+                return;
+            } catch (IOException | SQLException e) {
+                failures.incrementAndGet();
+                if (!reported) {
+                    System.err.println("Error writing audit log (retrying): " + e.getMessage());
+                    reported = true;
+                }
+                if (closing && backoffMs >= 1000) {
+                    System.err.println("Audit log: " + batch.size() + " event(s) could not be written before shutdown.");
+                    return;
+                }
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(backoffMs));
+                backoffMs = Math.min(1000, backoffMs * 2);
+            }
+        }
+    }
+
+    // ===== File sink =====
+
+    // Opens audit.file for appending, cutting off a line torn by a crash; returns the last seq in it.
+    private long openFile() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        long end = lastNewline(size); // the last complete line ends here
+        if (end + 1 < size) {
+            channel.truncate(end + 1); // torn last line
+        }
+        channel.position(channel.size());
+        if (end < 0) {
+            return 0;
+        }
+        long start = lastNewline(end) + 1;
+        if (end - start > Integer.MAX_VALUE) {
+            return 0;
+        }
+        ByteBuffer line = ByteBuffer.allocate((int) (end - start));
+        while (line.hasRemaining() && channel.read(line, start + line.position()) >= 0) {
+            // read the last line
+        }
+        try {
+            Object seq = Json.parseObject(new String(line.array(), StandardCharsets.UTF_8)).get("seq");
+            return seq instanceof Long l ? l : 0;
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    // Position of the last '\n' before the given one, or -1; reads backward 64 KB at a time, however long the line.
+    private long lastNewline(long before) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        for (long to = before; to > 0; ) {
+            long from = Math.max(0, to - buf.capacity());
+            buf.clear().limit((int) (to - from));
+            while (buf.hasRemaining() && channel.read(buf, from + buf.position()) >= 0) {
+                // fill the chunk
+            }
+            byte[] bytes = buf.array();
+            for (int i = (int) (to - from) - 1; i >= 0; i--) {
+                if (bytes[i] == '\n') {
+                    return from + i;
+                }
+            }
+            to = from;
+        }
+        return -1;
+    }
+
+    private void appendToFile(List<Event> batch) throws IOException {
+        StringBuilder sb = new StringBuilder(batch.size() * 256);
+        for (Event e : batch) {
+            appendLine(sb, e);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        long position = channel.position();
+        try {
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            if (durability != Durability.NONE) {
+                channel.force(false);
+                syncs.incrementAndGet();
+            }
+        } catch (IOException e) {
+            channel.truncate(position); // no half batch before the retry
+            channel.position(position);
+            throw e;
+        }
+    }
+
+    private static void appendLine(StringBuilder sb, Event e) {
+        sb.append("{\"seq\":").append(e.seq).append(",\"at\":\"").append(Instant.ofEpochMilli(e.timeMillis))
+          .append("\",\"actor\":");
+        Json.appendString(sb, e.actor);
+        sb.append(",\"action\":");
+        Json.appendString(sb, e.action);
+        sb.append(",\"entity\":");
+        Json.appendString(sb, e.entity);
+        sb.append(",\"key\":");
+        Json.appendString(sb, e.key);
+        sb.append(",\"before\":");
+        appendImage(sb, e.before);
+        sb.append(",\"after\":");
+        appendImage(sb, e.after);
+        sb.append("}\n");
+    }
+
+    private static void appendImage(StringBuilder sb, Object[] image) {
+        if (image == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('{');
+        for (int i = 0; i + 1 < image.length; i += 2) {
+            sb.append(i == 0 ? "" : ",");
+            Json.appendString(sb, (String) image[i]);
+            sb.append(':');
+            Json.appendValue(sb, image[i + 1]);
+        }
+        sb.append('}');
+    }
+
+    private static String image(Object[] image) {
+        if (image == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(128);
+        appendImage(sb, image);
+        return sb.toString();
+    }
+
+    // ===== Table sink =====
+
+    private long lastTableSeq() throws SQLException {
+        try (Connection conn = source.get();
+             PreparedStatement ps = conn.prepareStatement("SELECT MAX(Seq) FROM AuditLog WHERE Origin = ?")) {
+            ps.setString(1, origin);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    private void insertIntoTable(List<Event> batch) throws SQLException {
+        try (Connection conn = source.get()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(INSERT)) {
+                for (Event e : batch) {
+                    ps.setString(1, origin);
+                    ps.setLong(2, e.seq);
+                    ps.setTimestamp(3, new Timestamp(e.timeMillis));
+                    ps.setString(4, e.actor);
+                    ps.setString(5, e.action);
+                    ps.setString(6, e.entity);
+                    ps.setString(7, e.key);
+                    ps.setString(8, image(e.before));
+                    ps.setString(9, image(e.after));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                conn.commit();
+                syncs.incrementAndGet();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    // ===== Inspection and replay =====
+
+    /**
+     * Prints the matching events, oldest first, one JSON line each, from the file or the table.
+     *
+     * @return events printed
+     */
+    long show(Filter filter, PrintStream out) throws IOException, SQLException {
+        return sink == Sink.TABLE ? showTable(source, origin, filter, out) : showFile(file, filter, out);
+    }
+
+    static long showFile(Path file, Filter filter, PrintStream out) throws IOException {
+        long shown = 0;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                Map<String, Object> event;
+                try {
+                    event = Json.parseObject(line);
+                } catch (IllegalArgumentException e) {
+                    continue; // torn line; verify() reports it
+                }
+                if (filter.matches((String) event.get("entity"), (String) event.get("key"),
+                        (String) event.get("actor"), Instant.parse((String) event.get("at")))) {
+                    out.println(line);
+                    shown++;
+                }
+            }
+        }
+        return shown;
+    }
+
+    // This origin's own rows and the files it replayed ("origin/file"); each has its own Seq.
+    static long showTable(ConnectionSource source, String origin, Filter filter, PrintStream out) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT Seq, LoggedAt, Actor, Action, Entity, EntityKey, BeforeImage, AfterImage "
+                + "FROM AuditLog WHERE (Origin = ? OR Origin LIKE ?)");
+        List<Object> params = new ArrayList<>(List.of(origin, likeEscape(origin) + "/%"));
+        if (filter.entity() != null) {
+            sql.append(" AND Entity = ?");
+            params.add(filter.entity());
+        }
+        if (filter.key() != null) {
+            sql.append(" AND EntityKey = ?");
+            params.add(filter.key());
+        }
+        if (filter.actor() != null) {
+            sql.append(" AND Actor LIKE ?");
+            params.add("%" + likeEscape(filter.actor()) + "%");
+        }
+        if (filter.since() != null) {
+            sql.append(" AND LoggedAt >= ?");
+            params.add(Timestamp.from(filter.since()));
+        }
+        sql.append(" ORDER BY LoggedAt, Origin, Seq");
+        long shown = 0;
+        try (Connection conn = source.get();
+             PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < params.size(); i++) {
+                ps.setObject(i + 1, params.get(i));
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                StringBuilder sb = new StringBuilder(512);
+                while (rs.next()) {
+                    sb.setLength(0);
+                    sb.append("{\"seq\":").append(rs.getLong(1)).append(",\"at\":\"")
+                      .append(rs.getTimestamp(2).toInstant()).append("\",\"actor\":");
+                    Json.appendString(sb, rs.getString(3));
+                    sb.append(",\"action\":");
+                    Json.appendString(sb, rs.getString(4));
+                    sb.append(",\"entity\":");
+                    Json.appendString(sb, rs.getString(5));
+                    sb.append(",\"key\":");
+                    Json.appendString(sb, rs.getString(6));
+                    String before = rs.getString(7);
+                    String after = rs.getString(8);
+                    sb.append(",\"before\":").append(before == null ? "null" : before)
+                      .append(",\"after\":").append(after == null ? "null" : after).append('}');
+                    out.println(sb);
+                    shown++;
+                }
+            }
+        }
+        return shown;
+    }
+
+    /**
+     * Reads a log file end to end: counts events, sequence gaps, DROPPED records and unreadable lines.
+     */
+    static FileCheck verify(Path file) throws IOException {
+        long events = 0;
+        long first = -1;
+        long last = -1;
+        long gaps = 0;
+        long lost = 0;
+        long bad = 0;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                Map<String, Object> event;
+                try {
+                    event = Json.parseObject(line);
+                } catch (IllegalArgumentException e) {
+                    bad++;
+                    continue;
+                }
+                long seq = event.get("seq") instanceof Long l ? l : -1;
+                if (first < 0) {
+                    first = seq;
+                } else if (seq != last + 1) {
+                    gaps++;
+                }
+                last = seq;
+                events++;
+                if ("DROPPED".equals(event.get("action")) && event.get("after") instanceof Map<?, ?> after
+                        && after.get("events") instanceof Long n) {
+                    lost += n;
+                }
+            }
+        }
+        return new FileCheck(events, first, last, gaps, lost, bad);
+    }
+
+    private static String likeEscape(String s) {
+        return s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    /**
+     * Copies a log file into the AuditLog table under origin "audit.origin/file name", batchSize rows per
+     * transaction. Events already there are skipped, so it can run again after an interruption.
+     *
+     * @return events inserted
+     */
+    static long replay(Path file, ConnectionSource source, String origin, int batchSize) throws IOException, SQLException {
+        String fileOrigin = origin + "/" + file.getFileName();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             Connection conn = source.get()) {
+            long before = countOrigin(conn, fileOrigin);
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(INSERT.replace("INSERT INTO", "INSERT IGNORE INTO"))) {
+                int pending = 0;
+                String line;
+                StringBuilder sb = new StringBuilder(256);
+                while ((line = in.readLine()) != null) {
+                    Map<String, Object> event;
+                    try {
+                        event = Json.parseObject(line);
+                    } catch (IllegalArgumentException e) {
+                        continue;
+                    }
+                    ps.setString(1, fileOrigin);
+                    ps.setLong(2, (Long) event.get("seq"));
+                    ps.setTimestamp(3, Timestamp.from(Instant.parse((String) event.get("at"))));
+                    ps.setString(4, (String) event.get("actor"));
+                    ps.setString(5, (String) event.get("action"));
+                    ps.setString(6, (String) event.get("entity"));
+                    ps.setString(7, (String) event.get("key"));
+                    for (int i = 0; i < 2; i++) {
+                        Object image = event.get(i == 0 ? "before" : "after");
+                        sb.setLength(0);
+                        Json.appendValue(sb, image);
+                        ps.setString(8 + i, image == null ? null : sb.toString());
+                    }
+                    ps.addBatch();
+                    if (++pending == batchSize) {
+                        ps.executeBatch();
+                        conn.commit();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    ps.executeBatch();
+                    conn.commit();
+                }
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            return countOrigin(conn, fileOrigin) - before;
+        }
+    }
+
+    // Rewritten batches report no per-row counts, so replay() counts the rows instead.
+    private static long countOrigin(Connection conn, String origin) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT COUNT(*) FROM AuditLog WHERE Origin = ?")) {
+            ps.setString(1, origin);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    // ===== Stats / shutdown =====
+
+    Stats stats() {
+        long b = batches.get();
+        return new Stats(published.sum(), written.get(), dropped.sum(), b, syncs.get(), queued.get(),
+                b == 0 ? 0 : (double) written.get() / b, maxBatchNanos.get() / 1e6, failures.get());
+    }
+
+    /**
+     * Writes what is still queued (retrying for a few seconds if the sink is failing), then stops the writer.
+     */
+    @Override
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            System.err.println("Audit log writer did not finish; " + queued.get() + " event(s) left unwritten.");
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing audit log: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of booked appointment slots per doctor, so free slots can be found without
+ * trial inserts against uq_doctor_slot. Each doctor keeps one bitset per day (bit set = booked),
+ * laid out day after day in a single long[]; days nobody has booked cost nothing to scan.
+ */
+final class AvailabilityIndex {
+
+    /**
+     * A free (or booked) slot of one doctor.
+     */
+    record Slot(int doctorId, LocalDate date, LocalTime time) {
+        LocalDateTime start() {
+            return LocalDateTime.of(date, time);
+        }
+    }
+
+    private final int slotMinutes;
+    private final int dayStartMinute;
+    private final int slotsPerDay;
+    private final int wordsPerDay;
+    private final int horizonDays;
+    private final long baseDay; // epoch day stored at offset 0
+
+    private final Map<Integer, DoctorSlots> doctors = new ConcurrentHashMap<>();
+
+    AvailabilityIndex(int slotMinutes, LocalTime dayStart, LocalTime dayEnd, int horizonDays, LocalDate baseDate) {
+        int start = dayStart.toSecondOfDay() / 60;
+        int end = dayEnd.toSecondOfDay() / 60;
+        if (slotMinutes <= 0 || end <= start) {
+            throw new IllegalArgumentException("Invalid slot grid: " + dayStart + "-" + dayEnd + " every " + slotMinutes + " min");
+        }
+        this.slotMinutes = slotMinutes;
+        this.dayStartMinute = start;
+        this.slotsPerDay = (end - start) / slotMinutes;
+        this.wordsPerDay = (slotsPerDay + 63) / 64;
+        this.horizonDays = horizonDays;
+        this.baseDay = baseDate.toEpochDay();
+    }
+
+    /**
+     * Builds an index from the slots.* keys of app.properties, starting today.
+     */
+    static AvailabilityIndex fromProperties(Properties props) {
+        return new AvailabilityIndex(
+                ConnectionPool.intProp(props, "slots.minutes", 30),
+                LocalTime.parse(props.getProperty("slots.dayStart", "08:00").trim()),
+                LocalTime.parse(props.getProperty("slots.dayEnd", "18:00").trim()),
+                ConnectionPool.intProp(props, "slots.horizonDays", 180),
+                LocalDate.now());
+    }
+
+    /**
+     * Loads doctors, their hospitals and every booked slot from today on.
+     * Appointment is streamed so the load does not depend on table size.
+     */
+    void load(Connection conn) throws SQLException {
+        doctors.clear();
+        try (PreparedStatement ps = conn.prepareStatement("SELECT DoctorID, Discipline FROM Doctor");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                doctors.put(rs.getInt(1), new DoctorSlots(rs.getString(2)));
+            }
+        }
+        try (PreparedStatement ps = conn.prepareStatement("SELECT DoctorID, HospitalID FROM DoctorHospital");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                doctor(rs.getInt(1)).hospitals.add(rs.getInt(2));
+            }
+        }
+        String sql = "SELECT DoctorID, ApptDate, ApptTime FROM Appointment WHERE ApptDate >= ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(Integer.MIN_VALUE);
+            ps.setObject(1, LocalDate.ofEpochDay(baseDay));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    book(rs.getInt(1), rs.getObject(2, LocalDate.class), rs.getObject(3, LocalTime.class));
+                }
+            }
+        }
+    }
+
+    // ===== Incremental maintenance =====
+
+    /**
+     * Marks the slot containing the given time as booked. Days outside the horizon are not tracked:
+     * searches never offer them, and one far-future booking must not grow every doctor's bitset.
+     */
+    void book(int doctorId, LocalDate date, LocalTime time) {
+        int slot = slotOf(time);
+        long day = dayOf(date);
+        if (slot >= 0 && day >= 0) {
+            doctor(doctorId).set(day, slot, true);
+        }
+    }
+
+    void release(int doctorId, LocalDate date, LocalTime time) {
+        int slot = slotOf(time);
+        long day = dayOf(date);
+        DoctorSlots d = doctors.get(doctorId);
+        if (d != null && slot >= 0 && day >= 0) {
+            d.set(day, slot, false);
+        }
+    }
+
+    void move(int doctorId, LocalDate fromDate, LocalTime fromTime, int toDoctorId, LocalDate toDate, LocalTime toTime) {
+        release(doctorId, fromDate, fromTime);
+        book(toDoctorId, toDate, toTime);
+    }
+
+    void addDoctor(int doctorId, String discipline) {
+        doctors.computeIfAbsent(doctorId, id -> new DoctorSlots(discipline)).discipline = discipline;
+    }
+
+    void moveDoctorHospital(int doctorId, int fromHospitalId, int toHospitalId) {
+        DoctorSlots d = doctor(doctorId);
+        d.hospitals.remove(fromHospitalId);
+        d.hospitals.add(toHospitalId);
+    }
+
+    // ===== Queries =====
+
+    /**
+     * Next n free slots of one doctor at or after the given moment, within slots.horizonDays.
+     */
+    List<Slot> nextFree(int doctorId, LocalDateTime from, int n) {
+        DoctorSlots d = doctors.get(doctorId);
+        if (d == null || n <= 0) {
+            return Collections.emptyList();
+        }
+        List<Slot> out = new ArrayList<>(n);
+        d.collectFree(doctorId, from, n, out);
+        return out;
+    }
+
+    /**
+     * Next n free slots across every doctor of a discipline who works at the hospital, earliest first.
+     * Each candidate contributes at most n slots, then the lists are merged by start time.
+     */
+    List<Slot> nextFree(String discipline, int hospitalId, LocalDateTime from, int n) {
+        PriorityQueue<Slot> merged = new PriorityQueue<>(
+                Comparator.comparing(Slot::start).thenComparingInt(Slot::doctorId));
+        for (Map.Entry<Integer, DoctorSlots> e : doctors.entrySet()) {
+            DoctorSlots d = e.getValue();
+            if (d.hospitals.contains(hospitalId) && discipline.equalsIgnoreCase(d.discipline)) {
+                List<Slot> mine = new ArrayList<>(n);
+                d.collectFree(e.getKey(), from, n, mine);
+                merged.addAll(mine);
+            }
+        }
+        List<Slot> out = new ArrayList<>(n);
+        while (out.size() < n && !merged.isEmpty()) {
+            out.add(merged.poll());
+        }
+        return out;
+    }
+
+    int doctorCount() {
+        return doctors.size();
+    }
+
+    /**
+     * False once the day has rolled over: the window would start yesterday and end a day short,
+     * so the caller rebuilds the index.
+     */
+    boolean startsToday() {
+        return baseDay == LocalDate.now().toEpochDay();
+    }
+
+    private DoctorSlots doctor(int doctorId) {
+        return doctors.computeIfAbsent(doctorId, id -> new DoctorSlots(null));
+    }
+
+    /**
+     * Slot number of a time on the grid, or -1 if it is outside opening hours.
+     * Off-grid times (e.g. 09:10 on a 30 min grid) occupy the slot they start in.
+     */
+    private int slotOf(LocalTime time) {
+        int minute = time.toSecondOfDay() / 60 - dayStartMinute;
+        if (minute < 0) {
+            return -1;
+        }
+        int slot = minute / slotMinutes;
+        return slot < slotsPerDay ? slot : -1;
+    }
+
+    // Offset of the date in the window, or -1 if it is before the base day or past the horizon.
+    private long dayOf(LocalDate date) {
+        long day = date.toEpochDay() - baseDay;
+        return day < horizonDays ? day : -1;
+    }
+
+    private LocalTime timeOf(int slot) {
+        return LocalTime.ofSecondOfDay((long) (dayStartMinute + slot * slotMinutes) * 60);
+    }
+
+    private final class DoctorSlots {
+        volatile String discipline;
+        final Set<Integer> hospitals = ConcurrentHashMap.newKeySet();
+        private long[] booked = new long[0];
+
+        DoctorSlots(String discipline) {
+            this.discipline = discipline;
+        }
+
+        synchronized void set(long day, int slot, boolean value) {
+            int word = (int) (day * wordsPerDay) + (slot >>> 6);
+            if (word >= booked.length) {
+                if (!value) {
+                    return;
+                }
+                long[] grown = new long[Math.max(word + 1, booked.length * 2)];
+                System.arraycopy(booked, 0, grown, 0, booked.length);
+                booked = grown;
+            }
+            long bit = 1L << (slot & 63);
+            booked[word] = value ? booked[word] | bit : booked[word] & ~bit;
+        }
+
+        synchronized void collectFree(int doctorId, LocalDateTime from, int n, List<Slot> out) {
+            long firstDay = Math.max(0, from.toLocalDate().toEpochDay() - baseDay);
+            int firstSlot = 0;
+            if (firstDay == from.toLocalDate().toEpochDay() - baseDay) {
+                // Round up: a slot that has already started is not offered.
+                int minute = from.toLocalTime().toSecondOfDay() - dayStartMinute * 60;
+                firstSlot = minute <= 0 ? 0 : (minute + slotMinutes * 60 - 1) / (slotMinutes * 60);
+            }
+
+            for (long day = firstDay; day < horizonDays && out.size() < n; day++) {
+                int from0 = day == firstDay ? firstSlot : 0;
+                for (int w = from0 >>> 6; w < wordsPerDay && out.size() < n; w++) {
+                    int idx = (int) (day * wordsPerDay) + w;
+                    long free = ~(idx < booked.length ? booked[idx] : 0L);
+                    int lastBits = slotsPerDay - (w << 6);
+                    if (lastBits < 64) {
+                        free &= (1L << lastBits) - 1;
+                    }
+                    if (w == from0 >>> 6 && (from0 & 63) != 0) {
+                        free &= -1L << (from0 & 63);
+                    }
+                    while (free != 0 && out.size() < n) {
+                        int slot = (w << 6) + Long.numberOfTrailingZeros(free);
+                        out.add(new Slot(doctorId, LocalDate.ofEpochDay(baseDay + day), timeOf(slot)));
+                        free &= free - 1;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,602 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless mode: runs menu operations from a command script (or stdin) with no one at the console.
+ * One command per line, arguments separated by spaces, double quotes around arguments with spaces:
+ * <pre>
+ * schedule 1 2 1 2025-11-10 09:00:00 "Annual check-up" 200
+ * schedule-series 1 2 1 2025-11-10 09:00:00 "Physio" 80 12 7 [all-or-nothing] (12 weekly, one round trip)
+ * insert-medication 1 2 "Atorvastatin" 12.5 Ongoing 10mg "Once daily" 3
+ * update-status 17 Completed
+ * update-patient 4 email=new@example.com plan=NULL [version=3]
+ * delete-patient 9
+ * transfer 2 1 3 [5 2 1 ...]
+ * move-plan 2 5 (every patient on PlanID 2 to PlanID 5; NULL for no plan)
+ * list patients|medications|appointments|patient-medications|medication-summary|doctors|hospitals|doctor-hospital
+ * barrier
+ * </pre>
+ * Commands run on batch.parallelism worker threads. A command waits only for earlier commands that
+ * touch the same patient, doctor or medication, so independent lines run concurrently while each
+ * entity still sees its commands in script order. update-status does not know its medication's
+ * patient, so it also stays ordered with every insert-medication and delete-patient around it;
+ * status updates still run alongside each other. list and barrier wait for everything before them,
+ * and everything after them waits for them.
+ * Every command prints one JSON line to stdout, and the run ends with a JSON summary line.
+ */
+final class BatchRunner {
+
+    /**
+     * One parsed script line; keys name the entities it must stay ordered with. A shared key orders
+     * the command with the ones holding it as a plain key, but not with others sharing it.
+     */
+    record Command(int line, String verb, List<String> args, Set<String> keys, Set<String> shared, boolean barrier) {
+    }
+
+    // update-status shares it; the commands that add or remove a patient's medications hold it.
+    private static final String MEDICATION_ROWS = "medications";
+
+    /**
+     * Per-verb counters for the summary.
+     */
+    private static final class VerbStats {
+        final LongAdder count = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+    }
+
+    private final ConnectionSource source;
+    private final QueryMetrics metrics; // may be null
+    private final PrintStream out;
+    private final int parallelism;
+    private final int fetchSize;
+
+    private final Map<String, VerbStats> stats = new ConcurrentHashMap<>();
+    private final LongAdder ok = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    // Dependency tracking; touched only by the thread reading the script.
+    private final Map<String, CompletableFuture<Void>> lastByKey = new HashMap<>();
+    private final Map<String, List<CompletableFuture<Void>>> sharedByKey = new HashMap<>(); // since lastByKey's
+    private final List<CompletableFuture<Void>> sinceBarrier = new ArrayList<>();
+    private CompletableFuture<Void> lastBarrier = CompletableFuture.completedFuture(null);
+
+    BatchRunner(ConnectionSource source, QueryMetrics metrics, PrintStream out, int parallelism, int fetchSize) {
+        this.source = source;
+        this.metrics = metrics;
+        this.out = out;
+        this.parallelism = Math.max(1, parallelism);
+        this.fetchSize = fetchSize;
+    }
+
+    static BatchRunner fromProperties(Properties props, ConnectionSource source, QueryMetrics metrics,
+                                      PrintStream out, int maxPoolSize) {
+        // More workers than pooled connections would only queue up inside the pool.
+        return new BatchRunner(source, metrics, out,
+                ConnectionPool.intProp(props, "batch.parallelism", maxPoolSize),
+                ConnectionPool.intProp(props, "list.fetchSize", 0));
+    }
+
+    /**
+     * Reads the whole script, running commands as their dependencies allow, and prints the summary.
+     *
+     * @return true when every command succeeded
+     */
+    boolean run(BufferedReader in) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger n = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "batch-worker-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // Bounds how far the reader runs ahead, so a huge script is never held in memory at once.
+        Semaphore inFlight = new Semaphore(parallelism * 256);
+        long start = System.nanoTime();
+        int lineNo = 0;
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                Command cmd;
+                try {
+                    cmd = parse(lineNo, trimmed);
+                } catch (IllegalArgumentException e) {
+                    report(lineNo, null, false, 0, null, e.getMessage());
+                    continue;
+                }
+                inFlight.acquireUninterruptibly();
+                submit(cmd, workers).whenComplete((v, t) -> inFlight.release());
+            }
+            CompletableFuture.allOf(sinceBarrier.toArray(new CompletableFuture<?>[0])).join();
+            lastBarrier.join();
+        } finally {
+            workers.shutdown();
+            try {
+                workers.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        printSummary(System.nanoTime() - start);
+        out.flush();
+        return failed.sum() == 0;
+    }
+
+    private CompletableFuture<Void> submit(Command cmd, ExecutorService workers) {
+        List<CompletableFuture<Void>> deps = new ArrayList<>();
+        deps.add(lastBarrier);
+        if (cmd.barrier()) {
+            deps.addAll(sinceBarrier);
+        } else {
+            for (String key : cmd.keys()) {
+                addPending(deps, lastByKey.get(key));
+                for (CompletableFuture<Void> f : sharedByKey.getOrDefault(key, List.of())) {
+                    addPending(deps, f);
+                }
+            }
+            for (String key : cmd.shared()) {
+                addPending(deps, lastByKey.get(key));
+            }
+        }
+
+        // handleAsync, not thenRunAsync: a command still runs when one it waited for failed.
+        CompletableFuture<Void> f = CompletableFuture.allOf(deps.toArray(new CompletableFuture<?>[0]))
+                .handleAsync((v, t) -> {
+                    execute(cmd);
+                    return null;
+                }, workers);
+
+        if (cmd.barrier()) {
+            lastBarrier = f;
+            sinceBarrier.clear();
+            lastByKey.clear();
+            sharedByKey.clear();
+        } else {
+            sinceBarrier.add(f);
+            for (String key : cmd.keys()) {
+                lastByKey.put(key, f);
+                sharedByKey.remove(key);
+            }
+            for (String key : cmd.shared()) {
+                sharedByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(f);
+            }
+            if (sinceBarrier.size() > parallelism * 1024) {
+                sinceBarrier.removeIf(CompletableFuture::isDone);
+                lastByKey.values().removeIf(CompletableFuture::isDone);
+                sharedByKey.values().forEach(l -> l.removeIf(CompletableFuture::isDone));
+                sharedByKey.values().removeIf(List::isEmpty);
+            }
+        }
+        return f;
+    }
+
+    private static void addPending(List<CompletableFuture<Void>> deps, CompletableFuture<Void> f) {
+        if (f != null && !f.isDone()) {
+            deps.add(f);
+        }
+    }
+
+    // ===== Parsing =====
+
+    static Command parse(int line, String text) {
+        List<String> tokens = tokenize(text);
+        String verb = tokens.get(0).toLowerCase(Locale.ROOT);
+        List<String> args = tokens.subList(1, tokens.size());
+        Set<String> keys = new LinkedHashSet<>();
+        Set<String> shared = Set.of();
+        switch (verb) {
+            case "schedule" -> {
+                expectArgs(verb, args, 7, 7);
+                keys.add("patient:" + parseInt(args.get(0)));
+                keys.add("doctor:" + parseInt(args.get(1)));
+            }
+            case "schedule-series" -> {
+                expectArgs(verb, args, 9, 10);
+                keys.add("patient:" + parseInt(args.get(0)));
+                keys.add("doctor:" + parseInt(args.get(1)));
+                if (args.size() == 10 && !args.get(9).equalsIgnoreCase("all-or-nothing")) {
+                    throw new IllegalArgumentException("schedule-series: expected all-or-nothing, got " + args.get(9));
+                }
+            }
+            case "insert-medication" -> {
+                expectArgs(verb, args, 7, 8);
+                keys.add("patient:" + parseInt(args.get(0)));
+                keys.add("doctor:" + parseInt(args.get(1)));
+                keys.add(MEDICATION_ROWS); // a later update-status may be for the row this creates
+            }
+            case "update-status" -> {
+                expectArgs(verb, args, 2, 2);
+                keys.add("medication:" + parseInt(args.get(0)));
+                shared = Set.of(MEDICATION_ROWS);
+            }
+            case "update-patient" -> {
+                expectArgs(verb, args, 2, 8);
+                keys.add("patient:" + parseInt(args.get(0)));
+            }
+            case "delete-patient" -> {
+                expectArgs(verb, args, 1, 1);
+                keys.add("patient:" + parseInt(args.get(0)));
+                keys.add(MEDICATION_ROWS); // takes the patient's medications with it
+            }
+            case "transfer" -> {
+                if (args.isEmpty() || args.size() % 3 != 0) {
+                    throw new IllegalArgumentException("transfer needs DoctorID FromHospitalID ToHospitalID triples");
+                }
+                for (int i = 0; i < args.size(); i += 3) {
+                    keys.add("doctor:" + parseInt(args.get(i)));
+                }
+            }
+            case "move-plan" -> {
+                // Touches every patient on the plan, so it is ordered like a barrier.
+                expectArgs(verb, args, 2, 2);
+                parseNullableInt(args.get(0));
+                parseNullableInt(args.get(1));
+                return new Command(line, verb, args, keys, Set.of(), true);
+            }
+            case "list" -> {
+                expectArgs(verb, args, 1, 1);
+                TableListing.Source.named(args.get(0));
+                return new Command(line, verb, args, keys, Set.of(), true);
+            }
+            case "barrier" -> {
+                expectArgs(verb, args, 0, 0);
+                return new Command(line, verb, args, keys, Set.of(), true);
+            }
+            default -> throw new IllegalArgumentException("Unknown command: " + verb);
+        }
+        return new Command(line, verb, args, keys, shared, false);
+    }
+
+    /**
+     * Splits on whitespace; double quotes group words and "" inside quotes is a literal quote.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean inQuotes = false;
+        boolean hasToken = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (inQuotes) {
+                if (c == '"') {
+                    if (i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                        cur.append('"');
+                        i++;
+                    } else {
+                        inQuotes = false;
+                    }
+                } else {
+                    cur.append(c);
+                }
+            } else if (c == '"') {
+                inQuotes = true;
+                hasToken = true;
+            } else if (Character.isWhitespace(c)) {
+                if (hasToken) {
+                    tokens.add(cur.toString());
+                    cur.setLength(0);
+                    hasToken = false;
+                }
+            } else {
+                cur.append(c);
+                hasToken = true;
+            }
+        }
+        if (inQuotes) {
+            throw new IllegalArgumentException("Unterminated quote");
+        }
+        if (hasToken) {
+            tokens.add(cur.toString());
+        }
+        if (tokens.isEmpty()) {
+            throw new IllegalArgumentException("Empty command");
+        }
+        return tokens;
+    }
+
+    private static void expectArgs(String verb, List<String> args, int min, int max) {
+        if (args.size() < min || args.size() > max) {
+            String want = min == max ? String.valueOf(min) : min + "-" + max;
+            throw new IllegalArgumentException(verb + " expects " + want + " argument(s), got " + args.size());
+        }
+    }
+
+    private static int parseInt(String s) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a whole number: " + s);
+        }
+    }
+
+    private static double parseDouble(String s) {
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + s);
+        }
+    }
+
+    private static Integer parseNullableInt(String s) {
+        return s.equalsIgnoreCase("NULL") || s.isEmpty() ? null : parseInt(s);
+    }
+
+    // ===== Execution =====
+
+    private void execute(Command cmd) {
+        StringBuilder extra = new StringBuilder();
+        String error = null;
+        long start = System.nanoTime();
+        QueryMetrics.Scope scope = QueryMetrics.operation("batch:" + cmd.verb());
+        try {
+            error = dispatch(cmd, extra);
+        } catch (IllegalArgumentException e) {
+            error = e.getMessage();
+        } catch (SQLException e) {
+            error = e.getMessage();
+        } catch (RuntimeException e) {
+            error = e.toString();
+        } finally {
+            scope.close();
+        }
+        long nanos = System.nanoTime() - start;
+
+        boolean success = error == null;
+        VerbStats s = stats.computeIfAbsent(cmd.verb(), k -> new VerbStats());
+        s.count.increment();
+        s.nanos.add(nanos);
+        if (!success) {
+            s.failed.increment();
+        }
+        if (metrics != null) {
+            metrics.recordOperation("batch:" + cmd.verb(), nanos, !success);
+        }
+        report(cmd.line(), cmd.verb(), success, nanos, extra.length() == 0 ? null : extra.toString(), error);
+    }
+
+    /**
+     * Runs one command through the same code the menu uses.
+     *
+     * @return an error message, or null on success
+     */
+    private String dispatch(Command cmd, StringBuilder extra) throws SQLException {
+        List<String> a = cmd.args();
+        switch (cmd.verb()) {
+            case "schedule" -> {
+                Main.scheduleAppointment(parseInt(a.get(0)), parseInt(a.get(1)), parseInt(a.get(2)),
+                        a.get(3), a.get(4), a.get(5), parseDouble(a.get(6)));
+                extra.append("\"rows\":1");
+            }
+            case "schedule-series" -> {
+                AppointmentScheduler.Result r = Main.scheduleAppointments(AppointmentScheduler.series(
+                        parseInt(a.get(0)), parseInt(a.get(1)), parseInt(a.get(2)), a.get(3), a.get(4), a.get(5),
+                        parseDouble(a.get(6)), parseInt(a.get(7)), parseInt(a.get(8))), a.size() == 10);
+                long booked = r.count(AppointmentScheduler.Status.BOOKED);
+                extra.append("\"rows\":").append(booked)
+                     .append(",\"committed\":").append(r.committed())
+                     .append(",\"items\":[");
+                for (int i = 0; i < r.items().size(); i++) {
+                    AppointmentScheduler.Item item = r.items().get(i);
+                    extra.append(i == 0 ? "{" : ",{").append("\"date\":");
+                    Json.appendString(extra, item.request().date());
+                    extra.append(",\"status\":\"").append(item.status()).append('"');
+                    if (item.message() != null) {
+                        extra.append(",\"message\":");
+                        Json.appendString(extra, item.message());
+                    }
+                    extra.append('}');
+                }
+                extra.append(']');
+                if (booked < r.items().size()) {
+                    return (r.items().size() - booked) + " of " + r.items().size() + " appointment(s) not booked.";
+                }
+            }
+            case "insert-medication" -> {
+                int rows = Main.insertMedication(parseInt(a.get(0)), parseInt(a.get(1)), a.get(2),
+                        parseDouble(a.get(3)), a.get(4), a.get(5), a.get(6),
+                        a.size() > 7 ? parseNullableInt(a.get(7)) : null);
+                extra.append("\"rows\":").append(rows);
+            }
+            case "update-status" -> {
+                int rows = Main.updateMedicationStatus(parseInt(a.get(0)), a.get(1));
+                extra.append("\"rows\":").append(rows);
+                if (rows == 0) {
+                    return "No medication found with that ID.";
+                }
+            }
+            case "update-patient" -> {
+                return updatePatient(parseInt(a.get(0)), a.subList(1, a.size()), extra);
+            }
+            case "delete-patient" -> {
+                int rows = Main.deletePatient(parseInt(a.get(0)));
+                extra.append("\"rows\":").append(rows);
+                if (rows == 0) {
+                    return "No patient found with that ID.";
+                }
+            }
+            case "transfer" -> {
+                List<DoctorTransferService.Transfer> transfers = new ArrayList<>();
+                for (int i = 0; i < a.size(); i += 3) {
+                    transfers.add(new DoctorTransferService.Transfer(
+                            parseInt(a.get(i)), parseInt(a.get(i + 1)), parseInt(a.get(i + 2))));
+                }
+                DoctorTransferService.Result r = Main.transferDoctors(transfers, false);
+                extra.append("\"linkRows\":").append(r.linkRows())
+                     .append(",\"appointmentRows\":").append(r.appointmentRows())
+                     .append(",\"attempts\":").append(r.attempts());
+                if (!r.problems().isEmpty()) {
+                    return String.join(" ", r.problems());
+                }
+            }
+            case "move-plan" -> {
+                int moved = 0;
+                int conflicts = 0;
+                for (Main.UpdateResult r : Main.migratePatientPlan(parseNullableInt(a.get(0)), parseNullableInt(a.get(1)))) {
+                    moved += r.status() == Main.UpdateStatus.UPDATED ? 1 : 0;
+                    conflicts += r.status() == Main.UpdateStatus.CONFLICT ? 1 : 0;
+                }
+                extra.append("\"rows\":").append(moved).append(",\"conflicts\":").append(conflicts);
+            }
+            case "list" -> {
+                long rows = list(cmd.line(), TableListing.Source.named(a.get(0)));
+                extra.append("\"rows\":").append(rows);
+            }
+            case "barrier" -> {
+                // Nothing to do; ordering is all it is for.
+            }
+            default -> {
+                return "Unknown command: " + cmd.verb();
+            }
+        }
+        return null;
+    }
+
+    private String updatePatient(int id, List<String> assignments, StringBuilder extra) throws SQLException {
+        Main.PatientRecord p = Main.loadPatient(id);
+        if (p == null) {
+            return "No patient found with that ID.";
+        }
+        String name = p.name();
+        Date birthdate = p.birthdate();
+        String email = p.email();
+        String phone = p.phone();
+        String address = p.address();
+        Integer planId = p.planId();
+        int version = p.version();
+        for (String assignment : assignments) {
+            int eq = assignment.indexOf('=');
+            if (eq <= 0) {
+                return "Expected field=value, got: " + assignment;
+            }
+            String value = assignment.substring(eq + 1);
+            switch (assignment.substring(0, eq).toLowerCase()) {
+                case "name" -> name = value;
+                case "birthdate" -> birthdate = value.equalsIgnoreCase("NULL") ? null : Date.valueOf(value);
+                case "email" -> email = value;
+                case "phone" -> phone = value;
+                case "address" -> address = value;
+                case "plan" -> planId = parseNullableInt(value);
+                case "version" -> version = parseInt(value);
+                default -> {
+                    return "Unknown patient field: " + assignment.substring(0, eq);
+                }
+            }
+        }
+        // version= guards against edits made since the script's author read the row.
+        Main.PatientRecord before = new Main.PatientRecord(id, p.name(), p.birthdate(), p.email(), p.phone(),
+                p.address(), p.planId(), version);
+        Main.UpdateResult r = Main.updatePatient(before,
+                new Main.PatientRecord(id, name, birthdate, email, phone, address, planId, version));
+        extra.append("\"rows\":").append(r.status() == Main.UpdateStatus.UPDATED ? 1 : 0)
+             .append(",\"version\":").append(r.version());
+        return switch (r.status()) {
+            case NOT_FOUND -> "No patient found with that ID.";
+            case CONFLICT -> "Patient " + id + " is at version " + r.version() + ", not " + version + ".";
+            default -> null;
+        };
+    }
+
+    /**
+     * Streams the table as one {"line":n,"row":{...}} line per row.
+     */
+    private long list(int line, TableListing.Source table) throws SQLException {
+        String prefix = "{\"line\":" + line + ",\"row\":";
+        StringBuilder sb = new StringBuilder(256);
+        ResultSetMetaData[] md = new ResultSetMetaData[1];
+        try (Connection conn = source.get()) {
+            return TableListing.stream(conn, table, fetchSize, rs -> {
+                if (md[0] == null) {
+                    md[0] = rs.getMetaData();
+                }
+                sb.setLength(0);
+                sb.append(prefix);
+                Json.appendRow(sb, rs, md[0]);
+                sb.append('}');
+                out.println(sb);
+            });
+        }
+    }
+
+    // ===== Output =====
+
+    private void report(int line, String verb, boolean success, long nanos, String extra, String error) {
+        (success ? ok : failed).increment();
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("{\"line\":").append(line);
+        if (verb != null) {
+            sb.append(",\"op\":");
+            Json.appendString(sb, verb);
+        }
+        sb.append(",\"ok\":").append(success);
+        sb.append(",\"ms\":").append(String.format(Locale.ROOT, "%.3f", nanos / 1e6));
+        if (extra != null) {
+            sb.append(',').append(extra);
+        }
+        if (error != null) {
+            sb.append(",\"error\":");
+            Json.appendString(sb, error);
+        }
+        sb.append('}');
+        out.println(sb);
+    }
+
+    private void printSummary(long elapsedNanos) {
+        long total = ok.sum() + failed.sum();
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"summary\":{\"commands\":").append(total)
+          .append(",\"ok\":").append(ok.sum())
+          .append(",\"failed\":").append(failed.sum())
+          .append(",\"parallelism\":").append(parallelism)
+          .append(",\"elapsedMs\":").append(String.format(Locale.ROOT, "%.1f", elapsedNanos / 1e6))
+          .append(",\"opsPerSec\":").append(String.format(Locale.ROOT, "%.1f", seconds > 0 ? total / seconds : 0))
+          .append(",\"ops\":{");
+        boolean first = true;
+        for (Map.Entry<String, VerbStats> e : new TreeMap<>(stats).entrySet()) {
+            VerbStats s = e.getValue();
+            long n = s.count.sum();
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            Json.appendString(sb, e.getKey());
+            sb.append(":{\"count\":").append(n)
+              .append(",\"failed\":").append(s.failed.sum())
+              .append(",\"avgMs\":").append(String.format(Locale.ROOT, "%.3f", n == 0 ? 0 : s.nanos.sum() / 1e6 / n))
+              .append('}');
+        }
+        sb.append("}}}");
+        out.println(sb);
+    }
+}
@@ -0,0 +1,622 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-per-block snapshot file of Appointment, Medication or Doctor, read through memory mapping.
+ * <p>
+ * A file is a 16-byte header and a series of segments, one per export. The first segment is a
+ * full copy and each later one appends the rows changed since, the keys deleted since, and the
+ * patients deleted since (whose rows went with them through the FK cascade). In a segment every
+ * column is one contiguous little-endian block: ints for IDs, epoch day and second of day for
+ * dates and times, cents as longs, and dictionary codes for repeated text. New dictionary
+ * entries travel with the segment that first uses them.
+ * <p>
+ * The reader maps each segment read-only and reads values in place. It finds rows replaced or
+ * deleted by a later segment with one pass from the newest segment back, so its heap use grows
+ * with the appended rows, not with the base copy.
+ */
+final class ColumnarSnapshot {
+
+    enum Type { INT, LONG, DICT }
+
+    record Column(String name, Type type) {
+        int width() {
+            return type == Type.LONG ? 8 : 4;
+        }
+    }
+
+    /**
+     * The tables that can be snapshotted, their columns, and which columns form the key.
+     * Doctor has no UpdatedAt; it is small and copied in full by every export.
+     */
+    enum Table {
+        APPOINTMENT("appointments.snap", 0, new int[]{0, 3, 4},
+                new Column("PatientID", Type.INT), new Column("DoctorID", Type.INT),
+                new Column("HospitalID", Type.INT), new Column("ApptDate", Type.INT),
+                new Column("ApptTime", Type.INT), new Column("Cost", Type.LONG),
+                new Column("PlanID", Type.INT), new Column("VisitReason", Type.DICT)),
+        MEDICATION("medications.snap", 1, new int[]{0},
+                new Column("MedicationID", Type.INT), new Column("PatientID", Type.INT),
+                new Column("DoctorID", Type.INT), new Column("Name", Type.DICT),
+                new Column("Cost", Type.LONG), new Column("Status", Type.DICT),
+                new Column("Dosage", Type.DICT), new Column("Frequency", Type.DICT),
+                new Column("PlanID", Type.INT)),
+        DOCTOR("doctors.snap", -1, new int[]{0},
+                new Column("DoctorID", Type.INT), new Column("Discipline", Type.DICT));
+
+        final String fileName;
+        final int patientColumn;
+        final int[] keyColumns;
+        final Column[] columns;
+
+        Table(String fileName, int patientColumn, int[] keyColumns, Column... columns) {
+            this.fileName = fileName;
+            this.patientColumn = patientColumn;
+            this.keyColumns = keyColumns;
+            this.columns = columns;
+        }
+
+        int column(String name) {
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].name().equals(name)) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("No column " + name + " in " + this);
+        }
+
+        // Appointment: PatientID in the high half, seconds since 1970 (good until 2106) in the low half.
+        long key(int[] k) {
+            return this == APPOINTMENT
+                    ? (long) k[0] << 32 | ((k[1] * 86_400L + k[2]) & 0xFFFFFFFFL)
+                    : k[0];
+        }
+    }
+
+    static final int NULL_INT = Integer.MIN_VALUE; // NULL in an INT column; DICT uses -1
+
+    private static final long FILE_MAGIC = 0x50414E534E494C43L; // "CLINSNAP" little-endian
+    private static final int SEGMENT_MAGIC = 0x4D474553;        // "SEGM"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER = 16;
+    private static final int SEGMENT_HEADER = 40;
+    private static final int FLAG_FULL = 1;
+
+    /**
+     * One mapped segment; values are read straight from the mapping.
+     */
+    static final class Segment {
+        final int rows;
+        final boolean full;
+        final long watermarkMicros;
+        private final ByteBuffer buf;
+        private final int[] columnStart;
+        private final int deleteStart;
+        private final int deletes;
+        private final int purgeStart;
+        private final int purges;
+        private BitSet dead = new BitSet();
+
+        private Segment(ByteBuffer buf, int rows, boolean full, long watermarkMicros, int[] columnStart,
+                        int deleteStart, int deletes, int purgeStart, int purges) {
+            this.buf = buf;
+            this.rows = rows;
+            this.full = full;
+            this.watermarkMicros = watermarkMicros;
+            this.columnStart = columnStart;
+            this.deleteStart = deleteStart;
+            this.deletes = deletes;
+            this.purgeStart = purgeStart;
+            this.purges = purges;
+        }
+
+        int getInt(int column, int row) {
+            return buf.getInt(columnStart[column] + row * 4);
+        }
+
+        long getLong(int column, int row) {
+            return buf.getLong(columnStart[column] + row * 8);
+        }
+
+        /**
+         * False when a later segment replaced or deleted the row.
+         */
+        boolean live(int row) {
+            return !dead.get(row);
+        }
+    }
+
+    private final Table table;
+    private final List<Segment> segments;
+    private final List<List<String>> dictionaries; // per column; empty for non-DICT columns
+    private final long validBytes;
+
+    private ColumnarSnapshot(Table table, List<Segment> segments, List<List<String>> dictionaries, long validBytes) {
+        this.table = table;
+        this.segments = segments;
+        this.dictionaries = dictionaries;
+        this.validBytes = validBytes;
+    }
+
+    // ===== Reading =====
+
+    /**
+     * Maps every complete segment of the file. A segment cut short by a crash during export is ignored
+     * (and overwritten by the next export).
+     */
+    static ColumnarSnapshot open(Path file, Table table) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        List<List<String>> dictionaries = new ArrayList<>();
+        for (int c = 0; c < table.columns.length; c++) {
+            dictionaries.add(new ArrayList<>());
+        }
+        long pos = FILE_HEADER;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            ByteBuffer header = size < FILE_HEADER ? null
+                    : ch.map(FileChannel.MapMode.READ_ONLY, 0, FILE_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            if (header == null || header.getLong(0) != FILE_MAGIC || header.getInt(8) != VERSION
+                    || header.getInt(12) != table.ordinal()) {
+                throw new IOException(file + " is not a " + table + " snapshot");
+            }
+            while (pos + SEGMENT_HEADER <= size) {
+                ByteBuffer head = ch.map(FileChannel.MapMode.READ_ONLY, pos, SEGMENT_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+                long length = head.getLong(0);
+                if (head.getInt(8) != SEGMENT_MAGIC || length < SEGMENT_HEADER || pos + length > size
+                        || length > Integer.MAX_VALUE) {
+                    break;
+                }
+                MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, pos, length);
+                segments.add(parse(map.order(ByteOrder.LITTLE_ENDIAN), table, dictionaries));
+                pos += length;
+            }
+        }
+        ColumnarSnapshot snapshot = new ColumnarSnapshot(table, segments, dictionaries, pos);
+        snapshot.markSuperseded();
+        return snapshot;
+    }
+
+    private static Segment parse(ByteBuffer b, Table table, List<List<String>> dictionaries) {
+        int flags = b.getInt(12);
+        long watermark = b.getLong(16);
+        int rows = b.getInt(24);
+        int deletes = b.getInt(28);
+        int purges = b.getInt(32);
+        int entries = b.getInt(36);
+        int p = SEGMENT_HEADER;
+        for (int i = 0; i < entries; i++) {
+            int column = b.getInt(p);
+            int len = b.getInt(p + 4);
+            byte[] bytes = new byte[len];
+            b.get(p + 8, bytes);
+            dictionaries.get(column).add(new String(bytes, StandardCharsets.UTF_8));
+            p += 8 + len;
+        }
+        p = align(p);
+        int[] columnStart = new int[table.columns.length];
+        for (int c = 0; c < columnStart.length; c++) {
+            columnStart[c] = p;
+            p = align(p + rows * table.columns[c].width());
+        }
+        int deleteStart = p;
+        p = align(p + deletes * table.keyColumns.length * 4);
+        return new Segment(b, rows, (flags & FLAG_FULL) != 0, watermark, columnStart, deleteStart, deletes, p, purges);
+    }
+
+    // Newest to oldest: a row is dead if a later segment has its key or deleted its patient.
+    private void markSuperseded() {
+        LongSet laterKeys = new LongSet();
+        LongSet laterPurges = new LongSet();
+        int[] key = new int[table.keyColumns.length];
+        for (int s = segments.size() - 1; s >= 0; s--) {
+            Segment seg = segments.get(s);
+            if (laterKeys.size() > 0 || laterPurges.size() > 0) {
+                for (int row = 0; row < seg.rows; row++) {
+                    if (laterKeys.contains(rowKey(seg, row, key))
+                            || laterPurges.contains(seg.getInt(table.patientColumn, row))) {
+                        seg.dead.set(row);
+                    }
+                }
+            }
+            if (s == 0) {
+                break; // nothing older to hide
+            }
+            for (int row = 0; row < seg.rows; row++) {
+                laterKeys.add(rowKey(seg, row, key));
+            }
+            for (int d = 0; d < seg.deletes; d++) {
+                for (int k = 0; k < key.length; k++) {
+                    key[k] = seg.buf.getInt(seg.deleteStart + (d * key.length + k) * 4);
+                }
+                laterKeys.add(table.key(key));
+            }
+            for (int i = 0; i < seg.purges; i++) {
+                laterPurges.add(seg.buf.getInt(seg.purgeStart + i * 4));
+            }
+        }
+    }
+
+    private long rowKey(Segment seg, int row, int[] key) {
+        for (int k = 0; k < key.length; k++) {
+            key[k] = seg.getInt(table.keyColumns[k], row);
+        }
+        return table.key(key);
+    }
+
+    Table table() {
+        return table;
+    }
+
+    List<Segment> segments() {
+        return segments;
+    }
+
+    String dictionaryValue(int column, int code) {
+        return code < 0 ? null : dictionaries.get(column).get(code);
+    }
+
+    /**
+     * Watermark of the last export (UpdatedAt upper bound, micros), or Long.MIN_VALUE when empty.
+     */
+    long watermarkMicros() {
+        return segments.isEmpty() ? Long.MIN_VALUE : segments.get(segments.size() - 1).watermarkMicros;
+    }
+
+    long liveRows() {
+        long n = 0;
+        for (Segment s : segments) {
+            n += s.rows - s.dead.cardinality();
+        }
+        return n;
+    }
+
+    /**
+     * Rows stored after the base copy; many of them means the next export should rewrite the file.
+     */
+    long appendedRows() {
+        long n = 0;
+        for (int i = 1; i < segments.size(); i++) {
+            n += segments.get(i).rows + segments.get(i).deletes;
+        }
+        return n;
+    }
+
+    long baseRows() {
+        return segments.isEmpty() ? 0 : segments.get(0).rows;
+    }
+
+    // ===== Writing =====
+
+    /**
+     * Collects one segment: column values go to little-endian temp files, so a full export of
+     * tens of millions of rows needs no more heap than the dictionaries.
+     */
+    static final class SegmentWriter implements AutoCloseable {
+        private final Table table;
+        private final boolean full;
+        private final Path target;
+        private final long validBytes;
+        private final List<Map<String, Integer>> codes = new ArrayList<>();
+        private final List<int[]> newEntries = new ArrayList<>(); // {column, code}
+        private final List<List<String>> values = new ArrayList<>();
+        private final Path[] columnFiles;
+        private final FileChannel[] columnChannels;
+        private final ByteBuffer[] columnBuffers;
+        private final List<int[]> deleted = new ArrayList<>();
+        private final List<Integer> purged = new ArrayList<>();
+        private int rows;
+
+        /**
+         * @param existing the current file to append to, or null to write a new full copy
+         */
+        SegmentWriter(Path target, Table table, ColumnarSnapshot existing) throws IOException {
+            this.table = table;
+            this.target = target;
+            this.full = existing == null;
+            this.validBytes = existing == null ? 0 : existing.validBytes;
+            for (int c = 0; c < table.columns.length; c++) {
+                Map<String, Integer> m = new HashMap<>();
+                List<String> v = new ArrayList<>();
+                if (existing != null) {
+                    v.addAll(existing.dictionaries.get(c));
+                    for (int i = 0; i < v.size(); i++) {
+                        m.put(v.get(i), i);
+                    }
+                }
+                codes.add(m);
+                values.add(v);
+            }
+            columnFiles = new Path[table.columns.length];
+            columnChannels = new FileChannel[table.columns.length];
+            columnBuffers = new ByteBuffer[table.columns.length];
+            for (int c = 0; c < columnFiles.length; c++) {
+                columnFiles[c] = Files.createTempFile(target.toAbsolutePath().getParent(), table.fileName + "." + c, ".col");
+                columnChannels[c] = FileChannel.open(columnFiles[c], StandardOpenOption.WRITE);
+                columnBuffers[c] = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        void setInt(int column, int value) throws IOException {
+            ensure(column, 4).putInt(value);
+        }
+
+        void setLong(int column, long value) throws IOException {
+            ensure(column, 8).putLong(value);
+        }
+
+        void setString(int column, String value) throws IOException {
+            int code = -1;
+            if (value != null) {
+                Map<String, Integer> m = codes.get(column);
+                Integer c = m.get(value);
+                if (c == null) {
+                    c = values.get(column).size();
+                    values.get(column).add(value);
+                    m.put(value, c);
+                    newEntries.add(new int[]{column, c});
+                }
+                code = c;
+            }
+            ensure(column, 4).putInt(code);
+        }
+
+        /**
+         * Call after setting every column of a row.
+         */
+        void endRow() {
+            rows++;
+        }
+
+        void delete(int... key) {
+            deleted.add(key.clone());
+        }
+
+        void purgePatient(int patientId) {
+            purged.add(patientId);
+        }
+
+        int rows() {
+            return rows;
+        }
+
+        int deletes() {
+            return deleted.size();
+        }
+
+        int purges() {
+            return purged.size();
+        }
+
+        /**
+         * Writes the segment: appended after the last complete segment, or as a new file that
+         * replaces the old one in a single rename.
+         *
+         * @return bytes written
+         */
+        long commit(long watermarkMicros) throws IOException {
+            for (int c = 0; c < columnChannels.length; c++) {
+                flush(c);
+                columnChannels[c].force(false);
+            }
+
+            ByteArrayBuilder head = new ByteArrayBuilder();
+            head.putLong(0).putInt(SEGMENT_MAGIC).putInt(full ? FLAG_FULL : 0).putLong(watermarkMicros)
+                    .putInt(rows).putInt(deleted.size()).putInt(purged.size()).putInt(newEntries.size());
+            for (int[] e : newEntries) {
+                byte[] bytes = values.get(e[0]).get(e[1]).getBytes(StandardCharsets.UTF_8);
+                head.putInt(e[0]).putInt(bytes.length).put(bytes);
+            }
+            head.align();
+            long length = head.size();
+            for (int c = 0; c < table.columns.length; c++) {
+                length += align(rows * (long) table.columns[c].width());
+            }
+            ByteArrayBuilder tail = new ByteArrayBuilder();
+            for (int[] key : deleted) {
+                for (int k : key) {
+                    tail.putInt(k);
+                }
+            }
+            tail.align();
+            for (int p : purged) {
+                tail.putInt(p);
+            }
+            tail.align();
+            length += tail.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot segment over 2 GB; export in smaller steps");
+            }
+            head.setLong(0, length);
+
+            Path out = full ? Files.createTempFile(target.toAbsolutePath().getParent(), table.fileName, ".tmp") : target;
+            try (FileChannel ch = FileChannel.open(out, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+                long pos;
+                if (full) {
+                    ch.truncate(0);
+                    ByteBuffer fh = ByteBuffer.allocate(FILE_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+                    fh.putLong(FILE_MAGIC).putInt(VERSION).putInt(table.ordinal()).flip();
+                    writeFully(ch, fh, 0);
+                    pos = FILE_HEADER;
+                } else {
+                    ch.truncate(validBytes); // drop a segment left half-written by an earlier crash
+                    pos = validBytes;
+                }
+                pos += writeFully(ch, head.buffer(), pos);
+                byte[] zeros = new byte[8];
+                for (int c = 0; c < table.columns.length; c++) {
+                    try (FileChannel in = FileChannel.open(columnFiles[c], StandardOpenOption.READ)) {
+                        long n = in.size();
+                        for (long done = 0; done < n; ) {
+                            done += in.transferTo(done, n - done, ch.position(pos + done));
+                        }
+                        pos += n;
+                        pos += writeFully(ch, ByteBuffer.wrap(zeros, 0, (int) (align(n) - n)), pos);
+                    }
+                }
+                pos += writeFully(ch, tail.buffer(), pos);
+                ch.force(true);
+            }
+            if (full) {
+                Files.move(out, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return length + (full ? FILE_HEADER : 0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (int c = 0; c < columnFiles.length; c++) {
+                if (columnChannels[c] != null) {
+                    columnChannels[c].close();
+                }
+                Files.deleteIfExists(columnFiles[c]);
+            }
+        }
+
+        private ByteBuffer ensure(int column, int bytes) throws IOException {
+            if (columnBuffers[column].remaining() < bytes) {
+                flush(column);
+            }
+            return columnBuffers[column];
+        }
+
+        private void flush(int column) throws IOException {
+            ByteBuffer b = columnBuffers[column];
+            b.flip();
+            while (b.hasRemaining()) {
+                columnChannels[column].write(b);
+            }
+            b.clear();
+        }
+
+        private static long writeFully(FileChannel ch, ByteBuffer b, long pos) throws IOException {
+            long start = pos;
+            while (b.hasRemaining()) {
+                pos += ch.write(b, pos);
+            }
+            return pos - start;
+        }
+    }
+
+    // ===== Helpers =====
+
+    private static int align(int n) {
+        return (n + 7) & ~7;
+    }
+
+    private static long align(long n) {
+        return (n + 7) & ~7L;
+    }
+
+    /**
+     * Little-endian growable byte buffer for segment headers and tails.
+     */
+    private static final class ByteArrayBuilder {
+        private ByteBuffer b = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+
+        ByteArrayBuilder putInt(int v) {
+            ensure(4).putInt(v);
+            return this;
+        }
+
+        ByteArrayBuilder putLong(long v) {
+            ensure(8).putLong(v);
+            return this;
+        }
+
+        ByteArrayBuilder put(byte[] v) {
+            ensure(v.length).put(v);
+            return this;
+        }
+
+        void setLong(int at, long v) {
+            b.putLong(at, v);
+        }
+
+        void align() {
+            while ((b.position() & 7) != 0) {
+                ensure(1).put((byte) 0);
+            }
+        }
+
+        int size() {
+            return b.position();
+        }
+
+        ByteBuffer buffer() {
+            return b.duplicate().flip();
+        }
+
+        private ByteBuffer ensure(int n) {
+            if (b.remaining() < n) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(b.capacity() * 2, b.position() + n))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                bigger.put(b.flip());
+                b = bigger;
+            }
+            return b;
+        }
+    }
+
+    /**
+     * Open-addressing set of longs, for the keys of appended segments.
+     */
+    private static final class LongSet {
+        private long[] keys = new long[16];
+        private boolean[] used = new boolean[16];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        boolean contains(long key) {
+            for (int i = slot(key); used[i]; i = (i + 1) & (keys.length - 1)) {
+                if (keys[i] == key) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void add(long key) {
+            int i = slot(key);
+            for (; used[i]; i = (i + 1) & (keys.length - 1)) {
+                if (keys[i] == key) {
+                    return;
+                }
+            }
+            used[i] = true;
+            keys[i] = key;
+            if (++size > keys.length * 3 / 4) {
+                long[] oldKeys = keys;
+                boolean[] oldUsed = used;
+                keys = new long[oldKeys.length * 2];
+                used = new boolean[keys.length];
+                size = 0;
+                for (int j = 0; j < oldKeys.length; j++) {
+                    if (oldUsed[j]) {
+                        add(oldKeys[j]);
+                    }
+                }
+            }
+        }
+
+        private int slot(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & (keys.length - 1);
+        }
+    }
+}
@@ -0,0 +1,536 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded JDBC connection pool configured from app.properties.
+ * Connections handed out are proxies: close() returns the physical connection to the pool
+ * instead of closing the socket, so callers keep using try-with-resources as before.
+ */
+class ConnectionPool implements AutoCloseable {
+
+    private final String url;
+    private final String user;
+    private final String password;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMs;
+    private final long acquireTimeoutMs;
+    private final long leakDetectionMs;
+    private final long validationIntervalMs;
+    private final String validationQuery;
+    private final int statementCacheSize;
+
+    // Most recently returned connection sits at the head (LIFO keeps hot connections hot).
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final Semaphore permits;
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+    private volatile QueryMetrics metrics; // null = statements are not instrumented
+
+    // ===== Stats =====
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder waited = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder acquireNanos = new LongAdder();
+    private final AtomicLong maxAcquireNanos = new AtomicLong();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder leaksReported = new LongAdder();
+
+    ConnectionPool(String url, String user, String password, int minSize, int maxSize,
+                   long idleTimeoutMs, long acquireTimeoutMs, long leakDetectionMs,
+                   long validationIntervalMs, String validationQuery, int statementCacheSize) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.leakDetectionMs = leakDetectionMs;
+        this.validationIntervalMs = validationIntervalMs;
+        this.validationQuery = (validationQuery == null || validationQuery.isBlank()) ? null : validationQuery;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(30_000, idleTimeoutMs / 2));
+        housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Builds a pool from the db.* and pool.* keys of app.properties.
+     */
+    static ConnectionPool fromProperties(Properties props) {
+        return fromProperties(props, props.getProperty("db.url"),
+                intProp(props, "pool.minSize", 1), intProp(props, "pool.maxSize", 10));
+    }
+
+    /**
+     * A pool for another server (a read replica) with the same credentials and pool.* settings.
+     */
+    static ConnectionPool fromProperties(Properties props, String url, int minSize, int maxSize) {
+        return new ConnectionPool(
+                url,
+                props.getProperty("db.user"),
+                props.getProperty("db.password"),
+                minSize,
+                maxSize,
+                longProp(props, "pool.idleTimeoutMs", 300_000),
+                longProp(props, "pool.acquireTimeoutMs", 5_000),
+                longProp(props, "pool.leakDetectionMs", 60_000),
+                longProp(props, "pool.validationIntervalMs", 5_000),
+                props.getProperty("pool.validationQuery", "SELECT 1"),
+                intProp(props, "pool.statementCacheSize", 64));
+    }
+
+    static int intProp(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    static long longProp(Properties props, String key, long defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Opens connections until the pool holds minSize of them.
+     */
+    void warmUp() throws SQLException {
+        while (totalConnections.get() < minSize && reserveSlot()) {
+            try {
+                idle.offerFirst(openPhysical());
+            } catch (SQLException e) {
+                totalConnections.decrementAndGet();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Instruments every statement created through this pool from now on (null turns it off).
+     */
+    void setMetrics(QueryMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // ===== Borrow / return =====
+
+    /**
+     * Borrows a connection, waiting up to pool.acquireTimeoutMs for one to become free.
+     *
+     * @throws SQLTransientConnectionException when the wait times out (the pool is saturated)
+     */
+    Connection getConnection() throws SQLException {
+        return getConnection(null);
+    }
+
+    /**
+     * Borrows a connection like getConnection(); onClose runs once when the borrower closes it.
+     */
+    Connection getConnection(Runnable onClose) throws SQLException {
+        return borrow(onClose, false);
+    }
+
+    /**
+     * Borrows the idle connection used longest ago, where getConnection() takes the most recent one.
+     * Borrowing and closing this way n times visits n different idle connections, one at a time.
+     */
+    Connection getLeastRecentlyUsedConnection() throws SQLException {
+        return borrow(null, true);
+    }
+
+    private Connection borrow(Runnable onClose, boolean leastRecent) throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMs);
+
+        if (!permits.tryAcquire()) {
+            waited.increment();
+            boolean ok;
+            try {
+                ok = permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection", e);
+            }
+            waitNanos.add(System.nanoTime() - start);
+            if (!ok) {
+                timeouts.increment();
+                throw new SQLTransientConnectionException("Timed out after " + acquireTimeoutMs + " ms waiting for a connection ("
+                        + borrowed.size() + " active, " + maxSize + " max)");
+            }
+        }
+
+        try {
+            PooledConnection pc = takeIdleOrCreate(deadline, leastRecent);
+            pc.borrowedAt = System.currentTimeMillis();
+            pc.borrower = Thread.currentThread(); // the stack is only taken if this turns into a leak report
+            pc.leakReported = false;
+            borrowed.add(pc);
+
+            long elapsed = System.nanoTime() - start;
+            acquired.increment();
+            acquireNanos.add(elapsed);
+            maxAcquireNanos.accumulateAndGet(elapsed, Math::max);
+            return pc.newHandle(onClose);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeIdleOrCreate(long deadlineNanos, boolean leastRecent) throws SQLException {
+        while (true) {
+            PooledConnection pc = leastRecent ? idle.pollLast() : idle.pollFirst();
+            if (pc != null) {
+                if (isUsable(pc)) {
+                    return pc;
+                }
+                destroy(pc);
+                continue;
+            }
+            if (reserveSlot()) {
+                try {
+                    return openPhysical();
+                } catch (SQLException e) {
+                    totalConnections.decrementAndGet();
+                    throw e;
+                }
+            }
+            // Every slot is taken by a connection being opened or returned; wait for it to land.
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining <= 0) {
+                timeouts.increment();
+                throw new SQLTransientConnectionException("Timed out waiting for an idle connection");
+            }
+            try {
+                pc = idle.pollFirst(remaining, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection", e);
+            }
+            if (pc != null) {
+                if (isUsable(pc)) {
+                    return pc;
+                }
+                destroy(pc);
+            }
+        }
+    }
+
+    private void release(PooledConnection pc) {
+        borrowed.remove(pc);
+        pc.borrower = null;
+        try {
+            boolean reusable = !closed && !pc.physical.isClosed();
+            if (reusable && !pc.physical.getAutoCommit()) {
+                // Never hand out a connection with someone else's open transaction.
+                pc.physical.rollback();
+                pc.physical.setAutoCommit(true);
+            }
+            if (reusable) {
+                if (pc.statements != null) {
+                    pc.statements.releaseAll();
+                }
+                pc.physical.clearWarnings();
+                pc.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(pc);
+            } else {
+                destroy(pc);
+            }
+        } catch (SQLException e) {
+            destroy(pc);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private boolean reserveSlot() {
+        while (true) {
+            int current = totalConnections.get();
+            if (current >= maxSize) {
+                return false;
+            }
+            if (totalConnections.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private PooledConnection openPhysical() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, user, password);
+        created.increment();
+        return new PooledConnection(physical);
+    }
+
+    private boolean isUsable(PooledConnection pc) {
+        if (System.currentTimeMillis() - pc.lastUsed < validationIntervalMs) {
+            return true;
+        }
+        try {
+            if (validationQuery == null) {
+                return pc.physical.isValid(2);
+            }
+            try (Statement st = pc.physical.createStatement();
+                 ResultSet rs = st.executeQuery(validationQuery)) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void destroy(PooledConnection pc) {
+        totalConnections.decrementAndGet();
+        destroyed.increment();
+        try {
+            pc.physical.close();
+        } catch (SQLException ignored) {
+            // already broken, nothing more to do
+        }
+    }
+
+    // ===== Housekeeping: idle eviction, min size top-up, leak detection =====
+
+    private void housekeep() {
+        try {
+            long now = System.currentTimeMillis();
+
+            // Evict from the tail: those are the connections that have sat unused the longest.
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext() && totalConnections.get() > minSize) {
+                PooledConnection pc = it.next();
+                if (now - pc.lastUsed > idleTimeoutMs && idle.remove(pc)) {
+                    destroy(pc);
+                }
+            }
+
+            if (!closed) {
+                warmUp();
+            }
+
+            if (leakDetectionMs > 0) {
+                for (PooledConnection pc : borrowed) {
+                    if (!pc.leakReported && now - pc.borrowedAt > leakDetectionMs) {
+                        pc.leakReported = true;
+                        leaksReported.increment();
+                        Thread borrower = pc.borrower;
+                        System.err.println("Possible connection leak: held for " + (now - pc.borrowedAt) + " ms by "
+                                + (borrower != null ? borrower.getName() : "an unknown thread"));
+                        // Where the borrower is now; still inside the code holding it unless that code leaked it and moved on.
+                        if (borrower != null && borrower.isAlive()) {
+                            for (StackTraceElement frame : borrower.getStackTrace()) {
+                                System.err.println("\tat " + frame);
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Pool could not restore minimum size: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("Pool housekeeping failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null) {
+            destroy(pc);
+        }
+        // Borrowed connections are destroyed when their borrowers give them back.
+    }
+
+    // ===== Stats =====
+
+    int activeCount() {
+        return borrowed.size();
+    }
+
+    int idleCount() {
+        return idle.size();
+    }
+
+    int minSize() {
+        return minSize;
+    }
+
+    int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Point-in-time view of pool counters, for sizing the pool under load.
+     */
+    record Stats(int active, int idle, int total, int max, long acquired, long waited, double avgWaitMs,
+                 double avgAcquireMs, double maxAcquireMs, long timeouts, long created, long destroyed,
+                 long leaks) {
+        @Override
+        public String toString() {
+            return String.format(
+                    "active=%d idle=%d total=%d max=%d | acquired=%d waited=%d avgWait=%.3fms "
+                            + "avgAcquire=%.3fms maxAcquire=%.3fms timeouts=%d | created=%d destroyed=%d leaks=%d",
+                    active, idle, total, max, acquired, waited, avgWaitMs, avgAcquireMs, maxAcquireMs,
+                    timeouts, created, destroyed, leaks);
+        }
+    }
+
+    Stats stats() {
+        long acq = acquired.sum();
+        long w = waited.sum();
+        return new Stats(
+                borrowed.size(),
+                idle.size(),
+                totalConnections.get(),
+                maxSize,
+                acq,
+                w,
+                w == 0 ? 0 : waitNanos.sum() / 1e6 / w,
+                acq == 0 ? 0 : acquireNanos.sum() / 1e6 / acq,
+                maxAcquireNanos.get() / 1e6,
+                timeouts.sum(),
+                created.sum(),
+                destroyed.sum(),
+                leaksReported.sum());
+    }
+
+    // ===== Pooled connection + proxy handle =====
+
+    private final class PooledConnection {
+        final Connection physical;
+        final StatementCache statements; // null when pool.statementCacheSize=0
+        volatile long lastUsed = System.currentTimeMillis();
+        volatile long borrowedAt;
+        volatile Thread borrower;
+        volatile boolean leakReported;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.statements = statementCacheSize > 0 ? new StatementCache(physical, statementCacheSize) : null;
+        }
+
+        Connection newHandle(Runnable onClose) {
+            return (Connection) Proxy.newProxyInstance(
+                    ConnectionPool.class.getClassLoader(),
+                    new Class<?>[]{Connection.class},
+                    new Handle(this, onClose));
+        }
+    }
+
+    /**
+     * One borrow of a pooled connection. After close() the handle is dead even though
+     * the physical connection lives on in the pool.
+     */
+    private final class Handle implements InvocationHandler {
+        private final PooledConnection pc;
+        private final Runnable onClose; // may be null
+        private final AtomicBoolean released = new AtomicBoolean(); // close() may race the leak/validation path
+
+        Handle(PooledConnection pc, Runnable onClose) {
+            this.pc = pc;
+            this.onClose = onClose;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (released.compareAndSet(false, true)) {
+                        release(pc);
+                        if (onClose != null) {
+                            onClose.run();
+                        }
+                    }
+                    return null;
+                case "isClosed":
+                    return released.get() || pc.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + pc.physical + "]";
+                default:
+                    if (released.get()) {
+                        throw new SQLException("Connection has already been returned to the pool");
+                    }
+            }
+            Object result = null;
+            if (pc.statements != null && args != null && args.length == 1) {
+                if (method.getName().equals("prepareStatement")) {
+                    result = pc.statements.prepareStatement((String) args[0], (Connection) proxy);
+                } else if (method.getName().equals("prepareCall")) {
+                    result = pc.statements.prepareCall((String) args[0], (Connection) proxy);
+                }
+            }
+            if (result == null) {
+                try {
+                    result = method.invoke(pc.physical, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+            QueryMetrics m = metrics;
+            if (m != null && result instanceof Statement stmt) {
+                String sql = (args != null && args.length > 0 && args[0] instanceof String s) ? s : null;
+                return m.wrap(stmt, sql);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Where a component gets a connection when it has to go to the database
+ * (normally {@code pool::getConnection}). The caller closes what it gets.
+ */
+@FunctionalInterface
+interface ConnectionSource {
+    Connection get() throws SQLException;
+}
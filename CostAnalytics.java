@@ -0,0 +1,637 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Billing rollups of Appointment.Cost and Medication.Cost: count, total and average by PlanID,
+ * hospital, doctor discipline and month. Medication has no hospital or date, so those two
+ * rollups cover appointments only. Appointment.PlanID is read as stored, which includes plans
+ * filled in by App_BI_DefaultPlan.
+ * <p>
+ * Two strategies give the same totals:
+ * CLIENT streams both tables once, split into PatientID/MedicationID ranges that fork-join tasks
+ * scan on their own pooled connections, summing cents into primitive accumulators that are merged on join;
+ * SERVER runs one GROUP BY per rollup, all at once, and ships only the groups.
+ * AUTO uses the faster one of the last comparison, or SERVER before any comparison.
+ * SNAPSHOT runs the same rollups over the memory-mapped ColumnarSnapshot files instead of the
+ * database, so its totals, disciplines included, are as of the last export.
+ */
+final class CostAnalytics {
+
+    enum Strategy { CLIENT, SERVER, AUTO, SNAPSHOT }
+
+    enum Dimension { PLAN, HOSPITAL, DISCIPLINE, MONTH }
+
+    enum Source { APPOINTMENT, MEDICATION }
+
+    /**
+     * Totals of one run: totals(source, dimension) plus how long it took.
+     */
+    record Report(Strategy strategy, Totals[][] totals, String[] disciplines, long rows, long elapsedNanos) {
+        Totals totals(Source source, Dimension dimension) {
+            return totals[source.ordinal()][dimension.ordinal()];
+        }
+
+        /**
+         * Label for a DISCIPLINE key.
+         */
+        String discipline(int key) {
+            return key == Totals.NONE ? "(none)" : disciplines[key];
+        }
+
+        double elapsedMs() {
+            return elapsedNanos / 1e6;
+        }
+    }
+
+    /**
+     * Both runs of compare(). mismatches names each (source, dimension) whose totals differ; a write
+     * landing between the two runs does that, so it is a warning rather than an error.
+     */
+    record Comparison(Report client, Report server, List<String> mismatches) {
+    }
+
+    private final ConnectionSource source;
+    private final int parallelism;
+    private final int fetchSize;
+    private final Path snapshotDir;
+    private volatile Strategy faster; // set by compare()
+
+    CostAnalytics(ConnectionSource source, int parallelism, int fetchSize, Path snapshotDir) {
+        this.source = source;
+        this.parallelism = Math.max(1, parallelism);
+        this.fetchSize = fetchSize;
+        this.snapshotDir = snapshotDir;
+    }
+
+    static CostAnalytics fromProperties(Properties props, ConnectionSource source, int maxPoolSize) {
+        return new CostAnalytics(source,
+                ConnectionPool.intProp(props, "analytics.parallelism", Math.max(1, maxPoolSize / 2)),
+                ConnectionPool.intProp(props, "analytics.fetchSize", Integer.MIN_VALUE),
+                SnapshotExporter.snapshotDir(props));
+    }
+
+    Report run(Strategy strategy) throws SQLException, IOException {
+        if (strategy == Strategy.AUTO) {
+            strategy = faster != null ? faster : Strategy.SERVER;
+        }
+        return switch (strategy) {
+            case CLIENT -> runClient();
+            case SNAPSHOT -> runSnapshot();
+            default -> runServer();
+        };
+    }
+
+    /**
+     * Runs both strategies, remembers the faster one for AUTO, and lists where their totals differ.
+     */
+    Comparison compare() throws SQLException {
+        Report client = runClient();
+        Report server = runServer();
+        // Each run numbers disciplines in the order it meets them, so match those keys by name.
+        Map<String, Integer> serverDiscipline = new HashMap<>();
+        for (int i = 0; i < server.disciplines().length; i++) {
+            serverDiscipline.put(server.disciplines()[i], i);
+        }
+        IntUnaryOperator byName = k -> k == Totals.NONE ? k : serverDiscipline.getOrDefault(client.discipline(k), -1);
+        List<String> mismatches = new ArrayList<>();
+        for (Source s : Source.values()) {
+            for (Dimension d : Dimension.values()) {
+                IntUnaryOperator key = d == Dimension.DISCIPLINE ? byName : IntUnaryOperator.identity();
+                if (!client.totals(s, d).sameAs(server.totals(s, d), key)) {
+                    mismatches.add(s + " by " + d);
+                }
+            }
+        }
+        faster = client.elapsedNanos() <= server.elapsedNanos() ? Strategy.CLIENT : Strategy.SERVER;
+        return new Comparison(client, server, mismatches);
+    }
+
+    // ===== CLIENT: one parallel scan =====
+
+    // Discipline comes from the same join as SERVER's, so both see one Doctor table.
+    private static final String APPOINTMENT_SCAN =
+            "SELECT d.Discipline, a.HospitalID, a.PlanID, EXTRACT(YEAR_MONTH FROM a.ApptDate), "
+            + "CAST(a.Cost * 100 AS SIGNED) FROM Appointment a JOIN Doctor d ON d.DoctorID = a.DoctorID "
+            + "WHERE a.PatientID BETWEEN ? AND ?";
+    private static final String MEDICATION_SCAN =
+            "SELECT d.Discipline, m.PlanID, CAST(m.Cost * 100 AS SIGNED) "
+            + "FROM Medication m JOIN Doctor d ON d.DoctorID = m.DoctorID WHERE m.MedicationID BETWEEN ? AND ?";
+
+    private Report runClient() throws SQLException {
+        long start = System.nanoTime();
+        Disciplines disciplines = new Disciplines();
+
+        int[] patients = keyRange("SELECT MIN(PatientID), MAX(PatientID) FROM Appointment");
+        int[] meds = keyRange("SELECT MIN(MedicationID), MAX(MedicationID) FROM Medication");
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            Scan a = new Scan(Source.APPOINTMENT, patients[0], patients[1], leafSpan(patients), disciplines);
+            Scan m = new Scan(Source.MEDICATION, meds[0], meds[1], leafSpan(meds), disciplines);
+            pool.execute(m);
+            Totals[] appointments = pool.invoke(a);
+            Totals[] medications = m.join();
+            return new Report(Strategy.CLIENT, new Totals[][]{appointments, medications},
+                    disciplines.names(), appointments[0].rows() + medications[0].rows(),
+                    System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            throw sqlCause(e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // About four leaves per worker, so a slow range does not hold up the others for long.
+    private int leafSpan(int[] range) {
+        long span = (long) range[1] - range[0] + 1;
+        return (int) Math.max(1, span / (parallelism * 4L));
+    }
+
+    /**
+     * Scans keys [lo, hi] of one table: splits in halves down to leafSpan, merges the halves' totals on join.
+     */
+    private final class Scan extends RecursiveTask<Totals[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final Source table;
+        private final int lo;
+        private final int hi;
+        private final int leafSpan;
+        private final Disciplines disciplines;
+
+        Scan(Source table, int lo, int hi, int leafSpan, Disciplines disciplines) {
+            this.table = table;
+            this.lo = lo;
+            this.hi = hi;
+            this.leafSpan = leafSpan;
+            this.disciplines = disciplines;
+        }
+
+        @Override
+        protected Totals[] compute() {
+            if (hi < lo) {
+                return emptyTotals();
+            }
+            if ((long) hi - lo + 1 > leafSpan) {
+                int mid = (int) (((long) lo + hi) >>> 1);
+                Scan right = new Scan(table, mid + 1, hi, leafSpan, disciplines);
+                right.fork();
+                Totals[] left = new Scan(table, lo, mid, leafSpan, disciplines).compute();
+                Totals[] r = right.join();
+                for (int d = 0; d < left.length; d++) {
+                    left[d].merge(r[d]);
+                }
+                return left;
+            }
+            try {
+                return scan();
+            } catch (SQLException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        }
+
+        private Totals[] scan() throws SQLException {
+            Totals[] t = emptyTotals();
+            Totals plan = t[Dimension.PLAN.ordinal()];
+            Totals discipline = t[Dimension.DISCIPLINE.ordinal()];
+            boolean appointment = table == Source.APPOINTMENT;
+            Map<String, Integer> keys = new HashMap<>(); // this leaf's view of disciplines, to skip the lock per row
+            try (Connection conn = source.get();
+                 PreparedStatement ps = conn.prepareStatement(appointment ? APPOINTMENT_SCAN : MEDICATION_SCAN,
+                         ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                ps.setFetchSize(fetchSize);
+                ps.setInt(1, lo);
+                ps.setInt(2, hi);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (appointment) {
+                        Totals hospital = t[Dimension.HOSPITAL.ordinal()];
+                        Totals month = t[Dimension.MONTH.ordinal()];
+                        while (rs.next()) {
+                            int disciplineKey = disciplineKey(keys, rs.getString(1));
+                            int hospitalId = rs.getInt(2);
+                            int planId = rs.getInt(3);
+                            boolean noPlan = rs.wasNull();
+                            int yearMonth = rs.getInt(4);
+                            long cents = rs.getLong(5);
+                            plan.add(noPlan ? Totals.NONE : planId, cents);
+                            hospital.add(hospitalId, cents);
+                            discipline.add(disciplineKey, cents);
+                            month.add(yearMonth, cents);
+                        }
+                    } else {
+                        while (rs.next()) {
+                            int disciplineKey = disciplineKey(keys, rs.getString(1));
+                            int planId = rs.getInt(2);
+                            boolean noPlan = rs.wasNull();
+                            long cents = rs.getLong(3);
+                            plan.add(noPlan ? Totals.NONE : planId, cents);
+                            discipline.add(disciplineKey, cents);
+                        }
+                    }
+                }
+            }
+            return t;
+        }
+
+        private int disciplineKey(Map<String, Integer> keys, String name) {
+            if (name == null) {
+                return Totals.NONE;
+            }
+            Integer key = keys.get(name);
+            if (key == null) {
+                key = disciplines.key(name);
+                keys.put(name, key);
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Discipline name to key, numbered in the order one run meets them; shared by that run's tasks.
+     */
+    private static final class Disciplines {
+        private final Map<String, Integer> index = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+
+        synchronized int key(String name) {
+            if (name == null) {
+                return Totals.NONE;
+            }
+            return index.computeIfAbsent(name, k -> {
+                names.add(k);
+                return names.size() - 1;
+            });
+        }
+
+        synchronized String[] names() {
+            return names.toArray(new String[0]);
+        }
+    }
+
+    private int[] keyRange(String sql) throws SQLException {
+        try (Connection conn = source.get();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            int min = rs.getInt(1);
+            return rs.wasNull() ? new int[]{1, 0} : new int[]{min, rs.getInt(2)};
+        }
+    }
+
+    // ===== SNAPSHOT: scan of the mapped columnar files =====
+
+    private static final int SNAPSHOT_CHUNK_ROWS = 1 << 18;
+
+    private record Chunk(Source table, ColumnarSnapshot.Segment segment, int from, int to) {
+    }
+
+    private Report runSnapshot() throws IOException {
+        long start = System.nanoTime();
+        Disciplines disciplines = new Disciplines();
+        int[] disciplineOf = snapshotDisciplines(disciplines);
+
+        List<Chunk> chunks = new ArrayList<>();
+        for (Source s : Source.values()) {
+            ColumnarSnapshot.Table table = s == Source.APPOINTMENT
+                    ? ColumnarSnapshot.Table.APPOINTMENT : ColumnarSnapshot.Table.MEDICATION;
+            ColumnarSnapshot snapshot = ColumnarSnapshot.open(snapshotDir.resolve(table.fileName), table);
+            for (ColumnarSnapshot.Segment seg : snapshot.segments()) {
+                for (int from = 0; from < seg.rows; from += SNAPSHOT_CHUNK_ROWS) {
+                    chunks.add(new Chunk(s, seg, from, Math.min(seg.rows, from + SNAPSHOT_CHUNK_ROWS)));
+                }
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            Totals[][] totals = pool.submit(() -> chunks.parallelStream()
+                    .map(c -> scanChunk(c, disciplineOf))
+                    .reduce((a, b) -> {
+                        for (int s = 0; s < a.length; s++) {
+                            for (int d = 0; d < a[s].length; d++) {
+                                a[s][d].merge(b[s][d]);
+                            }
+                        }
+                        return a;
+                    })
+                    .orElseGet(() -> new Totals[][]{emptyTotals(), emptyTotals()})).join();
+            long rows = totals[0][0].rows() + totals[1][0].rows();
+            return new Report(Strategy.SNAPSHOT, totals, disciplines.names(), rows,
+                    System.nanoTime() - start);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static final int APPT_DOCTOR = ColumnarSnapshot.Table.APPOINTMENT.column("DoctorID");
+    private static final int APPT_HOSPITAL = ColumnarSnapshot.Table.APPOINTMENT.column("HospitalID");
+    private static final int APPT_DATE = ColumnarSnapshot.Table.APPOINTMENT.column("ApptDate");
+    private static final int APPT_COST = ColumnarSnapshot.Table.APPOINTMENT.column("Cost");
+    private static final int APPT_PLAN = ColumnarSnapshot.Table.APPOINTMENT.column("PlanID");
+    private static final int MED_DOCTOR = ColumnarSnapshot.Table.MEDICATION.column("DoctorID");
+    private static final int MED_COST = ColumnarSnapshot.Table.MEDICATION.column("Cost");
+    private static final int MED_PLAN = ColumnarSnapshot.Table.MEDICATION.column("PlanID");
+    private static final int DOC_ID = ColumnarSnapshot.Table.DOCTOR.column("DoctorID");
+    private static final int DOC_DISCIPLINE = ColumnarSnapshot.Table.DOCTOR.column("Discipline");
+
+    // DoctorID -> discipline key (NONE when the doctor has none), from the Doctor copy taken in the
+    // same export as the rows, not from the live table.
+    private int[] snapshotDisciplines(Disciplines disciplines) throws IOException {
+        ColumnarSnapshot doctors = ColumnarSnapshot.open(snapshotDir.resolve(ColumnarSnapshot.Table.DOCTOR.fileName),
+                ColumnarSnapshot.Table.DOCTOR);
+        int maxId = 0;
+        for (ColumnarSnapshot.Segment seg : doctors.segments()) {
+            for (int row = 0; row < seg.rows; row++) {
+                maxId = Math.max(maxId, seg.getInt(DOC_ID, row));
+            }
+        }
+        int[] disciplineOf = new int[maxId + 1];
+        Arrays.fill(disciplineOf, Totals.NONE);
+        for (ColumnarSnapshot.Segment seg : doctors.segments()) {
+            for (int row = 0; row < seg.rows; row++) {
+                if (seg.live(row)) {
+                    disciplineOf[seg.getInt(DOC_ID, row)] =
+                            disciplines.key(doctors.dictionaryValue(DOC_DISCIPLINE, seg.getInt(DOC_DISCIPLINE, row)));
+                }
+            }
+        }
+        return disciplineOf;
+    }
+
+    // Reads values in place from the mapping; rows replaced or deleted by a later export are skipped.
+    private static Totals[][] scanChunk(Chunk c, int[] disciplineOf) {
+        Totals[][] all = {emptyTotals(), emptyTotals()};
+        Totals[] t = all[c.table().ordinal()];
+        Totals plan = t[Dimension.PLAN.ordinal()];
+        Totals discipline = t[Dimension.DISCIPLINE.ordinal()];
+        ColumnarSnapshot.Segment seg = c.segment();
+        if (c.table() == Source.APPOINTMENT) {
+            Totals hospital = t[Dimension.HOSPITAL.ordinal()];
+            Totals month = t[Dimension.MONTH.ordinal()];
+            for (int row = c.from(); row < c.to(); row++) {
+                if (seg.live(row)) {
+                    long cents = seg.getLong(APPT_COST, row);
+                    int planId = seg.getInt(APPT_PLAN, row);
+                    plan.add(planId == ColumnarSnapshot.NULL_INT ? Totals.NONE : planId, cents);
+                    hospital.add(seg.getInt(APPT_HOSPITAL, row), cents);
+                    discipline.add(disciplineOf(disciplineOf, seg.getInt(APPT_DOCTOR, row)), cents);
+                    month.add(yearMonth(seg.getInt(APPT_DATE, row)), cents);
+                }
+            }
+        } else {
+            for (int row = c.from(); row < c.to(); row++) {
+                if (seg.live(row)) {
+                    long cents = seg.getLong(MED_COST, row);
+                    int planId = seg.getInt(MED_PLAN, row);
+                    plan.add(planId == ColumnarSnapshot.NULL_INT ? Totals.NONE : planId, cents);
+                    discipline.add(disciplineOf(disciplineOf, seg.getInt(MED_DOCTOR, row)), cents);
+                }
+            }
+        }
+        return all;
+    }
+
+    private static int disciplineOf(int[] disciplineOf, int doctorId) {
+        return doctorId >= 0 && doctorId < disciplineOf.length ? disciplineOf[doctorId] : Totals.NONE;
+    }
+
+    // Epoch day to YYYYMM, as EXTRACT(YEAR_MONTH ...) gives it, without a LocalDate per row
+    // (Hinnant's civil_from_days).
+    static int yearMonth(int epochDay) {
+        int z = epochDay + 719_468;
+        int era = Math.floorDiv(z, 146_097);
+        int doe = z - era * 146_097;
+        int yoe = (doe - doe / 1_460 + doe / 36_524 - doe / 146_096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int m = mp < 10 ? mp + 3 : mp - 9;
+        return (yoe + era * 400 + (m <= 2 ? 1 : 0)) * 100 + m;
+    }
+
+    // ===== SERVER: GROUP BY per rollup =====
+
+    private record GroupQuery(Source table, Dimension dimension, String sql) {
+    }
+
+    private static final List<GroupQuery> GROUP_QUERIES = List.of(
+            new GroupQuery(Source.APPOINTMENT, Dimension.PLAN,
+                    "SELECT PlanID, COUNT(*), CAST(SUM(Cost) * 100 AS SIGNED) FROM Appointment GROUP BY PlanID"),
+            new GroupQuery(Source.APPOINTMENT, Dimension.HOSPITAL,
+                    "SELECT HospitalID, COUNT(*), CAST(SUM(Cost) * 100 AS SIGNED) FROM Appointment GROUP BY HospitalID"),
+            new GroupQuery(Source.APPOINTMENT, Dimension.DISCIPLINE,
+                    "SELECT d.Discipline, COUNT(*), CAST(SUM(a.Cost) * 100 AS SIGNED) "
+                    + "FROM Appointment a JOIN Doctor d ON d.DoctorID = a.DoctorID GROUP BY d.Discipline"),
+            new GroupQuery(Source.APPOINTMENT, Dimension.MONTH,
+                    "SELECT EXTRACT(YEAR_MONTH FROM ApptDate) AS ym, COUNT(*), CAST(SUM(Cost) * 100 AS SIGNED) "
+                    + "FROM Appointment GROUP BY ym"),
+            new GroupQuery(Source.MEDICATION, Dimension.PLAN,
+                    "SELECT PlanID, COUNT(*), CAST(SUM(Cost) * 100 AS SIGNED) FROM Medication GROUP BY PlanID"),
+            new GroupQuery(Source.MEDICATION, Dimension.DISCIPLINE,
+                    "SELECT d.Discipline, COUNT(*), CAST(SUM(m.Cost) * 100 AS SIGNED) "
+                    + "FROM Medication m JOIN Doctor d ON d.DoctorID = m.DoctorID GROUP BY d.Discipline"));
+
+    private Report runServer() throws SQLException {
+        long start = System.nanoTime();
+        Totals[][] totals = {emptyTotals(), emptyTotals()};
+        Disciplines disciplines = new Disciplines();
+
+        ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, GROUP_QUERIES.size()));
+        try {
+            List<List<Object[]>> results = pool.submit(() -> GROUP_QUERIES.parallelStream()
+                    .map(q -> {
+                        try {
+                            return groups(q.sql());
+                        } catch (SQLException e) {
+                            throw new RuntimeException(e.getMessage(), e);
+                        }
+                    })
+                    .toList()).join();
+            for (int i = 0; i < results.size(); i++) {
+                GroupQuery q = GROUP_QUERIES.get(i);
+                Totals t = totals[q.table().ordinal()][q.dimension().ordinal()];
+                for (Object[] g : results.get(i)) {
+                    int key;
+                    if (g[0] == null) {
+                        key = Totals.NONE;
+                    } else if (q.dimension() == Dimension.DISCIPLINE) {
+                        key = disciplines.key((String) g[0]);
+                    } else {
+                        key = ((Number) g[0]).intValue();
+                    }
+                    t.add(key, (Long) g[1], (Long) g[2]);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw sqlCause(e);
+        } finally {
+            pool.shutdownNow();
+        }
+        long rows = totals[0][0].rows() + totals[1][0].rows();
+        return new Report(Strategy.SERVER, totals, disciplines.names(), rows, System.nanoTime() - start);
+    }
+
+    // One {key, count, cents} per group; a handful of rows, so boxing does not matter here.
+    private List<Object[]> groups(String sql) throws SQLException {
+        List<Object[]> groups = new ArrayList<>();
+        try (Connection conn = source.get();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                groups.add(new Object[]{rs.getObject(1), rs.getLong(2), rs.getLong(3)});
+            }
+        }
+        return groups;
+    }
+
+    // Fork-join may wrap a task's exception again when it rethrows it in the caller.
+    private static SQLException sqlCause(RuntimeException e) {
+        for (Throwable t = e.getCause(); t != null; t = t.getCause()) {
+            if (t instanceof SQLException se) {
+                return se;
+            }
+        }
+        throw e;
+    }
+
+    private static Totals[] emptyTotals() {
+        Totals[] t = new Totals[Dimension.values().length];
+        for (int i = 0; i < t.length; i++) {
+            t[i] = new Totals();
+        }
+        return t;
+    }
+
+    // ===== Accumulator =====
+
+    /**
+     * Row count and cost in cents per int key, in parallel primitive arrays (open addressing).
+     * Not thread-safe; every scan task fills its own and they are merged afterwards.
+     */
+    static final class Totals {
+        static final int NONE = Integer.MIN_VALUE; // NULL plan or discipline
+
+        private int[] keys = new int[16];
+        private long[] counts = new long[16];
+        private long[] cents = new long[16];
+        private boolean[] used = new boolean[16];
+        private int size;
+
+        void add(int key, long amountCents) {
+            add(key, 1, amountCents);
+        }
+
+        void add(int key, long count, long amountCents) {
+            int i = slot(key);
+            if (!used[i]) {
+                used[i] = true;
+                keys[i] = key;
+                if (++size > keys.length * 3 / 4) {
+                    grow();
+                    i = slot(key);
+                }
+            }
+            counts[i] += count;
+            cents[i] += amountCents;
+        }
+
+        void merge(Totals other) {
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.used[i]) {
+                    add(other.keys[i], other.counts[i], other.cents[i]);
+                }
+            }
+        }
+
+        long count(int key) {
+            int i = slot(key);
+            return used[i] ? counts[i] : 0;
+        }
+
+        long cents(int key) {
+            int i = slot(key);
+            return used[i] ? cents[i] : 0;
+        }
+
+        long rows() {
+            long n = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (used[i]) {
+                    n += counts[i];
+                }
+            }
+            return n;
+        }
+
+        /**
+         * Keys in ascending order (NONE first).
+         */
+        int[] sortedKeys() {
+            int[] out = new int[size];
+            int n = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (used[i]) {
+                    out[n++] = keys[i];
+                }
+            }
+            Arrays.sort(out);
+            return out;
+        }
+
+        /**
+         * Same groups with the same count and amount; keyInOther maps this object's keys to other's.
+         */
+        boolean sameAs(Totals other, IntUnaryOperator keyInOther) {
+            if (size != other.size) {
+                return false;
+            }
+            for (int k : sortedKeys()) {
+                int o = keyInOther.applyAsInt(k);
+                if (count(k) != other.count(o) || cents(k) != other.cents(o)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int slot(int key) {
+            int h = key * 0x9E3779B9;
+            int mask = keys.length - 1;
+            int i = (h ^ (h >>> 16)) & mask;
+            while (used[i] && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            long[] oldCounts = counts;
+            long[] oldCents = cents;
+            boolean[] oldUsed = used;
+            keys = new int[oldKeys.length * 2];
+            counts = new long[keys.length];
+            cents = new long[keys.length];
+            used = new boolean[keys.length];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    int j = slot(oldKeys[i]);
+                    used[j] = true;
+                    keys[j] = oldKeys[i];
+                    counts[j] = oldCounts[i];
+                    cents[j] = oldCents[i];
+                }
+            }
+        }
+    }
+}
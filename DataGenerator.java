@@ -0,0 +1,489 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Synthetic, referentially valid data for load testing, at a chosen scale factor.
+ * Scale 1 is 20 plans, 50 hospitals, 1,000 doctors, 100,000 patients, about 300,000 medications
+ * and 1,000,000 appointments; everything grows linearly, so scale 20 gives 20 million appointments.
+ * <p>
+ * Every value of a row is derived from (gen.seed, table, row number) alone, so the same seed gives
+ * the same rows no matter how many threads load them. IDs continue after the current maximum, so
+ * identical runs need the same starting point (a freshly loaded create_and_populate.sql).
+ * <p>
+ * Constraints hold by construction: appointment j goes to doctor j % D in that doctor's slot j / D
+ * (uq_doctor_slot), patients at one slot are a permutation of the doctors (Appointment primary key),
+ * costs stay inside ck_appt_cost/ck_med_cost and statuses inside ck_med_status.
+ * Rows are loaded in chunks on gen.threads pooled connections, as batched INSERTs (gen.mode=insert)
+ * or as tab-separated files through LOAD DATA LOCAL INFILE (gen.mode=infile).
+ */
+final class DataGenerator {
+
+    // Rows per unit of scale factor.
+    private static final int PLANS_PER_SCALE = 20;
+    private static final int HOSPITALS_PER_SCALE = 50;
+    private static final int DOCTORS_PER_SCALE = 1_000;
+    private static final int PATIENTS_PER_SCALE = 100_000;
+    private static final int APPOINTMENTS_PER_PATIENT = 10;
+
+    private static final int SLOTS_PER_DAY = 20; // 08:00-18:00 every 30 minutes
+    private static final String[] STATUSES = {"Paused", "Completed", "Ongoing"};
+
+    private static final String[] FIRST_NAMES = {"Alice", "Brian", "Carlos", "Diana", "Ethan", "Fatima", "George",
+            "Hana", "Ivan", "Julia", "Kevin", "Leila", "Marco", "Nina", "Omar", "Priya", "Quinn", "Rosa", "Sam",
+            "Tara", "Umar", "Vera", "Wei", "Ximena", "Yusuf", "Zoe"};
+    private static final String[] LAST_NAMES = {"Nguyen", "Chen", "Garcia", "Patel", "Smith", "Kim", "Johnson",
+            "Lee", "Martinez", "Brown", "Singh", "Lopez", "Davis", "Wong", "Khan", "Rossi", "Tanaka", "Silva"};
+    private static final String[] DISCIPLINES = {"Cardiology", "Pediatrics", "Dermatology", "Orthopedics",
+            "Neurology", "Oncology", "Radiology", "Psychiatry", "Endocrinology", "Family Medicine"};
+    private static final String[] PROVIDERS = {"Blue Shield", "Kaiser Permanente", "Aetna", "UnitedHealth",
+            "Cigna", "Humana", "Anthem", "Health Net"};
+    private static final String[] COVERAGES = {"Basic medical and emergency coverage",
+            "Comprehensive coverage including dental and vision", "Standard coverage with partial prescription benefits",
+            "Premium plan with full hospitalization and medication coverage"};
+    private static final String[] STREETS = {"Main St", "Elm St", "Oak St", "Apple Way", "Banana Blvd",
+            "Cherry Ct", "Date Dr", "Maple Ave", "Pine Rd", "Cedar Ln"};
+    private static final String[] CITIES = {"Sunnyvale", "San Jose", "Santa Clara", "Cupertino", "Mountain View",
+            "Palo Alto", "Milpitas", "Campbell"};
+    private static final String[] MEDICATIONS = {"Atorvastatin", "Amoxicillin", "Hydrocortisone Cream", "Ibuprofen",
+            "Metformin", "Lisinopril", "Albuterol", "Omeprazole", "Levothyroxine", "Sertraline", "Amlodipine"};
+    private static final String[] DOSAGES = {"10mg", "20mg", "200mg", "500mg", "Apply thin layer", "2 puffs"};
+    private static final String[] FREQUENCIES = {"Once daily", "Twice daily", "Every 6 hours", "As needed",
+            "Once weekly"};
+    private static final String[] REASONS = {"Routine check-up", "Flu symptoms", "Skin rash evaluation",
+            "Knee pain consultation", "Follow-up visit", "Blood pressure review", "Vaccination", "Lab results"};
+
+    /**
+     * How many rows of each table one run generates (medications are a per-patient draw, so approximate).
+     */
+    record Counts(int plans, int hospitals, int doctors, int patients, long appointments) {
+        static Counts forScale(double scale) {
+            int patients = Math.max(1, (int) Math.round(PATIENTS_PER_SCALE * scale));
+            return new Counts(
+                    Math.max(1, (int) Math.round(PLANS_PER_SCALE * scale)),
+                    Math.max(3, (int) Math.round(HOSPITALS_PER_SCALE * scale)),
+                    Math.max(1, Math.min(patients, (int) Math.round(DOCTORS_PER_SCALE * scale))),
+                    patients,
+                    (long) patients * APPOINTMENTS_PER_PATIENT);
+        }
+    }
+
+    record TableResult(String table, long rows, long elapsedNanos) {
+        double rowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+        }
+    }
+
+    /**
+     * Emits the rows for one generation unit (usually one row, but e.g. every link of one doctor).
+     */
+    @FunctionalInterface
+    private interface UnitWriter {
+        void write(long unit, SplittableRandom rnd, List<Object[]> out);
+    }
+
+    /**
+     * One generated table: the columns it fills and how unit i turns into rows.
+     */
+    private record Spec(String table, int salt, String[] columns, long units, UnitWriter writer) {
+    }
+
+    private final ConnectionSource source;
+    private final long seed;
+    private final int threads;
+    private final int batchSize;
+    private final int chunkUnits;
+    private final boolean infile;
+    private final Path dir;
+    private final LocalDate firstDay;
+
+    // IDs of the rows already in the database; generated IDs continue after them.
+    private int planBase;
+    private int hospitalBase;
+    private int doctorBase;
+    private int patientBase;
+    private Counts counts;
+    private int patientStride; // coprime to the patient count
+
+    DataGenerator(ConnectionSource source, long seed, int threads, int batchSize, int chunkUnits, boolean infile,
+                  Path dir, LocalDate firstDay) {
+        this.source = source;
+        this.seed = seed;
+        this.threads = Math.max(1, threads);
+        this.batchSize = Math.max(1, batchSize);
+        this.chunkUnits = Math.max(1, chunkUnits);
+        this.infile = infile;
+        this.dir = dir;
+        this.firstDay = firstDay;
+    }
+
+    static DataGenerator fromProperties(Properties props, ConnectionSource source, int maxPoolSize) {
+        return new DataGenerator(source,
+                ConnectionPool.longProp(props, "gen.seed", 42),
+                ConnectionPool.intProp(props, "gen.threads", maxPoolSize),
+                ConnectionPool.intProp(props, "gen.batchSize", 1000),
+                ConnectionPool.intProp(props, "gen.chunkRows", 50_000),
+                "infile".equalsIgnoreCase(props.getProperty("gen.mode", "insert").trim()),
+                Path.of(props.getProperty("gen.dir", "generated-data").trim()),
+                LocalDate.parse(props.getProperty("gen.startDate", "2024-01-01").trim()));
+    }
+
+    /**
+     * Generates and loads every table; parents are complete before their children start.
+     */
+    List<TableResult> generate(double scale) throws SQLException, IOException {
+        counts = Counts.forScale(scale);
+        patientStride = coprimeStride(counts.patients());
+        try (Connection conn = source.get()) {
+            planBase = maxId(conn, "SELECT COALESCE(MAX(PlanID), 0) FROM InsurancePlan");
+            hospitalBase = maxId(conn, "SELECT COALESCE(MAX(HospitalID), 0) FROM Hospital");
+            doctorBase = maxId(conn, "SELECT COALESCE(MAX(DoctorID), 0) FROM Doctor");
+            patientBase = maxId(conn, "SELECT COALESCE(MAX(PatientID), 0) FROM Patient");
+        }
+        if (infile) {
+            Files.createDirectories(dir);
+        }
+
+        List<TableResult> results = new ArrayList<>();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "data-generator");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            results.addAll(load(workers, plans(), hospitals(), doctors()));
+            results.addAll(load(workers, doctorHospitals(), patients()));
+            results.addAll(load(workers, medications(), appointments()));
+        } finally {
+            workers.shutdownNow();
+        }
+
+        try (Connection conn = source.get();
+             Statement st = conn.createStatement()) {
+            st.execute("ANALYZE TABLE InsurancePlan, Hospital, Doctor, DoctorHospital, Patient, Medication, Appointment");
+        }
+        return results;
+    }
+
+    // ===== Tables =====
+
+    private Spec plans() {
+        return new Spec("InsurancePlan", 1, new String[]{"PlanID", "Provider", "Coverage"}, counts.plans(),
+                (i, rnd, out) -> out.add(new Object[]{planBase + (int) i + 1,
+                        PROVIDERS[(int) (i % PROVIDERS.length)] + " " + (i / PROVIDERS.length + 1),
+                        pick(rnd, COVERAGES)}));
+    }
+
+    private Spec hospitals() {
+        return new Spec("Hospital", 2, new String[]{"HospitalID", "Name", "Address", "PhoneNumber"}, counts.hospitals(),
+                (i, rnd, out) -> {
+                    String city = pick(rnd, CITIES);
+                    out.add(new Object[]{hospitalBase + (int) i + 1, city + " Medical Center " + (i + 1),
+                            address(rnd, city), phone(rnd)});
+                });
+    }
+
+    private Spec doctors() {
+        return new Spec("Doctor", 3, new String[]{"DoctorID", "Name", "Discipline", "Email", "PhoneNumber"},
+                counts.doctors(), (i, rnd, out) -> {
+                    String first = pick(rnd, FIRST_NAMES);
+                    String last = pick(rnd, LAST_NAMES);
+                    out.add(new Object[]{doctorBase + (int) i + 1, "Dr. " + first + " " + last, pick(rnd, DISCIPLINES),
+                            (first.charAt(0) + last + ".d" + (i + 1) + "@clinic.example").toLowerCase(), phone(rnd)});
+                });
+    }
+
+    private Spec doctorHospitals() {
+        return new Spec("DoctorHospital", 4, new String[]{"HospitalID", "DoctorID"}, counts.doctors(),
+                (d, rnd, out) -> {
+                    for (int h : hospitalsOf(d)) {
+                        out.add(new Object[]{hospitalBase + h + 1, doctorBase + (int) d + 1});
+                    }
+                });
+    }
+
+    private Spec patients() {
+        return new Spec("Patient", 5,
+                new String[]{"PatientID", "Name", "Birthdate", "Email", "PhoneNumber", "Address", "PlanID"},
+                counts.patients(), (i, rnd, out) -> {
+                    String first = pick(rnd, FIRST_NAMES);
+                    String last = pick(rnd, LAST_NAMES);
+                    String city = pick(rnd, CITIES);
+                    out.add(new Object[]{patientBase + (int) i + 1, first + " " + last,
+                            LocalDate.of(1930, 1, 1).plusDays(rnd.nextInt(30_000)),
+                            (first + "." + last + (i + 1) + "@email.example").toLowerCase(), phone(rnd),
+                            address(rnd, city), planOf(i)});
+                });
+    }
+
+    private Spec medications() {
+        return new Spec("Medication", 6,
+                new String[]{"PatientID", "DoctorID", "Name", "Cost", "Status", "Dosage", "Frequency", "PlanID"},
+                counts.patients(), (p, rnd, out) -> {
+                    int n = rnd.nextInt(7); // 0..6, three on average
+                    for (int k = 0; k < n; k++) {
+                        out.add(new Object[]{patientBase + (int) p + 1, doctorBase + rnd.nextInt(counts.doctors()) + 1,
+                                pick(rnd, MEDICATIONS), BigDecimal.valueOf(rnd.nextInt(100_001), 2), // 0.00-1000.00
+                                STATUSES[rnd.nextInt(STATUSES.length)], pick(rnd, DOSAGES), pick(rnd, FREQUENCIES),
+                                planOf(p)});
+                    }
+                });
+    }
+
+    private Spec appointments() {
+        int doctors = counts.doctors();
+        int patients = counts.patients();
+        return new Spec("Appointment", 7,
+                new String[]{"PatientID", "DoctorID", "HospitalID", "ApptDate", "ApptTime", "VisitReason", "Cost", "PlanID"},
+                counts.appointments(), (j, rnd, out) -> {
+                    int d = (int) (j % doctors);
+                    long k = j / doctors; // the doctor's k-th slot; (doctor, slot) is unique per j
+                    // For a fixed slot, d -> patient is injective (stride coprime, doctors <= patients),
+                    // so no patient has two appointments at the same date and time.
+                    int p = (int) ((d * (long) patientStride + k * 7919L) % patients);
+                    int[] hs = hospitalsOf(d);
+                    out.add(new Object[]{patientBase + p + 1, doctorBase + d + 1,
+                            hospitalBase + hs[rnd.nextInt(hs.length)] + 1,
+                            firstDay.plusDays(k / SLOTS_PER_DAY),
+                            LocalTime.of(8, 0).plusMinutes(30L * (k % SLOTS_PER_DAY)),
+                            pick(rnd, REASONS), BigDecimal.valueOf(2_000 + rnd.nextInt(78_001), 2), // 20.00-800.00
+                            planOf(p)});
+                });
+    }
+
+    // Up to three distinct hospitals per doctor, a pure function of the doctor so appointments agree.
+    private int[] hospitalsOf(long d) {
+        SplittableRandom rnd = new SplittableRandom(mix(seed, 40, d));
+        int n = Math.min(counts.hospitals(), 1 + rnd.nextInt(3));
+        int first = rnd.nextInt(counts.hospitals());
+        int[] hs = new int[n];
+        for (int i = 0; i < n; i++) {
+            hs[i] = (first + i) % counts.hospitals();
+        }
+        return hs;
+    }
+
+    // Patient's plan (1 in 10 has none); appointments and medications copy it.
+    private Integer planOf(long p) {
+        SplittableRandom rnd = new SplittableRandom(mix(seed, 50, p));
+        return rnd.nextInt(10) == 0 ? null : planBase + rnd.nextInt(counts.plans()) + 1;
+    }
+
+    // ===== Loading =====
+
+    /**
+     * Loads the given tables concurrently, each split into chunks of gen.chunkRows units.
+     */
+    private List<TableResult> load(ExecutorService workers, Spec... specs) throws SQLException, IOException {
+        List<Future<?>> futures = new ArrayList<>();
+        LongAdder[] rows = new LongAdder[specs.length];
+        long start = System.nanoTime();
+        for (int s = 0; s < specs.length; s++) {
+            Spec spec = specs[s];
+            rows[s] = new LongAdder();
+            LongAdder tableRows = rows[s];
+            for (long from = 0; from < spec.units(); from += chunkUnits) {
+                long lo = from;
+                long hi = Math.min(spec.units(), from + chunkUnits);
+                futures.add(workers.submit(() -> {
+                    tableRows.add(infile ? loadFile(spec, lo, hi) : insert(spec, lo, hi));
+                    return null;
+                }));
+            }
+        }
+        try {
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while generating data", e);
+        } catch (ExecutionException e) {
+            for (Future<?> f : futures) {
+                f.cancel(true);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException se) {
+                throw se;
+            }
+            if (cause instanceof IOException ioe) {
+                throw ioe;
+            }
+            throw new SQLException("Data generation failed: " + cause, cause);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        List<TableResult> results = new ArrayList<>();
+        for (int s = 0; s < specs.length; s++) {
+            results.add(new TableResult(specs[s].table(), rows[s].sum(), elapsed));
+        }
+        return results;
+    }
+
+    private long insert(Spec spec, long from, long to) throws SQLException {
+        String sql = "INSERT INTO " + spec.table() + " (" + String.join(", ", spec.columns()) + ") VALUES ("
+                + "?" + ", ?".repeat(spec.columns().length - 1) + ")";
+        List<Object[]> buffer = new ArrayList<>();
+        long rows = 0;
+        try (Connection conn = source.get()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                int pending = 0;
+                for (long i = from; i < to; i++) {
+                    buffer.clear();
+                    spec.writer().write(i, new SplittableRandom(mix(seed, spec.salt(), i)), buffer);
+                    for (Object[] row : buffer) {
+                        for (int c = 0; c < row.length; c++) {
+                            ps.setObject(c + 1, row[c]);
+                        }
+                        ps.addBatch();
+                        rows++;
+                        if (++pending == batchSize) {
+                            ps.executeBatch();
+                            pending = 0;
+                        }
+                    }
+                }
+                if (pending > 0) {
+                    ps.executeBatch();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Writes the chunk as a tab-separated file and loads it with LOAD DATA LOCAL INFILE.
+     * Needs allowLoadLocalInfile=true on db.url and local_infile=ON on the server.
+     */
+    private long loadFile(Spec spec, long from, long to) throws SQLException, IOException {
+        Path file = dir.resolve(spec.table() + "-" + seed + "-" + from + ".tsv").toAbsolutePath();
+        List<Object[]> buffer = new ArrayList<>();
+        StringBuilder line = new StringBuilder(256);
+        long rows = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (long i = from; i < to; i++) {
+                buffer.clear();
+                spec.writer().write(i, new SplittableRandom(mix(seed, spec.salt(), i)), buffer);
+                for (Object[] row : buffer) {
+                    line.setLength(0);
+                    for (int c = 0; c < row.length; c++) {
+                        if (c > 0) {
+                            line.append('\t');
+                        }
+                        appendTsv(line, row[c]);
+                    }
+                    line.append('\n');
+                    out.append(line);
+                    rows++;
+                }
+            }
+        }
+
+        String sql = "LOAD DATA LOCAL INFILE '" + file.toString().replace("\\", "\\\\").replace("'", "\\'")
+                + "' INTO TABLE " + spec.table() + " CHARACTER SET utf8mb4"
+                + " FIELDS TERMINATED BY '\\t' LINES TERMINATED BY '\\n' (" + String.join(", ", spec.columns()) + ")";
+        try (Connection conn = source.get();
+             Statement st = conn.createStatement()) {
+            st.execute(sql);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        return rows;
+    }
+
+    private static void appendTsv(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("\\N");
+            return;
+        }
+        String s = value.toString();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\t' -> sb.append("\\t");
+                case '\n' -> sb.append("\\n");
+                case '\\' -> sb.append("\\\\");
+                default -> sb.append(c);
+            }
+        }
+    }
+
+    // ===== Helpers =====
+
+    /**
+     * SplitMix64 finalizer over (seed, table, row): independent, reproducible streams per row.
+     */
+    static long mix(long seed, int salt, long i) {
+        long z = seed + salt * 0x9E3779B97F4A7C15L + (i + 1) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // A stride near the golden ratio of n that shares no factor with n.
+    static int coprimeStride(int n) {
+        if (n <= 2) {
+            return 1;
+        }
+        int s = (int) (n * 0.6180339887) | 1;
+        while (gcd(s, n) != 1) {
+            s += 2;
+        }
+        return s % n;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static String pick(SplittableRandom rnd, String[] values) {
+        return values[rnd.nextInt(values.length)];
+    }
+
+    private static String phone(SplittableRandom rnd) {
+        return "408-" + (100 + rnd.nextInt(900)) + "-" + (1000 + rnd.nextInt(9000));
+    }
+
+    private static String address(SplittableRandom rnd, String city) {
+        return (1 + rnd.nextInt(9999)) + " " + pick(rnd, STREETS) + ", " + city + ", CA";
+    }
+
+    private static int maxId(Connection conn, String sql) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Moves doctors from one hospital to another (DoctorHospital plus their Appointments).
+ * All inputs are collected before the transaction starts, so no lock is ever held while a person
+ * is typing. One query validates every doctor, hospital and assignment of the batch, then the two
+ * UPDATEs run as batches in a short transaction that is retried on deadlock or lock wait timeout.
+ */
+final class DoctorTransferService {
+
+    record Transfer(int doctorId, int fromHospitalId, int toHospitalId) {
+    }
+
+    /**
+     * Outcome of one batch; problems is empty when every transfer was valid.
+     */
+    record Result(boolean committed, List<String> problems, int linkRows, int appointmentRows, int attempts) {
+    }
+
+    // MySQL error codes worth retrying: the transaction was rolled back (or never got its lock).
+    private static final int ER_LOCK_DEADLOCK = 1213;
+    private static final int ER_LOCK_WAIT_TIMEOUT = 1205;
+
+    private static final String UPDATE_LINK =
+            "UPDATE DoctorHospital SET HospitalID = ? WHERE DoctorID = ? AND HospitalID = ?";
+    private static final String UPDATE_APPOINTMENTS =
+            "UPDATE Appointment SET HospitalID = ? WHERE DoctorID = ? AND HospitalID = ?";
+
+    private final ConnectionSource source;
+    private final int maxRetries;
+    private final long backoffMs;
+
+    DoctorTransferService(ConnectionSource source, int maxRetries, long backoffMs) {
+        this.source = source;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.backoffMs = Math.max(1, backoffMs);
+    }
+
+    static DoctorTransferService fromProperties(Properties props, ConnectionSource source) {
+        return new DoctorTransferService(source,
+                ConnectionPool.intProp(props, "transfer.maxRetries", 3),
+                ConnectionPool.longProp(props, "transfer.retryBackoffMs", 50));
+    }
+
+    /**
+     * Validates and applies the transfers as one transaction.
+     *
+     * @param rollbackOnly run both UPDATEs, then roll back instead of committing (demo of ROLLBACK)
+     */
+    Result transfer(List<Transfer> transfers, boolean rollbackOnly) throws SQLException {
+        if (transfers.isEmpty()) {
+            return new Result(false, List.of("No transfers given."), 0, 0, 0);
+        }
+        List<String> problems = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        for (Transfer t : transfers) {
+            if (!seen.add(t.doctorId())) {
+                problems.add("DoctorID " + t.doctorId() + " appears more than once in the batch.");
+            }
+            if (t.fromHospitalId() == t.toHospitalId()) {
+                problems.add("DoctorID " + t.doctorId() + ": current and new HospitalID are the same.");
+            }
+        }
+        if (problems.isEmpty()) {
+            problems.addAll(validate(transfers));
+        }
+        if (!problems.isEmpty()) {
+            return new Result(false, problems, 0, 0, 0);
+        }
+
+        // Same lock order for every batch, so two concurrent batches cannot deadlock on each other.
+        List<Transfer> ordered = new ArrayList<>(transfers);
+        ordered.sort(Comparator.comparingInt(Transfer::doctorId).thenComparingInt(Transfer::fromHospitalId));
+
+        return withRetries(maxRetries, backoffMs, "doctor transfer", attempt -> apply(ordered, rollbackOnly, attempt));
+    }
+
+    /**
+     * One round trip for the whole batch: a row per transfer telling which of its entities exist.
+     */
+    private List<String> validate(List<Transfer> transfers) throws SQLException {
+        String oneRow = "SELECT ? AS idx, " +
+                "EXISTS(SELECT 1 FROM Doctor WHERE DoctorID = ?) AS doctor_ok, " +
+                "EXISTS(SELECT 1 FROM Hospital WHERE HospitalID = ?) AS current_ok, " +
+                "EXISTS(SELECT 1 FROM Hospital WHERE HospitalID = ?) AS new_ok, " +
+                "EXISTS(SELECT 1 FROM DoctorHospital WHERE DoctorID = ? AND HospitalID = ?) AS link_ok";
+        String sql = String.join(" UNION ALL ", Collections.nCopies(transfers.size(), oneRow));
+
+        List<String> problems = new ArrayList<>();
+        try (Connection conn = source.get();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            int p = 1;
+            for (int i = 0; i < transfers.size(); i++) {
+                Transfer t = transfers.get(i);
+                ps.setInt(p++, i);
+                ps.setInt(p++, t.doctorId());
+                ps.setInt(p++, t.fromHospitalId());
+                ps.setInt(p++, t.toHospitalId());
+                ps.setInt(p++, t.doctorId());
+                ps.setInt(p++, t.fromHospitalId());
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Transfer t = transfers.get(rs.getInt("idx"));
+                    String who = "DoctorID " + t.doctorId() + ": ";
+                    if (!rs.getBoolean("doctor_ok")) {
+                        problems.add(who + "no doctor found with that ID.");
+                        continue;
+                    }
+                    if (!rs.getBoolean("current_ok")) {
+                        problems.add(who + "no hospital found with CURRENT HospitalID " + t.fromHospitalId() + ".");
+                    }
+                    if (!rs.getBoolean("new_ok")) {
+                        problems.add(who + "no hospital found with NEW HospitalID " + t.toHospitalId() + ".");
+                    }
+                    if (rs.getBoolean("current_ok") && !rs.getBoolean("link_ok")) {
+                        problems.add(who + "not currently assigned to HospitalID " + t.fromHospitalId() + " in DoctorHospital.");
+                    }
+                }
+            }
+        }
+        return problems;
+    }
+
+    private Result apply(List<Transfer> transfers, boolean rollbackOnly, int attempt) throws SQLException {
+        try (Connection conn = source.get()) {
+            conn.setAutoCommit(false);
+            try {
+                int[] linkCounts = runBatch(conn, UPDATE_LINK, transfers);
+                List<String> problems = new ArrayList<>();
+                int linkRows = 0;
+                for (int i = 0; i < linkCounts.length; i++) {
+                    if (linkCounts[i] == 0) {
+                        // Someone else moved the doctor between validation and now.
+                        problems.add("DoctorID " + transfers.get(i).doctorId()
+                                + " is no longer assigned to HospitalID " + transfers.get(i).fromHospitalId() + ".");
+                    }
+                    linkRows += Math.max(0, linkCounts[i]);
+                }
+                if (!problems.isEmpty()) {
+                    conn.rollback();
+                    return new Result(false, problems, 0, 0, attempt);
+                }
+
+                int appointmentRows = 0;
+                for (int c : runBatch(conn, UPDATE_APPOINTMENTS, transfers)) {
+                    appointmentRows += Math.max(0, c);
+                }
+
+                if (rollbackOnly) {
+                    conn.rollback();
+                    return new Result(false, List.of(), linkRows, appointmentRows, attempt);
+                }
+                conn.commit();
+                return new Result(true, List.of(), linkRows, appointmentRows, attempt);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static int[] runBatch(Connection conn, String sql, List<Transfer> transfers) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (Transfer t : transfers) {
+                ps.setInt(1, t.toHospitalId());
+                ps.setInt(2, t.doctorId());
+                ps.setInt(3, t.fromHospitalId());
+                ps.addBatch();
+            }
+            try {
+                return ps.executeBatch();
+            } catch (BatchUpdateException e) {
+                // Surface the underlying error (e.g. deadlock) so the retry check sees its code.
+                throw e.getNextException() != null ? e.getNextException() : e;
+            }
+        }
+    }
+
+    static boolean isRetryable(SQLException e) {
+        for (SQLException x = e; x != null; x = x.getNextException()) {
+            if (x.getErrorCode() == ER_LOCK_DEADLOCK || x.getErrorCode() == ER_LOCK_WAIT_TIMEOUT
+                    || "40001".equals(x.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @FunctionalInterface
+    interface Attempt<T> {
+        T run(int attempt) throws SQLException;
+    }
+
+    /**
+     * Runs one transaction, numbering attempts from 1, and runs it again after a backoff each time it
+     * fails with a retryable error, at most maxRetries times. Also used by AppointmentScheduler.
+     *
+     * @param what names the work in the error thrown when the thread is interrupted while waiting
+     */
+    static <T> T withRetries(int maxRetries, long backoffMs, String what, Attempt<T> attempt) throws SQLException {
+        for (int n = 1; ; n++) {
+            try {
+                return attempt.run(n);
+            } catch (SQLException e) {
+                if (!isRetryable(e) || n > maxRetries) {
+                    throw e;
+                }
+                // Exponential backoff with jitter so the two losers of a deadlock do not collide again.
+                long delay = backoffMs * (1L << Math.min(n - 1, 6));
+                delay += ThreadLocalRandom.current().nextLong(delay + 1);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while retrying " + what, ie);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Open-addressing hash map from int keys to objects, so hot lookups by ID never box an Integer.
+ * Linear probing with backward-shift deletion; not thread-safe on its own.
+ */
+final class IntObjectMap<V> {
+
+    private int[] keys;
+    private Object[] values; // null marks a free bucket
+    private int size;
+    private int mask;
+
+    IntObjectMap() {
+        this(16);
+    }
+
+    IntObjectMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the previous value, or null
+     */
+    @SuppressWarnings("unchecked")
+    V put(int key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null values are not supported");
+        }
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > (mask + 1) * 3 / 4) {
+            resize();
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(int key) {
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                shiftBack(i);
+                size--;
+                return old;
+            }
+        }
+        return null;
+    }
+
+    void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEachValue(Consumer<? super V> action) {
+        for (Object v : values) {
+            if (v != null) {
+                action.accept((V) v);
+            }
+        }
+    }
+
+    /**
+     * Calls the action for every key; the action must not modify the map.
+     */
+    void forEachKey(IntConsumer action) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                action.accept(keys[i]);
+            }
+        }
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9; // Fibonacci hashing spreads sequential IDs
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    // Closes the gap at `hole` by moving later entries of the same probe chain back into it.
+    private void shiftBack(int hole) {
+        int i = hole;
+        while (true) {
+            i = (i + 1) & mask;
+            if (values[i] == null) {
+                break;
+            }
+            int home = slot(keys[i]);
+            boolean between = hole <= i ? (hole < home && home <= i) : (hole < home || home <= i);
+            if (!between) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        values[hole] = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        mask = keys.length - 1;
+        size = 0;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                put(oldKeys[i], (V) oldValues[i]);
+            }
+        }
+    }
+}
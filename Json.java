@@ -0,0 +1,289 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for machine-readable output and small request bodies; no dependencies.
+ */
+final class Json {
+
+    private Json() {
+    }
+
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s == null ? 4 : s.length() + 2);
+        appendString(sb, s);
+        return sb.toString();
+    }
+
+    static void appendString(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Appends the current row as an object keyed by column label; numbers stay unquoted.
+     */
+    static void appendRow(StringBuilder sb, ResultSet rs, ResultSetMetaData md) throws SQLException {
+        sb.append('{');
+        for (int i = 1, n = md.getColumnCount(); i <= n; i++) {
+            if (i > 1) {
+                sb.append(',');
+            }
+            appendString(sb, md.getColumnLabel(i));
+            sb.append(':');
+            String value = rs.getString(i);
+            if (value == null) {
+                sb.append("null");
+            } else if (isNumeric(md.getColumnType(i))) {
+                sb.append(value);
+            } else {
+                appendString(sb, value);
+            }
+        }
+        sb.append('}');
+    }
+
+    /**
+     * Appends a value as parseObject returns them (Map, List, String, Number, Boolean, null);
+     * anything else is written as its quoted toString().
+     */
+    static void appendValue(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            sb.append(value);
+        } else if (value instanceof Map<?, ?> map) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                sb.append(first ? "" : ",");
+                appendString(sb, String.valueOf(e.getKey()));
+                sb.append(':');
+                appendValue(sb, e.getValue());
+                first = false;
+            }
+            sb.append('}');
+        } else if (value instanceof List<?> list) {
+            sb.append('[');
+            for (int i = 0; i < list.size(); i++) {
+                sb.append(i == 0 ? "" : ",");
+                appendValue(sb, list.get(i));
+            }
+            sb.append(']');
+        } else {
+            appendString(sb, value.toString());
+        }
+    }
+
+    private static boolean isNumeric(int sqlType) {
+        return switch (sqlType) {
+            case Types.TINYINT, Types.SMALLINT, Types.INTEGER, Types.BIGINT,
+                 Types.DECIMAL, Types.NUMERIC, Types.REAL, Types.FLOAT, Types.DOUBLE -> true;
+            default -> false;
+        };
+    }
+
+    // ===== Parsing =====
+
+    /**
+     * Parses one JSON object. Values come back as String, Long, Double, Boolean, null,
+     * List&lt;Object&gt; or Map&lt;String, Object&gt;.
+     *
+     * @throws IllegalArgumentException on malformed input
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> parseObject(String text) {
+        Parser p = new Parser(text);
+        p.skipSpace();
+        if (p.peek() != '{') {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        Object value = p.value();
+        p.skipSpace();
+        if (p.pos != text.length()) {
+            throw new IllegalArgumentException("Unexpected text after JSON object at " + p.pos);
+        }
+        return (Map<String, Object>) value;
+    }
+
+    private static final class Parser {
+        private final String s;
+        private int pos;
+
+        Parser(String s) {
+            this.s = s;
+        }
+
+        char peek() {
+            return pos < s.length() ? s.charAt(pos) : '\0';
+        }
+
+        void skipSpace() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        void expect(char c) {
+            skipSpace();
+            if (peek() != c) {
+                throw new IllegalArgumentException("Expected '" + c + "' at " + pos);
+            }
+            pos++;
+        }
+
+        Object value() {
+            skipSpace();
+            char c = peek();
+            switch (c) {
+                case '{' -> {
+                    pos++;
+                    Map<String, Object> map = new LinkedHashMap<>();
+                    skipSpace();
+                    if (peek() == '}') {
+                        pos++;
+                        return map;
+                    }
+                    while (true) {
+                        skipSpace();
+                        String key = string();
+                        expect(':');
+                        map.put(key, value());
+                        skipSpace();
+                        if (peek() != ',') {
+                            break;
+                        }
+                        pos++;
+                    }
+                    expect('}');
+                    return map;
+                }
+                case '[' -> {
+                    pos++;
+                    List<Object> list = new ArrayList<>();
+                    skipSpace();
+                    if (peek() == ']') {
+                        pos++;
+                        return list;
+                    }
+                    while (true) {
+                        list.add(value());
+                        skipSpace();
+                        if (peek() != ',') {
+                            break;
+                        }
+                        pos++;
+                    }
+                    expect(']');
+                    return list;
+                }
+                case '"' -> {
+                    return string();
+                }
+                default -> {
+                    if (s.startsWith("true", pos)) {
+                        pos += 4;
+                        return Boolean.TRUE;
+                    }
+                    if (s.startsWith("false", pos)) {
+                        pos += 5;
+                        return Boolean.FALSE;
+                    }
+                    if (s.startsWith("null", pos)) {
+                        pos += 4;
+                        return null;
+                    }
+                    return number();
+                }
+            }
+        }
+
+        String string() {
+            if (peek() != '"') {
+                throw new IllegalArgumentException("Expected a string at " + pos);
+            }
+            pos++;
+            StringBuilder sb = new StringBuilder();
+            while (pos < s.length()) {
+                char c = s.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos >= s.length()) {
+                    break;
+                }
+                char e = s.charAt(pos++);
+                switch (e) {
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'u' -> {
+                        if (pos + 4 > s.length()) {
+                            throw new IllegalArgumentException("Bad \\u escape at " + pos);
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(s.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException ex) {
+                            throw new IllegalArgumentException("Bad \\u escape at " + pos);
+                        }
+                        pos += 4;
+                    }
+                    default -> sb.append(e); // \" \\ \/
+                }
+            }
+            throw new IllegalArgumentException("Unterminated string");
+        }
+
+        Object number() {
+            int start = pos;
+            while (pos < s.length() && "+-0123456789.eE".indexOf(s.charAt(pos)) >= 0) {
+                pos++;
+            }
+            String num = s.substring(start, pos);
+            if (num.isEmpty()) {
+                throw new IllegalArgumentException("Unexpected character at " + start);
+            }
+            try {
+                if (num.indexOf('.') < 0 && num.indexOf('e') < 0 && num.indexOf('E') < 0) {
+                    return Long.parseLong(num);
+                }
+                return Double.parseDouble(num);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad number: " + num);
+            }
+        }
+    }
+}
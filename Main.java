@@ -1,8 +1,41 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.sql.*;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Scanner;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
 
 public class Main {
 
@@ -10,63 +43,665 @@ public class Main {
     private static final String PROPERTIES_FILE = "app.properties";
     private static final Scanner scanner = new Scanner(System.in);
 
-    public static void main(String[] args) {
-        try (Connection conn = getConnection()) {
-            conn.setAutoCommit(true);
-            System.out.println("Connected to DB.");
+    private static Properties config;
+    private static ConnectionPool pool; // the primary (db.url)
+    private static ReplicaRouter router; // reads to replicas, writes to pool
+    private static QueryMetrics metrics; // null when metrics.enabled=false
+    private static ReferenceCache refs;
+    private static DoctorTransferService transferService;
+    private static AppointmentScheduler scheduler;
+    private static CostAnalytics analytics;
+    private static AppointmentArchiver archiver;
+    private static TableExporter exporter;
+    private static AuditLog audit;
+    private static final Startup startup = new Startup(); // created as Main loads, just before main() runs
+    private static volatile AvailabilityIndex availability; // built on first slot search
+    private static volatile PatientSearchIndex patientSearch; // built on first patient search
+    private static final Object patientSearchLock = new Object();
+    private static long patientSearchTooLargeAt = -1; // nanoTime of the build that found too many rows
+    private static volatile Queue<Integer> patientSearchTouched; // edits made while the index is being built
+    private static final AtomicBoolean patientSearchRefreshing = new AtomicBoolean();
 
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.exit(runBatch(args));
+        }
+        if (args.length > 0 && args[0].equals("--serve")) {
+            System.exit(runServer(args));
+        }
+        if (args.length > 0 && args[0].equals("--generate")) {
+            System.exit(runGenerator(args));
+        }
+        if (args.length > 0 && args[0].equals("--snapshot")) {
+            System.exit(runSnapshot(args));
+        }
+        if (args.length > 0 && args[0].equals("--archive")) {
+            System.exit(runArchiver(args));
+        }
+        if (args.length > 0 && args[0].equals("--export")) {
+            System.exit(runExport(args));
+        }
+        if (args.length > 0 && args[0].equals("--audit")) {
+            System.exit(runAudit(args));
+        }
+        if (args.length > 0 && args[0].equals("--startup")) {
+            System.exit(runStartup());
+        }
+        try {
+            config = startup.time("properties", Main::loadProperties);
+        } catch (SQLException e) {
+            System.err.println("Fatal DB error: " + e.getMessage());
+            return;
+        }
+        boolean background = Boolean.parseBoolean(config.getProperty("startup.background", "true").trim());
+        CompletableFuture<Void> ready = new CompletableFuture<>();
+        if (background) {
+            Thread starter = new Thread(() -> startConsole(ready, true), "startup");
+            starter.setDaemon(true);
+            starter.start();
+        } else {
+            startConsole(ready, false);
+            if (ready.isCompletedExceptionally()) {
+                return;
+            }
+        }
+        try {
             boolean running = true;
+            boolean announced = false;
             while (running) {
+                if (!announced && startup.isReady()) {
+                    System.out.println("Connected to DB.");
+                    announced = true;
+                }
                 printMenu();
+                startup.menuShown();
                 int choice = readInt("Choose an option: ");
+                if (choice != 0 && !awaitReady(ready)) {
+                    break;
+                }
 
                 switch (choice) {
-                    case 1 -> viewPatients(conn);
-                    case 2 -> viewDoctors(conn);
-                    case 3 -> viewHospitals(conn);
-                    case 4 -> viewMedications(conn);                  
-                    case 5 -> viewPatientMedicationView(conn);
-                    case 6 -> insertMedication(conn);
-                    case 7 -> updatePatient(conn);
-                    case 8 -> deletePatient(conn);
-                    case 9 -> scheduleAppointmentWithProc(conn);
-                    case 10 -> transactionTransferDoctorHospital(conn);
-                    case 11 -> viewAppointments(conn);
-                    case 12 -> viewDoctorHospital(conn);
+                    case 1 -> run("viewPatients", Main::viewPatients);
+                    case 2 -> run("viewDoctors", Main::viewDoctors);
+                    case 3 -> run("viewHospitals", Main::viewHospitals);
+                    case 4 -> run("viewMedications", Main::viewMedications);
+                    case 5 -> run("viewPatientMedicationView", Main::viewPatientMedicationView);
+                    case 6 -> run("insertMedication", Main::insertMedication);
+                    case 7 -> run("updatePatient", Main::updatePatient);
+                    case 8 -> run("deletePatient", Main::deletePatient);
+                    case 9 -> run("scheduleAppointment", Main::scheduleAppointmentWithProc);
+                    case 10 -> run("transferDoctor", Main::transactionTransferDoctorHospital);
+                    case 11 -> run("viewAppointments", Main::viewAppointments);
+                    case 12 -> run("viewDoctorHospital", Main::viewDoctorHospital);
+                    case 13 -> viewPoolStats();
+                    case 14 -> run("importMedications", Main::importMedications);
+                    case 15 -> run("findFreeSlots", Main::findFreeSlots);
+                    case 16 -> viewQueryMetrics();
+                    case 17 -> run("viewMedicationSummary", Main::viewMedicationSummary);
+                    case 18 -> run("updateMedicationStatus", Main::updateMedicationStatus);
+                    case 19 -> run("viewPatientChart", Main::viewPatientChart);
+                    case 20 -> run("searchPatients", Main::searchPatients);
+                    case 21 -> run("costAnalytics", Main::viewCostAnalytics);
+                    case 22 -> run("migratePatientPlan", Main::migratePatientPlan);
+                    case 23 -> run("archiveAppointments", Main::archiveAppointments);
+                    case 24 -> run("exportTable", Main::exportTable);
+                    case 25 -> run("viewAuditTrail", Main::viewAuditTrail);
+                    case 26 -> run("scheduleAppointmentSeries", Main::scheduleAppointmentSeries);
                     case 0 -> { System.out.println("Exiting..."); running = false; }
                     default -> System.out.println("Invalid choice, try again.");
                 }
             }
+        } finally {
+            // Still connecting: let it finish so the pool it opens is closed, not abandoned.
+            if (ready.handle((ok, e) -> e == null).join()) {
+                audit.close();
+                router.close();
+            }
+        }
+    }
+
+    /**
+     * Everything the menu needs before its first query: connect, open the audit log, initialize.
+     * Then warms up what the first operations touch, while the user is still reading the menu.
+     */
+    private static void startConsole(CompletableFuture<Void> ready, boolean background) {
+        Thread classes = new Thread(Main::preloadClasses, "startup-classes"); // CPU work, overlaps the connect
+        classes.setDaemon(true);
+        classes.start();
+        ReplicaRouter db = null;
+        AuditLog log = null;
+        try {
+            ReplicaRouter opened = connect(background);
+            db = opened;
+            AuditLog auditLog = startup.time("audit", () -> openAudit(opened));
+            log = auditLog;
+            startup.time("init", () -> {
+                init(opened, auditLog);
+                return null;
+            });
+        } catch (SQLException | RuntimeException e) {
+            if (log != null) {
+                log.close();
+            }
+            if (db != null) {
+                db.close();
+            }
+            failStartup(ready, e);
+            return;
+        }
+        startup.ready();
+        ready.complete(null);
+        if (background) {
+            warmUp();
+        } else {
+            Thread warm = new Thread(Main::warmUp, "startup");
+            warm.setDaemon(true);
+            warm.start();
+        }
+    }
+
+    /**
+     * Prepares the hot statements on each of the pool's minSize connections (server-side, parked in
+     * the connection's StatementCache), reads the first page of the big listings and loads the
+     * reference cache, so the first operations find all of it warm. startup.warmUp=false skips it;
+     * a failure only shows in the startup report.
+     */
+    private static void warmUp() {
+        if (!Boolean.parseBoolean(config.getProperty("startup.warmUp", "true").trim())) {
+            return;
+        }
+        try {
+            startup.time("statements", () -> {
+                // what the first menu operations prepare, besides the listings' first pages
+                List<String> statements = List.of(PATIENT_RECORD_SELECT + " WHERE PatientID = ?",
+                        UPDATE_MEDICATION_STATUS, SCHEDULE_APPOINTMENT_CALL, PATIENT_CHART_CALL);
+                int pageSize = Math.max(1, ConnectionPool.intProp(config, "list.pageSize", 50));
+                // One connection at a time, so the menu is never short of one while this runs. The pool
+                // hands out the most recently used connection first, so take the least recent instead:
+                // each pass then lands on a connection not warmed yet.
+                for (int i = 0, n = Math.max(1, pool.minSize()); i < n; i++) {
+                    try (Connection conn = pool.getLeastRecentlyUsedConnection()) {
+                        for (String sql : statements) {
+                            (sql.startsWith("{") ? conn.prepareCall(sql) : conn.prepareStatement(sql)).close();
+                        }
+                        for (TableListing.Source source : List.of(TableListing.Source.PATIENT,
+                                TableListing.Source.MEDICATION, TableListing.Source.APPOINTMENT)) {
+                            TableListing.page(conn, source, null, pageSize, rs -> { });
+                        }
+                    }
+                }
+                return null;
+            });
+            startup.time("references", () -> {
+                refs.allDoctors();
+                refs.allHospitals();
+                refs.allPlans();
+                refs.allDoctorHospitalLinks();
+                return null;
+            });
+        } catch (SQLException | RuntimeException e) {
+            // recorded as a failed phase (Startup.time catches both); the operations just start cold
+        } finally {
+            startup.recordTo(metrics);
+        }
+    }
+
+    // Classes the menu operations load on first use, and the JDK formatting and parsing they all go through.
+    private static void preloadClasses() {
+        try {
+            startup.time("classes", () -> {
+                for (String name : List.of("TableListing", "AvailabilityIndex", "PatientSearchIndex",
+                        "MedicationImporter", "ColumnarSnapshot", "Json")) {
+                    try {
+                        Class.forName(name);
+                    } catch (ClassNotFoundException e) {
+                        // not part of this build
+                    }
+                }
+                String.format(Locale.ROOT, "%-20s %,d %.2f %s%n", "warm", 1, 1.0, LocalDate.parse("2025-01-01"));
+                LocalTime.parse("09:00");
+                Json.parseObject("{\"a\":[1,2.5,\"x\",true,null]}");
+                return null;
+            });
+        } catch (SQLException e) {
+            // nothing here touches the database
+        }
+    }
+
+    private static void failStartup(CompletableFuture<Void> ready, Exception e) {
+        System.err.println("Fatal DB error: " + e.getMessage());
+        ready.completeExceptionally(e);
+    }
+
+    // False when startup failed (already reported); the menu then exits.
+    private static boolean awaitReady(CompletableFuture<Void> ready) {
+        if (!ready.isDone()) {
+            System.out.println("Waiting for the database connection...");
+        }
+        long start = System.nanoTime();
+        try {
+            ready.join();
+            startup.firstWait(System.nanoTime() - start);
+            return true;
+        } catch (CompletionException e) {
+            return false;
+        }
+    }
+
+    private static void init(ReplicaRouter r, AuditLog log) {
+        router = r;
+        audit = log;
+        audit.setChannel("console");
+        pool = r.primaryPool();
+        metrics = QueryMetrics.fromProperties(config, pool);
+        router.setMetrics(metrics);
+        refs = ReferenceCache.fromProperties(config, router::read);
+        transferService = DoctorTransferService.fromProperties(config, router::write);
+        scheduler = AppointmentScheduler.fromProperties(config, router::write);
+        analytics = CostAnalytics.fromProperties(config, router::read, pool.maxSize());
+        archiver = AppointmentArchiver.fromProperties(config, router::write);
+        exporter = TableExporter.fromProperties(config, router::read);
+    }
+
+    /**
+     * Startup check: java Main --startup. Runs the console's startup in the foreground (connect,
+     * initialize, warm up), prints the timing breakdown and exits. Also the AppCDS training run in
+     * cds.sh, since it loads what the console loads before its first query.
+     *
+     * @return 0, or 2 when the database could not be reached
+     */
+    private static int runStartup() {
+        preloadClasses();
+        try (ReplicaRouter db = connect(); AuditLog log = startup.time("audit", () -> openAudit(db))) {
+            startup.time("init", () -> {
+                init(db, log);
+                return null;
+            });
+            startup.ready();
+            warmUp();
+            System.out.println(startup.report());
+            return 0;
         } catch (SQLException e) {
             System.err.println("Fatal DB error: " + e.getMessage());
+            System.out.println(startup.report());
+            return 2;
         }
     }
 
     /**
-     * Loads app.properties, loads MySQL JDBC driver, and opens a Connection.
-     * Step 1: JDBC Setup and Connection Test.
+     * Headless mode: java Main --batch &lt;script file | -&gt; [--parallel N].
+     * Results go to stdout as JSON lines; everything else the app prints goes to stderr.
+     *
+     * @return process exit code: 0 when every command succeeded, 1 otherwise
      */
-    private static Connection getConnection() throws SQLException {
-        Properties props = new Properties();
-        try (FileInputStream fis = new FileInputStream(PROPERTIES_FILE)) {
-            props.load(fis);
+    private static int runBatch(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: java Main --batch <script file | -> [--parallel N]");
+            return 2;
+        }
+        String script = args[1];
+        Integer parallel = null;
+        if (args.length >= 4 && args[2].equals("--parallel")) {
+            try {
+                parallel = Integer.parseInt(args[3]);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid --parallel value: " + args[3]);
+                return 2;
+            }
+        }
+
+        PrintStream results = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16),
+                false, StandardCharsets.UTF_8);
+        System.setOut(System.err);
+
+        try (ReplicaRouter db = connect();
+             AuditLog log = openAudit(db);
+             BufferedReader in = script.equals("-")
+                     ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                     : Files.newBufferedReader(Path.of(script), StandardCharsets.UTF_8)) {
+            init(db, log);
+            audit.setChannel("batch");
+            if (parallel != null) {
+                config.setProperty("batch.parallelism", parallel.toString());
+            }
+            BatchRunner runner = BatchRunner.fromProperties(config, router::read, metrics, results, pool.maxSize());
+            return runner.run(in) ? 0 : 1;
         } catch (IOException e) {
-            System.err.println("Error loading " + PROPERTIES_FILE + ": " + e.getMessage());
-            throw new SQLException("Unable to load DB config", e);
+            System.err.println("Error reading batch script: " + e.getMessage());
+            return 2;
+        } catch (SQLException e) {
+            System.err.println("Fatal DB error: " + e.getMessage());
+            return 2;
+        }
+    }
+
+    /**
+     * HTTP mode: java Main --serve [port]. Serves the JSON API until the process is interrupted.
+     */
+    private static int runServer(String[] args) {
+        try (ReplicaRouter db = connect(); AuditLog log = openAudit(db)) {
+            init(db, log);
+            audit.setChannel("http");
+            if (args.length >= 2) {
+                config.setProperty("http.port", args[1]);
+            }
+            CountDownLatch stop = new CountDownLatch(1);
+            CountDownLatch stopped = new CountDownLatch(1);
+            try (ApiServer server = ApiServer.fromProperties(config, router, refs, metrics, audit)) {
+                server.start();
+                System.out.println("Listening on http://localhost:" + server.address().getPort() + "/ ("
+                        + (server.usesVirtualThreads() ? "virtual" : "platform") + " threads). Ctrl+C to stop.");
+                // Let Ctrl+C close the server and the pool before the JVM exits.
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    stop.countDown();
+                    try {
+                        stopped.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+                stop.await();
+            } finally {
+                stopped.countDown();
+            }
+            return 0;
+        } catch (IOException e) {
+            System.err.println("Error starting HTTP server: " + e.getMessage());
+            return 2;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 1;
+        } catch (SQLException e) {
+            System.err.println("Fatal DB error: " + e.getMessage());
+            return 2;
+        }
+    }
+
+    /**
+     * Data generator: java Main --generate &lt;scale&gt; [--seed N]. Loads synthetic rows and prints rows/sec per table.
+     */
+    private static int runGenerator(String[] args) {
+        double scale;
+        try {
+            scale = Double.parseDouble(args.length >= 2 ? args[1] : "");
+        } catch (NumberFormatException e) {
+            scale = -1;
+        }
+        if (!(scale > 0) || (args.length != 2 && !(args.length == 4 && args[2].equals("--seed")))) {
+            System.err.println("Usage: java Main --generate <scale factor, e.g. 0.01 or 10> [--seed N]");
+            return 2;
+        }
+
+        try (ReplicaRouter db = connect(); AuditLog log = openAudit(db)) {
+            init(db, log);
+            if (args.length == 4) {
+                config.setProperty("gen.seed", args[3]);
+            }
+            DataGenerator generator = DataGenerator.fromProperties(config, router::write, pool.maxSize());
+            DataGenerator.Counts c = DataGenerator.Counts.forScale(scale);
+            System.out.printf(Locale.ROOT, "Generating scale %s: %,d patients, %,d doctors, %,d appointments...%n",
+                    args[1], c.patients(), c.doctors(), c.appointments());
+            long start = System.nanoTime();
+            long total = 0;
+            for (DataGenerator.TableResult r : generator.generate(scale)) {
+                System.out.printf(Locale.ROOT, "  %-15s %,12d rows %,12.0f rows/sec%n",
+                        r.table(), r.rows(), r.rowsPerSecond());
+                total += r.rows();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf(Locale.ROOT, "Loaded %,d rows in %.1f s (%,.0f rows/sec).%n",
+                    total, seconds, total / seconds);
+            return 0;
+        } catch (IOException e) {
+            System.err.println("Error writing load files: " + e.getMessage());
+            return 2;
+        } catch (SQLException e) {
+            System.err.println("Error generating data: " + e.getMessage());
+            return 2;
+        }
+    }
+
+    /**
+     * Snapshot export: java Main --snapshot [--full]. Appends changes to the columnar files in snapshot.dir.
+     */
+    private static int runSnapshot(String[] args) {
+        if (args.length > 2 || (args.length == 2 && !args[1].equals("--full"))) {
+            System.err.println("Usage: java Main --snapshot [--full]");
+            return 2;
+        }
+
+        try (ReplicaRouter db = connect(); AuditLog log = openAudit(db)) {
+            init(db, log);
+            SnapshotExporter exporter = SnapshotExporter.fromProperties(config, router::write);
+            for (SnapshotExporter.Result r : exporter.export(args.length == 2)) {
+                System.out.printf(Locale.ROOT, "  %-17s %-11s %,12d rows %,8d deleted %,6d purged %,14d bytes %,12.0f rows/sec%n",
+                        r.table().fileName, r.full() ? "full" : "incremental", r.rows(), r.deletes(), r.purges(),
+                        r.bytes(), r.rowsPerSecond());
+            }
+            System.out.println("Snapshot written to " + SnapshotExporter.snapshotDir(config).toAbsolutePath());
+            return 0;
+        } catch (IOException e) {
+            System.err.println("Error writing snapshot: " + e.getMessage());
+            return 2;
+        } catch (SQLException e) {
+            System.err.println("Error exporting snapshot: " + e.getMessage());
+            return 2;
+        }
+    }
+
+    /**
+     * Archival: java Main --archive [YYYY-MM-DD]. Moves older appointments to AppointmentArchive in chunks.
+     */
+    private static int runArchiver(String[] args) {
+        LocalDate cutoff = null;
+        boolean valid = args.length <= 2;
+        if (args.length == 2) {
+            try {
+                cutoff = LocalDate.parse(args[1]);
+            } catch (DateTimeException e) {
+                valid = false;
+            }
+        }
+        if (!valid) {
+            System.err.println("Usage: java Main --archive [cutoff date YYYY-MM-DD]");
+            return 2;
+        }
+
+        try (ReplicaRouter db = connect(); AuditLog log = openAudit(db)) {
+            init(db, log);
+            audit.setChannel("archive");
+            return runArchive(cutoff != null ? cutoff : AppointmentArchiver.defaultCutoff(config)) ? 0 : 2;
+        } catch (SQLException e) {
+            System.err.println("Fatal DB error: " + e.getMessage());
+            return 2;
+        }
+    }
+
+    /**
+     * Export: java Main --export &lt;table&gt; &lt;csv|jsonl|tsv&gt; [file[.gz] | -]. Stats go to stderr.
+     */
+    private static int runExport(String[] args) {
+        TableListing.Source table;
+        TableExporter.Format format;
+        try {
+            if (args.length < 3 || args.length > 4) {
+                throw new IllegalArgumentException("Wrong number of arguments");
+            }
+            table = TableListing.Source.named(args[1]);
+            format = TableExporter.format(args[2]);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java Main --export <patients|medications|appointments|patient-medications|"
+                    + "medication-summary|doctors|hospitals|doctor-hospital> <csv|jsonl|tsv> [file[.gz] | -]");
+            return 2;
+        }
+        Path file = args.length == 4 && !args[3].equals("-") ? Path.of(args[3]) : null;
+
+        // Keep stdout for the data: connection messages go to stderr.
+        PrintStream stdout = System.out;
+        System.setOut(System.err);
+        try (ReplicaRouter db = connect(); AuditLog log = openAudit(db)) {
+            init(db, log);
+            System.setOut(stdout);
+            TableExporter.Result r = exporter.export(table, format, file);
+            System.err.println(exportSummary(r));
+            return 0;
+        } catch (IOException e) {
+            System.err.println("Error writing export: " + e.getMessage());
+            return 2;
+        } catch (SQLException e) {
+            System.err.println("Error exporting table: " + e.getMessage());
+            return 2;
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    /**
+     * Audit trail: java Main --audit [show] [--entity E] [--key K] [--actor A] [--since YYYY-MM-DD],
+     * java Main --audit verify [file] and java Main --audit replay [file]. show prints JSON lines to stdout.
+     */
+    private static int runAudit(String[] args) {
+        List<String> rest = new ArrayList<>(Arrays.asList(args).subList(1, args.length));
+        String command = !rest.isEmpty() && !rest.get(0).startsWith("--") ? rest.remove(0) : "show";
+        String entity = null;
+        String key = null;
+        String actor = null;
+        Instant since = null;
+        boolean valid = command.equals("show") ? rest.size() % 2 == 0 : rest.size() <= 1;
+        for (int i = 0; valid && command.equals("show") && i < rest.size(); i += 2) {
+            String value = rest.get(i + 1);
+            switch (rest.get(i)) {
+                case "--entity" -> entity = value;
+                case "--key" -> key = value;
+                case "--actor" -> actor = value;
+                case "--since" -> {
+                    try {
+                        since = LocalDate.parse(value).atStartOfDay(ZoneId.systemDefault()).toInstant();
+                    } catch (DateTimeException e) {
+                        valid = false;
+                    }
+                }
+                default -> valid = false;
+            }
+        }
+        if (!valid || !List.of("show", "verify", "replay").contains(command)) {
+            System.err.println("Usage: java Main --audit [show] [--entity E] [--key K] [--actor A] [--since YYYY-MM-DD]");
+            System.err.println("       java Main --audit verify [file]");
+            System.err.println("       java Main --audit replay [file]");
+            return 2;
+        }
+
+        PrintStream stdout = System.out;
+        try {
+            config = loadProperties();
+            Path file = command.equals("show") || rest.isEmpty() ? AuditLog.auditFile(config) : Path.of(rest.get(0));
+            if (command.equals("verify")) {
+                AuditLog.FileCheck c = AuditLog.verify(file);
+                System.out.printf(Locale.ROOT, "%s: %,d event(s), seq %d..%d, %d gap(s), %,d dropped, %d unreadable line(s)%n",
+                        file, c.events(), c.firstSeq(), c.lastSeq(), c.gaps(), c.dropped(), c.badLines());
+                return c.gaps() == 0 && c.dropped() == 0 && c.badLines() == 0 ? 0 : 1;
+            }
+            AuditLog.Filter filter = new AuditLog.Filter(entity, key, actor, since);
+            boolean table = config.getProperty("audit.sink", "file").trim().equalsIgnoreCase("table");
+            if (command.equals("show") && !table) {
+                System.err.println(AuditLog.showFile(file, filter, System.out) + " event(s).");
+                return 0;
+            }
+            System.setOut(System.err); // keep stdout for the events
+            try (ReplicaRouter db = connect()) {
+                System.setOut(stdout);
+                if (command.equals("show")) {
+                    long n = AuditLog.showTable(db.primaryPool()::getConnection, AuditLog.origin(config), filter, System.out);
+                    System.err.println(n + " event(s).");
+                } else {
+                    long n = AuditLog.replay(file, db.primaryPool()::getConnection, AuditLog.origin(config),
+                            ConnectionPool.intProp(config, "audit.batchSize", 1000));
+                    System.out.println("Replayed " + n + " new event(s) from " + file + " into AuditLog.");
+                }
+            }
+            return 0;
+        } catch (NoSuchFileException e) {
+            System.err.println("No audit log at " + e.getFile());
+            return 2;
+        } catch (IOException e) {
+            System.err.println("Error reading audit log: " + e.getMessage());
+            return 2;
+        } catch (SQLException e) {
+            System.err.println("Error reading audit table: " + e.getMessage());
+            return 2;
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    private static String exportSummary(TableExporter.Result r) {
+        return String.format(Locale.ROOT, "Exported %,d row(s), %.1f MB in %.2f s (%,.0f rows/sec, %.1f MB/sec).",
+                r.rows(), r.bytes() / 1_048_576.0, r.elapsedNanos() / 1e9, r.rowsPerSecond(), r.megabytesPerSecond());
+    }
+
+    /**
+     * Loads app.properties, loads MySQL JDBC driver, and opens the connection pool (plus one per
+     * read replica in db.replicas). Step 1: JDBC Setup and Connection Test.
+     */
+    private static ReplicaRouter connect() throws SQLException {
+        return connect(false);
+    }
+
+    // quiet: connecting behind the menu, where a driver message would land in the middle of the prompt.
+    // Each step is a startup phase; config is only read again if nobody has loaded it yet.
+    private static ReplicaRouter connect(boolean quiet) throws SQLException {
+        if (config == null) {
+            config = startup.time("properties", Main::loadProperties);
         }
+        Properties props = config;
+
+        startup.time("driver", () -> {
+            try {
+                Class.forName("com.mysql.cj.jdbc.Driver");
+                if (!quiet) {
+                    System.out.println("MySQL JDBC Driver loaded successfully.");
+                }
+            } catch (ClassNotFoundException e) {
+                System.err.println("Could not load MySQL driver: " + e.getMessage());
+            }
+            return null;
+        });
 
-        String url = props.getProperty("db.url");
-        String user = props.getProperty("db.user");
-        String password = props.getProperty("db.password");
+        ConnectionPool p = ConnectionPool.fromProperties(props);
+        try {
+            // fail fast on bad credentials, like the old single connection did
+            startup.time("connect", () -> {
+                p.warmUp();
+                return null;
+            });
+        } catch (SQLException e) {
+            p.close();
+            throw e;
+        }
+        // Replicas are checked in the background; reads stay on the primary until one answers.
+        return startup.time("replicas", () -> ReplicaRouter.fromProperties(props, p));
+    }
 
+    // Opened after the pools and closed before them, so queued events still reach audit.sink=table.
+    // Straight from the primary pool: the audit writer's inserts are not a session's writes.
+    private static AuditLog openAudit(ReplicaRouter db) throws SQLException {
         try {
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            System.out.println("MySQL JDBC Driver loaded successfully.");
-        } catch (ClassNotFoundException e) {
-            System.err.println("Could not load MySQL driver: " + e.getMessage());
+            return AuditLog.fromProperties(config, db.primaryPool()::getConnection);
+        } catch (IOException e) {
+            throw new SQLException("Cannot open audit log " + AuditLog.auditFile(config) + ": " + e.getMessage(), e);
         }
+    }
 
-        return DriverManager.getConnection(url, user, password);
+    private static Properties loadProperties() throws SQLException {
+        Properties props = new Properties();
+        try (FileInputStream fis = new FileInputStream(PROPERTIES_FILE)) {
+            props.load(fis);
+        } catch (IOException e) {
+            System.err.println("Error loading " + PROPERTIES_FILE + ": " + e.getMessage());
+            throw new SQLException("Unable to load DB config", e);
+        }
+        return props;
     }
 
     // ===== MENU =====
@@ -85,6 +720,20 @@ public class Main {
         System.out.println("10. Transaction: Transfer Doctor to New Hospital (COMMIT/ROLLBACK)");
         System.out.println("11. View Appointments");
         System.out.println("12. View Doctor-Hospital Assignments");
+        System.out.println("13. Pool & Cache Stats");
+        System.out.println("14. Bulk Import Medications (CSV/TSV)");
+        System.out.println("15. Find Free Appointment Slots");
+        System.out.println("16. Query Metrics");
+        System.out.println("17. Patient Medication Summary");
+        System.out.println("18. Update Medication Status");
+        System.out.println("19. Patient Chart");
+        System.out.println("20. Search Patients (name, email or phone)");
+        System.out.println("21. Cost Analytics (by plan, hospital, discipline, month)");
+        System.out.println("22. Move Patients to Another Plan");
+        System.out.println("23. Archive Old Appointments");
+        System.out.println("24. Export Table (CSV, JSON Lines, TSV)");
+        System.out.println("25. View Audit Trail");
+        System.out.println("26. Schedule Appointment Series (batched, all-or-nothing option)");
         System.out.println("0. Exit");
     }
 
@@ -133,164 +782,301 @@ public class Main {
 
     // ===== SELECTs for 4 key tables =====
 
-    private static void viewPatients(Connection conn) {
-        String sql = "SELECT PatientID, Name, Birthdate, Email, PhoneNumber, Address, PlanID FROM Patient";
-        try (PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
+    private static void viewPatients() {
+        listTable(TableListing.Source.PATIENT, "Patients", "patients", Main::printPatient);
+    }
 
-            System.out.println("\n--- Patients ---");
-            while (rs.next()) {
-                System.out.printf("ID: %d | Name: %s | DOB: %s | Email: %s | Phone: %s | Address: %s | PlanID: %s%n",
-                        rs.getInt("PatientID"),
-                        rs.getString("Name"),
-                        rs.getDate("Birthdate"),
-                        rs.getString("Email"),
-                        rs.getString("PhoneNumber"),
-                        rs.getString("Address"),
-                        rs.getString("PlanID"));
-            }
-        } catch (SQLException e) {
-            System.err.println("Error viewing patients: " + e.getMessage());
-        }
+    private static void printPatient(ResultSet rs) throws SQLException {
+        System.out.printf("ID: %d | Name: %s | DOB: %s | Email: %s | Phone: %s | Address: %s | PlanID: %s%n",
+                rs.getInt("PatientID"),
+                rs.getString("Name"),
+                rs.getDate("Birthdate"),
+                rs.getString("Email"),
+                rs.getString("PhoneNumber"),
+                rs.getString("Address"),
+                rs.getString("PlanID"));
     }
 
-    private static void viewDoctors(Connection conn) {
-        String sql = "SELECT DoctorID, Name, Discipline, Email, PhoneNumber FROM Doctor";
-        try (PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
+    private static void viewDoctors() {
+        try {
+            List<ReferenceCache.Doctor> doctors = refs.allDoctors();
 
             System.out.println("\n--- Doctors ---");
-            while (rs.next()) {
+            for (ReferenceCache.Doctor d : doctors) {
                 System.out.printf("ID: %d | Name: %s | Discipline: %s | Email: %s | Phone: %s%n",
-                        rs.getInt("DoctorID"),
-                        rs.getString("Name"),
-                        rs.getString("Discipline"),
-                        rs.getString("Email"),
-                        rs.getString("PhoneNumber"));
+                        d.id(),
+                        d.name(),
+                        d.discipline(),
+                        d.email(),
+                        d.phone());
             }
         } catch (SQLException e) {
             System.err.println("Error viewing doctors: " + e.getMessage());
         }
     }
 
-    private static void viewHospitals(Connection conn) {
-        String sql = "SELECT HospitalID, Name, Address, PhoneNumber FROM Hospital";
-        try (PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
+    private static void viewHospitals() {
+        try {
+            List<ReferenceCache.Hospital> hospitals = refs.allHospitals();
 
             System.out.println("\n--- Hospitals ---");
-            while (rs.next()) {
+            for (ReferenceCache.Hospital h : hospitals) {
                 System.out.printf("ID: %d | Name: %s | Address: %s | Phone: %s%n",
-                        rs.getInt("HospitalID"),
-                        rs.getString("Name"),
-                        rs.getString("Address"),
-                        rs.getString("PhoneNumber"));
+                        h.id(),
+                        h.name(),
+                        h.address(),
+                        h.phone());
             }
         } catch (SQLException e) {
             System.err.println("Error viewing hospitals: " + e.getMessage());
         }
     }
 
-    private static void viewMedications(Connection conn) {
-        String sql = "SELECT MedicationID, PatientID, DoctorID, Name, Cost, Status, Dosage, Frequency, PlanID " +
-                    "FROM Medication";
-        try (PreparedStatement ps = conn.prepareStatement(sql);
-            ResultSet rs = ps.executeQuery()) {
+    private static void viewMedications() {
+        listTable(TableListing.Source.MEDICATION, "Medications", "medications", Main::printMedication);
+    }
+
+    private static void printMedication(ResultSet rs) throws SQLException {
+        System.out.printf(
+            "MedID: %d | PatientID: %d | DoctorID: %d | Name: %s | Cost: %.2f | Status: %s | Dosage: %s | Frequency: %s | PlanID: %s%n",
+            rs.getInt("MedicationID"),
+            rs.getInt("PatientID"),
+            rs.getInt("DoctorID"),
+            rs.getString("Name"),
+            rs.getDouble("Cost"),
+            rs.getString("Status"),
+            rs.getString("Dosage"),
+            rs.getString("Frequency"),
+            rs.getString("PlanID")
+        );
+    }
+
+    private static void viewAppointments() {
+        listTable(TableListing.Source.APPOINTMENT, "Appointments", "appointments", Main::printAppointment);
+    }
+
+    private static void printAppointment(ResultSet rs) throws SQLException {
+        System.out.printf(
+            "PatientID: %d | DoctorID: %d | HospitalID: %d | Date: %s | Time: %s | Reason: %s | Cost: %.2f%n | PlanID: %d",
+            rs.getInt("PatientID"),
+            rs.getInt("DoctorID"),
+            rs.getInt("HospitalID"),
+            rs.getDate("ApptDate"),
+            rs.getTime("ApptTime"),
+            rs.getString("VisitReason"),
+            rs.getDouble("Cost"),
+            rs.getInt("PlanID")
+        );
+    }
+
+    private static void viewDoctorHospital() {
+        try {
+            List<int[]> links = refs.allDoctorHospitalLinks();
 
-            System.out.println("\n--- Medications ---");
-            while (rs.next()) {
+            System.out.println("\n--- Doctor-Hospital Assignments ---");
+            for (int[] link : links) {
                 System.out.printf(
-                    "MedID: %d | PatientID: %d | DoctorID: %d | Name: %s | Cost: %.2f | Status: %s | Dosage: %s | Frequency: %s | PlanID: %s%n",
-                    rs.getInt("MedicationID"),
-                    rs.getInt("PatientID"),
-                    rs.getInt("DoctorID"),
-                    rs.getString("Name"),
-                    rs.getDouble("Cost"),
-                    rs.getString("Status"),
-                    rs.getString("Dosage"),
-                    rs.getString("Frequency"),
-                    rs.getString("PlanID")
+                    "DoctorID: %d | HospitalID: %d%n",
+                    link[0],
+                    link[1]
                 );
             }
 
         } catch (SQLException e) {
-            System.err.println("Error viewing medications: " + e.getMessage());
+            System.err.println("Error viewing doctor-hospital assignments: " + e.getMessage());
         }
     }
 
-    private static void viewAppointments(Connection conn) {
-        String sql = "SELECT PatientID, DoctorID, HospitalID, ApptDate, ApptTime, VisitReason, Cost, PlanID " +
-                     "FROM Appointment";
-        try (PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
+    // ===== VIEW =====
 
-            System.out.println("\n--- Appointments ---");
-            while (rs.next()) {
-                System.out.printf(
-                    "PatientID: %d | DoctorID: %d | HospitalID: %d | Date: %s | Time: %s | Reason: %s | Cost: %.2f%n | PlanID: %d",
-                    rs.getInt("PatientID"),
-                    rs.getInt("DoctorID"),
-                    rs.getInt("HospitalID"),
-                    rs.getDate("ApptDate"),
-                    rs.getTime("ApptTime"),
-                    rs.getString("VisitReason"),
-                    rs.getDouble("Cost"),
-                    rs.getInt("PlanID")
-                );
-            }
+    private static void viewPatientMedicationView() {
+        listTable(TableListing.Source.PATIENT_MEDICATION_VIEW, "Patient Medications (from VIEW)",
+                "patient medications", Main::printPatientMedication);
+    }
+
+    private static void printPatientMedication(ResultSet rs) throws SQLException {
+        System.out.printf(
+                "Patient #%d (%s) | Medication #%d (%s) | Status: %s | Cost: %.2f | Doctor: %s%n",
+                rs.getInt("PatientID"),
+                rs.getString("PatientName"),
+                rs.getInt("MedicationID"),
+                rs.getString("MedicationName"),
+                rs.getString("Status"),
+                rs.getDouble("Cost"),
+                rs.getString("PrescribingDoctor")
+        );
+    }
+
+    /**
+     * Reads the trigger-maintained PatientMedicationSummary instead of joining and sorting the whole VIEW.
+     * One patient costs a primary key probe plus an index range on Medication(PatientID).
+     */
+    private static void viewMedicationSummary() {
+        System.out.print("PatientID (press Enter for all patients): ");
+        String idStr = scanner.nextLine().trim();
+        if (idStr.isEmpty()) {
+            listTable(TableListing.Source.MEDICATION_SUMMARY, "Patient Medication Summary",
+                    "medication summary", Main::printMedicationSummary);
+            return;
+        }
 
+        int patientId;
+        try {
+            patientId = Integer.parseInt(idStr);
+        } catch (NumberFormatException e) {
+            System.out.println("Please enter a valid integer.");
+            return;
+        }
+
+        String summarySql = "SELECT PatientID, " +
+                            "(SELECT p.Name FROM Patient p WHERE p.PatientID = s.PatientID) AS PatientName, " +
+                            "PausedCount, CompletedCount, OngoingCount, TotalCost " +
+                            "FROM PatientMedicationSummary s WHERE PatientID = ?";
+        String medsSql = "SELECT m.MedicationID, m.Name, m.Status, m.Cost, d.Name AS PrescribingDoctor " +
+                         "FROM Medication m JOIN Doctor d ON d.DoctorID = m.DoctorID " +
+                         "WHERE m.PatientID = ? ORDER BY m.Status, m.MedicationID";
+
+        try (Connection conn = router.read()) {
+            System.out.println("\n--- Patient Medication Summary ---");
+            try (PreparedStatement ps = conn.prepareStatement(summarySql)) {
+                ps.setInt(1, patientId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) {
+                        System.out.println("No medications found for that patient.");
+                        return;
+                    }
+                    printMedicationSummary(rs);
+                }
+            }
+            try (PreparedStatement ps = conn.prepareStatement(medsSql)) {
+                ps.setInt(1, patientId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        System.out.printf("  Medication #%d (%s) | Status: %s | Cost: %.2f | Doctor: %s%n",
+                                rs.getInt("MedicationID"),
+                                rs.getString("Name"),
+                                rs.getString("Status"),
+                                rs.getDouble("Cost"),
+                                rs.getString("PrescribingDoctor"));
+                    }
+                }
+            }
         } catch (SQLException e) {
-            System.err.println("Error viewing appointments: " + e.getMessage());
+            System.err.println("Error viewing medication summary: " + e.getMessage());
         }
     }
 
-    private static void viewDoctorHospital(Connection conn) {
-        String sql = "SELECT DoctorID, HospitalID FROM DoctorHospital";
-        try (PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
+    private static void printMedicationSummary(ResultSet rs) throws SQLException {
+        System.out.printf("Patient #%d (%s) | Ongoing: %d | Paused: %d | Completed: %d | Total cost: %.2f%n",
+                rs.getInt("PatientID"),
+                rs.getString("PatientName"),
+                rs.getInt("OngoingCount"),
+                rs.getInt("PausedCount"),
+                rs.getInt("CompletedCount"),
+                rs.getDouble("TotalCost"));
+    }
 
-            System.out.println("\n--- Doctor-Hospital Assignments ---");
-            while (rs.next()) {
-                System.out.printf(
-                    "DoctorID: %d | HospitalID: %d%n",
-                    rs.getInt("DoctorID"),
-                    rs.getInt("HospitalID")
-                );
-            }
+    private static final String PATIENT_CHART_CALL = "{ CALL patient_chart(?) }";
 
+    /**
+     * Patient, plan, medications and appointments from one patient_chart call (one round trip).
+     */
+    private static void viewPatientChart() {
+        int patientId = readInt("PatientID: ");
+        try (Connection conn = router.read();
+             CallableStatement cs = conn.prepareCall(PATIENT_CHART_CALL)) {
+            cs.setInt(1, patientId);
+            boolean hasResults = cs.execute();
+
+            System.out.println("\n--- Patient Chart ---");
+            int section = 0;
+            while (hasResults) {
+                try (ResultSet rs = cs.getResultSet()) {
+                    switch (section) {
+                        case 0 -> {
+                            if (!rs.next()) {
+                                System.out.println("No patient found with that ID.");
+                                return;
+                            }
+                            printPatient(rs);
+                            String provider = rs.getString("Provider");
+                            System.out.println("Plan: " + (provider == null ? "none" : provider + " - " + rs.getString("Coverage")));
+                        }
+                        case 1 -> {
+                            System.out.println("Medications:");
+                            while (rs.next()) {
+                                System.out.printf("  Medication #%d (%s) | Status: %s | Cost: %.2f | Dosage: %s | Frequency: %s | Doctor: %s%n",
+                                        rs.getInt("MedicationID"),
+                                        rs.getString("Name"),
+                                        rs.getString("Status"),
+                                        rs.getDouble("Cost"),
+                                        rs.getString("Dosage"),
+                                        rs.getString("Frequency"),
+                                        rs.getString("PrescribingDoctor"));
+                            }
+                        }
+                        case 2 -> {
+                            System.out.println("Appointments:");
+                            while (rs.next()) {
+                                System.out.printf("  Date: %s | Time: %s | Doctor: %s | Hospital: %s | Reason: %s | Cost: %.2f%n",
+                                        rs.getDate("ApptDate"),
+                                        rs.getTime("ApptTime"),
+                                        rs.getString("DoctorName"),
+                                        rs.getString("HospitalName"),
+                                        rs.getString("VisitReason"),
+                                        rs.getDouble("Cost"));
+                            }
+                        }
+                        default -> { }
+                    }
+                }
+                section++;
+                hasResults = cs.getMoreResults();
+            }
         } catch (SQLException e) {
-            System.err.println("Error viewing doctor-hospital assignments: " + e.getMessage());
+            System.err.println("Error viewing patient chart: " + e.getMessage());
         }
     }
 
-    // ===== VIEW =====
-
-    private static void viewPatientMedicationView(Connection conn) {
-        String sql = "SELECT * FROM PatientMedicationView";
-        try (PreparedStatement ps = conn.prepareStatement(sql);
-             ResultSet rs = ps.executeQuery()) {
+    // ===== Paged / streaming listing =====
 
-            System.out.println("\n--- Patient Medications (from VIEW) ---");
-            while (rs.next()) {
-                System.out.printf(
-                        "Patient #%d (%s) | Medication #%d (%s) | Status: %s | Cost: %.2f | Doctor: %s%n",
-                        rs.getInt("PatientID"),
-                        rs.getString("PatientName"),
-                        rs.getInt("MedicationID"),
-                        rs.getString("MedicationName"),
-                        rs.getString("Status"),
-                        rs.getDouble("Cost"),
-                        rs.getString("PrescribingDoctor")
-                );
+    /**
+     * Lists a large table without loading it all at once.
+     * list.mode=page (default) prints list.pageSize rows at a time, seeking on the primary key and
+     * borrowing a fresh connection per page; list.mode=stream prints everything through a streaming result set.
+     */
+    private static void listTable(TableListing.Source source, String title, String what,
+                                  TableListing.RowHandler printer) {
+        System.out.println("\n--- " + title + " ---");
+        try {
+            if ("stream".equalsIgnoreCase(config.getProperty("list.mode", "page").trim())) {
+                try (Connection conn = router.read()) {
+                    TableListing.stream(conn, source, ConnectionPool.intProp(config, "list.fetchSize", 0), printer);
+                }
+                return;
             }
+
+            int pageSize = Math.max(1, ConnectionPool.intProp(config, "list.pageSize", 50));
+            Object[] after = null;
+            do {
+                try (Connection conn = router.read()) {
+                    after = TableListing.page(conn, source, after, pageSize, printer);
+                }
+                if (after != null) {
+                    System.out.print("-- Enter for next page, q to stop: ");
+                    if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                        break;
+                    }
+                }
+            } while (after != null);
         } catch (SQLException e) {
-            System.err.println("Error viewing patient medications: " + e.getMessage());
+            System.err.println("Error viewing " + what + ": " + e.getMessage());
         }
     }
 
     // ===== INSERT =====
 
-    private static void insertMedication(Connection conn) {
+    private static void insertMedication() {
         System.out.println("\n--- Insert Medication ---");
         int patientId = readInt("PatientID: ");
         int doctorId  = readInt("DoctorID: ");
@@ -311,10 +1097,30 @@ public class Main {
             }
         }
 
+        try {
+            int rows = insertMedication(patientId, doctorId, name, cost, status, dosage, freq, planId);
+            System.out.println("Inserted " + rows + " medication record(s).");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (SQLException e) {
+            System.err.println("Error inserting medication: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Inserts one medication; shared by the menu and batch mode.
+     *
+     * @throws IllegalArgumentException when the patient, doctor or plan does not exist
+     */
+    static int insertMedication(int patientId, int doctorId, String name, double cost, String status,
+                                String dosage, String freq, Integer planId) throws SQLException {
+        // No lookup first: the cache reads a replica and could miss a doctor or plan added a moment ago.
+        // The foreign keys on the primary decide, and their errors become the same messages.
         String sql = "INSERT INTO Medication (PatientID, DoctorID, Name, Cost, Status, Dosage, Frequency, PlanID) " +
                      "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
 
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+        try (Connection conn = router.write();
+             PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             ps.setInt(1, patientId);
             ps.setInt(2, doctorId);
             ps.setString(3, name);
@@ -327,60 +1133,121 @@ public class Main {
             } else {
                 ps.setInt(8, planId);
             }
-
             int rows = ps.executeUpdate();
-            System.out.println("Inserted " + rows + " medication record(s).");
+            Object medicationId = null;
+            try (ResultSet keys = ps.getGeneratedKeys()) {
+                if (keys.next()) {
+                    medicationId = keys.getLong(1);
+                }
+            }
+            audit.record("INSERT", "Medication", medicationId, null, new Object[]{"PatientID", patientId,
+                    "DoctorID", doctorId, "Name", name, "Cost", cost, "Status", status, "Dosage", dosage,
+                    "Frequency", freq, "PlanID", planId});
+            return rows;
         } catch (SQLException e) {
-            System.err.println("Error inserting medication: " + e.getMessage());
+            throw missingReference(e);
+        }
+    }
+
+    // Error 1452 as the IllegalArgumentException callers show to the user; anything else unchanged.
+    private static SQLException missingReference(SQLException e) {
+        if (e.getErrorCode() == AppointmentScheduler.ER_NO_REFERENCED_ROW) {
+            throw new IllegalArgumentException(AppointmentScheduler.missingReference(e.getMessage()));
+        }
+        return e;
+    }
+
+    private static void importMedications() {
+        System.out.println("\n--- Bulk Import Medications ---");
+        System.out.println("Columns: PatientID, DoctorID, Name, Cost, Status, Dosage, Frequency, PlanID (header optional)");
+        Path file = Path.of(readNonEmpty("CSV/TSV file path: "));
+        if (!Files.isReadable(file)) {
+            System.out.println("Cannot read " + file);
+            return;
+        }
+
+        MedicationImporter importer = new MedicationImporter(ConnectionPool.intProp(config, "import.batchSize", 500));
+        try (Connection conn = router.write()) {
+            MedicationImporter.Result r = importer.importFile(conn, file);
+            // One summary event; the rows themselves are in the file.
+            audit.record("IMPORT", "Medication", file.getFileName(), null, new Object[]{"File", file.toString(),
+                    "Inserted", r.inserted(), "Rejected", r.rejected()});
+            System.out.printf("Read %d row(s): inserted %d, rejected %d in %.2f s (%.0f rows/sec)%n",
+                    r.read(), r.inserted(), r.rejected(), r.elapsedNanos() / 1e9, r.rowsPerSecond());
+            if (r.rejected() > 0) {
+                System.out.println("Rejected rows written to " + r.rejectFile());
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading import file: " + e.getMessage());
+        } catch (SQLException e) {
+            System.err.println("Error importing medications: " + e.getMessage());
         }
     }
 
     // ===== UPDATE & DELETE =====
 
-        private static void updatePatient(Connection conn) {
-        System.out.println("\n--- Update Patient ---");
-        int id = readInt("Enter PatientID to update: ");
+    private static final String UPDATE_MEDICATION_STATUS = "UPDATE Medication SET Status = ? WHERE MedicationID = ?";
 
-        String selectSql = "SELECT Name, Birthdate, Email, PhoneNumber, Address, PlanID FROM Patient WHERE PatientID = ?";
+    private static void updateMedicationStatus() {
+        System.out.println("\n--- Update Medication Status ---");
+        int medicationId = readInt("MedicationID: ");
+        String status = readNonEmpty("New status (Paused/Completed/Ongoing): ");
 
         try {
-            String currentName;
-            Date currentBirthdate;
-            String currentEmail;
-            String currentPhone;
-            String currentAddress;
-            Integer currentPlanId;
+            int rows = updateMedicationStatus(medicationId, status);
+            if (rows == 0) {
+                System.out.println("No medication found with that ID.");
+            } else {
+                System.out.println("Updated " + rows + " medication(s).");
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (SQLException e) {
+            System.err.println("Error updating medication: " + e.getMessage());
+        }
+    }
 
-            // Load current values
-            try (PreparedStatement selectPs = conn.prepareStatement(selectSql)) {
-                selectPs.setInt(1, id);
-                try (ResultSet rs = selectPs.executeQuery()) {
-                    if (!rs.next()) {
-                        System.out.println("No patient found with that ID.");
-                        return;
-                    }
-                    currentName = rs.getString("Name");
-                    currentBirthdate = rs.getDate("Birthdate");
-                    currentEmail = rs.getString("Email");
-                    currentPhone = rs.getString("PhoneNumber");
-                    currentAddress = rs.getString("Address");
-                    int planVal = rs.getInt("PlanID");
-                    currentPlanId = rs.wasNull() ? null : planVal;
-                }
+    static int updateMedicationStatus(int medicationId, String status) throws SQLException {
+        if (!status.equals("Paused") && !status.equals("Completed") && !status.equals("Ongoing")) {
+            throw new IllegalArgumentException("Status must be Paused, Completed or Ongoing.");
+        }
+
+        try (Connection conn = router.write();
+             PreparedStatement ps = conn.prepareStatement(UPDATE_MEDICATION_STATUS)) {
+            ps.setString(1, status);
+            ps.setInt(2, medicationId);
+            int rows = ps.executeUpdate();
+            if (rows > 0) {
+                audit.record("UPDATE", "Medication", medicationId, null, new Object[]{"Status", status});
+            }
+            return rows;
+        }
+    }
+
+        private static void updatePatient() {
+        System.out.println("\n--- Update Patient ---");
+        int id = readPatientId("Enter PatientID to update (or name/email/phone to search): ");
+
+        try {
+            // Load current values (the connection goes back to the pool before we prompt)
+            PatientRecord current = loadPatient(id);
+            if (current == null) {
+                System.out.println("No patient found with that ID.");
+                return;
             }
 
             System.out.println("Press Enter to keep the current value shown in brackets.");
 
             // Name
-            System.out.print("Name [" + currentName + "]: ");
+            System.out.print("Name [" + current.name() + "]: ");
             String nameInput = scanner.nextLine().trim();
-            String newName = nameInput.isEmpty() ? currentName : nameInput;
+            String newName = nameInput.isEmpty() ? current.name() : nameInput;
 
             // Birthdate
-            String birthStr = (currentBirthdate != null) ? currentBirthdate.toString() : "NULL";
+            String birthStr = (current.birthdate() != null) ? current.birthdate().toString() : "NULL";
             System.out.print("Birthdate (YYYY-MM-DD) [" + birthStr + "]: ");
             String birthInput = scanner.nextLine().trim();
-            Date newBirthdate = currentBirthdate;
+            Date newBirthdate = current.birthdate();
             if (!birthInput.isEmpty()) {
                 try {
                     newBirthdate = Date.valueOf(birthInput);
@@ -390,25 +1257,25 @@ public class Main {
             }
 
             // Email
-            System.out.print("Email [" + currentEmail + "]: ");
+            System.out.print("Email [" + current.email() + "]: ");
             String emailInput = scanner.nextLine().trim();
-            String newEmail = emailInput.isEmpty() ? currentEmail : emailInput;
+            String newEmail = emailInput.isEmpty() ? current.email() : emailInput;
 
             // Phone
-            System.out.print("PhoneNumber [" + currentPhone + "]: ");
+            System.out.print("PhoneNumber [" + current.phone() + "]: ");
             String phoneInput = scanner.nextLine().trim();
-            String newPhone = phoneInput.isEmpty() ? currentPhone : phoneInput;
+            String newPhone = phoneInput.isEmpty() ? current.phone() : phoneInput;
 
             // Address
-            System.out.print("Address [" + currentAddress + "]: ");
+            System.out.print("Address [" + current.address() + "]: ");
             String addrInput = scanner.nextLine().trim();
-            String newAddress = addrInput.isEmpty() ? currentAddress : addrInput;
+            String newAddress = addrInput.isEmpty() ? current.address() : addrInput;
 
             // PlanID
-            String planStr = (currentPlanId != null) ? currentPlanId.toString() : "NULL";
+            String planStr = (current.planId() != null) ? current.planId().toString() : "NULL";
             System.out.print("PlanID [" + planStr + "]: ");
             String planInput = scanner.nextLine().trim();
-            Integer newPlanId = currentPlanId;
+            Integer newPlanId = current.planId();
             if (!planInput.isEmpty()) {
                 try {
                     newPlanId = Integer.valueOf(planInput);
@@ -417,52 +1284,476 @@ public class Main {
                 }
             }
 
-            String updateSql = "UPDATE Patient SET Name = ?, Birthdate = ?, Email = ?, PhoneNumber = ?, Address = ?, PlanID = ? " +
-                               "WHERE PatientID = ?";
+            UpdateResult result = updatePatient(current,
+                    new PatientRecord(id, newName, newBirthdate, newEmail, newPhone, newAddress, newPlanId, current.version()));
+            switch (result.status()) {
+                case UPDATED -> System.out.println("Updated " + String.join(", ", result.columns()) + ".");
+                case UNCHANGED -> System.out.println("Nothing changed.");
+                case NOT_FOUND -> System.out.println("The patient was deleted while you were editing; nothing saved.");
+                case CONFLICT -> {
+                    PatientRecord now = loadPatient(id);
+                    System.out.println("Someone else changed this patient while you were editing; nothing saved.");
+                    if (now != null) {
+                        System.out.println("Current values: " + now.name() + " | " + now.birthdate() + " | " + now.email()
+                                + " | " + now.phone() + " | " + now.address() + " | plan " + now.planId());
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error updating patient: " + e.getMessage());
+        }
+    }
+
+    /**
+     * One Patient row as the update screens see it; version is the RowVersion it was read at.
+     */
+    record PatientRecord(int id, String name, Date birthdate, String email, String phone, String address,
+                         Integer planId, int version) {
+    }
+
+    enum UpdateStatus { UPDATED, UNCHANGED, NOT_FOUND, CONFLICT }
+
+    /**
+     * Outcome of one guarded update: the columns written, and the row's version afterwards
+     * (for CONFLICT, the version someone else left it at; -1 when not found).
+     */
+    record UpdateResult(int id, UpdateStatus status, List<String> columns, int version) {
+    }
+
+    private static final String[] PATIENT_COLUMNS = {"Name", "Birthdate", "Email", "PhoneNumber", "Address", "PlanID"};
+    private static final int[] PATIENT_COLUMN_TYPES = {Types.VARCHAR, Types.DATE, Types.VARCHAR, Types.VARCHAR,
+            Types.VARCHAR, Types.INTEGER};
+
+    private static Object patientValue(PatientRecord p, int column) {
+        return switch (column) {
+            case 0 -> p.name();
+            case 1 -> p.birthdate();
+            case 2 -> p.email();
+            case 3 -> p.phone();
+            case 4 -> p.address();
+            default -> p.planId();
+        };
+    }
+
+    // Bit i set when PATIENT_COLUMNS[i] differs.
+    private static int changedPatientColumns(PatientRecord before, PatientRecord after) {
+        int mask = 0;
+        for (int c = 0; c < PATIENT_COLUMNS.length; c++) {
+            if (!Objects.equals(patientValue(before, c), patientValue(after, c))) {
+                mask |= 1 << c;
+            }
+        }
+        return mask;
+    }
+
+    // Audit image of the mask's columns plus RowVersion: alternating names and values.
+    private static Object[] patientImage(PatientRecord p, int mask, int version) {
+        List<Object> image = new ArrayList<>();
+        for (int c = 0; c < PATIENT_COLUMNS.length; c++) {
+            if ((mask & 1 << c) != 0) {
+                image.add(PATIENT_COLUMNS[c]);
+                image.add(patientValue(p, c));
+            }
+        }
+        image.add("RowVersion");
+        image.add(version);
+        return image.toArray();
+    }
+
+    private static List<String> columnNames(int mask) {
+        List<String> names = new ArrayList<>();
+        for (int c = 0; c < PATIENT_COLUMNS.length; c++) {
+            if ((mask & 1 << c) != 0) {
+                names.add(PATIENT_COLUMNS[c]);
+            }
+        }
+        return names;
+    }
 
-            try (PreparedStatement ps = conn.prepareStatement(updateSql)) {
-                ps.setString(1, newName);
+    // "Name = ?, PlanID = ?" for the columns in mask.
+    private static String setClause(int mask) {
+        StringJoiner set = new StringJoiner(", ");
+        for (String column : columnNames(mask)) {
+            set.add(column + " = ?");
+        }
+        return set.toString();
+    }
 
-                if (newBirthdate == null) {
-                    ps.setNull(2, Types.DATE);
+    // Binds the mask's columns of p from index on; returns the next free index.
+    private static int bindPatientColumns(PreparedStatement ps, int index, int mask, PatientRecord p) throws SQLException {
+        for (int c = 0; c < PATIENT_COLUMNS.length; c++) {
+            if ((mask & 1 << c) != 0) {
+                Object v = patientValue(p, c);
+                if (v == null) {
+                    ps.setNull(index++, PATIENT_COLUMN_TYPES[c]);
                 } else {
-                    ps.setDate(2, newBirthdate);
+                    ps.setObject(index++, v);
                 }
+            }
+        }
+        return index;
+    }
 
-                ps.setString(3, newEmail);
-                ps.setString(4, newPhone);
-                ps.setString(5, newAddress);
+    /**
+     * @return the patient, or null when there is no patient with that ID
+     */
+    static PatientRecord loadPatient(int id) throws SQLException {
+        String selectSql = PATIENT_RECORD_SELECT + " WHERE PatientID = ?";
+
+        try (Connection conn = router.primary();
+             PreparedStatement selectPs = conn.prepareStatement(selectSql)) {
+            selectPs.setInt(1, id);
+            try (ResultSet rs = selectPs.executeQuery()) {
+                return rs.next() ? patientRecord(rs) : null;
+            }
+        }
+    }
 
-                if (newPlanId == null) {
-                    ps.setNull(6, Types.INTEGER);
-                } else {
-                    ps.setInt(6, newPlanId);
+    /**
+     * The patients among ids that exist, by ID, in one query.
+     */
+    static Map<Integer, PatientRecord> loadPatients(List<Integer> ids) throws SQLException {
+        Map<Integer, PatientRecord> found = new HashMap<>();
+        if (ids.isEmpty()) {
+            return found;
+        }
+        StringJoiner in = new StringJoiner(", ", PATIENT_RECORD_SELECT + " WHERE PatientID IN (", ")");
+        ids.forEach(id -> in.add("?"));
+        try (Connection conn = router.primary();
+             PreparedStatement ps = conn.prepareStatement(in.toString())) {
+            for (int i = 0; i < ids.size(); i++) {
+                ps.setInt(i + 1, ids.get(i));
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    PatientRecord p = patientRecord(rs);
+                    found.put(p.id(), p);
                 }
+            }
+        }
+        return found;
+    }
 
-                ps.setInt(7, id);
+    private static final String PATIENT_RECORD_SELECT =
+            "SELECT PatientID, Name, Birthdate, Email, PhoneNumber, Address, PlanID, RowVersion FROM Patient";
 
-                int rows = ps.executeUpdate();
-                if (rows == 0) {
-                    System.out.println("No patient found with that ID.");
-                } else {
-                    System.out.println("Updated " + rows + " patient(s).");
+    private static PatientRecord patientRecord(ResultSet rs) throws SQLException {
+        int planVal = rs.getInt("PlanID");
+        Integer planId = rs.wasNull() ? null : planVal;
+        return new PatientRecord(rs.getInt("PatientID"), rs.getString("Name"), rs.getDate("Birthdate"),
+                rs.getString("Email"), rs.getString("PhoneNumber"), rs.getString("Address"), planId,
+                rs.getInt("RowVersion"));
+    }
+
+    /**
+     * Moves every patient on fromPlan (null = no plan) to toPlan through updatePatients. Patients edited
+     * between the read and their chunk come back as CONFLICT and keep their plan.
+     */
+    static List<UpdateResult> migratePatientPlan(Integer fromPlan, Integer toPlan) throws SQLException {
+        String sql = PATIENT_RECORD_SELECT + (fromPlan == null ? " WHERE PlanID IS NULL" : " WHERE PlanID = ?")
+                + " ORDER BY PatientID";
+        List<PatientRecord[]> edits = new ArrayList<>();
+        try (Connection conn = router.write();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            if (fromPlan != null) {
+                ps.setInt(1, fromPlan);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    PatientRecord p = patientRecord(rs);
+                    edits.add(new PatientRecord[]{p, new PatientRecord(p.id(), p.name(), p.birthdate(), p.email(),
+                            p.phone(), p.address(), toPlan, p.version())});
+                }
+            }
+        }
+        return updatePatients(edits);
+    }
+
+    /**
+     * Writes only the columns that differ between before and after, and only if the row is still at
+     * before.version(). Nothing is written when nothing changed.
+     */
+    static UpdateResult updatePatient(PatientRecord before, PatientRecord after) throws SQLException {
+        int mask = changedPatientColumns(before, after);
+        if (mask == 0) {
+            return new UpdateResult(before.id(), UpdateStatus.UNCHANGED, List.of(), before.version());
+        }
+        String sql = "UPDATE Patient SET " + setClause(mask) + " WHERE PatientID = ? AND RowVersion = ?";
+
+        try (Connection conn = router.write();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            int idx = bindPatientColumns(ps, 1, mask, after);
+            ps.setInt(idx++, before.id());
+            ps.setInt(idx, before.version());
+            if (ps.executeUpdate() > 0) {
+                noteSearchChange(before.id(), after);
+                audit.record("UPDATE", "Patient", before.id(), patientImage(before, mask, before.version()),
+                        patientImage(after, mask, before.version() + 1));
+                return new UpdateResult(before.id(), UpdateStatus.UPDATED, columnNames(mask), before.version() + 1);
+            }
+        }
+        PatientRecord now = loadPatient(before.id());
+        return now == null
+                ? new UpdateResult(before.id(), UpdateStatus.NOT_FOUND, List.of(), -1)
+                : new UpdateResult(before.id(), UpdateStatus.CONFLICT, List.of(), now.version());
+    }
+
+    /**
+     * Many guarded updates, pairs of {before, after}, in chunks of patient.updateBatchSize, one transaction each.
+     * Each chunk locks its rows (SELECT ... FOR UPDATE) to check versions, then writes every group of
+     * patients getting the same new values with a single UPDATE ... WHERE PatientID IN (...), so a plan
+     * migration of thousands of patients is a few statements. Patients whose values differ are sent as
+     * one statement batch per set of changed columns. Results come back in input order.
+     */
+    static List<UpdateResult> updatePatients(List<PatientRecord[]> edits) throws SQLException {
+        int chunkSize = Math.max(1, ConnectionPool.intProp(config, "patient.updateBatchSize", 1000));
+        UpdateResult[] results = new UpdateResult[edits.size()];
+        try (Connection conn = router.write()) {
+            conn.setAutoCommit(false);
+            try {
+                for (int from = 0; from < edits.size(); from += chunkSize) {
+                    List<PatientRecord[]> chunk = edits.subList(from, Math.min(edits.size(), from + chunkSize));
+                    updatePatientChunk(conn, chunk, results, from);
+                    conn.commit();
+                    List<AuditLog.Change> changes = new ArrayList<>();
+                    for (int i = from; i < from + chunk.size(); i++) {
+                        if (results[i].status() == UpdateStatus.UPDATED) {
+                            PatientRecord[] e = edits.get(i);
+                            int mask = changedPatientColumns(e[0], e[1]);
+                            noteSearchChange(results[i].id(), e[1]);
+                            changes.add(new AuditLog.Change("UPDATE", "Patient", e[0].id(),
+                                    patientImage(e[0], mask, results[i].version() - 1),
+                                    patientImage(e[1], mask, results[i].version())));
+                        }
+                    }
+                    audit.recordAll(changes);
+                }
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    private static void updatePatientChunk(Connection conn, List<PatientRecord[]> chunk, UpdateResult[] results,
+                                           int offset) throws SQLException {
+        Map<Integer, Integer> versions = new HashMap<>();
+        StringJoiner ids = new StringJoiner(", ", "SELECT PatientID, RowVersion FROM Patient WHERE PatientID IN (",
+                ") FOR UPDATE");
+        for (PatientRecord[] e : chunk) {
+            ids.add("?");
+        }
+        try (PreparedStatement ps = conn.prepareStatement(ids.toString())) {
+            for (int i = 0; i < chunk.size(); i++) {
+                ps.setInt(i + 1, chunk.get(i)[0].id());
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    versions.put(rs.getInt(1), rs.getInt(2));
+                }
+            }
+        }
+
+        // Same changed columns and same new values -> one UPDATE for all of them.
+        Map<List<Object>, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            PatientRecord before = chunk.get(i)[0];
+            PatientRecord after = chunk.get(i)[1];
+            Integer version = versions.get(before.id());
+            int mask = changedPatientColumns(before, after);
+            if (version == null) {
+                results[offset + i] = new UpdateResult(before.id(), UpdateStatus.NOT_FOUND, List.of(), -1);
+            } else if (version != before.version()) {
+                results[offset + i] = new UpdateResult(before.id(), UpdateStatus.CONFLICT, List.of(), version);
+            } else if (mask == 0) {
+                results[offset + i] = new UpdateResult(before.id(), UpdateStatus.UNCHANGED, List.of(), version);
+            } else {
+                List<Object> key = new ArrayList<>();
+                key.add(mask);
+                for (int c = 0; c < PATIENT_COLUMNS.length; c++) {
+                    if ((mask & 1 << c) != 0) {
+                        key.add(patientValue(after, c));
+                    }
                 }
+                groups.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+                results[offset + i] = new UpdateResult(before.id(), UpdateStatus.UPDATED, columnNames(mask), version + 1);
+                versions.put(before.id(), version + 1); // a second edit of the same patient now conflicts
+            }
+        }
+
+        Map<Integer, PreparedStatement> singles = new HashMap<>(); // by mask
+        try {
+            for (Map.Entry<List<Object>, List<Integer>> g : groups.entrySet()) {
+                int mask = (Integer) g.getKey().get(0);
+                List<Integer> members = g.getValue();
+                PatientRecord first = chunk.get(members.get(0))[1];
+                if (members.size() == 1) {
+                    PreparedStatement ps = singles.get(mask);
+                    if (ps == null) {
+                        ps = conn.prepareStatement("UPDATE Patient SET " + setClause(mask) + " WHERE PatientID = ?");
+                        singles.put(mask, ps);
+                    }
+                    ps.setInt(bindPatientColumns(ps, 1, mask, first), first.id());
+                    ps.addBatch();
+                    continue;
+                }
+                StringJoiner in = new StringJoiner(", ", "UPDATE Patient SET " + setClause(mask) + " WHERE PatientID IN (", ")");
+                for (int i = 0; i < members.size(); i++) {
+                    in.add("?");
+                }
+                try (PreparedStatement ps = conn.prepareStatement(in.toString())) {
+                    int idx = bindPatientColumns(ps, 1, mask, first);
+                    for (int i : members) {
+                        ps.setInt(idx++, chunk.get(i)[0].id());
+                    }
+                    ps.executeUpdate();
+                }
+            }
+            for (PreparedStatement ps : singles.values()) {
+                ps.executeBatch();
+            }
+        } finally {
+            for (PreparedStatement ps : singles.values()) {
+                ps.close();
+            }
+        }
+    }
+
+    private static void migratePatientPlan() {
+        System.out.println("\n--- Move Patients to Another Plan ---");
+        Integer fromPlan = readPlanId("Current PlanID (NULL for patients without a plan): ");
+        Integer toPlan = readPlanId("New PlanID (NULL to remove the plan): ");
+        if (Objects.equals(fromPlan, toPlan)) {
+            System.out.println("Nothing to do.");
+            return;
+        }
+
+        try {
+            long start = System.nanoTime();
+            List<UpdateResult> results = migratePatientPlan(fromPlan, toPlan);
+            int[] byStatus = new int[UpdateStatus.values().length];
+            List<Integer> conflicts = new ArrayList<>();
+            for (UpdateResult r : results) {
+                byStatus[r.status().ordinal()]++;
+                if (r.status() == UpdateStatus.CONFLICT) {
+                    conflicts.add(r.id());
+                }
+            }
+            System.out.printf("Moved %d patient(s) in %.1f ms.%n", byStatus[UpdateStatus.UPDATED.ordinal()],
+                    (System.nanoTime() - start) / 1e6);
+            if (!conflicts.isEmpty()) {
+                System.out.println("Changed by someone else meanwhile, left as they are: " + conflicts);
+            }
+            if (byStatus[UpdateStatus.NOT_FOUND.ordinal()] > 0) {
+                System.out.println("Deleted meanwhile: " + byStatus[UpdateStatus.NOT_FOUND.ordinal()]);
             }
         } catch (SQLException e) {
-            System.err.println("Error updating patient: " + e.getMessage());
+            System.err.println("Error moving patients: " + e.getMessage());
         }
     }
 
+    private static Integer readPlanId(String prompt) {
+        while (true) {
+            System.out.print(prompt);
+            String input = scanner.nextLine().trim();
+            if (input.equalsIgnoreCase("NULL")) {
+                return null;
+            }
+            try {
+                return Integer.valueOf(input);
+            } catch (NumberFormatException e) {
+                System.out.println("Enter a PlanID or NULL.");
+            }
+        }
+    }
 
-    private static void deletePatient(Connection conn) {
-        System.out.println("\n--- Delete Patient ---");
-        int id = readInt("Enter PatientID to delete: ");
+    private static void archiveAppointments() {
+        System.out.println("\n--- Archive Old Appointments ---");
+        LocalDate cutoff = AppointmentArchiver.defaultCutoff(config);
+        System.out.print("Archive appointments before (YYYY-MM-DD) [" + cutoff + "]: ");
+        String input = scanner.nextLine().trim();
+        if (!input.isEmpty()) {
+            try {
+                cutoff = LocalDate.parse(input);
+            } catch (DateTimeException e) {
+                System.out.println("Invalid date.");
+                return;
+            }
+        }
+        runArchive(cutoff);
+    }
 
-        String sql = "DELETE FROM Patient WHERE PatientID = ?";
+    private static boolean runArchive(LocalDate cutoff) {
+        try {
+            long[] lastReport = {System.nanoTime()};
+            AppointmentArchiver.Result r = archiver.archive(cutoff, (last, max, rows) -> {
+                if (System.nanoTime() - lastReport[0] > 2_000_000_000L) {
+                    System.out.printf(Locale.ROOT, "  ... PatientID %d of %d, %,d row(s) archived%n", last, max, rows);
+                    lastReport[0] = System.nanoTime();
+                }
+                return true;
+            });
+            audit.record("ARCHIVE", "Appointment", "before " + cutoff, null, new Object[]{"Cutoff", cutoff,
+                    "Rows", r.rows(), "Chunks", r.chunks()});
+            System.out.printf(Locale.ROOT, "Archived %,d appointment(s) before %s in %d chunk(s), %d retried, %.1f s (%,.0f rows/sec).%n",
+                    r.rows(), cutoff, r.chunks(), r.retries(), r.elapsedNanos() / 1e9, r.rowsPerSecond());
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Error archiving appointments: " + e.getMessage());
+            return false;
+        }
+    }
 
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, id);
-            int rows = ps.executeUpdate();
+    private static void exportTable() {
+        System.out.println("\n--- Export Table ---");
+        System.out.println("Tables: patients, medications, appointments, patient-medications, medication-summary, "
+                + "doctors, hospitals, doctor-hospital");
+        try {
+            TableListing.Source table = TableListing.Source.named(readNonEmpty("Table: "));
+            TableExporter.Format format = TableExporter.format(readNonEmpty("Format (csv, jsonl, tsv): "));
+            System.out.print("File (ending in .gz to compress; Enter for the screen): ");
+            String name = scanner.nextLine().trim();
+            TableExporter.Result r = exporter.export(table, format, name.isEmpty() ? null : Path.of(name));
+            System.out.println(exportSummary(r));
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Error writing export: " + e.getMessage());
+        } catch (SQLException e) {
+            System.err.println("Error exporting table: " + e.getMessage());
+        }
+    }
+
+    private static void viewAuditTrail() {
+        System.out.println("\n--- Audit Trail ---");
+        if (audit.sink() == AuditLog.Sink.OFF) {
+            System.out.println("Auditing is off (audit.sink=off).");
+            return;
+        }
+        System.out.print("Entity (Patient, Medication, Appointment, DoctorHospital; Enter for all): ");
+        String entity = scanner.nextLine().trim();
+        System.out.print("Key, e.g. a PatientID (Enter for all): ");
+        String key = scanner.nextLine().trim();
+        try {
+            long n = audit.show(new AuditLog.Filter(entity.isEmpty() ? null : entity, key.isEmpty() ? null : key,
+                    null, null), System.out);
+            System.out.println(n + " event(s).");
+        } catch (IOException e) {
+            System.err.println("Error reading audit log: " + e.getMessage());
+        } catch (SQLException e) {
+            System.err.println("Error reading audit table: " + e.getMessage());
+        }
+    }
+
+    private static void deletePatient() {
+        System.out.println("\n--- Delete Patient ---");
+        int id = readPatientId("Enter PatientID to delete (or name/email/phone to search): ");
+
+        try {
+            int rows = deletePatient(id);
             if (rows == 0) {
                 System.out.println("No patient found with that ID.");
             } else {
@@ -473,9 +1764,336 @@ public class Main {
         }
     }
 
+    /**
+     * Deletes the patient; their appointments and medications go with them through the FK cascade, or,
+     * past patient.deleteChunkRows of them, a chunk at a time first so one statement never locks them all.
+     */
+    static int deletePatient(int id) throws SQLException {
+        String sql = "DELETE FROM Patient WHERE PatientID = ?";
+        int chunkAbove = ConnectionPool.intProp(config, "patient.deleteChunkRows", 5000);
+
+        PatientRecord before = null;
+        long historyRows = 0;
+        if (chunkAbove > 0 || audit.enabled()) {
+            String check = "SELECT PatientID, Name, Birthdate, Email, PhoneNumber, Address, PlanID, RowVersion, "
+                         + "(SELECT COUNT(*) FROM Appointment a WHERE a.PatientID = p.PatientID) "
+                         + "+ (SELECT COUNT(*) FROM Medication m WHERE m.PatientID = p.PatientID) AS HistoryRows "
+                         + "FROM Patient p WHERE p.PatientID = ?";
+            try (Connection conn = router.primary();
+                 PreparedStatement ps = conn.prepareStatement(check)) {
+                ps.setInt(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) {
+                        return 0;
+                    }
+                    before = patientRecord(rs);
+                    historyRows = rs.getLong("HistoryRows");
+                }
+            }
+        }
+
+        int rows;
+        if (chunkAbove > 0 && historyRows > chunkAbove) {
+            rows = archiver.deletePatient(id);
+        } else {
+            try (Connection conn = router.write();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, id);
+                rows = ps.executeUpdate();
+            }
+        }
+        if (rows > 0) {
+            noteSearchChange(id, null);
+            if (before != null) {
+                audit.record("DELETE", "Patient", id, patientImage(before, (1 << PATIENT_COLUMNS.length) - 1,
+                        before.version()), null);
+            }
+        }
+        return rows;
+    }
+
+    // ===== Patient search =====
+
+    private static void searchPatients() {
+        System.out.println("\n--- Search Patients ---");
+        String query = readNonEmpty("Name, email or phone (start of a word): ");
+        try {
+            long start = System.nanoTime();
+            List<PatientSearchIndex.Match> matches = searchPatients(query, searchLimit());
+            double ms = (System.nanoTime() - start) / 1e6;
+            printMatches(matches);
+            System.out.printf("%d match(es) in %.3f ms%n", matches.size(), ms);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (SQLException e) {
+            System.err.println("Error searching patients: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a PatientID; anything that is not a number is searched and the matches are listed first.
+     */
+    private static int readPatientId(String prompt) {
+        while (true) {
+            String input = readNonEmpty(prompt);
+            try {
+                return Integer.parseInt(input);
+            } catch (NumberFormatException ignored) {
+                // search text
+            }
+            try {
+                List<PatientSearchIndex.Match> matches = searchPatients(input, searchLimit());
+                if (matches.isEmpty()) {
+                    System.out.println("No patients match \"" + input + "\".");
+                } else {
+                    printMatches(matches);
+                }
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            } catch (SQLException e) {
+                System.err.println("Error searching patients: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void printMatches(List<PatientSearchIndex.Match> matches) {
+        for (PatientSearchIndex.Match m : matches) {
+            System.out.printf("PatientID: %d | Name: %s | Email: %s | Phone: %s%n",
+                    m.patientId(), m.name(), m.email(), m.phone());
+        }
+    }
+
+    private static int searchLimit() {
+        return ConnectionPool.intProp(config, "search.limit", 20);
+    }
+
+    /**
+     * Ranked patients whose name, email or phone has a word starting with each query word;
+     * shared by the menu, the update/delete prompts and the HTTP API.
+     * Served from the in-memory index, or by the same rules as a scan of Patient when
+     * search.inMemory=false or Patient has more than search.maxPatients rows.
+     *
+     * @throws IllegalArgumentException when the query is empty
+     */
+    static List<PatientSearchIndex.Match> searchPatients(String query, int limit) throws SQLException {
+        PatientSearchIndex index = patientSearchIndex();
+        return index != null ? index.search(query, limit) : searchPatientsInDb(query, limit);
+    }
+
+    // Built on first use; rebuilt in the background when older than search.maxAgeSeconds (other
+    // writers) or after search.maxChanges edits here, while the old index keeps serving.
+    private static PatientSearchIndex patientSearchIndex() throws SQLException {
+        if (!Boolean.parseBoolean(config.getProperty("search.inMemory", "true").trim())) {
+            return null;
+        }
+        PatientSearchIndex index = patientSearch;
+        if (index != null) {
+            if (index.ageSeconds() >= ConnectionPool.longProp(config, "search.maxAgeSeconds", 900)
+                    || index.changeCount() >= ConnectionPool.intProp(config, "search.maxChanges", 10_000)) {
+                refreshPatientSearch();
+            }
+            return index;
+        }
+        synchronized (patientSearchLock) {
+            // Patient may have shrunk since; try again once the index would have been rebuilt anyway.
+            if (patientSearch == null && patientSearchTooLargeAt >= 0 && System.nanoTime() - patientSearchTooLargeAt
+                    < ConnectionPool.longProp(config, "search.maxAgeSeconds", 900) * 1_000_000_000L) {
+                return null;
+            }
+            return patientSearch != null ? patientSearch : buildPatientSearch(false);
+        }
+    }
+
+    private static void refreshPatientSearch() {
+        if (!patientSearchRefreshing.compareAndSet(false, true)) {
+            return;
+        }
+        Thread t = new Thread(() -> {
+            try {
+                synchronized (patientSearchLock) {
+                    buildPatientSearch(true);
+                }
+            } catch (SQLException e) {
+                System.err.println("Error rebuilding patient search index: " + e.getMessage());
+            } finally {
+                patientSearchRefreshing.set(false);
+            }
+        }, "patient-search-refresh");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // Caller holds patientSearchLock. A background rebuild prints nothing (the menu may be waiting
+    // for input); its time goes to the metrics and its result shows in View Pool Stats.
+    private static PatientSearchIndex buildPatientSearch(boolean quiet) throws SQLException {
+        int maxPatients = ConnectionPool.intProp(config, "search.maxPatients", 2_000_000);
+        long start = System.nanoTime();
+        Queue<Integer> touched = new ConcurrentLinkedQueue<>();
+        PatientSearchIndex index;
+        boolean failed = true;
+        patientSearchTouched = touched;
+        try {
+            try (Connection conn = router.primary()) {
+                index = PatientSearchIndex.build(conn, maxPatients);
+            }
+            if (index == null) {
+                patientSearchTooLargeAt = System.nanoTime();
+                if (!quiet) {
+                    System.out.println("Patient has more than " + maxPatients + " rows; searching the database instead.");
+                }
+            } else {
+                patientSearchTooLargeAt = -1;
+                if (!quiet) {
+                    System.out.println(patientSearchSummary(index, System.nanoTime() - start));
+                }
+            }
+            patientSearch = index;
+            failed = false;
+        } finally {
+            patientSearchTouched = null;
+            if (metrics != null) {
+                metrics.recordOperation("searchIndexBuild", System.nanoTime() - start, failed);
+            }
+        }
+        // The scan may have read these rows before they changed; take their current state.
+        if (index != null) {
+            for (Integer id : touched) {
+                PatientRecord p = loadPatient(id);
+                if (p == null) {
+                    index.remove(id);
+                } else {
+                    index.put(id, p.name(), p.email(), p.phone());
+                }
+            }
+        }
+        return index;
+    }
+
+    // p is the new row, or null when the patient was deleted.
+    private static void noteSearchChange(int id, PatientRecord p) {
+        Queue<Integer> touched = patientSearchTouched;
+        if (touched != null) {
+            touched.add(id);
+        }
+        PatientSearchIndex index = patientSearch;
+        if (index == null) {
+            return;
+        }
+        if (p == null) {
+            index.remove(id);
+        } else {
+            index.put(id, p.name(), p.email(), p.phone());
+        }
+    }
+
+    private static List<PatientSearchIndex.Match> searchPatientsInDb(String query, int limit) throws SQLException {
+        try (Connection conn = router.read()) {
+            return PatientSearchIndex.searchDatabase(conn, query, limit);
+        }
+    }
+
+    // ===== Cost analytics =====
+
+    private static void viewCostAnalytics() {
+        System.out.println("\n--- Cost Analytics ---");
+        int mode = readInt("Strategy (1 = parallel scan, 2 = server GROUP BY, 3 = compare both, 4 = auto, "
+                + "5 = last snapshot file): ");
+        try {
+            CostAnalytics.Report report;
+            switch (mode) {
+                case 1 -> report = analytics.run(CostAnalytics.Strategy.CLIENT);
+                case 2 -> report = analytics.run(CostAnalytics.Strategy.SERVER);
+                case 3 -> {
+                    CostAnalytics.Comparison both = analytics.compare();
+                    report = both.server();
+                    System.out.printf("Parallel scan: %.1f ms | Server GROUP BY: %.1f ms | %s; auto now uses %s%n",
+                            both.client().elapsedMs(), both.server().elapsedMs(),
+                            both.mismatches().isEmpty() ? "same totals" : "totals differ",
+                            both.client().elapsedNanos() <= both.server().elapsedNanos()
+                                    ? "the parallel scan" : "GROUP BY");
+                    if (!both.mismatches().isEmpty()) {
+                        System.out.println("Warning: totals differ for " + String.join(", ", both.mismatches())
+                                + " (rows may have changed between the two runs; showing GROUP BY's).");
+                    }
+                }
+                case 4 -> report = analytics.run(CostAnalytics.Strategy.AUTO);
+                case 5 -> report = analytics.run(CostAnalytics.Strategy.SNAPSHOT);
+                default -> {
+                    System.out.println("Invalid choice.");
+                    return;
+                }
+            }
+            printCostReport(report);
+        } catch (SQLException e) {
+            System.err.println("Error running cost analytics: " + e.getMessage());
+        } catch (NoSuchFileException e) {
+            System.out.println("No snapshot yet (" + e.getMessage() + "); run java Main --snapshot first.");
+        } catch (IOException e) {
+            System.err.println("Error reading snapshot: " + e.getMessage());
+        }
+    }
+
+    private static void printCostReport(CostAnalytics.Report report) throws SQLException {
+        for (CostAnalytics.Dimension d : CostAnalytics.Dimension.values()) {
+            CostAnalytics.Totals appts = report.totals(CostAnalytics.Source.APPOINTMENT, d);
+            CostAnalytics.Totals meds = report.totals(CostAnalytics.Source.MEDICATION, d);
+            System.out.println("\n--- Cost by " + d.name().toLowerCase() + " ---");
+            System.out.printf("%-32s %10s %14s %10s | %10s %14s %10s%n",
+                    "", "Appts", "Appt total", "Appt avg", "Meds", "Med total", "Med avg");
+            int[] keys = IntStream.concat(Arrays.stream(appts.sortedKeys()), Arrays.stream(meds.sortedKeys()))
+                    .sorted().distinct().toArray();
+            for (int k : keys) {
+                System.out.printf("%-32s %s | %s%n", costLabel(report, d, k), costColumns(appts, k), costColumns(meds, k));
+            }
+            if (d == CostAnalytics.Dimension.HOSPITAL || d == CostAnalytics.Dimension.MONTH) {
+                System.out.println("(Medication has no hospital or date; appointments only.)");
+            }
+        }
+        System.out.printf("%n%s: %d row(s) in %.1f ms%n",
+                switch (report.strategy()) {
+                    case CLIENT -> "Parallel scan";
+                    case SNAPSHOT -> "Snapshot scan";
+                    default -> "Server GROUP BY";
+                },
+                report.rows(), report.elapsedMs());
+    }
+
+    private static String costColumns(CostAnalytics.Totals t, int key) {
+        long n = t.count(key);
+        if (n == 0) {
+            return String.format("%10s %14s %10s", "-", "-", "-");
+        }
+        long cents = t.cents(key);
+        return String.format("%,10d %,14.2f %,10.2f", n, cents / 100.0, cents / 100.0 / n);
+    }
+
+    private static String costLabel(CostAnalytics.Report report, CostAnalytics.Dimension d, int key) throws SQLException {
+        switch (d) {
+            case PLAN -> {
+                if (key == CostAnalytics.Totals.NONE) {
+                    return "(no plan)";
+                }
+                ReferenceCache.InsurancePlan p = refs.plan(key);
+                return "Plan " + key + (p == null ? "" : " (" + p.provider() + ")");
+            }
+            case HOSPITAL -> {
+                ReferenceCache.Hospital h = refs.hospital(key);
+                return "Hospital " + key + (h == null ? "" : " (" + h.name() + ")");
+            }
+            case DISCIPLINE -> {
+                return report.discipline(key);
+            }
+            default -> {
+                return String.format("%04d-%02d", key / 100, key % 100);
+            }
+        }
+    }
+
     // ===== Stored Procedure demo =====
 
-    private static void scheduleAppointmentWithProc(Connection conn) {
+    private static final String SCHEDULE_APPOINTMENT_CALL = "{ CALL schedule_appointment(?, ?, ?, ?, ?, ?, ?) }";
+
+    private static void scheduleAppointmentWithProc() {
         System.out.println("\n--- Schedule Appointment via Stored Procedure ---");
         int patientId  = readInt("PatientID: ");
         int doctorId   = readInt("DoctorID: ");
@@ -485,9 +2103,26 @@ public class Main {
         String reason  = readNonEmpty("Visit reason: ");
         double cost    = readPositiveDouble("Cost: ");
 
-        String call = "{ CALL schedule_appointment(?, ?, ?, ?, ?, ?, ?) }";
+        try {
+            scheduleAppointment(patientId, doctorId, hospitalId, date, time, reason, cost);
+            System.out.println("Appointment scheduled successfully.");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (SQLException e) {
+            System.err.println("Error scheduling appointment: " + e.getMessage());
+        }
+    }
 
-        try (CallableStatement cs = conn.prepareCall(call)) {
+    /**
+     * Books one appointment through schedule_appointment; shared by the menu and batch mode.
+     *
+     * @throws IllegalArgumentException when the patient, doctor or hospital does not exist
+     */
+    static void scheduleAppointment(int patientId, int doctorId, int hospitalId, String date, String time,
+                                    String reason, double cost) throws SQLException {
+        // As in insertMedication: the foreign keys on the primary check the references.
+        try (Connection conn = router.write();
+             CallableStatement cs = conn.prepareCall(SCHEDULE_APPOINTMENT_CALL)) {
             cs.setInt(1, patientId);
             cs.setInt(2, doctorId);
             cs.setInt(3, hospitalId);
@@ -497,126 +2132,271 @@ public class Main {
             cs.setDouble(7, cost);
 
             cs.execute();
-            System.out.println("Appointment scheduled successfully.");
+            noteBooked(doctorId, date, time);
+            audit.record("INSERT", "Appointment", patientId + "/" + date + " " + time, null, new Object[]{
+                    "PatientID", patientId, "DoctorID", doctorId, "HospitalID", hospitalId, "ApptDate", date,
+                    "ApptTime", time, "Reason", reason, "Cost", cost});
         } catch (SQLException e) {
-            System.err.println("Error scheduling appointment: " + e.getMessage());
+            if (e.getMessage() != null && e.getMessage().contains("uq_doctor_slot")) {
+                noteBooked(doctorId, date, time); // someone else booked it; keep the index honest
+            }
+            throw missingReference(e);
         }
     }
 
-    // ===== Transactional workflow: move doctor to different hospital =====
+    private static void scheduleAppointmentSeries() {
+        System.out.println("\n--- Schedule Appointment Series ---");
+        int patientId  = readInt("PatientID: ");
+        int doctorId   = readInt("DoctorID: ");
+        int hospitalId = readInt("HospitalID: ");
+        String first   = readNonEmpty("First date (YYYY-MM-DD): ");
+        String time    = readNonEmpty("Time (HH:MM:SS): ");
+        String reason  = readNonEmpty("Visit reason: ");
+        double cost    = readPositiveDouble("Cost: ");
+        int count      = readInt("Number of appointments: ");
+        int interval   = readInt("Days between appointments (7 = weekly): ");
+        boolean allOrNothing = readInt("All or nothing? (1 = book none if any slot is taken, 0 = book what is free): ") == 1;
 
-    private static void transactionTransferDoctorHospital(Connection conn) {
-        System.out.println("\n--- Transaction: Transfer Doctor to New Hospital ---");
+        try {
+            AppointmentScheduler.Result r = scheduleAppointments(AppointmentScheduler.series(patientId, doctorId,
+                    hospitalId, first, time, reason, cost, count, interval), allOrNothing);
+            for (AppointmentScheduler.Item item : r.items()) {
+                System.out.printf("%s %s | %s%s%n", item.request().date(), item.request().time(), item.status(),
+                        item.message() == null ? "" : " | " + item.message());
+            }
+            System.out.printf(Locale.ROOT, "Booked %d of %d in %d call(s), %.1f ms.%s%n",
+                    r.count(AppointmentScheduler.Status.BOOKED), r.items().size(), r.calls(), r.elapsedNanos() / 1e6,
+                    r.committed() ? "" : " Nothing was booked. Rolled back.");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (SQLException e) {
+            System.err.println("Error scheduling appointments: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Books many appointments through schedule_appointments; shared by the menu, batch mode and the API.
+     * With allOrNothing, either every item is booked or none is.
+     */
+    static AppointmentScheduler.Result scheduleAppointments(List<AppointmentScheduler.Request> requests,
+                                                            boolean allOrNothing) throws SQLException {
+        AppointmentScheduler.Result result = scheduler.schedule(requests, allOrNothing);
+        List<AuditLog.Change> changes = new ArrayList<>();
+        for (AppointmentScheduler.Item item : result.items()) {
+            AppointmentScheduler.Request r = item.request();
+            if (item.status() == AppointmentScheduler.Status.BOOKED) {
+                noteBooked(r.doctorId(), r.date(), r.time());
+                changes.add(new AuditLog.Change("INSERT", "Appointment", r.patientId() + "/" + r.date() + " " + r.time(),
+                        null, new Object[]{"PatientID", r.patientId(), "DoctorID", r.doctorId(),
+                        "HospitalID", r.hospitalId(), "ApptDate", r.date(), "ApptTime", r.time(),
+                        "Reason", r.reason(), "Cost", r.cost()}));
+            } else if (item.slotTaken()) {
+                noteBooked(r.doctorId(), r.date(), r.time()); // someone else has it; keep the index honest
+            }
+        }
+        audit.recordAll(changes);
+        return result;
+    }
 
+    // ===== Free slot search =====
+
+    private static synchronized AvailabilityIndex availabilityIndex() throws SQLException {
+        if (availability == null || !availability.startsToday()) {
+            AvailabilityIndex index = AvailabilityIndex.fromProperties(config);
+            long start = System.nanoTime();
+            try (Connection conn = router.primary()) {
+                index.load(conn);
+            }
+            System.out.printf("Availability index built for %d doctor(s) in %.1f ms%n",
+                    index.doctorCount(), (System.nanoTime() - start) / 1e6);
+            availability = index;
+        }
+        return availability;
+    }
+
+    private static void noteBooked(int doctorId, String date, String time) {
+        AvailabilityIndex index = availability;
+        if (index == null) {
+            return;
+        }
         try {
-            conn.setAutoCommit(false); // start transaction
+            index.book(doctorId, LocalDate.parse(date), LocalTime.parse(time));
+        } catch (DateTimeException e) {
+            // MySQL accepts looser formats than java.time; drop the index so the next search reloads it
+            availability = null;
+        }
+    }
+
+    private static void findFreeSlots() {
+        System.out.println("\n--- Find Free Appointment Slots ---");
+        int mode = readInt("Search by (1 = doctor, 2 = discipline at hospital): ");
+        int doctorId = 0;
+        String discipline = null;
+        int hospitalId = 0;
+        if (mode == 1) {
+            doctorId = readInt("DoctorID: ");
+        } else if (mode == 2) {
+            discipline = readNonEmpty("Discipline (e.g., 'Cardiology'): ");
+            hospitalId = readInt("HospitalID: ");
+        } else {
+            System.out.println("Invalid choice.");
+            return;
+        }
+        System.out.print("From (YYYY-MM-DD HH:MM, press Enter for now): ");
+        String fromStr = scanner.nextLine().trim();
+        LocalDateTime from = LocalDateTime.now();
+        if (!fromStr.isEmpty()) {
+            try {
+                from = LocalDateTime.parse(fromStr.replace(' ', 'T'));
+            } catch (DateTimeException e) {
+                System.out.println("Invalid date/time, searching from now.");
+            }
+        }
+        int n = readInt("How many slots: ");
 
+        try {
+            AvailabilityIndex index = availabilityIndex();
+            long start = System.nanoTime();
+            List<AvailabilityIndex.Slot> slots = (mode == 1)
+                    ? index.nextFree(doctorId, from, n)
+                    : index.nextFree(discipline, hospitalId, from, n);
+            long micros = (System.nanoTime() - start) / 1000;
+
+            if (slots.isEmpty()) {
+                System.out.println("No free slots found.");
+            }
+            for (AvailabilityIndex.Slot slot : slots) {
+                System.out.printf("DoctorID: %d | Date: %s | Time: %s%n", slot.doctorId(), slot.date(), slot.time());
+            }
+            System.out.println("(search took " + micros + " us)");
+        } catch (SQLException e) {
+            System.err.println("Error loading availability: " + e.getMessage());
+        }
+    }
+
+    // ===== Transactional workflow: move doctor to different hospital =====
+
+    private static void transactionTransferDoctorHospital() {
+        System.out.println("\n--- Transaction: Transfer Doctor to New Hospital ---");
+
+        // Collect every input first; the transaction itself never waits on the keyboard.
+        List<DoctorTransferService.Transfer> transfers = new ArrayList<>();
+        do {
             int doctorId          = readInt("DoctorID to transfer: ");
             int currentHospitalId = readInt("Current HospitalID: ");
             int newHospitalId     = readInt("New HospitalID: ");
+            transfers.add(new DoctorTransferService.Transfer(doctorId, currentHospitalId, newHospitalId));
+        } while (readInt("Add another doctor to this transfer? (1 = yes, 0 = no): ") == 1);
+        boolean simulateFailure = readInt("Simulate failure and ROLLBACK? (1 = yes, 0 = no): ") == 1;
 
-            if (!doctorExists(conn, doctorId)) {
-                System.out.println("No doctor found with that ID. Rolling back.");
-                conn.rollback();
-                conn.setAutoCommit(true);
+        try {
+            DoctorTransferService.Result result = transferDoctors(transfers, simulateFailure);
+            if (!result.problems().isEmpty()) {
+                result.problems().forEach(System.out::println);
+                System.out.println("Nothing was changed. Rolled back.");
                 return;
             }
-            if (!hospitalExists(conn, currentHospitalId)) {
-                System.out.println("No hospital found with CURRENT HospitalID. Rolling back.");
-                conn.rollback();
-                conn.setAutoCommit(true);
-                return;
+            System.out.println("Updated DoctorHospital rows: " + result.linkRows());
+            System.out.println("Updated Appointment rows: " + result.appointmentRows());
+            if (result.attempts() > 1) {
+                System.out.println("(succeeded after " + result.attempts() + " attempts because of lock conflicts)");
             }
-            if (!hospitalExists(conn, newHospitalId)) {
-                System.out.println("No hospital found with NEW HospitalID. Rolling back.");
-                conn.rollback();
-                conn.setAutoCommit(true);
+            if (!result.committed()) {
+                System.out.println("Simulated error. Rolled back transaction.");
                 return;
             }
-            if (!doctorHospitalLinkExists(conn, doctorId, currentHospitalId)) {
-                System.out.println("Doctor is not currently assigned to that hospital in DoctorHospital. Rolling back.");
-                conn.rollback();
-                conn.setAutoCommit(true);
-                return;
-            }
-
-            String updateDH = "UPDATE DoctorHospital SET HospitalID = ? " +
-                              "WHERE DoctorID = ? AND HospitalID = ?";
-            try (PreparedStatement ps = conn.prepareStatement(updateDH)) {
-                ps.setInt(1, newHospitalId);
-                ps.setInt(2, doctorId);
-                ps.setInt(3, currentHospitalId);
-                int rows = ps.executeUpdate();
-                System.out.println("Updated DoctorHospital rows: " + rows);
-            }
-
-            String updateAppt = "UPDATE Appointment " +
-                                "SET HospitalID = ? " +
-                                "WHERE DoctorID = ? AND HospitalID = ?";
-            try (PreparedStatement ps = conn.prepareStatement(updateAppt)) {
-                ps.setInt(1, newHospitalId);
-                ps.setInt(2, doctorId);
-                ps.setInt(3, currentHospitalId);
-                int rows = ps.executeUpdate();
-                System.out.println("Updated Appointment rows: " + rows);
-            }
-
-            int simulate = readInt("Simulate failure and ROLLBACK? (1 = yes, 0 = no): ");
-            if (simulate == 1) {
-                System.out.println("Simulated error. Rolling back transaction.");
-                conn.rollback();
-            } else {
-                conn.commit();
-                System.out.println("Doctor transfer committed successfully.");
-            }
-
+            System.out.println("Doctor transfer committed successfully.");
         } catch (SQLException e) {
             System.err.println("Transaction error: " + e.getMessage());
-            try {
-                conn.rollback();
-                System.out.println("Rolled back due to error.");
-            } catch (SQLException ex) {
-                System.err.println("Rollback failed: " + ex.getMessage());
-            }
-        } finally {
-            try {
-                conn.setAutoCommit(true);
-            } catch (SQLException e) {
-                System.err.println("Failed to reset autocommit: " + e.getMessage());
+            System.out.println("Rolled back due to error.");
+        }
+    }
+
+    /**
+     * Runs the transfer transaction and, once it commits, brings the caches up to date.
+     */
+    static DoctorTransferService.Result transferDoctors(List<DoctorTransferService.Transfer> transfers,
+                                                       boolean rollbackOnly) throws SQLException {
+        DoctorTransferService.Result result = transferService.transfer(transfers, rollbackOnly);
+        if (result.committed()) {
+            AvailabilityIndex index = availability;
+            List<AuditLog.Change> changes = new ArrayList<>();
+            for (DoctorTransferService.Transfer t : transfers) {
+                refs.invalidateDoctorHospital(t.doctorId());
+                if (index != null) {
+                    index.moveDoctorHospital(t.doctorId(), t.fromHospitalId(), t.toHospitalId());
+                }
+                changes.add(new AuditLog.Change("UPDATE", "DoctorHospital", t.doctorId(),
+                        new Object[]{"HospitalID", t.fromHospitalId()}, new Object[]{"HospitalID", t.toHospitalId()}));
             }
+            audit.recordAll(changes);
         }
+        return result;
     }
 
-    // ===== Helper existence checks =====
+    // ===== Instrumentation =====
 
-    private static boolean doctorExists(Connection conn, int doctorId) throws SQLException {
-        String sql = "SELECT 1 FROM Doctor WHERE DoctorID = ?";
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, doctorId);
-            try (ResultSet rs = ps.executeQuery()) {
-                return rs.next();
-            }
+    /**
+     * Runs one menu operation with its JDBC calls labelled for the query metrics.
+     */
+    private static void run(String operation, Runnable action) {
+        QueryMetrics.Scope scope = QueryMetrics.operation(operation);
+        try {
+            action.run();
+        } finally {
+            scope.close();
         }
     }
 
-    private static boolean hospitalExists(Connection conn, int hospitalId) throws SQLException {
-        String sql = "SELECT 1 FROM Hospital WHERE HospitalID = ?";
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, hospitalId);
-            try (ResultSet rs = ps.executeQuery()) {
-                return rs.next();
+    private static void viewQueryMetrics() {
+        System.out.println("\n--- Query Metrics ---");
+        if (metrics == null) {
+            System.out.println("Metrics are disabled (metrics.enabled=false).");
+            return;
+        }
+        metrics.print(System.out);
+        System.out.print("Export to CSV file (press Enter to skip): ");
+        String file = scanner.nextLine().trim();
+        if (!file.isEmpty()) {
+            try {
+                metrics.exportCsv(Path.of(file));
+                System.out.println("Metrics written to " + file);
+            } catch (IOException e) {
+                System.err.println("Error exporting metrics: " + e.getMessage());
             }
         }
     }
 
-    private static boolean doctorHospitalLinkExists(Connection conn, int doctorId, int hospitalId) throws SQLException {
-        String sql = "SELECT 1 FROM DoctorHospital WHERE DoctorID = ? AND HospitalID = ?";
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, doctorId);
-            ps.setInt(2, hospitalId);
-            try (ResultSet rs = ps.executeQuery()) {
-                return rs.next();
-            }
+    // ===== Connection pool + caches =====
+
+    private static void viewPoolStats() {
+        System.out.println("\n--- Pool & Cache Stats ---");
+        System.out.println(startup.report());
+        System.out.println(pool.stats());
+        System.out.println(router.statsSummary());
+        System.out.println(audit.stats());
+        System.out.println(StatementCache.statsSummary());
+        System.out.println(ReferenceCache.statsSummary());
+        System.out.println(patientSearchStatus());
+    }
+
+    private static String patientSearchStatus() {
+        PatientSearchIndex index = patientSearch;
+        if (index != null) {
+            return patientSearchSummary(index, -1) + String.format(", %d s old, %d change(s) since",
+                    index.ageSeconds(), index.changeCount());
         }
+        if (!Boolean.parseBoolean(config.getProperty("search.inMemory", "true").trim())) {
+            return "Patient search: database (search.inMemory=false)";
+        }
+        return patientSearchTooLargeAt >= 0 ? "Patient search: database (more than search.maxPatients rows)"
+                : "Patient search: index not built yet";
+    }
+
+    // buildNanos < 0 leaves out the build time.
+    private static String patientSearchSummary(PatientSearchIndex index, long buildNanos) {
+        return String.format("Patient search index: %d patient(s), %d term(s), %.1f MB%s",
+                index.patientCount(), index.termCount(), index.memoryBytes() / 1048576.0,
+                buildNanos < 0 ? "" : String.format(", built in %.1f ms", buildNanos / 1e6));
     }
 }
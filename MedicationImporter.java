@@ -0,0 +1,305 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Bulk-loads Medication rows from a CSV or TSV file with JDBC batching.
+ * Rows are checked client-side against ck_med_cost / ck_med_status before they are sent,
+ * and every row that cannot be loaded goes to a reject file instead of aborting the load.
+ */
+final class MedicationImporter {
+
+    static final String INSERT_SQL =
+            "INSERT INTO Medication (PatientID, DoctorID, Name, Cost, Status, Dosage, Frequency, PlanID) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Column order used when the file has no header line (same order as INSERT_SQL).
+    private static final String[] COLUMNS =
+            {"PatientID", "DoctorID", "Name", "Cost", "Status", "Dosage", "Frequency", "PlanID"};
+
+    // Mirrors the CHECK constraints and column widths in create_and_populate.sql.
+    private static final BigDecimal MIN_COST = BigDecimal.ZERO;
+    private static final BigDecimal MAX_COST = new BigDecimal("1000");
+    private static final Set<String> STATUSES = Set.of("Paused", "Completed", "Ongoing");
+
+    /**
+     * One parsed, client-side valid input line.
+     */
+    record Row(int lineNo, String raw, int patientId, int doctorId, String name, BigDecimal cost,
+               String status, String dosage, String frequency, Integer planId) {
+    }
+
+    /**
+     * Outcome of one import run.
+     */
+    record Result(long read, long inserted, long rejected, long elapsedNanos, Path rejectFile) {
+        double rowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : read / (elapsedNanos / 1e9);
+        }
+    }
+
+    private final int batchSize;
+
+    MedicationImporter(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Imports the file; rejects go to &lt;file&gt;.rejects (one "line, reason, original text" entry per row).
+     * Each batch is its own transaction so a bad batch never undoes the good ones before it.
+     */
+    Result importFile(Connection conn, Path file) throws IOException, SQLException {
+        char delimiter = file.toString().toLowerCase(Locale.ROOT).endsWith(".tsv") ? '\t' : ',';
+        Path rejectFile = file.resolveSibling(file.getFileName() + ".rejects");
+
+        long start = System.nanoTime();
+        long read = 0;
+        long inserted = 0;
+        long rejected = 0;
+
+        boolean oldAutoCommit = conn.getAutoCommit();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+             BufferedWriter rejects = Files.newBufferedWriter(rejectFile, StandardCharsets.UTF_8);
+             PreparedStatement ps = conn.prepareStatement(INSERT_SQL)) {
+
+            conn.setAutoCommit(false);
+            int[] columnIndex = defaultColumnIndex();
+            List<Row> batch = new ArrayList<>(batchSize);
+
+            String line;
+            int lineNo = 0;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                List<String> fields = split(line, delimiter);
+                if (lineNo == 1 && isHeader(fields)) {
+                    columnIndex = headerColumnIndex(fields);
+                    continue;
+                }
+
+                read++;
+                Row row;
+                try {
+                    row = parse(lineNo, line, fields, columnIndex);
+                } catch (IllegalArgumentException e) {
+                    reject(rejects, lineNo, e.getMessage(), line);
+                    rejected++;
+                    continue;
+                }
+
+                batch.add(row);
+                if (batch.size() == batchSize) {
+                    int ok = flush(conn, ps, batch, rejects);
+                    inserted += ok;
+                    rejected += batch.size() - ok;
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                int ok = flush(conn, ps, batch, rejects);
+                inserted += ok;
+                rejected += batch.size() - ok;
+            }
+        } finally {
+            conn.setAutoCommit(oldAutoCommit);
+        }
+
+        return new Result(read, inserted, rejected, System.nanoTime() - start, rejectFile);
+    }
+
+    /**
+     * Sends one batch. If the server refuses it (e.g. a foreign key), the batch is rolled back and
+     * replayed row by row so only the offending rows are rejected.
+     *
+     * @return number of rows inserted
+     */
+    private int flush(Connection conn, PreparedStatement ps, List<Row> batch, BufferedWriter rejects)
+            throws SQLException, IOException {
+        try {
+            for (Row row : batch) {
+                bind(ps, row);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            conn.commit();
+            return batch.size();
+        } catch (BatchUpdateException e) {
+            ps.clearBatch();
+            conn.rollback();
+        }
+
+        int ok = 0;
+        for (Row row : batch) {
+            try {
+                bind(ps, row);
+                ps.executeUpdate();
+                conn.commit();
+                ok++;
+            } catch (SQLException e) {
+                conn.rollback();
+                reject(rejects, row.lineNo(), e.getMessage(), row.raw());
+            }
+        }
+        return ok;
+    }
+
+    private static void bind(PreparedStatement ps, Row row) throws SQLException {
+        ps.setInt(1, row.patientId());
+        ps.setInt(2, row.doctorId());
+        ps.setString(3, row.name());
+        ps.setBigDecimal(4, row.cost());
+        ps.setString(5, row.status());
+        ps.setString(6, row.dosage());
+        ps.setString(7, row.frequency());
+        if (row.planId() == null) {
+            ps.setNull(8, Types.INTEGER);
+        } else {
+            ps.setInt(8, row.planId());
+        }
+    }
+
+    private static void reject(BufferedWriter out, int lineNo, String reason, String raw) throws IOException {
+        out.write(lineNo + "\t" + reason.replace('\t', ' ').replace('\n', ' ') + "\t" + raw);
+        out.newLine();
+    }
+
+    // ===== Parsing + client-side validation =====
+
+    static Row parse(int lineNo, String raw, List<String> fields, int[] columnIndex) {
+        int patientId = requiredInt(field(fields, columnIndex, 0), "PatientID");
+        int doctorId = requiredInt(field(fields, columnIndex, 1), "DoctorID");
+        String name = requiredText(field(fields, columnIndex, 2), "Name", 120);
+
+        BigDecimal cost;
+        try {
+            cost = new BigDecimal(field(fields, columnIndex, 3));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cost is not a number");
+        }
+        if (cost.compareTo(MIN_COST) < 0 || cost.compareTo(MAX_COST) > 0) {
+            throw new IllegalArgumentException("ck_med_cost: Cost must be between 0 and 1000");
+        }
+
+        String status = field(fields, columnIndex, 4);
+        if (!STATUSES.contains(status)) {
+            throw new IllegalArgumentException("ck_med_status: Status must be Paused, Completed or Ongoing");
+        }
+
+        String dosage = optionalText(field(fields, columnIndex, 5), "Dosage", 50);
+        String frequency = optionalText(field(fields, columnIndex, 6), "Frequency", 50);
+        String planStr = field(fields, columnIndex, 7);
+        Integer planId = planStr.isEmpty() || planStr.equalsIgnoreCase("NULL") ? null : requiredInt(planStr, "PlanID");
+
+        return new Row(lineNo, raw, patientId, doctorId, name, cost, status, dosage, frequency, planId);
+    }
+
+    private static String field(List<String> fields, int[] columnIndex, int column) {
+        int idx = columnIndex[column];
+        return (idx < 0 || idx >= fields.size()) ? "" : fields.get(idx).trim();
+    }
+
+    private static int requiredInt(String value, String column) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(column + " must be an integer");
+        }
+    }
+
+    private static String requiredText(String value, String column, int maxLength) {
+        if (value.isEmpty()) {
+            throw new IllegalArgumentException(column + " cannot be empty");
+        }
+        return optionalText(value, column, maxLength);
+    }
+
+    private static String optionalText(String value, String column, int maxLength) {
+        if (value.length() > maxLength) {
+            throw new IllegalArgumentException(column + " is longer than " + maxLength + " characters");
+        }
+        return value.isEmpty() ? null : value;
+    }
+
+    private static int[] defaultColumnIndex() {
+        int[] idx = new int[COLUMNS.length];
+        for (int i = 0; i < idx.length; i++) {
+            idx[i] = i;
+        }
+        return idx;
+    }
+
+    private static boolean isHeader(List<String> fields) {
+        return !fields.isEmpty() && fields.get(0).trim().equalsIgnoreCase("PatientID")
+                || fields.stream().anyMatch(f -> f.trim().equalsIgnoreCase("MedicationID"));
+    }
+
+    private static int[] headerColumnIndex(List<String> header) {
+        int[] idx = new int[COLUMNS.length];
+        for (int c = 0; c < COLUMNS.length; c++) {
+            idx[c] = -1;
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).trim().equalsIgnoreCase(COLUMNS[c])) {
+                    idx[c] = i;
+                }
+            }
+        }
+        return idx;
+    }
+
+    /**
+     * Splits one line; for CSV, double-quoted fields may contain commas and "" escapes.
+     */
+    static List<String> split(String line, char delimiter) {
+        List<String> out = new ArrayList<>();
+        if (delimiter == '\t') {
+            int from = 0;
+            int tab;
+            while ((tab = line.indexOf('\t', from)) >= 0) {
+                out.add(line.substring(from, tab));
+                from = tab + 1;
+            }
+            out.add(line.substring(from));
+            return out;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    sb.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    sb.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == delimiter) {
+                out.add(sb.toString());
+                sb.setLength(0);
+            } else {
+                sb.append(c);
+            }
+        }
+        out.add(sb.toString());
+        return out;
+    }
+}
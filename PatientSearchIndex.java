@@ -0,0 +1,715 @@
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory prefix index over Patient Name, Email and PhoneNumber.
+ * <p>
+ * Terms are the words of the name, the whole email, the phone digits and their last four, kept in
+ * one sorted dictionary per match rank. Term text is stored as UTF-8 in one byte array, so a prefix
+ * lookup is a binary search over a contiguous range of terms. Row text is stored the same way, with
+ * no String per row. Rows changed through the app after the build are masked out and kept in a
+ * small overlay.
+ */
+final class PatientSearchIndex {
+
+    /**
+     * One search hit; lower rank is a better match.
+     */
+    record Match(int patientId, String name, String email, String phone, int rank) {
+    }
+
+    // Match ranks, best first.
+    static final int NAME_START = 0; // first word of the name
+    static final int FULL_FIELD = 1; // start of the email or of the phone digits
+    static final int NAME_WORD = 2;  // a later word of the name
+    static final int PHONE_END = 3;  // last four phone digits
+    private static final int RANKS = 4;
+
+    private static final byte SEP = 0x1F; // between the fields of one row in docText
+
+    private record Doc(int id, String name, String email, String phone) {
+    }
+
+    private interface TermSink {
+        void accept(String term, int rank);
+    }
+
+    private final int[] ids;      // slot -> PatientID, ascending
+    private final byte[] docText; // slot i is docText[docStart[i], docStart[i + 1])
+    private final int[] docStart;
+    private final Terms[] terms;  // one dictionary per rank
+
+    private final BitSet stale = new BitSet();                       // slots changed since the build
+    private final IntObjectMap<Doc> changed = new IntObjectMap<>(); // current text of those rows
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final long builtAtNanos = System.nanoTime();
+
+    private PatientSearchIndex(int[] ids, byte[] docText, int[] docStart, Terms[] terms) {
+        this.ids = ids;
+        this.docText = docText;
+        this.docStart = docStart;
+        this.terms = terms;
+    }
+
+    /**
+     * Streams Patient once and builds the index.
+     *
+     * @return the index, or null when Patient has more than maxPatients rows
+     */
+    static PatientSearchIndex build(Connection conn, int maxPatients) throws SQLException {
+        IntArray ids = new IntArray(1024);
+        ByteArray docs = new ByteArray(1 << 16);
+        IntArray docStart = new IntArray(1024);
+        List<Map<String, IntArray>> postings = new ArrayList<>(RANKS);
+        for (int r = 0; r < RANKS; r++) {
+            postings.add(new HashMap<>());
+        }
+
+        String sql = "SELECT PatientID, Name, Email, PhoneNumber FROM Patient ORDER BY PatientID";
+        try (PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int slot = ids.size;
+                    if (slot >= maxPatients) {
+                        return null;
+                    }
+                    String name = rs.getString(2);
+                    String email = rs.getString(3);
+                    String phone = rs.getString(4);
+                    ids.add(rs.getInt(1));
+                    docStart.add(docs.size);
+                    docs.add(utf8(name)).add(SEP).add(utf8(email)).add(SEP).add(utf8(phone));
+                    terms(name, email, phone, (term, rank) -> {
+                        IntArray list = postings.get(rank).computeIfAbsent(term, t -> new IntArray(1));
+                        if (list.size == 0 || list.data[list.size - 1] != slot) {
+                            list.add(slot);
+                        }
+                    });
+                }
+            }
+        }
+        docStart.add(docs.size);
+
+        Terms[] terms = new Terms[RANKS];
+        for (int r = 0; r < RANKS; r++) {
+            terms[r] = Terms.of(postings.get(r));
+            postings.set(r, null);
+        }
+        return new PatientSearchIndex(ids.toArray(), docs.toArray(), docStart.toArray(), terms);
+    }
+
+    // ===== Queries =====
+
+    /**
+     * Patients matching every word of the query, best rank first, then by PatientID.
+     * A word matches when it is the start of a name word, of the email, of the phone digits
+     * or of their last four.
+     *
+     * @throws IllegalArgumentException when the query has no searchable characters
+     */
+    List<Match> search(String query, int limit) {
+        List<String> words = queryWords(query);
+        if (words.isEmpty()) {
+            throw new IllegalArgumentException("Search text must not be empty.");
+        }
+        TopMatches top = new TopMatches(Math.max(1, limit));
+        lock.readLock().lock();
+        try {
+            if (words.size() == 1) {
+                searchOneWord(utf8(words.get(0)), top);
+            } else {
+                searchWords(words, top);
+            }
+            changed.forEachValue(d -> {
+                int rank = rankOf(d.name(), d.email(), d.phone(), words);
+                if (rank >= 0) {
+                    top.offer(rank, d.id(), d);
+                }
+            });
+            List<Match> matches = new ArrayList<>(top.size);
+            for (int i = 0; i < top.size; i++) {
+                int rank = (int) (top.keys[i] >>> 32);
+                Object ref = top.refs[i];
+                if (ref instanceof Doc d) {
+                    matches.add(new Match(d.id(), d.name(), d.email(), d.phone(), rank));
+                } else {
+                    String[] f = fields((Integer) ref);
+                    matches.add(new Match((int) top.keys[i], f[0], f[1], f[2], rank));
+                }
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Best rank first. Each term's slots ascend with PatientID, so only its first few can make the top.
+    private void searchOneWord(byte[] word, TopMatches top) {
+        for (int rank = 0; rank < RANKS; rank++) {
+            if (top.isFull() && top.worstRank() < rank) {
+                break;
+            }
+            Terms d = terms[rank];
+            for (int t = d.lowerBound(word), end = d.upperBound(word); t < end; t++) {
+                for (int i = d.postingStart[t]; i < d.postingStart[t + 1]; i++) {
+                    int slot = d.postings[i];
+                    if (top.isFull() && top.worse(rank, ids[slot])) {
+                        break;
+                    }
+                    if (!stale.get(slot)) {
+                        top.offer(rank, ids[slot], slot);
+                    }
+                }
+            }
+        }
+    }
+
+    // Several words: the best rank of each other word per slot, then one pass over the rarest word.
+    private void searchWords(List<String> words, TopMatches top) {
+        int rarest = 0;
+        long fewest = Long.MAX_VALUE;
+        for (int w = 0; w < words.size(); w++) {
+            long n = postingCount(utf8(words.get(w)));
+            if (n < fewest) {
+                fewest = n;
+                rarest = w;
+            }
+        }
+        if (fewest == 0) {
+            return;
+        }
+        // Per slot, the best rank over the other words, or RANKS when one of them does not match.
+        // One scratch array is refilled for each further word and folded in.
+        byte[] others = null;
+        byte[] scratch = null;
+        for (int w = 0; w < words.size(); w++) {
+            if (w == rarest) {
+                continue;
+            }
+            if (others == null) {
+                others = bestRanks(utf8(words.get(w)), null);
+                continue;
+            }
+            scratch = bestRanks(utf8(words.get(w)), scratch);
+            for (int slot = 0; slot < others.length; slot++) {
+                others[slot] = others[slot] == RANKS || scratch[slot] == RANKS
+                        ? RANKS : (byte) Math.min(others[slot], scratch[slot]);
+            }
+        }
+
+        byte[] word = utf8(words.get(rarest));
+        for (int rank = 0; rank < RANKS; rank++) {
+            Terms d = terms[rank];
+            for (int t = d.lowerBound(word), end = d.upperBound(word); t < end; t++) {
+                for (int i = d.postingStart[t]; i < d.postingStart[t + 1]; i++) {
+                    int slot = d.postings[i];
+                    if (stale.get(slot)) {
+                        continue;
+                    }
+                    if (others[slot] != RANKS) { // RANKS: another word does not match the row
+                        top.offer(Math.min(rank, others[slot]), ids[slot], slot);
+                    }
+                }
+            }
+        }
+    }
+
+    private long postingCount(byte[] word) {
+        long n = 0;
+        for (Terms d : terms) {
+            n += d.postingStart[d.upperBound(word)] - d.postingStart[d.lowerBound(word)];
+        }
+        return n;
+    }
+
+    // Per slot, the best rank at which the word matches, or RANKS when it does not; into is reused if given.
+    private byte[] bestRanks(byte[] word, byte[] into) {
+        byte[] best = into != null ? into : new byte[ids.length];
+        Arrays.fill(best, (byte) RANKS);
+        for (int rank = RANKS - 1; rank >= 0; rank--) {
+            Terms d = terms[rank];
+            for (int i = d.postingStart[d.lowerBound(word)], end = d.postingStart[d.upperBound(word)]; i < end; i++) {
+                best[d.postings[i]] = (byte) rank;
+            }
+        }
+        return best;
+    }
+
+    // ===== Without the index =====
+
+    /**
+     * The same search run by MySQL, for when the index is off or Patient is too large for it.
+     * Candidates come from the longest query word, one indexed lookup per field: a Name or Email
+     * prefix (LIKE 'w%'), a word of the name (the FULLTEXT index), or the start or last four of
+     * PhoneDigits. The rows are then ranked by the index's own rules, which also drop candidates
+     * the other words do not match. A name word shorter than innodb_ft_min_token_size (or a
+     * stopword) is found this way only when it starts the name.
+     *
+     * @throws IllegalArgumentException when the query has no searchable characters
+     */
+    static List<Match> searchDatabase(Connection conn, String query, int limit) throws SQLException {
+        List<String> words = queryWords(query);
+        if (words.isEmpty()) {
+            throw new IllegalArgumentException("Search text must not be empty.");
+        }
+        String key = words.get(0);
+        for (String w : words) {
+            if (w.length() > key.length()) {
+                key = w;
+            }
+        }
+        String like = key.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+        List<String> lookups = new ArrayList<>();
+        List<String> params = new ArrayList<>();
+        if (key.chars().allMatch(Character::isLetterOrDigit)) { // no FULLTEXT operators in it
+            lookups.add("SELECT PatientID FROM Patient WHERE Name LIKE ?");
+            params.add(like);
+            lookups.add("SELECT PatientID FROM Patient WHERE MATCH(Name) AGAINST (? IN BOOLEAN MODE)");
+            params.add(key + "*");
+        }
+        lookups.add("SELECT PatientID FROM Patient WHERE Email LIKE ?");
+        params.add(like);
+        if (key.chars().allMatch(c -> c >= '0' && c <= '9')) {
+            lookups.add("SELECT PatientID FROM Patient WHERE PhoneDigits LIKE ?");
+            params.add(like);
+            lookups.add("SELECT PatientID FROM Patient WHERE RIGHT(PhoneDigits, 4) LIKE ?");
+            params.add(like);
+        }
+        String sql = "SELECT p.PatientID, p.Name, p.Email, p.PhoneNumber FROM ("
+                + String.join(" UNION ", lookups) + ") c JOIN Patient p ON p.PatientID = c.PatientID";
+
+        int max = Math.max(1, limit);
+        Comparator<Match> order = Comparator.comparingInt(Match::rank).thenComparingInt(Match::patientId);
+        PriorityQueue<Match> best = new PriorityQueue<>(order.reversed()); // worst kept match on top
+        try (PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(Integer.MIN_VALUE); // a short prefix can match many rows; stream them
+            for (int i = 0; i < params.size(); i++) {
+                ps.setString(i + 1, params.get(i));
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String name = rs.getString(2);
+                    String email = rs.getString(3);
+                    String phone = rs.getString(4);
+                    int rank = rankOf(name, email, phone, words);
+                    if (rank >= 0) {
+                        best.add(new Match(rs.getInt(1), name, email, phone, rank));
+                        if (best.size() > max) {
+                            best.poll();
+                        }
+                    }
+                }
+            }
+        }
+        List<Match> matches = new ArrayList<>(best);
+        matches.sort(order);
+        return matches;
+    }
+
+    // ===== Incremental maintenance =====
+
+    /**
+     * Records the current text of a patient changed through the app.
+     */
+    void put(int patientId, String name, String email, String phone) {
+        lock.writeLock().lock();
+        try {
+            int slot = Arrays.binarySearch(ids, patientId);
+            if (slot >= 0) {
+                stale.set(slot);
+            }
+            changed.put(patientId, new Doc(patientId, name, email, phone));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(int patientId) {
+        lock.writeLock().lock();
+        try {
+            int slot = Arrays.binarySearch(ids, patientId);
+            if (slot >= 0) {
+                stale.set(slot);
+            }
+            changed.remove(patientId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rows updated or deleted since the build; a large number means the index is due for a rebuild.
+     */
+    int changeCount() {
+        lock.readLock().lock();
+        try {
+            return Math.max(stale.cardinality(), changed.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long ageSeconds() {
+        return (System.nanoTime() - builtAtNanos) / 1_000_000_000L;
+    }
+
+    int patientCount() {
+        return ids.length;
+    }
+
+    int termCount() {
+        int n = 0;
+        for (Terms d : terms) {
+            n += d.size();
+        }
+        return n;
+    }
+
+    /**
+     * Approximate heap held by the arrays of the index.
+     */
+    long memoryBytes() {
+        long bytes = docText.length + 4L * (ids.length + docStart.length);
+        for (Terms d : terms) {
+            bytes += d.text.length + 4L * (d.start.length + d.postingStart.length + d.postings.length);
+        }
+        return bytes;
+    }
+
+    // ===== Terms =====
+
+    /**
+     * Lower-cased query words; phone-like words keep only their digits, email-like ones stay whole.
+     */
+    static List<String> queryWords(String query) {
+        List<String> words = new ArrayList<>();
+        for (String raw : query.trim().toLowerCase(Locale.ROOT).split("\\s+")) {
+            if (isEmailLike(raw)) {
+                words.add(raw);
+            } else if (isPhoneLike(raw)) {
+                words.add(digits(raw));
+            } else {
+                nameWords(raw, (w, i) -> words.add(w));
+            }
+        }
+        return words;
+    }
+
+    private static void terms(String name, String email, String phone, TermSink sink) {
+        if (name != null) {
+            nameWords(name.toLowerCase(Locale.ROOT), (w, i) -> sink.accept(w, i == 0 ? NAME_START : NAME_WORD));
+        }
+        if (email != null && !email.isBlank()) {
+            sink.accept(email.trim().toLowerCase(Locale.ROOT), FULL_FIELD);
+        }
+        String d = phone == null ? "" : digits(phone);
+        if (!d.isEmpty()) {
+            sink.accept(d, FULL_FIELD);
+            if (d.length() > 4) {
+                sink.accept(d.substring(d.length() - 4), PHONE_END);
+            }
+        }
+    }
+
+    // Runs of letters and digits; "O'Brien-Smith" is o, brien, smith.
+    private static void nameWords(String s, TermSink sink) {
+        int count = 0;
+        int start = -1;
+        for (int i = 0; i <= s.length(); i++) {
+            boolean word = i < s.length() && Character.isLetterOrDigit(s.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                sink.accept(s.substring(start, i), count++);
+                start = -1;
+            }
+        }
+    }
+
+    /**
+     * Best rank at which every word matches the row, or -1 when some word does not.
+     */
+    static int rankOf(String name, String email, String phone, List<String> words) {
+        int[] best = new int[words.size()];
+        Arrays.fill(best, RANKS);
+        terms(name, email, phone, (term, rank) -> {
+            for (int i = 0; i < best.length; i++) {
+                if (rank < best[i] && term.startsWith(words.get(i))) {
+                    best[i] = rank;
+                }
+            }
+        });
+        int rank = RANKS;
+        for (int b : best) {
+            if (b == RANKS) {
+                return -1;
+            }
+            rank = Math.min(rank, b);
+        }
+        return rank;
+    }
+
+    // "alice@", "alice.nguyen1" or "a_lee": the start of an address rather than name words.
+    private static boolean isEmailLike(String s) {
+        if (s.indexOf('@') >= 0) {
+            return true;
+        }
+        for (int i = 1; i < s.length() - 1; i++) {
+            char c = s.charAt(i);
+            if ((c == '.' || c == '_') && Character.isLetterOrDigit(s.charAt(i + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPhoneLike(String s) {
+        boolean digit = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digit = true;
+            } else if ("+-().".indexOf(c) < 0) {
+                return false;
+            }
+        }
+        return digit;
+    }
+
+    private static String digits(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private String[] fields(int slot) {
+        String[] f = new String[3];
+        int start = docStart[slot];
+        int end = docStart[slot + 1];
+        int field = 0;
+        for (int i = start; i <= end; i++) {
+            if (i == end || docText[i] == SEP) {
+                f[field++] = i == start ? null : new String(docText, start, i - start, StandardCharsets.UTF_8);
+                start = i + 1;
+            }
+        }
+        return f;
+    }
+
+    private static byte[] utf8(String s) {
+        return s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sorted terms of one rank with their posting lists (slots, ascending).
+     */
+    private static final class Terms {
+        final byte[] text;        // term t is text[start[t], start[t + 1]), sorted as unsigned bytes
+        final int[] start;
+        final int[] postingStart; // term t owns postings[postingStart[t], postingStart[t + 1])
+        final int[] postings;
+
+        private Terms(byte[] text, int[] start, int[] postingStart, int[] postings) {
+            this.text = text;
+            this.start = start;
+            this.postingStart = postingStart;
+            this.postings = postings;
+        }
+
+        static Terms of(Map<String, IntArray> lists) {
+            byte[][] sorted = new byte[lists.size()][];
+            int n = 0;
+            for (String term : lists.keySet()) {
+                sorted[n++] = term.getBytes(StandardCharsets.UTF_8);
+            }
+            Arrays.sort(sorted, Arrays::compareUnsigned);
+            ByteArray text = new ByteArray(sorted.length * 12);
+            int[] start = new int[n + 1];
+            int[] postingStart = new int[n + 1];
+            IntArray postings = new IntArray(Math.max(16, n));
+            for (int t = 0; t < n; t++) {
+                start[t] = text.size;
+                text.add(sorted[t]);
+                postingStart[t] = postings.size;
+                IntArray list = lists.get(new String(sorted[t], StandardCharsets.UTF_8));
+                for (int i = 0; i < list.size; i++) {
+                    postings.add(list.data[i]);
+                }
+                sorted[t] = null;
+            }
+            start[n] = text.size;
+            postingStart[n] = postings.size;
+            return new Terms(text.toArray(), start, postingStart, postings.toArray());
+        }
+
+        int size() {
+            return start.length - 1;
+        }
+
+        // First term >= key.
+        int lowerBound(byte[] key) {
+            int lo = 0;
+            int hi = size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(mid, key, false) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // First term after every term that starts with key.
+        int upperBound(byte[] key) {
+            int lo = 0;
+            int hi = size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(mid, key, true) <= 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // With prefixOnly, a term that starts with key compares equal to it.
+        private int compare(int t, byte[] key, boolean prefixOnly) {
+            int from = start[t];
+            int len = start[t + 1] - from;
+            int to = prefixOnly ? from + Math.min(len, key.length) : from + len;
+            return Arrays.compareUnsigned(text, from, to, key, 0, key.length);
+        }
+    }
+
+    // ===== Helpers =====
+
+    /**
+     * The best `capacity` distinct patients by (rank, PatientID), kept sorted.
+     */
+    private static final class TopMatches {
+        final long[] keys;   // rank << 32 | PatientID
+        final Object[] refs; // slot (Integer) or changed Doc
+        int size;
+
+        TopMatches(int capacity) {
+            keys = new long[capacity];
+            refs = new Object[capacity];
+        }
+
+        boolean isFull() {
+            return size == keys.length;
+        }
+
+        int worstRank() {
+            return (int) (keys[size - 1] >>> 32);
+        }
+
+        // True when (rank, patientId) cannot enter a full list.
+        boolean worse(int rank, int patientId) {
+            return ((long) rank << 32 | (patientId & 0xFFFFFFFFL)) >= keys[size - 1];
+        }
+
+        void offer(int rank, int patientId, Object ref) {
+            long key = (long) rank << 32 | (patientId & 0xFFFFFFFFL);
+            if (isFull() && key >= keys[size - 1]) {
+                return;
+            }
+            for (int i = 0; i < size; i++) {
+                if ((int) keys[i] == patientId) {
+                    if (keys[i] <= key) {
+                        return;
+                    }
+                    System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+                    System.arraycopy(refs, i + 1, refs, i, size - i - 1);
+                    size--;
+                    break;
+                }
+            }
+            int at = Arrays.binarySearch(keys, 0, size, key);
+            at = at < 0 ? -at - 1 : at;
+            int moved = Math.min(size, keys.length - 1) - at;
+            if (moved > 0) {
+                System.arraycopy(keys, at, keys, at + 1, moved);
+                System.arraycopy(refs, at, refs, at + 1, moved);
+            }
+            keys[at] = key;
+            refs[at] = ref;
+            size = Math.min(size + 1, keys.length);
+        }
+    }
+
+    private static final class IntArray {
+        int[] data;
+        int size;
+
+        IntArray(int capacity) {
+            data = new int[capacity];
+        }
+
+        void add(int v) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = v;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+
+    private static final class ByteArray {
+        byte[] data;
+        int size;
+
+        ByteArray(int capacity) {
+            data = new byte[Math.max(16, capacity)];
+        }
+
+        ByteArray add(byte b) {
+            ensure(1);
+            data[size++] = b;
+            return this;
+        }
+
+        ByteArray add(byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, data, size, b.length);
+            size += b.length;
+            return this;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + extra));
+            }
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
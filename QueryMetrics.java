@@ -0,0 +1,520 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency, row and byte counters for every JDBC statement run through the pool.
+ * The pool wraps each Statement it hands out; timings are recorded both under the
+ * current operation (set by {@link #operation}) and under the SQL text. Result sets are handed
+ * out unwrapped, except one in metrics.fetchSampleEvery, whose rows and bytes are counted and
+ * scaled up; statements with a fetch size (streaming scans and exports) are never sampled. Statements slower than
+ * metrics.slowQueryMs are appended to the slow query log together with their EXPLAIN plan,
+ * which is captured on a background thread so the caller never waits for it.
+ */
+final class QueryMetrics {
+
+    /**
+     * Operation name for statements run on the current thread ("other" when none is set).
+     */
+    private static final ThreadLocal<String> CURRENT_OP = new ThreadLocal<>();
+    // Set while the explain thread runs EXPLAIN, so its own statements are not logged as slow.
+    private static final ThreadLocal<Boolean> EXPLAINING = new ThreadLocal<>();
+
+    private final long slowThresholdNanos;
+    private final Path slowLog;
+    private final boolean explainSlow;
+    private final boolean logValues; // false: the slow log shows parameter types, not patient data
+    private final int fetchSampleEvery; // 0: fetched rows and bytes are not counted
+    private final AtomicLong fetches = new AtomicLong();
+    private final ConnectionPool pool;
+
+    private final Map<String, Stats> byOperation = new ConcurrentHashMap<>();
+    private final Map<String, Stats> bySql = new ConcurrentHashMap<>();
+    private final Set<String> explained = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor explainer;
+
+    QueryMetrics(ConnectionPool pool, long slowThresholdMs, Path slowLog, boolean explainSlow, boolean logValues,
+                 int fetchSampleEvery) {
+        this.pool = pool;
+        this.fetchSampleEvery = Math.max(0, fetchSampleEvery);
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMs);
+        this.slowLog = slowLog;
+        this.explainSlow = explainSlow;
+        this.logValues = logValues;
+        // One background thread, small queue; when it is full, slow statements are logged without a plan.
+        this.explainer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(64), r -> {
+            Thread t = new Thread(r, "slow-query-explain");
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * Builds metrics from the metrics.* keys of app.properties, or returns null when metrics.enabled=false.
+     */
+    static QueryMetrics fromProperties(Properties props, ConnectionPool pool) {
+        if (!Boolean.parseBoolean(props.getProperty("metrics.enabled", "true").trim())) {
+            return null;
+        }
+        return new QueryMetrics(pool,
+                ConnectionPool.longProp(props, "metrics.slowQueryMs", 200),
+                Path.of(props.getProperty("metrics.slowQueryLog", "slow-query.log").trim()),
+                Boolean.parseBoolean(props.getProperty("metrics.explainSlowQueries", "true").trim()),
+                Boolean.parseBoolean(props.getProperty("metrics.logParameterValues", "false").trim()),
+                ConnectionPool.intProp(props, "metrics.fetchSampleEvery", 100));
+    }
+
+    // ===== Operation scope =====
+
+    /**
+     * Labels every statement run on this thread until the returned scope is closed; close it in a
+     * finally block.
+     */
+    static Scope operation(String name) {
+        String previous = CURRENT_OP.get();
+        CURRENT_OP.set(name);
+        return () -> {
+            if (previous == null) {
+                CURRENT_OP.remove();
+            } else {
+                CURRENT_OP.set(previous);
+            }
+        };
+    }
+
+    interface Scope {
+        void close();
+    }
+
+    /**
+     * Records a whole operation (not a single statement) under "op:" + name, e.g. an HTTP request.
+     */
+    void recordOperation(String name, long nanos, boolean failed) {
+        Stats s = byOperation.computeIfAbsent("op:" + name, k -> new Stats());
+        s.record(nanos, failed);
+    }
+
+    // ===== Wrapping =====
+
+    /**
+     * Wraps a statement from the pool; sql is null for plain createStatement().
+     */
+    Statement wrap(Statement stmt, String sql) {
+        Class<?> type = stmt instanceof CallableStatement ? CallableStatement.class
+                : stmt instanceof PreparedStatement ? PreparedStatement.class
+                : Statement.class;
+        return (Statement) Proxy.newProxyInstance(QueryMetrics.class.getClassLoader(),
+                new Class<?>[]{type}, new StatementHandler(stmt, sql));
+    }
+
+    // params[1..paramCount] are the bound values (params may be longer, or null when nothing was bound).
+    private void recordExecution(String sql, Object[] params, int paramCount, long nanos, boolean failed, long rows) {
+        String op = CURRENT_OP.get();
+        Stats opStats = byOperation.computeIfAbsent(op == null ? "other" : op, k -> new Stats());
+        Stats sqlStats = bySql.computeIfAbsent(sql == null ? "?" : sql, k -> new Stats());
+        opStats.record(nanos, failed);
+        sqlStats.record(nanos, failed);
+        if (rows > 0) {
+            opStats.rows.add(rows);
+            sqlStats.rows.add(rows);
+        }
+        if (nanos >= slowThresholdNanos && sql != null && EXPLAINING.get() == null) {
+            logSlow(op, sql, params == null ? new Object[1] : Arrays.copyOf(params, paramCount + 1), nanos);
+        }
+    }
+
+    // Every ResultSet call on a sampled result goes through Method.invoke; the rest pay nothing.
+    private boolean sampleFetch() {
+        return fetchSampleEvery > 0 && fetches.incrementAndGet() % fetchSampleEvery == 0;
+    }
+
+    // rows and bytes of one sampled result, scaled to stand for the ones not sampled.
+    private void recordFetch(String sql, long rows, long bytes) {
+        rows *= fetchSampleEvery;
+        bytes *= fetchSampleEvery;
+        String op = CURRENT_OP.get();
+        Stats opStats = byOperation.computeIfAbsent(op == null ? "other" : op, k -> new Stats());
+        Stats sqlStats = bySql.computeIfAbsent(sql == null ? "?" : sql, k -> new Stats());
+        opStats.rows.add(rows);
+        opStats.bytes.add(bytes);
+        sqlStats.rows.add(rows);
+        sqlStats.bytes.add(bytes);
+    }
+
+    // ===== Slow query log =====
+
+    // params: index 1..n, exactly the parameters bound; a private copy.
+    private void logSlow(String op, String sql, Object[] params, long nanos) {
+        String entry = String.format("%s | %s | %.1f ms | %s | params=%s",
+                LocalDateTime.now(), op == null ? "other" : op, nanos / 1e6, sql, describe(params));
+        boolean wantPlan = explainSlow && isExplainable(sql) && explained.add(sql);
+        if (!wantPlan) {
+            appendSlowLog(entry);
+            return;
+        }
+        explainer.execute(() -> appendSlowLog(entry + System.lineSeparator() + explain(sql, params)));
+    }
+
+    // Values only with metrics.logParameterValues=true: they are names, emails, phones and medications.
+    private String describe(Object[] params) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 1; i < params.length; i++) {
+            Object p = params[i];
+            sb.append(i == 1 ? "" : ", ")
+              .append(logValues ? String.valueOf(p) : p == null ? "null" : "<" + p.getClass().getSimpleName() + ">");
+        }
+        return sb.append(']').toString();
+    }
+
+    private static boolean isExplainable(String sql) {
+        String s = sql.stripLeading().toUpperCase();
+        return s.startsWith("SELECT") || s.startsWith("UPDATE") || s.startsWith("DELETE") || s.startsWith("INSERT");
+    }
+
+    private String explain(String sql, Object[] params) {
+        EXPLAINING.set(Boolean.TRUE);
+        try (Connection conn = pool.getConnection();
+             PreparedStatement ps = conn.prepareStatement("EXPLAIN " + sql)) {
+            for (int i = 1; i < params.length; i++) {
+                ps.setObject(i, params[i]);
+            }
+            StringBuilder sb = new StringBuilder();
+            try (ResultSet rs = ps.executeQuery()) {
+                ResultSetMetaData md = rs.getMetaData();
+                while (rs.next()) {
+                    sb.append("    EXPLAIN:");
+                    for (int c = 1; c <= md.getColumnCount(); c++) {
+                        sb.append(' ').append(md.getColumnLabel(c)).append('=').append(rs.getString(c));
+                    }
+                    sb.append(System.lineSeparator());
+                }
+            }
+            return sb.toString().stripTrailing();
+        } catch (SQLException e) {
+            return "    EXPLAIN failed: " + e.getMessage();
+        } finally {
+            EXPLAINING.remove();
+        }
+    }
+
+    private synchronized void appendSlowLog(String text) {
+        try (BufferedWriter out = Files.newBufferedWriter(slowLog, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(text);
+            out.newLine();
+        } catch (IOException e) {
+            System.err.println("Could not write slow query log: " + e.getMessage());
+        }
+    }
+
+    // ===== Reporting =====
+
+    void print(PrintStream out) {
+        out.println("By operation:");
+        printTable(out, byOperation);
+        out.println("By statement:");
+        printTable(out, bySql);
+    }
+
+    private static void printTable(PrintStream out, Map<String, Stats> stats) {
+        out.printf("  %-8s %-6s %9s %9s %9s %9s %10s %12s  %s%n",
+                "count", "errors", "p50 ms", "p95 ms", "p99 ms", "max ms", "rows", "bytes", "name");
+        for (Map.Entry<String, Stats> e : sorted(stats)) {
+            Stats s = e.getValue();
+            out.printf("  %-8d %-6d %9.2f %9.2f %9.2f %9.2f %10d %12d  %s%n",
+                    s.count.sum(), s.errors.sum(),
+                    s.histogram.percentileMicros(0.50) / 1e3, s.histogram.percentileMicros(0.95) / 1e3,
+                    s.histogram.percentileMicros(0.99) / 1e3, s.maxMicros.get() / 1e3,
+                    s.rows.sum(), s.bytes.sum(), abbreviate(e.getKey()));
+        }
+    }
+
+    /**
+     * Writes every counter as CSV (one line per operation and per statement).
+     */
+    void exportCsv(Path file) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("kind,name,count,errors,p50_ms,p95_ms,p99_ms,max_ms,rows,bytes");
+            out.newLine();
+            writeCsv(out, "operation", byOperation);
+            writeCsv(out, "statement", bySql);
+        }
+    }
+
+    private static void writeCsv(BufferedWriter out, String kind, Map<String, Stats> stats) throws IOException {
+        for (Map.Entry<String, Stats> e : sorted(stats)) {
+            Stats s = e.getValue();
+            out.write(String.format("%s,\"%s\",%d,%d,%.3f,%.3f,%.3f,%.3f,%d,%d",
+                    kind, e.getKey().replace("\"", "\"\""), s.count.sum(), s.errors.sum(),
+                    s.histogram.percentileMicros(0.50) / 1e3, s.histogram.percentileMicros(0.95) / 1e3,
+                    s.histogram.percentileMicros(0.99) / 1e3, s.maxMicros.get() / 1e3,
+                    s.rows.sum(), s.bytes.sum()));
+            out.newLine();
+        }
+    }
+
+    void reset() {
+        byOperation.clear();
+        bySql.clear();
+        explained.clear();
+    }
+
+    private static List<Map.Entry<String, Stats>> sorted(Map<String, Stats> stats) {
+        List<Map.Entry<String, Stats>> list = new ArrayList<>(stats.entrySet());
+        list.sort(Comparator.comparing(Map.Entry::getKey));
+        return list;
+    }
+
+    private static String abbreviate(String s) {
+        return s.length() <= 90 ? s : s.substring(0, 87) + "...";
+    }
+
+    // ===== Counters =====
+
+    private static final class Stats {
+        final Histogram histogram = new Histogram();
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final AtomicLong maxMicros = new AtomicLong();
+
+        void record(long nanos, boolean failed) {
+            long micros = nanos / 1000;
+            histogram.record(micros);
+            count.increment();
+            if (failed) {
+                errors.increment();
+            }
+            if (micros > maxMicros.get()) {
+                maxMicros.accumulateAndGet(micros, Math::max);
+            }
+        }
+    }
+
+    /**
+     * Log-linear latency histogram in microseconds: 8 sub-buckets per power of two,
+     * so any percentile is within 12.5% of the true value. Recording is one array increment.
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB = 1 << SUB_BITS;
+        private final AtomicLongArray counts = new AtomicLongArray(SUB * 62);
+
+        void record(long micros) {
+            counts.incrementAndGet(index(Math.max(0, micros)));
+        }
+
+        static int index(long v) {
+            if (v < SUB) {
+                return (int) v;
+            }
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) ((v >>> (exp - SUB_BITS)) & (SUB - 1));
+            return (exp - SUB_BITS + 1) * SUB + sub;
+        }
+
+        static long upperBound(int idx) {
+            if (idx < SUB) {
+                return idx;
+            }
+            int exp = idx / SUB + SUB_BITS - 1;
+            long lower = (long) (SUB + idx % SUB) << (exp - SUB_BITS);
+            return lower + (1L << (exp - SUB_BITS)) - 1;
+        }
+
+        long percentileMicros(double p) {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                total += counts.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(p * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return upperBound(i);
+                }
+            }
+            return upperBound(counts.length() - 1);
+        }
+    }
+
+    // ===== Proxies =====
+
+    private final class StatementHandler implements InvocationHandler {
+        private final Statement target;
+        private final String sql;
+        private Object[] params; // index 1..n, only kept so slow statements can be EXPLAINed
+        private int paramCount; // highest index bound; params is padded beyond it
+        private boolean streaming; // a fetch size was set: a bulk scan, so its results stay unwrapped
+        private ResultSetHandler openResult;
+
+        StatementHandler(Statement target, String sql) {
+            this.target = target;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                return execute(name, method, args);
+            }
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer idx) {
+                capture(idx, name.equals("setNull") ? null : args[1]);
+            } else if (name.equals("setFetchSize")) {
+                streaming = true;
+            } else if (name.equals("clearParameters")) {
+                params = null;
+                paramCount = 0;
+            } else if (name.equals("close")) {
+                flushResult();
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private Object execute(String name, Method method, Object[] args) throws Throwable {
+            flushResult();
+            String text = (args != null && args.length > 0 && args[0] instanceof String s) ? s : sql;
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                recordExecution(text, params, paramCount, System.nanoTime() - start, true, 0);
+                throw e.getCause();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            long rows = 0;
+            if (result instanceof Integer n) {
+                rows = Math.max(0, n);
+            } else if (result instanceof Long n) {
+                rows = Math.max(0, n);
+            } else if (result instanceof int[] counts) {
+                for (int c : counts) {
+                    rows += Math.max(0, c);
+                }
+            }
+            recordExecution(text, params, paramCount, elapsed, false, rows);
+
+            if (result instanceof ResultSet rs && !streaming && sampleFetch()) {
+                openResult = new ResultSetHandler(rs, text);
+                return Proxy.newProxyInstance(QueryMetrics.class.getClassLoader(),
+                        new Class<?>[]{ResultSet.class}, openResult);
+            }
+            return result;
+        }
+
+        private void capture(int idx, Object value) {
+            if (params == null || params.length <= idx) {
+                params = Arrays.copyOf(params == null ? new Object[0] : params, Math.max(idx + 1, 8));
+            }
+            params[idx] = value;
+            paramCount = Math.max(paramCount, idx);
+        }
+
+        private void flushResult() {
+            if (openResult != null) {
+                openResult.flush();
+                openResult = null;
+            }
+        }
+    }
+
+    private final class ResultSetHandler implements InvocationHandler {
+        private final ResultSet target;
+        private final String sql;
+        private long rows;
+        private long bytes;
+        private boolean flushed;
+
+        ResultSetHandler(ResultSet target, String sql) {
+            this.target = target;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                flush();
+            }
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (name.equals("next")) {
+                if (Boolean.TRUE.equals(result)) {
+                    rows++;
+                }
+            } else if (name.startsWith("get") && args != null && args.length >= 1) {
+                bytes += sizeOf(result);
+            }
+            return result;
+        }
+
+        void flush() {
+            if (!flushed) {
+                flushed = true;
+                recordFetch(sql, rows, bytes);
+            }
+        }
+
+        private long sizeOf(Object value) {
+            if (value == null) {
+                return 0;
+            }
+            if (value instanceof String s) {
+                return s.length();
+            }
+            if (value instanceof byte[] b) {
+                return b.length;
+            }
+            if (value instanceof Integer || value instanceof Float) {
+                return 4;
+            }
+            return 8; // long, double, decimal, date/time
+        }
+    }
+}
@@ -0,0 +1,349 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * Read-through cache for the small, rarely changing reference tables:
+ * Doctor, Hospital, InsurancePlan and DoctorHospital.
+ * Entries expire after cache.ttlSeconds and each table holds at most cache.maxEntries keys.
+ * Writes made by this application must call the matching invalidate method;
+ * writes made elsewhere show up once the TTL runs out. Misses are not cached, so a row created
+ * elsewhere is found by the next lookup.
+ */
+final class ReferenceCache {
+
+    @FunctionalInterface
+    private interface RowMapper<V> {
+        V map(ResultSet rs) throws SQLException;
+    }
+
+    // Reads the value for one key from its result set; null when there is none.
+    @FunctionalInterface
+    private interface KeyReader<V> {
+        V read(ResultSet rs) throws SQLException;
+    }
+
+    record Doctor(int id, String name, String discipline, String email, String phone) {
+    }
+
+    record Hospital(int id, String name, String address, String phone) {
+    }
+
+    record InsurancePlan(int id, String provider, String coverage) {
+    }
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+
+    private final ConnectionSource source;
+    private final long ttlNanos;
+    private final int maxEntries;
+
+    private final Table<Doctor> doctors;
+    private final Table<Hospital> hospitals;
+    private final Table<InsurancePlan> plans;
+    private final Table<int[]> doctorHospitalRows; // listing only: {DoctorID, HospitalID} per row
+    private final Table<int[]> hospitalsByDoctor; // by key only: DoctorID -> every HospitalID
+
+    ReferenceCache(ConnectionSource source, long ttlSeconds, int maxEntries) {
+        this.source = source;
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+        this.maxEntries = Math.max(1, maxEntries);
+
+        doctors = entityTable(
+                "SELECT DoctorID, Name, Discipline, Email, PhoneNumber FROM Doctor", "DoctorID",
+                rs -> new Doctor(rs.getInt("DoctorID"), rs.getString("Name"), rs.getString("Discipline"),
+                        rs.getString("Email"), rs.getString("PhoneNumber")), Doctor::id);
+        hospitals = entityTable(
+                "SELECT HospitalID, Name, Address, PhoneNumber FROM Hospital", "HospitalID",
+                rs -> new Hospital(rs.getInt("HospitalID"), rs.getString("Name"), rs.getString("Address"),
+                        rs.getString("PhoneNumber")), Hospital::id);
+        plans = entityTable(
+                "SELECT PlanID, Provider, Coverage FROM InsurancePlan", "PlanID",
+                rs -> new InsurancePlan(rs.getInt("PlanID"), rs.getString("Provider"), rs.getString("Coverage")),
+                InsurancePlan::id);
+        doctorHospitalRows = new Table<>("SELECT DoctorID, HospitalID FROM DoctorHospital",
+                rs -> new int[]{rs.getInt("DoctorID"), rs.getInt("HospitalID")}, null, null, null);
+        hospitalsByDoctor = new Table<>(null, null,
+                "SELECT HospitalID FROM DoctorHospital WHERE DoctorID = ?", ReferenceCache::foldHospitals, null);
+    }
+
+    static ReferenceCache fromProperties(Properties props, ConnectionSource source) {
+        return new ReferenceCache(source,
+                ConnectionPool.longProp(props, "cache.ttlSeconds", 300),
+                ConnectionPool.intProp(props, "cache.maxEntries", 10_000));
+    }
+
+    // One row per key, listed and looked up by the same select.
+    private <V> Table<V> entityTable(String selectAll, String keyColumn, RowMapper<V> mapper, ToIntFunction<V> keyOf) {
+        return new Table<>(selectAll, mapper, selectAll + " WHERE " + keyColumn + " = ?",
+                rs -> rs.next() ? mapper.map(rs) : null, keyOf);
+    }
+
+    // ===== Lookups =====
+
+    Doctor doctor(int doctorId) throws SQLException {
+        return doctors.get(doctorId);
+    }
+
+    Hospital hospital(int hospitalId) throws SQLException {
+        return hospitals.get(hospitalId);
+    }
+
+    InsurancePlan plan(int planId) throws SQLException {
+        return plans.get(planId);
+    }
+
+    boolean doctorExists(int doctorId) throws SQLException {
+        return doctors.get(doctorId) != null;
+    }
+
+    boolean hospitalExists(int hospitalId) throws SQLException {
+        return hospitals.get(hospitalId) != null;
+    }
+
+    boolean planExists(int planId) throws SQLException {
+        return plans.get(planId) != null;
+    }
+
+    boolean doctorHospitalLinkExists(int doctorId, int hospitalId) throws SQLException {
+        int[] links = hospitalsByDoctor.get(doctorId);
+        if (links != null) {
+            for (int h : links) {
+                if (h == hospitalId) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    List<Doctor> allDoctors() throws SQLException {
+        return doctors.all();
+    }
+
+    List<Hospital> allHospitals() throws SQLException {
+        return hospitals.all();
+    }
+
+    List<InsurancePlan> allPlans() throws SQLException {
+        return plans.all();
+    }
+
+    /**
+     * Every DoctorHospital row as {DoctorID, HospitalID}.
+     */
+    List<int[]> allDoctorHospitalLinks() throws SQLException {
+        return doctorHospitalRows.all();
+    }
+
+    // ===== Invalidation =====
+
+    void invalidateDoctor(int doctorId) {
+        doctors.invalidate(doctorId);
+        invalidateDoctorHospital(doctorId);
+    }
+
+    void invalidateHospital(int hospitalId) {
+        hospitals.invalidate(hospitalId);
+        hospitalsByDoctor.invalidateAll(); // the hospital may appear under any doctor
+        doctorHospitalRows.invalidateAll();
+    }
+
+    void invalidatePlan(int planId) {
+        plans.invalidate(planId);
+    }
+
+    void invalidateDoctorHospital(int doctorId) {
+        hospitalsByDoctor.invalidate(doctorId);
+        doctorHospitalRows.invalidateAll();
+    }
+
+    void invalidateAll() {
+        doctors.invalidateAll();
+        hospitals.invalidateAll();
+        plans.invalidateAll();
+        doctorHospitalRows.invalidateAll();
+        hospitalsByDoctor.invalidateAll();
+    }
+
+    static String statsSummary() {
+        long h = HITS.sum();
+        long m = MISSES.sum();
+        double hitRate = (h + m) == 0 ? 0 : 100.0 * h / (h + m);
+        return String.format("reference cache: hits=%d misses=%d (%.1f%% hit rate)", h, m, hitRate);
+    }
+
+    // ===== One cached table =====
+
+    // Every HospitalID of one doctor, or null if the doctor has none.
+    private static int[] foldHospitals(ResultSet rs) throws SQLException {
+        int[] hospitalsOfDoctor = new int[4];
+        int n = 0;
+        while (rs.next()) {
+            if (n == hospitalsOfDoctor.length) {
+                hospitalsOfDoctor = Arrays.copyOf(hospitalsOfDoctor, n * 2);
+            }
+            hospitalsOfDoctor[n++] = rs.getInt("HospitalID");
+        }
+        return n == 0 ? null : Arrays.copyOf(hospitalsOfDoctor, n);
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Per-key entries and/or a full-table snapshot for the listings. Database reads happen outside
+     * the lock; invalidate() bumps the generation, so a read that started before it does not store
+     * its now stale result afterwards.
+     */
+    private final class Table<V> {
+        private final String selectAll; // null: no listing
+        private final RowMapper<V> mapper;
+        private final String selectByKey; // null: no per-key lookups
+        private final KeyReader<V> reader;
+        private final ToIntFunction<V> keyOf; // null: a listing does not refill the per-key entries
+
+        private final IntObjectMap<Entry<V>> byKey = new IntObjectMap<>();
+        private List<V> all;
+        private long allExpiresAt;
+        private long generation;
+
+        Table(String selectAll, RowMapper<V> mapper, String selectByKey, KeyReader<V> reader,
+              ToIntFunction<V> keyOf) {
+            this.selectAll = selectAll;
+            this.mapper = mapper;
+            this.selectByKey = selectByKey;
+            this.reader = reader;
+            this.keyOf = keyOf;
+        }
+
+        V get(int key) throws SQLException {
+            long now = System.nanoTime();
+            long gen;
+            synchronized (this) {
+                Entry<V> e = byKey.get(key);
+                if (e != null && now - e.expiresAt < 0) {
+                    HITS.increment();
+                    return e.value;
+                }
+                gen = generation;
+            }
+            MISSES.increment();
+
+            V value;
+            try (Connection conn = source.get();
+                 PreparedStatement ps = conn.prepareStatement(selectByKey)) {
+                ps.setInt(1, key);
+                try (ResultSet rs = ps.executeQuery()) {
+                    value = reader.read(rs);
+                }
+            }
+            synchronized (this) {
+                if (value != null && gen == generation) {
+                    store(key, value, System.nanoTime() + ttlNanos);
+                }
+            }
+            return value;
+        }
+
+        List<V> all() throws SQLException {
+            long now = System.nanoTime();
+            long gen;
+            synchronized (this) {
+                if (all != null && now - allExpiresAt < 0) {
+                    HITS.increment();
+                    return all;
+                }
+                gen = generation;
+            }
+            MISSES.increment();
+
+            List<V> rows = new ArrayList<>();
+            try (Connection conn = source.get();
+                 PreparedStatement ps = conn.prepareStatement(selectAll);
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(mapper.map(rs));
+                }
+            }
+            rows = Collections.unmodifiableList(rows);
+
+            long expiresAt = System.nanoTime() + ttlNanos;
+            synchronized (this) {
+                if (gen != generation) {
+                    return rows; // invalidated while reading: hand it out, but do not keep it
+                }
+                all = rows;
+                allExpiresAt = expiresAt;
+                if (keyOf != null && rows.size() <= maxEntries) {
+                    // A full scan is also the freshest per-key data there is.
+                    byKey.clear();
+                    for (V row : rows) {
+                        store(keyOf.applyAsInt(row), row, expiresAt);
+                    }
+                }
+            }
+            return rows;
+        }
+
+        // Caller holds the lock.
+        private void store(int key, V value, long expiresAt) {
+            if (byKey.size() >= maxEntries && byKey.get(key) == null) {
+                evictOne();
+            }
+            byKey.put(key, new Entry<>(value, expiresAt));
+        }
+
+        // Drops expired entries; if none are expired, drops the one closest to expiring.
+        private void evictOne() {
+            long now = System.nanoTime();
+            int[] expired = new int[byKey.size()];
+            int[] n = {0};
+            long[] oldest = {Long.MAX_VALUE};
+            int[] oldestKey = {0};
+            byKey.forEachKey(k -> {
+                Entry<V> e = byKey.get(k);
+                if (now - e.expiresAt >= 0) {
+                    expired[n[0]++] = k;
+                } else if (e.expiresAt - now < oldest[0]) {
+                    oldest[0] = e.expiresAt - now;
+                    oldestKey[0] = k;
+                }
+            });
+            for (int i = 0; i < n[0]; i++) {
+                byKey.remove(expired[i]);
+            }
+            if (n[0] == 0) {
+                byKey.remove(oldestKey[0]);
+            }
+        }
+
+        synchronized void invalidate(int key) {
+            byKey.remove(key);
+            all = null;
+            generation++;
+        }
+
+        synchronized void invalidateAll() {
+            byKey.clear();
+            all = null;
+            generation++;
+        }
+    }
+}
@@ -0,0 +1,436 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends read-only work to read replicas and everything else to the primary (db.url).
+ * <p>
+ * db.replicas lists replica JDBC URLs, comma separated. Each replica gets its own ConnectionPool with
+ * the primary's credentials and pool.* settings. Every replica.checkIntervalMs a checker asks each
+ * replica for its replication lag and times the round trip. A replica serves reads only while
+ * that check succeeds and the lag is at most replica.maxLagSeconds. One that fails to hand out a
+ * connection is skipped until its next good check. replica.strategy chooses among the healthy ones:
+ * round-robin, or least-latency (lowest check round trip, weighted by the connections it already
+ * has out). With no healthy replica, reads fall back to the primary.
+ * <p>
+ * Read-your-writes: a Session that has a write connection out, or closed one less than
+ * replica.readYourWritesMs ago, reads from the primary. After that it reads only from replicas
+ * whose lag is shorter than the time since its last write. The console and batch mode are one
+ * session; the HTTP API binds one per client.
+ */
+final class ReplicaRouter implements AutoCloseable {
+
+    enum Strategy { ROUND_ROBIN, LEAST_LATENCY }
+
+    /**
+     * The writes of one user or client, for read-your-writes.
+     */
+    static final class Session {
+        private final AtomicInteger writing = new AtomicInteger();
+        private volatile long lastWriteNanos;
+        private volatile boolean wrote;
+        private volatile long lastUsedNanos = System.nanoTime();
+
+        private void beginWrite() {
+            writing.incrementAndGet();
+        }
+
+        // The write is over when its connection goes back to the pool (after commit or rollback).
+        private void endWrite() {
+            lastWriteNanos = System.nanoTime();
+            lastUsedNanos = lastWriteNanos;
+            wrote = true;
+            writing.decrementAndGet();
+        }
+
+        // 0 while a write is under way, Long.MAX_VALUE before the first one.
+        private long sinceLastWrite(long now) {
+            if (writing.get() > 0) {
+                return 0;
+            }
+            return wrote ? now - lastWriteNanos : Long.MAX_VALUE;
+        }
+    }
+
+    private static final long NO_LAG_INFO = -1; // not a replica, or no REPLICATION CLIENT privilege
+    private static final long STOPPED = -2;     // replication threads not running
+
+    private static final class Replica {
+        final int index; // bit in the tried-mask of read()
+        final String name;
+        final ConnectionPool pool;
+        volatile boolean healthy; // false until the first good check
+        volatile String status = "not checked yet";
+        volatile long lagSeconds = NO_LAG_INFO;
+        volatile double latencyMs = -1; // moving average of check round trips
+        final LongAdder reads = new LongAdder();
+        final LongAdder failures = new LongAdder();
+
+        Replica(int index, String name, ConnectionPool pool) {
+            this.index = index;
+            this.name = name;
+            this.pool = pool;
+        }
+    }
+
+    private final ConnectionPool primary;
+    private final Replica[] replicas;
+    private final Strategy strategy;
+    private final long maxLagSeconds;
+    private final long readYourWritesNanos;
+    private final ScheduledExecutorService checker; // null without replicas
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final Session defaultSession = new Session();
+    private final ThreadLocal<Session> boundSession = new ThreadLocal<>();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    // ===== Stats =====
+    private final LongAdder primaryReads = new LongAdder();
+    private final LongAdder readsAfterWrite = new LongAdder();
+    private final LongAdder fallbackReads = new LongAdder();
+
+    /**
+     * @param replicas display name to pool, in db.replicas order; the router closes them all
+     */
+    ReplicaRouter(ConnectionPool primary, Map<String, ConnectionPool> replicas, Strategy strategy,
+                  long maxLagSeconds, long checkIntervalMs, long readYourWritesMs) {
+        if (replicas.size() > 64) {
+            throw new IllegalArgumentException("At most 64 replicas are supported");
+        }
+        this.primary = primary;
+        this.replicas = new Replica[replicas.size()];
+        int i = 0;
+        for (Map.Entry<String, ConnectionPool> e : replicas.entrySet()) {
+            this.replicas[i] = new Replica(i, e.getKey(), e.getValue());
+            i++;
+        }
+        this.strategy = strategy;
+        this.maxLagSeconds = Math.max(0, maxLagSeconds);
+        this.readYourWritesNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, readYourWritesMs));
+        if (this.replicas.length == 0) {
+            this.checker = null;
+            return;
+        }
+        // One thread per replica, so a replica that hangs on connect cannot delay the others' checks.
+        this.checker = Executors.newScheduledThreadPool(this.replicas.length, r -> {
+            Thread t = new Thread(r, "replica-checker");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(100, checkIntervalMs);
+        for (Replica r : this.replicas) {
+            checker.scheduleWithFixedDelay(() -> check(r), 0, period, TimeUnit.MILLISECONDS);
+        }
+        checker.scheduleWithFixedDelay(this::dropIdleSessions, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Builds the router from db.replicas and the replica.* keys of app.properties; primary is the db.url pool.
+     */
+    static ReplicaRouter fromProperties(Properties props, ConnectionPool primary) {
+        Map<String, ConnectionPool> replicas = new LinkedHashMap<>();
+        int minSize = ConnectionPool.intProp(props, "replica.minSize", 0);
+        int maxSize = ConnectionPool.intProp(props, "replica.maxSize", primary.maxSize());
+        for (String url : props.getProperty("db.replicas", "").split(",")) {
+            if (!url.isBlank()) {
+                replicas.put(serverName(url.trim()), ConnectionPool.fromProperties(props, url.trim(), minSize, maxSize));
+            }
+        }
+        return new ReplicaRouter(primary, replicas,
+                strategy(props.getProperty("replica.strategy", "round-robin")),
+                ConnectionPool.longProp(props, "replica.maxLagSeconds", 5),
+                ConnectionPool.longProp(props, "replica.checkIntervalMs", 1000),
+                ConnectionPool.longProp(props, "replica.readYourWritesMs", 2000));
+    }
+
+    private static Strategy strategy(String name) {
+        try {
+            return Strategy.valueOf(name.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid value for replica.strategy, using round-robin");
+            return Strategy.ROUND_ROBIN;
+        }
+    }
+
+    // host:port/database, without the scheme and the parameters (which may hold credentials).
+    private static String serverName(String url) {
+        String s = url.replaceFirst("^jdbc:mysql://", "");
+        int q = s.indexOf('?');
+        return q < 0 ? s : s.substring(0, q);
+    }
+
+    ConnectionPool primaryPool() {
+        return primary;
+    }
+
+    boolean hasReplicas() {
+        return replicas.length > 0;
+    }
+
+    /**
+     * Instruments statements on the primary and on every replica.
+     */
+    void setMetrics(QueryMetrics metrics) {
+        primary.setMetrics(metrics);
+        for (Replica r : replicas) {
+            r.pool.setMetrics(metrics);
+        }
+    }
+
+    // ===== Routing =====
+
+    /**
+     * A connection for read-only work: a healthy replica, or the primary (see the class comment).
+     */
+    Connection read() throws SQLException {
+        if (replicas.length == 0) {
+            return primary.getConnection();
+        }
+        long sinceWrite = session().sinceLastWrite(System.nanoTime());
+        if (sinceWrite < readYourWritesNanos) {
+            readsAfterWrite.increment();
+            return primary.getConnection();
+        }
+        long tried = 0;
+        Replica r;
+        // Replicas with a free connection first; when all are busy, wait for one rather than load the primary.
+        while ((r = pick(sinceWrite, tried, true)) != null || (r = pick(sinceWrite, tried, false)) != null) {
+            tried |= 1L << r.index;
+            try {
+                Connection conn = r.pool.getConnection();
+                r.reads.increment();
+                return conn;
+            } catch (SQLTransientConnectionException e) {
+                break; // waited pool.acquireTimeoutMs already; the replica itself is fine
+            } catch (SQLException e) {
+                r.failures.increment();
+                r.healthy = false;
+                r.status = "down: " + e.getMessage();
+            }
+        }
+        fallbackReads.increment();
+        return primary.getConnection();
+    }
+
+    /**
+     * A primary connection for work that writes. Until it is closed, and for replica.readYourWritesMs
+     * after, the current session reads from the primary.
+     */
+    Connection write() throws SQLException {
+        if (replicas.length == 0) {
+            return primary.getConnection();
+        }
+        Session s = session();
+        s.beginWrite();
+        try {
+            return primary.getConnection(s::endWrite);
+        } catch (SQLException | RuntimeException e) {
+            s.endWrite();
+            throw e;
+        }
+    }
+
+    /**
+     * A primary connection for reads that must see every committed write, such as the read half
+     * of a read-modify-write. Does not count as a write.
+     */
+    Connection primary() throws SQLException {
+        primaryReads.increment();
+        return primary.getConnection();
+    }
+
+    private Replica pick(long sinceWriteNanos, long tried, boolean free) {
+        int n = replicas.length;
+        if (strategy == Strategy.ROUND_ROBIN) {
+            int start = Math.floorMod(nextReplica.getAndIncrement(), n);
+            for (int i = 0; i < n; i++) {
+                Replica r = replicas[(start + i) % n];
+                if (usable(r, sinceWriteNanos, tried, free)) {
+                    return r;
+                }
+            }
+            return null;
+        }
+        Replica best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (Replica r : replicas) {
+            if (usable(r, sinceWriteNanos, tried, free)) {
+                double score = Math.max(0.01, r.latencyMs) * (1 + r.pool.activeCount());
+                if (score < bestScore) {
+                    best = r;
+                    bestScore = score;
+                }
+            }
+        }
+        return best;
+    }
+
+    // Healthy, not tried yet, no further behind than the session's last write, and with free = a free connection.
+    // Unknown lag (NO_LAG_INFO) never passes: the replica could be any distance behind.
+    private boolean usable(Replica r, long sinceWriteNanos, long tried, boolean free) {
+        long lag = r.lagSeconds;
+        return r.healthy && lag >= 0 && (tried & 1L << r.index) == 0
+                && (!free || r.pool.activeCount() < r.pool.maxSize())
+                && (sinceWriteNanos == Long.MAX_VALUE || TimeUnit.SECONDS.toNanos(lag) < sinceWriteNanos);
+    }
+
+    // ===== Sessions =====
+
+    /**
+     * The session bound to this thread, or the process-wide one (console, batch mode, CLI jobs).
+     */
+    Session session() {
+        Session s = boundSession.get();
+        return s != null ? s : defaultSession;
+    }
+
+    /**
+     * The session of one API client; ones idle past the read-your-writes horizon are dropped.
+     */
+    Session session(String key) {
+        if (replicas.length == 0) {
+            return defaultSession;
+        }
+        Session s = sessions.computeIfAbsent(key, k -> new Session());
+        s.lastUsedNanos = System.nanoTime();
+        return s;
+    }
+
+    /**
+     * Makes s this thread's session (null unbinds) and returns the previous one, to restore afterwards.
+     */
+    Session bind(Session s) {
+        Session previous = boundSession.get();
+        if (s == null) {
+            boundSession.remove();
+        } else {
+            boundSession.set(s);
+        }
+        return previous;
+    }
+
+    private void dropIdleSessions() {
+        long horizon = readYourWritesNanos + TimeUnit.SECONDS.toNanos(maxLagSeconds + 1);
+        long now = System.nanoTime();
+        sessions.values().removeIf(s -> s.writing.get() == 0 && now - s.lastUsedNanos > horizon);
+    }
+
+    // ===== Health checks =====
+
+    private void check(Replica r) {
+        try (Connection conn = r.pool.getConnection()) {
+            long start = System.nanoTime();
+            long lag = replicationLag(conn);
+            double ms = (System.nanoTime() - start) / 1e6;
+            r.latencyMs = r.latencyMs < 0 ? ms : r.latencyMs * 0.7 + ms * 0.3;
+            r.lagSeconds = lag;
+            if (lag == STOPPED) {
+                r.healthy = false;
+                r.status = "replication stopped";
+            } else if (lag == NO_LAG_INFO) {
+                r.healthy = false;
+                r.status = "no replication status (not a replica, or needs REPLICATION CLIENT)";
+            } else if (lag > maxLagSeconds) {
+                r.healthy = false;
+                r.status = "lagging " + lag + " s";
+            } else {
+                r.healthy = true;
+                r.status = "up";
+            }
+        } catch (SQLException | RuntimeException e) {
+            r.failures.increment();
+            r.healthy = false;
+            r.lagSeconds = NO_LAG_INFO;
+            r.status = "down: " + e.getMessage();
+        }
+    }
+
+    // Seconds_Behind_Source (Seconds_Behind_Master before MySQL 8.0.22).
+    private static long replicationLag(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = replicaStatus(st)) {
+            if (rs == null || !rs.next()) {
+                return NO_LAG_INFO;
+            }
+            ResultSetMetaData md = rs.getMetaData();
+            for (int i = 1; i <= md.getColumnCount(); i++) {
+                String column = md.getColumnLabel(i);
+                if (column.equals("Seconds_Behind_Source") || column.equals("Seconds_Behind_Master")) {
+                    long lag = rs.getLong(i);
+                    return rs.wasNull() ? STOPPED : lag;
+                }
+            }
+            return NO_LAG_INFO;
+        }
+    }
+
+    // null when the account may not look (error 1227: needs REPLICATION CLIENT).
+    private static ResultSet replicaStatus(Statement st) throws SQLException {
+        try {
+            return st.executeQuery("SHOW REPLICA STATUS");
+        } catch (SQLException e) {
+            if (e.getErrorCode() == 1227) {
+                return null;
+            }
+            if (e.getErrorCode() != 1064) {
+                throw e;
+            }
+        }
+        try {
+            return st.executeQuery("SHOW SLAVE STATUS"); // syntax before 8.0.22
+        } catch (SQLException e) {
+            if (e.getErrorCode() == 1227) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    // ===== Stats =====
+
+    /**
+     * One line for the router and one per replica, for the pool stats screen and GET /stats.
+     */
+    String statsSummary() {
+        if (replicas.length == 0) {
+            return "replicas: none (every read goes to the primary)";
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "replicas: %s | primary reads: %d read-your-writes, %d fallback, %d direct",
+                strategy.name().toLowerCase(Locale.ROOT).replace('_', '-'),
+                readsAfterWrite.sum(), fallbackReads.sum(), primaryReads.sum()));
+        for (Replica r : replicas) {
+            sb.append(String.format(Locale.ROOT, "%n  %s %s lag=%s latency=%.2fms reads=%d failures=%d | %s",
+                    r.name, r.status, r.lagSeconds >= 0 ? r.lagSeconds + "s" : "?", Math.max(0, r.latencyMs),
+                    r.reads.sum(), r.failures.sum(), r.pool.stats()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stops the checks and closes every replica pool and the primary pool.
+     */
+    @Override
+    public void close() {
+        if (checker != null) {
+            checker.shutdownNow();
+        }
+        for (Replica r : replicas) {
+            r.pool.close();
+        }
+        primary.close();
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Writes Appointment and Medication into ColumnarSnapshot files under snapshot.dir, with a copy of
+ * Doctor's disciplines for the offline rollups.
+ * <p>
+ * The first export, or one asked for with --full, copies every row. Later exports append the rows whose
+ * UpdatedAt moved past the previous watermark and the keys SnapshotDeletion logged since then.
+ * Both tables are read inside one consistent-snapshot transaction, up to a watermark of NOW(6) minus
+ * snapshot.lagSeconds, which must be longer than the longest write transaction: a row committed
+ * later than that with an older UpdatedAt would be skipped. A file whose appended rows reach
+ * snapshot.compactPercent of its base copy is rewritten in full instead.
+ */
+final class SnapshotExporter {
+
+    /**
+     * One table's export.
+     */
+    record Result(ColumnarSnapshot.Table table, boolean full, int rows, int deletes, int purges,
+                  long bytes, long elapsedNanos) {
+        double rowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+        }
+    }
+
+    // Select lists in ColumnarSnapshot.Table column order. 719528 = TO_DAYS('1970-01-01').
+    private static final String APPOINTMENT_ROWS =
+            "SELECT PatientID, DoctorID, HospitalID, TO_DAYS(ApptDate) - 719528, TIME_TO_SEC(ApptTime), "
+            + "CAST(Cost * 100 AS SIGNED), PlanID, VisitReason FROM Appointment WHERE UpdatedAt <= ?";
+    private static final String MEDICATION_ROWS =
+            "SELECT MedicationID, PatientID, DoctorID, Name, CAST(Cost * 100 AS SIGNED), Status, Dosage, Frequency, "
+            + "PlanID FROM Medication WHERE UpdatedAt <= ?";
+    private static final String DOCTOR_ROWS = "SELECT DoctorID, Discipline FROM Doctor";
+    private static final String DELETIONS =
+            "SELECT TableName, PatientID, MedicationID, TO_DAYS(ApptDate) - 719528, TIME_TO_SEC(ApptTime) "
+            + "FROM SnapshotDeletion WHERE DeletedAt > ? AND DeletedAt <= ? AND TableName IN (?, 'Patient')";
+
+    private final ConnectionSource source;
+    private final Path dir;
+    private final int lagSeconds;
+    private final int compactPercent;
+    private final int fetchSize;
+
+    SnapshotExporter(ConnectionSource source, Path dir, int lagSeconds, int compactPercent, int fetchSize) {
+        this.source = source;
+        this.dir = dir;
+        this.lagSeconds = Math.max(0, lagSeconds);
+        this.compactPercent = Math.max(1, compactPercent);
+        this.fetchSize = fetchSize;
+    }
+
+    static SnapshotExporter fromProperties(Properties props, ConnectionSource source) {
+        return new SnapshotExporter(source, snapshotDir(props),
+                ConnectionPool.intProp(props, "snapshot.lagSeconds", 5),
+                ConnectionPool.intProp(props, "snapshot.compactPercent", 50),
+                ConnectionPool.intProp(props, "snapshot.fetchSize", Integer.MIN_VALUE));
+    }
+
+    static Path snapshotDir(Properties props) {
+        return Path.of(props.getProperty("snapshot.dir", "snapshot").trim());
+    }
+
+    /**
+     * Exports both tables and prunes the deletions both files now include.
+     */
+    List<Result> export(boolean full) throws SQLException, IOException {
+        Files.createDirectories(dir);
+        List<Result> results = new ArrayList<>();
+        LocalDateTime upper;
+        try (Connection conn = source.get()) {
+            int isolation = conn.getTransactionIsolation();
+            conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            conn.setAutoCommit(false);
+            try {
+                try (Statement st = conn.createStatement()) {
+                    st.execute("START TRANSACTION WITH CONSISTENT SNAPSHOT, READ ONLY");
+                }
+                upper = watermark(conn);
+                for (ColumnarSnapshot.Table table : ColumnarSnapshot.Table.values()) {
+                    results.add(exportTable(conn, table, upper, full));
+                }
+                conn.commit();
+            } catch (SQLException | IOException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+                conn.setTransactionIsolation(isolation);
+            }
+            try (PreparedStatement ps = conn.prepareStatement("DELETE FROM SnapshotDeletion WHERE DeletedAt <= ?")) {
+                ps.setObject(1, upper);
+                ps.executeUpdate();
+            }
+        }
+        return results;
+    }
+
+    private LocalDateTime watermark(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement("SELECT NOW(6) - INTERVAL ? SECOND")) {
+            ps.setInt(1, lagSeconds);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getObject(1, LocalDateTime.class);
+            }
+        }
+    }
+
+    private Result exportTable(Connection conn, ColumnarSnapshot.Table table, LocalDateTime upper, boolean full)
+            throws SQLException, IOException {
+        long start = System.nanoTime();
+        Path file = dir.resolve(table.fileName);
+        ColumnarSnapshot existing = null;
+        if (!full && table != ColumnarSnapshot.Table.DOCTOR && Files.exists(file)) {
+            existing = ColumnarSnapshot.open(file, table);
+            if (existing.segments().isEmpty()
+                    || existing.appendedRows() * 100 >= (long) compactPercent * Math.max(1, existing.baseRows())) {
+                existing = null; // compact: rewrite the whole file
+            }
+        }
+        try (ColumnarSnapshot.SegmentWriter writer = new ColumnarSnapshot.SegmentWriter(file, table, existing)) {
+            LocalDateTime lower = existing == null ? null : fromMicros(existing.watermarkMicros());
+            if (lower != null) {
+                readDeletions(conn, table, lower, upper, writer);
+            }
+            readRows(conn, table, lower, upper, writer);
+            long bytes = 0;
+            if (existing == null || writer.rows() + writer.deletes() + writer.purges() > 0) {
+                bytes = writer.commit(toMicros(upper));
+            }
+            return new Result(table, existing == null, writer.rows(), writer.deletes(), writer.purges(),
+                    bytes, System.nanoTime() - start);
+        }
+    }
+
+    private void readRows(Connection conn, ColumnarSnapshot.Table table, LocalDateTime lower, LocalDateTime upper,
+                          ColumnarSnapshot.SegmentWriter writer) throws SQLException, IOException {
+        boolean doctor = table == ColumnarSnapshot.Table.DOCTOR;
+        String sql = switch (table) {
+            case APPOINTMENT -> APPOINTMENT_ROWS;
+            case MEDICATION -> MEDICATION_ROWS;
+            case DOCTOR -> DOCTOR_ROWS;
+        } + (lower == null ? "" : " AND UpdatedAt > ?");
+        ColumnarSnapshot.Column[] columns = table.columns;
+        try (PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(fetchSize);
+            if (!doctor) {
+                ps.setObject(1, upper);
+            }
+            if (lower != null) {
+                ps.setObject(2, lower);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    for (int c = 0; c < columns.length; c++) {
+                        switch (columns[c].type()) {
+                            case INT -> {
+                                int v = rs.getInt(c + 1);
+                                writer.setInt(c, rs.wasNull() ? ColumnarSnapshot.NULL_INT : v);
+                            }
+                            case LONG -> writer.setLong(c, rs.getLong(c + 1));
+                            case DICT -> writer.setString(c, rs.getString(c + 1));
+                        }
+                    }
+                    writer.endRow();
+                }
+            }
+        }
+    }
+
+    private void readDeletions(Connection conn, ColumnarSnapshot.Table table, LocalDateTime lower, LocalDateTime upper,
+                               ColumnarSnapshot.SegmentWriter writer) throws SQLException {
+        boolean appointment = table == ColumnarSnapshot.Table.APPOINTMENT;
+        try (PreparedStatement ps = conn.prepareStatement(DELETIONS)) {
+            ps.setObject(1, lower);
+            ps.setObject(2, upper);
+            ps.setString(3, appointment ? "Appointment" : "Medication");
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if ("Patient".equals(rs.getString(1))) {
+                        writer.purgePatient(rs.getInt(2));
+                    } else if (appointment) {
+                        writer.delete(rs.getInt(2), rs.getInt(4), rs.getInt(5));
+                    } else {
+                        writer.delete(rs.getInt(3));
+                    }
+                }
+            }
+        }
+    }
+
+    static long toMicros(LocalDateTime t) {
+        return t.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + t.getNano() / 1_000;
+    }
+
+    static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1_000, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,126 @@
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Where the time goes between launching the JVM and the first query: each startup phase (reading the
+ * config, loading the driver, opening connections, warming up) timed on the thread that ran it, plus
+ * when the menu appeared and when the database was ready for it.
+ * <p>
+ * "Time to first query" is JVM start to ready: from then on a menu operation runs its query without
+ * waiting. Menu option 13 and java Main --startup print the breakdown; the phases also go into the
+ * query metrics as startup:&lt;phase&gt;.
+ */
+final class Startup {
+
+    @FunctionalInterface
+    interface Step<T> {
+        T run() throws SQLException;
+    }
+
+    record Phase(String name, long startNanos, long nanos, String thread, String error) {
+    }
+
+    private final long mainNanos = System.nanoTime();
+    private final long mainEpochMillis = System.currentTimeMillis();
+    private final List<Phase> phases = new ArrayList<>(); // guarded by this
+    private volatile long menuNanos = -1;
+    private volatile long readyNanos = -1;
+    private volatile long firstWaitNanos = -1; // how long the first menu operation waited for ready
+
+    /**
+     * Runs one phase and records how long it took, failed or not.
+     */
+    <T> T time(String name, Step<T> step) throws SQLException {
+        long start = System.nanoTime();
+        String error = null;
+        try {
+            return step.run();
+        } catch (SQLException | RuntimeException e) {
+            String message = String.valueOf(e.getMessage());
+            error = message.lines().findFirst().orElse(message); // driver messages run to several lines
+            throw e;
+        } finally {
+            synchronized (this) {
+                phases.add(new Phase(name, start - mainNanos, System.nanoTime() - start,
+                        Thread.currentThread().getName(), error));
+            }
+        }
+    }
+
+    void menuShown() {
+        if (menuNanos < 0) {
+            menuNanos = System.nanoTime() - mainNanos;
+        }
+    }
+
+    void ready() {
+        readyNanos = System.nanoTime() - mainNanos;
+    }
+
+    boolean isReady() {
+        return readyNanos >= 0;
+    }
+
+    void firstWait(long nanos) {
+        if (firstWaitNanos < 0) {
+            firstWaitNanos = nanos;
+        }
+    }
+
+    synchronized List<Phase> phases() {
+        return List.copyOf(phases);
+    }
+
+    /**
+     * JVM start to main(): class loading and JIT before any of our code ran; what AppCDS shrinks.
+     * Read from the management bean only when asked, so startup itself does not pay for it.
+     */
+    long launchMillis() {
+        return Math.max(0, mainEpochMillis - ManagementFactory.getRuntimeMXBean().getStartTime());
+    }
+
+    /**
+     * JVM start to ready, or -1 while still connecting.
+     */
+    long timeToFirstQueryMillis() {
+        return readyNanos < 0 ? -1 : launchMillis() + readyNanos / 1_000_000;
+    }
+
+    void recordTo(QueryMetrics metrics) {
+        if (metrics == null) {
+            return;
+        }
+        for (Phase p : phases()) {
+            metrics.recordOperation("startup:" + p.name(), p.nanos(), p.error() != null);
+        }
+        if (readyNanos >= 0) {
+            metrics.recordOperation("startup:time-to-first-query", timeToFirstQueryMillis() * 1_000_000, false);
+        }
+    }
+
+    /**
+     * Milestones first (offsets from JVM start), then each phase with its offset from main() and duration.
+     */
+    String report() {
+        long launch = launchMillis();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "Startup: JVM start -> main %d ms", launch));
+        if (menuNanos >= 0) {
+            sb.append(String.format(Locale.ROOT, ", menu shown at %d ms", launch + menuNanos / 1_000_000));
+        }
+        sb.append(readyNanos < 0 ? ", database not ready yet"
+                : String.format(Locale.ROOT, ", time to first query %d ms", timeToFirstQueryMillis()));
+        if (firstWaitNanos >= 0) {
+            sb.append(String.format(Locale.ROOT, ", first operation waited %.1f ms", firstWaitNanos / 1e6));
+        }
+        for (Phase p : phases()) {
+            sb.append(String.format(Locale.ROOT, "%n  +%7.1f ms  %-16s %8.1f ms  [%s]%s",
+                    p.startNanos() / 1e6, p.name(), p.nanos() / 1e6, p.thread(),
+                    p.error() == null ? "" : "  failed: " + p.error()));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,190 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-connection registry of prepared statements, keyed by SQL text.
+ * Each statement is prepared once for the life of the physical connection (server-side when
+ * db.url has useServerPrepStmts=true) and handed back out on every later prepareStatement/prepareCall
+ * with the same SQL. close() on a registry statement clears its parameters and parks it instead
+ * of closing it. Only used by the thread that currently holds the connection, so not synchronized.
+ */
+final class StatementCache {
+
+    // Totals across every pooled connection.
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder BUSY = new LongAdder();
+    private static final LongAdder EVICTIONS = new LongAdder();
+
+    private final Connection physical;
+    private final int capacity;
+    // Access-ordered, so the eldest entry is the least recently used one.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(32, 0.75f, true);
+
+    StatementCache(Connection physical, int capacity) {
+        this.physical = physical;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param owner the borrower's connection handle, returned by the statement's getConnection()
+     */
+    PreparedStatement prepareStatement(String sql, Connection owner) throws SQLException {
+        return prepare(sql, false, owner);
+    }
+
+    CallableStatement prepareCall(String sql, Connection owner) throws SQLException {
+        return (CallableStatement) prepare(sql, true, owner);
+    }
+
+    private PreparedStatement prepare(String sql, boolean call, Connection owner) throws SQLException {
+        String key = (call ? "{call}" : "") + sql;
+        Entry e = entries.get(key);
+        if (e != null && !e.inUse) {
+            HITS.increment();
+            e.inUse = true;
+            e.owner = owner;
+            return e.handle;
+        }
+        if (e != null) {
+            // Same SQL is already open further up the stack: give this caller a private, uncached one.
+            BUSY.increment();
+            return call ? physical.prepareCall(sql) : physical.prepareStatement(sql);
+        }
+
+        MISSES.increment();
+        PreparedStatement stmt = call ? physical.prepareCall(sql) : physical.prepareStatement(sql);
+        e = new Entry(key, stmt, call);
+        e.inUse = true;
+        e.owner = owner;
+        entries.put(key, e);
+        evictIfFull();
+        return e.handle;
+    }
+
+    private void evictIfFull() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > capacity && it.hasNext()) {
+            Entry eldest = it.next();
+            if (!eldest.inUse) {
+                it.remove();
+                EVICTIONS.increment();
+                closeQuietly(eldest.stmt);
+            }
+        }
+    }
+
+    /**
+     * Called when the connection goes back to the pool; statements a borrower forgot to close
+     * become reusable again (the borrower's connection handle is dead by now).
+     */
+    void releaseAll() {
+        for (Entry e : entries.values().toArray(new Entry[0])) {
+            if (e.inUse) {
+                reset(e);
+            }
+        }
+    }
+
+    private void reset(Entry e) {
+        try {
+            e.stmt.clearParameters();
+            e.stmt.clearBatch();
+            // Settings one borrower made must not reach the next; 0 is the driver default for all three.
+            if (e.stmt.getFetchSize() != 0) {
+                e.stmt.setFetchSize(0);
+            }
+            if (e.stmt.getMaxRows() != 0) {
+                e.stmt.setMaxRows(0);
+            }
+            if (e.stmt.getQueryTimeout() != 0) {
+                e.stmt.setQueryTimeout(0);
+            }
+            e.owner = null;
+            e.inUse = false;
+        } catch (SQLException ex) {
+            entries.remove(e.key);
+            closeQuietly(e.stmt);
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException ignored) {
+            // the connection is probably gone already
+        }
+    }
+
+    // ===== Stats =====
+
+    static String statsSummary() {
+        long h = HITS.sum();
+        long m = MISSES.sum();
+        double hitRate = (h + m) == 0 ? 0 : 100.0 * h / (h + m);
+        return String.format("statements: hits=%d misses=%d (%.1f%% hit rate) busy=%d evictions=%d",
+                h, m, hitRate, BUSY.sum(), EVICTIONS.sum());
+    }
+
+    // ===== Registry entry + statement handle =====
+
+    private final class Entry implements InvocationHandler {
+        final String key;
+        final PreparedStatement stmt;
+        final PreparedStatement handle;
+        boolean inUse;
+        Connection owner; // handle of the connection it was checked out through
+
+        Entry(String key, PreparedStatement stmt, boolean call) {
+            this.key = key;
+            this.stmt = stmt;
+            Class<?> type = call ? CallableStatement.class : PreparedStatement.class;
+            this.handle = (PreparedStatement) Proxy.newProxyInstance(
+                    StatementCache.class.getClassLoader(), new Class<?>[]{type}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (inUse) {
+                        if (entries.get(key) == this) {
+                            reset(this);
+                        } else {
+                            stmt.close(); // evicted while checked out
+                        }
+                        inUse = false;
+                    }
+                    return null;
+                case "isClosed":
+                    return !inUse || stmt.isClosed();
+                case "getConnection":
+                    if (!inUse) {
+                        throw new SQLException("Statement is closed");
+                    }
+                    return owner;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + key + "]";
+                default:
+                    try {
+                        return method.invoke(stmt, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
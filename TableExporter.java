@@ -0,0 +1,381 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams a whole listing table (TableListing.Source) to a file or stdout as CSV, JSON Lines or TSV.
+ * <p>
+ * Rows come off a streaming result set and are encoded straight into one reusable byte buffer,
+ * which is written to a FileChannel (or the gzip stream, or the stdout descriptor) only when full.
+ * Integer columns are read with getInt and written digit by digit, so they are never boxed or
+ * turned into Strings; JSON keys and the CSV/TSV header are encoded once per export.
+ */
+final class TableExporter {
+
+    enum Format { CSV, JSONL, TSV }
+
+    /**
+     * Size of one export; bytes are before compression.
+     */
+    record Result(long rows, long bytes, long elapsedNanos) {
+        double rowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rows * 1e9 / elapsedNanos;
+        }
+
+        double megabytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : bytes / 1_048_576.0 * 1e9 / elapsedNanos;
+        }
+    }
+
+    private final ConnectionSource source;
+    private final int bufferBytes;
+    private final int fetchSize;
+
+    TableExporter(ConnectionSource source, int bufferBytes, int fetchSize) {
+        this.source = source;
+        this.bufferBytes = Math.max(4096, bufferBytes);
+        this.fetchSize = fetchSize;
+    }
+
+    static TableExporter fromProperties(Properties props, ConnectionSource source) {
+        return new TableExporter(source,
+                ConnectionPool.intProp(props, "export.bufferBytes", 1 << 20),
+                ConnectionPool.intProp(props, "export.fetchSize", 0));
+    }
+
+    static Format format(String name) {
+        try {
+            return Format.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown format: " + name + " (csv, jsonl or tsv)");
+        }
+    }
+
+    /**
+     * Writes the table to file (gzip-compressed when the name ends in .gz), or to stdout when file is null.
+     */
+    Result export(TableListing.Source table, Format format, Path file) throws SQLException, IOException {
+        long start = System.nanoTime();
+        if (file == null) {
+            System.out.flush(); // what the menu printed so far goes first
+        }
+        WritableByteChannel channel = file == null
+                ? Channels.newChannel(new FileOutputStream(FileDescriptor.out)) // unsynchronized, no autoflush
+                : FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+        OutputStream gzip = null;
+        if (file != null && file.getFileName().toString().endsWith(".gz")) {
+            gzip = new GZIPOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            channel = Channels.newChannel(gzip);
+        }
+        Writer out = new Writer(channel, bufferBytes);
+        long rows;
+        try (Connection conn = source.get()) {
+            rows = TableListing.stream(conn, table, fetchSize, new TableListing.RowHandler() {
+                private Encoder encoder;
+
+                @Override
+                public void columns(ResultSetMetaData md) throws SQLException {
+                    encoder = new Encoder(format, md, out);
+                    encoder.header(); // before any row, so an empty table still gets its header
+                }
+
+                @Override
+                public void handle(ResultSet rs) throws SQLException {
+                    encoder.row(rs);
+                }
+            });
+            out.flush();
+            if (gzip != null) {
+                gzip.close(); // writes the trailer; also closes the file channel under it
+            } else if (file != null) {
+                channel.close();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause(); // from a full buffer being written out inside the row callback
+        } finally {
+            if (file != null && channel.isOpen()) {
+                channel.close();
+            }
+        }
+        return new Result(rows, out.written, System.nanoTime() - start);
+    }
+
+    // ===== Encoding =====
+
+    /**
+     * Per-export column plan: how each column is read and how each row is framed.
+     */
+    private static final class Encoder {
+        private final Format format;
+        private final Writer out;
+        private final boolean[] integral;
+        private final boolean[] numeric;
+        private final byte[][] jsonKeys; // {"Col": for the first column, ,"Col": after
+        private final byte[] header;
+
+        Encoder(Format format, ResultSetMetaData md, Writer out) throws SQLException {
+            this.format = format;
+            this.out = out;
+            int n = md.getColumnCount();
+            integral = new boolean[n];
+            numeric = new boolean[n];
+            jsonKeys = new byte[n][];
+            StringBuilder head = new StringBuilder();
+            for (int i = 0; i < n; i++) {
+                int type = md.getColumnType(i + 1);
+                integral[i] = type == Types.INTEGER || type == Types.SMALLINT || type == Types.TINYINT;
+                numeric[i] = integral[i] || type == Types.BIGINT || type == Types.DECIMAL || type == Types.NUMERIC
+                        || type == Types.DOUBLE || type == Types.FLOAT || type == Types.REAL;
+                String label = md.getColumnLabel(i + 1);
+                jsonKeys[i] = ((i == 0 ? "{" : ",") + Json.quote(label) + ":").getBytes(StandardCharsets.UTF_8);
+                head.append(i == 0 ? "" : format == Format.TSV ? "\t" : ",").append(label);
+            }
+            header = (head + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+
+        void header() {
+            if (format != Format.JSONL) {
+                out.put(header);
+            }
+        }
+
+        void row(ResultSet rs) throws SQLException {
+            for (int i = 0; i < integral.length; i++) {
+                if (format == Format.JSONL) {
+                    out.put(jsonKeys[i]);
+                } else if (i > 0) {
+                    out.put(format == Format.TSV ? (byte) '\t' : (byte) ',');
+                }
+                if (integral[i]) {
+                    int v = rs.getInt(i + 1);
+                    if (rs.wasNull()) {
+                        nullValue();
+                    } else {
+                        out.putInt(v);
+                    }
+                    continue;
+                }
+                String v = rs.getString(i + 1);
+                if (v == null) {
+                    nullValue();
+                } else if (numeric[i]) {
+                    out.putAscii(v);
+                } else {
+                    switch (format) {
+                        case CSV -> out.putCsv(v);
+                        case TSV -> out.putTsv(v);
+                        case JSONL -> out.putJson(v);
+                    }
+                }
+            }
+            if (format == Format.JSONL) {
+                out.put((byte) '}');
+            }
+            out.put((byte) '\n');
+        }
+
+        // CSV leaves the field empty; TSV uses the \N convention of LOAD DATA.
+        private void nullValue() {
+            switch (format) {
+                case JSONL -> out.putAscii("null");
+                case TSV -> out.putAscii("\\N");
+                default -> {
+                }
+            }
+        }
+    }
+
+    /**
+     * One reusable byte buffer in front of a channel. Not thread-safe.
+     */
+    private static final class Writer {
+        private final WritableByteChannel channel;
+        private final byte[] buf;
+        private final ByteBuffer view;
+        private int pos;
+        private long written;
+
+        Writer(WritableByteChannel channel, int size) {
+            this.channel = channel;
+            this.buf = new byte[size];
+            this.view = ByteBuffer.wrap(buf);
+        }
+
+        void put(byte b) {
+            if (pos == buf.length) {
+                drain();
+            }
+            buf[pos++] = b;
+        }
+
+        void put(byte[] bytes) {
+            if (buf.length - pos < bytes.length) {
+                drain();
+            }
+            if (bytes.length > buf.length) {
+                for (byte b : bytes) {
+                    put(b);
+                }
+                return;
+            }
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void putInt(int v) {
+            if (buf.length - pos < 11) {
+                drain();
+            }
+            if (v == Integer.MIN_VALUE) {
+                putAscii("-2147483648");
+                return;
+            }
+            if (v < 0) {
+                buf[pos++] = '-';
+                v = -v;
+            }
+            int digits = 1;
+            for (int x = v; x >= 10; x /= 10) {
+                digits++;
+            }
+            for (int i = pos + digits - 1; i >= pos; i--) {
+                buf[i] = (byte) ('0' + v % 10);
+                v /= 10;
+            }
+            pos += digits;
+        }
+
+        void putAscii(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                put((byte) s.charAt(i));
+            }
+        }
+
+        void putCsv(String s) {
+            boolean quote = false;
+            for (int i = 0; i < s.length() && !quote; i++) {
+                char c = s.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                putText(s);
+                return;
+            }
+            put((byte) '"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"') {
+                    put((byte) '"');
+                }
+                i += putChar(s, i, c) - 1;
+            }
+            put((byte) '"');
+        }
+
+        void putTsv(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '\t' -> escape('t');
+                    case '\n' -> escape('n');
+                    case '\r' -> escape('r');
+                    case '\\' -> escape('\\');
+                    default -> i += putChar(s, i, c) - 1;
+                }
+            }
+        }
+
+        void putJson(String s) {
+            put((byte) '"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"' -> escape('"');
+                    case '\\' -> escape('\\');
+                    case '\n' -> escape('n');
+                    case '\r' -> escape('r');
+                    case '\t' -> escape('t');
+                    default -> {
+                        if (c < 0x20) {
+                            putAscii(String.format("\\u%04x", (int) c));
+                        } else {
+                            i += putChar(s, i, c) - 1;
+                        }
+                    }
+                }
+            }
+            put((byte) '"');
+        }
+
+        private void putText(String s) {
+            for (int i = 0; i < s.length(); ) {
+                i += putChar(s, i, s.charAt(i));
+            }
+        }
+
+        private void escape(char c) {
+            put((byte) '\\');
+            put((byte) c);
+        }
+
+        // UTF-8 without a CharsetEncoder. Returns the chars used: 2 for a surrogate pair, else 1.
+        // A lone surrogate becomes '?', as String.getBytes writes it.
+        private int putChar(String s, int i, char c) {
+            if (c < 0x80) {
+                put((byte) c);
+            } else if (c < 0x800) {
+                put((byte) (0xC0 | c >> 6));
+                put((byte) (0x80 | c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                put((byte) (0xE0 | c >> 12));
+                put((byte) (0x80 | c >> 6 & 0x3F));
+                put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(i + 1));
+                put((byte) (0xF0 | cp >> 18));
+                put((byte) (0x80 | cp >> 12 & 0x3F));
+                put((byte) (0x80 | cp >> 6 & 0x3F));
+                put((byte) (0x80 | cp & 0x3F));
+                return 2;
+            } else {
+                put((byte) '?');
+            }
+            return 1;
+        }
+
+        void flush() {
+            drain();
+        }
+
+        // Unchecked so it can leave the JDBC row callback; export() unwraps it.
+        private void drain() {
+            view.clear().limit(pos);
+            try {
+                while (view.hasRemaining()) {
+                    channel.write(view);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            written += pos;
+            pos = 0;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Bounded-memory reads for the large listing tables.
+ * Page mode seeks on the primary key ("WHERE key > last key ORDER BY key LIMIT n") so every page
+ * is an index range scan no matter how deep into the table it is. Stream mode asks Connector/J to
+ * hand rows over one at a time instead of buffering the whole result set in heap.
+ */
+final class TableListing {
+
+    /**
+     * Tables that can be listed, with the key columns they are ordered and seeked on.
+     */
+    enum Source {
+        PATIENT("SELECT PatientID, Name, Birthdate, Email, PhoneNumber, Address, PlanID FROM Patient",
+                "PatientID"),
+        MEDICATION("SELECT MedicationID, PatientID, DoctorID, Name, Cost, Status, Dosage, Frequency, PlanID " +
+                   "FROM Medication",
+                "MedicationID"),
+        APPOINTMENT("SELECT PatientID, DoctorID, HospitalID, ApptDate, ApptTime, VisitReason, Cost, PlanID " +
+                    "FROM Appointment",
+                "PatientID", "ApptDate", "ApptTime"),
+        // The view's own ORDER BY (PatientID, Status) is not unique, so pages seek on the row identity instead.
+        // A seek on the view would only filter its whole three-table join, so a page seeks on Medication's
+        // (PatientID, MedicationID) index first and joins the names onto those rows; the FKs are NOT NULL,
+        // so the joins never shorten a page.
+        PATIENT_MEDICATION_VIEW("SELECT * FROM PatientMedicationView",
+                "SELECT m.PatientID, p.Name AS PatientName, m.MedicationID, m.Name AS MedicationName, m.Status, " +
+                "m.Cost, d.Name AS PrescribingDoctor " +
+                "FROM (SELECT PatientID, MedicationID, DoctorID, Name, Status, Cost FROM Medication%s) m " +
+                "JOIN Patient p ON p.PatientID = m.PatientID " +
+                "JOIN Doctor d ON d.DoctorID = m.DoctorID " +
+                "ORDER BY m.PatientID, m.MedicationID",
+                new String[]{"PatientID", "MedicationID"}),
+        // Trigger-maintained rollup; the name lookup is one primary key probe per row.
+        MEDICATION_SUMMARY("SELECT PatientID, " +
+                           "(SELECT p.Name FROM Patient p WHERE p.PatientID = s.PatientID) AS PatientName, " +
+                           "PausedCount, CompletedCount, OngoingCount, TotalCost " +
+                           "FROM PatientMedicationSummary s",
+                "PatientID"),
+        // The menu reads these three from the reference cache; batch mode lists them here.
+        DOCTOR("SELECT DoctorID, Name, Discipline, Email, PhoneNumber FROM Doctor",
+                "DoctorID"),
+        HOSPITAL("SELECT HospitalID, Name, Address, PhoneNumber FROM Hospital",
+                "HospitalID"),
+        DOCTOR_HOSPITAL("SELECT DoctorID, HospitalID FROM DoctorHospital",
+                "DoctorID", "HospitalID");
+
+        final String select;
+        final String[] keyColumns;
+        private final String pageJoin; // null: pages are select itself; else %s takes the seek, order and limit
+
+        Source(String select, String... keyColumns) {
+            this(select, null, keyColumns);
+        }
+
+        Source(String select, String pageJoin, String[] keyColumns) {
+            this.select = select;
+            this.pageJoin = pageJoin;
+            this.keyColumns = keyColumns;
+        }
+
+        /**
+         * Source for a batch/CLI table name such as "patients" or "patient-medications".
+         */
+        static Source named(String name) {
+            return switch (name.toLowerCase()) {
+                case "patients" -> PATIENT;
+                case "medications" -> MEDICATION;
+                case "appointments" -> APPOINTMENT;
+                case "patient-medications" -> PATIENT_MEDICATION_VIEW;
+                case "medication-summary" -> MEDICATION_SUMMARY;
+                case "doctors" -> DOCTOR;
+                case "hospitals" -> HOSPITAL;
+                case "doctor-hospital" -> DOCTOR_HOSPITAL;
+                default -> throw new IllegalArgumentException("Unknown table: " + name);
+            };
+        }
+
+        String orderBy() {
+            return " ORDER BY " + String.join(", ", keyColumns);
+        }
+
+        String seek() {
+            if (keyColumns.length == 1) {
+                return " WHERE " + keyColumns[0] + " > ?";
+            }
+            // Row constructor comparison; MySQL turns this into a range scan on the key.
+            String cols = String.join(", ", keyColumns);
+            String marks = "?" + ", ?".repeat(keyColumns.length - 1);
+            return " WHERE (" + cols + ") > (" + marks + ")";
+        }
+
+        String pageSql(boolean seeking) {
+            String page = (seeking ? seek() : "") + orderBy() + " LIMIT ?";
+            return pageJoin == null ? select + page : pageJoin.formatted(page);
+        }
+    }
+
+    @FunctionalInterface
+    interface RowHandler {
+        void handle(ResultSet rs) throws SQLException;
+
+        /**
+         * Called by stream() once before the first row, even when there are no rows.
+         */
+        default void columns(ResultSetMetaData md) throws SQLException {
+        }
+    }
+
+    private TableListing() {
+    }
+
+    /**
+     * Reads one page of at most pageSize rows that sort after the given key.
+     *
+     * @param after key of the last row of the previous page, or null for the first page
+     * @return key of the last row read, or null when the table is exhausted
+     */
+    static Object[] page(Connection conn, Source source, Object[] after, int pageSize, RowHandler handler)
+            throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(source.pageSql(after != null))) {
+            int idx = 1;
+            if (after != null) {
+                for (Object key : after) {
+                    ps.setObject(idx++, key);
+                }
+            }
+            ps.setInt(idx, pageSize);
+
+            Object[] last = null;
+            int rows = 0;
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    handler.handle(rs);
+                    rows++;
+                    if (rows == pageSize) {
+                        last = new Object[source.keyColumns.length];
+                        for (int i = 0; i < last.length; i++) {
+                            last[i] = rs.getObject(source.keyColumns[i]);
+                        }
+                    }
+                }
+            }
+            // A short page means there is nothing left to seek past.
+            return last;
+        }
+    }
+
+    /**
+     * Walks the whole table in key order with constant memory.
+     * Integer.MIN_VALUE is Connector/J's signal to stream rows from the socket one at a time;
+     * a positive fetchSize uses a server-side cursor instead (needs useCursorFetch=true on the URL).
+     * The connection cannot run other statements until the stream is fully read or closed.
+     *
+     * @return number of rows handled
+     */
+    static long stream(Connection conn, Source source, int fetchSize, RowHandler handler) throws SQLException {
+        String sql = source.select + source.orderBy();
+        try (PreparedStatement ps = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(fetchSize > 0 ? fetchSize : Integer.MIN_VALUE);
+            long rows = 0;
+            try (ResultSet rs = ps.executeQuery()) {
+                handler.columns(rs.getMetaData());
+                while (rs.next()) {
+                    handler.handle(rs);
+                    rows++;
+                }
+            }
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package clinic.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Handles onto the console application's classes. They live in the default package, which a
+ * named package cannot import (and JMH refuses to generate code for), so everything goes through
+ * method handles resolved once here. The handles call the exact code the menu runs.
+ */
+final class App {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    static final Class<?> MAIN = type("Main");
+    static final Class<?> POOL = type("ConnectionPool");
+    static final Class<?> ROUTER = type("ReplicaRouter");
+    static final Class<?> AUDIT = type("AuditLog");
+    static final Class<?> REFS = type("ReferenceCache");
+    static final Class<?> LISTING = type("TableListing");
+    static final Class<?> SOURCE = type("TableListing$Source");
+    static final Class<?> ROW_HANDLER = type("TableListing$RowHandler");
+    static final Class<?> IMPORTER = type("MedicationImporter");
+    static final Class<?> TRANSFER = type("DoctorTransferService$Transfer");
+    static final Class<?> TRANSFER_RESULT = type("DoctorTransferService$Result");
+
+    private static final MethodHandle POOL_FROM_PROPERTIES = method(POOL, "fromProperties", Properties.class);
+    private static final MethodHandle POOL_WARM_UP = method(POOL, "warmUp");
+    private static final MethodHandle POOL_GET_CONNECTION = method(POOL, "getConnection");
+    private static final MethodHandle ROUTER_FROM_PROPERTIES = method(ROUTER, "fromProperties", Properties.class, POOL);
+    private static final MethodHandle ROUTER_PRIMARY_POOL = method(ROUTER, "primaryPool");
+    private static final MethodHandle ROUTER_CLOSE = method(ROUTER, "close");
+    private static final MethodHandle MAIN_OPEN_AUDIT = method(MAIN, "openAudit", ROUTER);
+    private static final MethodHandle MAIN_INIT = method(MAIN, "init", ROUTER, AUDIT);
+    private static final MethodHandle AUDIT_CLOSE = method(AUDIT, "close");
+    private static final MethodHandle REFS_DOCTOR_EXISTS = method(REFS, "doctorExists", int.class);
+    private static final MethodHandle INSERT_MEDICATION = method(MAIN, "insertMedication",
+            int.class, int.class, String.class, double.class, String.class, String.class, String.class, Integer.class);
+    private static final MethodHandle SCHEDULE = method(MAIN, "scheduleAppointment",
+            int.class, int.class, int.class, String.class, String.class, String.class, double.class);
+    private static final MethodHandle TRANSFER_DOCTORS = method(MAIN, "transferDoctors", List.class, boolean.class);
+    private static final MethodHandle TRANSFER_COMMITTED = method(TRANSFER_RESULT, "committed");
+    private static final MethodHandle STREAM = method(LISTING, "stream", Connection.class, SOURCE, int.class, ROW_HANDLER);
+    private static final MethodHandle PAGE = method(LISTING, "page",
+            Connection.class, SOURCE, Object[].class, int.class, ROW_HANDLER);
+    private static final MethodHandle NEW_IMPORTER = constructor(IMPORTER, int.class);
+    private static final MethodHandle IMPORT_FILE = method(IMPORTER, "importFile", Connection.class, Path.class);
+    private static final MethodHandle NEW_TRANSFER = constructor(TRANSFER, int.class, int.class, int.class);
+
+    @FunctionalInterface
+    interface RowConsumer {
+        void accept(ResultSet rs) throws SQLException;
+    }
+
+    private App() {
+    }
+
+    // ===== Lifecycle =====
+
+    /**
+     * Opens the pools (primary and any db.replicas) and the audit log (audit.* keys; audit.sink=off
+     * leaves it out of the measurements) and wires up Main's statics exactly as Main.main does.
+     *
+     * @return the ReplicaRouter, to pass to connection() and stop()
+     */
+    static Object start(Properties props) throws Throwable {
+        Class.forName("com.mysql.cj.jdbc.Driver");
+        Object pool = POOL_FROM_PROPERTIES.invoke(props);
+        POOL_WARM_UP.invoke(pool);
+        Object router = ROUTER_FROM_PROPERTIES.invoke(props, pool);
+        Field config = MAIN.getDeclaredField("config");
+        config.setAccessible(true);
+        config.set(null, props);
+        MAIN_INIT.invoke(router, MAIN_OPEN_AUDIT.invoke(router));
+        return router;
+    }
+
+    static void stop(Object router) throws Throwable {
+        Field audit = MAIN.getDeclaredField("audit");
+        audit.setAccessible(true);
+        if (audit.get(null) != null) {
+            AUDIT_CLOSE.invoke(audit.get(null)); // before the pools, as in Main
+            audit.set(null, null);
+        }
+        if (router != null) {
+            ROUTER_CLOSE.invoke(router);
+        }
+    }
+
+    /**
+     * A connection to the primary.
+     */
+    static Connection connection(Object router) throws Throwable {
+        return (Connection) POOL_GET_CONNECTION.invoke(ROUTER_PRIMARY_POOL.invoke(router));
+    }
+
+    static Object refs() throws ReflectiveOperationException {
+        Field f = MAIN.getDeclaredField("refs");
+        f.setAccessible(true);
+        return f.get(null);
+    }
+
+    // ===== Operations =====
+
+    static boolean doctorExists(Object refs, int doctorId) throws Throwable {
+        return (boolean) REFS_DOCTOR_EXISTS.invoke(refs, doctorId);
+    }
+
+    static int insertMedication(int patientId, int doctorId, String name, double cost, String status,
+                                String dosage, String freq, Integer planId) throws Throwable {
+        return (int) INSERT_MEDICATION.invoke(patientId, doctorId, name, cost, status, dosage, freq, planId);
+    }
+
+    static void schedule(int patientId, int doctorId, int hospitalId, String date, String time,
+                         String reason, double cost) throws Throwable {
+        SCHEDULE.invoke(patientId, doctorId, hospitalId, date, time, reason, cost);
+    }
+
+    static boolean transfer(int doctorId, int fromHospitalId, int toHospitalId) throws Throwable {
+        Object t = NEW_TRANSFER.invoke(doctorId, fromHospitalId, toHospitalId);
+        Object result = TRANSFER_DOCTORS.invoke(List.of(t), false);
+        return (boolean) TRANSFER_COMMITTED.invoke(result);
+    }
+
+    static Object importer(int batchSize) throws Throwable {
+        return NEW_IMPORTER.invoke(batchSize);
+    }
+
+    static Object importFile(Object importer, Connection conn, Path file) throws Throwable {
+        return IMPORT_FILE.invoke(importer, conn, file);
+    }
+
+    static Object source(String name) {
+        for (Object c : SOURCE.getEnumConstants()) {
+            if (((Enum<?>) c).name().equals(name)) {
+                return c;
+            }
+        }
+        throw new IllegalArgumentException("No listing source " + name);
+    }
+
+    /**
+     * TableListing.RowHandler that hands every row to the consumer.
+     */
+    static Object rowHandler(RowConsumer consumer) {
+        return Proxy.newProxyInstance(ROW_HANDLER.getClassLoader(), new Class<?>[]{ROW_HANDLER}, (proxy, m, args) -> {
+            if (m.getDeclaringClass() == Object.class) {
+                return m.getName().equals("equals") ? proxy == args[0] : m.invoke(consumer, args);
+            }
+            consumer.accept((ResultSet) args[0]);
+            return null;
+        });
+    }
+
+    static long stream(Connection conn, Object source, int fetchSize, Object handler) throws Throwable {
+        return (long) STREAM.invoke(conn, source, fetchSize, handler);
+    }
+
+    static Object[] page(Connection conn, Object source, Object[] after, int pageSize, Object handler) throws Throwable {
+        return (Object[]) PAGE.invoke(conn, source, after, pageSize, handler);
+    }
+
+    // ===== Reflection =====
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Application class " + name + " is not on the classpath", e);
+        }
+    }
+
+    private static MethodHandle method(Class<?> owner, String name, Class<?>... params) {
+        try {
+            Method m = owner.getDeclaredMethod(name, params);
+            m.setAccessible(true);
+            return LOOKUP.unreflect(m);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot bind " + owner.getName() + "." + name, e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> owner, Class<?>... params) {
+        try {
+            Constructor<?> c = owner.getDeclaredConstructor(params);
+            c.setAccessible(true);
+            return LOOKUP.unreflectConstructor(c);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot bind new " + owner.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package clinic.bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.Properties;
+
+/**
+ * One database per fork: app.properties-style config, the pool and Main's statics, and at least
+ * {@code patients} patients in the tables (topped up by {@link Seeder}).
+ * The config file is -Dclinic.properties, else $CLINIC_PROPERTIES, else bench.properties.
+ */
+@State(Scope.Benchmark)
+public class ClinicState {
+
+    @Param({"1000", "10000", "100000"})
+    public int patients;
+
+    Object router;
+    Seeder.Dataset data;
+
+    @Setup(Level.Trial)
+    public void start() throws Throwable {
+        Properties props = load();
+        router = App.start(props);
+        try (Connection conn = App.connection(router)) {
+            data = Seeder.seed(conn, patients);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Throwable {
+        App.stop(router);
+    }
+
+    Connection connection() throws Throwable {
+        return App.connection(router);
+    }
+
+    private static Properties load() throws IOException {
+        String file = System.getProperty("clinic.properties",
+                System.getenv().getOrDefault("CLINIC_PROPERTIES", "bench.properties"));
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(Path.of(file))) {
+            props.load(in);
+        }
+        return props;
+    }
+}
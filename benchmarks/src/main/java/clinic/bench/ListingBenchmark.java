@@ -0,0 +1,78 @@
+package clinic.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Menu options 1, 4 and 11: whole-table streaming and keyset pages at the start and the end of the table.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ListingBenchmark {
+
+    private static final Object PATIENT = App.source("PATIENT");
+    private static final Object MEDICATION = App.source("MEDICATION");
+    private static final Object APPOINTMENT = App.source("APPOINTMENT");
+    private static final int PAGE_SIZE = 50;
+
+    @Benchmark
+    public long streamPatients(ClinicState s, Blackhole bh) throws Throwable {
+        return stream(s, PATIENT, bh);
+    }
+
+    @Benchmark
+    public long streamMedications(ClinicState s, Blackhole bh) throws Throwable {
+        return stream(s, MEDICATION, bh);
+    }
+
+    @Benchmark
+    public long streamAppointments(ClinicState s, Blackhole bh) throws Throwable {
+        return stream(s, APPOINTMENT, bh);
+    }
+
+    @Benchmark
+    public Object[] firstPatientPage(ClinicState s, Blackhole bh) throws Throwable {
+        try (Connection conn = s.connection()) {
+            return App.page(conn, PATIENT, null, PAGE_SIZE, consumer(bh));
+        }
+    }
+
+    /**
+     * The last full page: with keyset seeks it should cost the same as the first.
+     */
+    @Benchmark
+    public Object[] lastPatientPage(ClinicState s, Blackhole bh) throws Throwable {
+        int[] ids = s.data.patientIds();
+        Object[] after = {ids[Math.max(0, ids.length - PAGE_SIZE - 1)]};
+        try (Connection conn = s.connection()) {
+            return App.page(conn, PATIENT, after, PAGE_SIZE, consumer(bh));
+        }
+    }
+
+    private static long stream(ClinicState s, Object source, Blackhole bh) throws Throwable {
+        try (Connection conn = s.connection()) {
+            return App.stream(conn, source, 0, consumer(bh));
+        }
+    }
+
+    // Reads every column, as the console printers do.
+    private static Object consumer(Blackhole bh) {
+        return App.rowHandler(rs -> {
+            for (int i = 1, n = rs.getMetaData().getColumnCount(); i <= n; i++) {
+                bh.consume(rs.getObject(i));
+            }
+        });
+    }
+}
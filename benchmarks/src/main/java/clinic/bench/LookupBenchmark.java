@@ -0,0 +1,73 @@
+package clinic.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point lookups: the foreign-key existence checks run before inserts and bookings, through the
+ * reference cache and as the plain per-call query they replaced, plus a patient row by primary key.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class LookupBenchmark {
+
+    private Object refs;
+    private int[] doctorIds;
+    private int[] patientIds;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp(ClinicState s) throws ReflectiveOperationException {
+        refs = App.refs();
+        doctorIds = s.data.doctorIds();
+        patientIds = s.data.patientIds();
+    }
+
+    @Benchmark
+    public boolean doctorExistsCached() throws Throwable {
+        return App.doctorExists(refs, doctorIds[next++ % doctorIds.length]);
+    }
+
+    @Benchmark
+    public boolean doctorExistsQuery(ClinicState s) throws Throwable {
+        try (Connection conn = s.connection();
+             PreparedStatement ps = conn.prepareStatement("SELECT 1 FROM Doctor WHERE DoctorID = ?")) {
+            ps.setInt(1, doctorIds[next++ % doctorIds.length]);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    @Benchmark
+    public String patientById(ClinicState s) throws Throwable {
+        // Stride through the table so the working set grows with the data size.
+        int id = patientIds[(int) ((next++ * 7919L) % patientIds.length)];
+        try (Connection conn = s.connection();
+             PreparedStatement ps = conn.prepareStatement(
+                     "SELECT Name, Birthdate, Email, PhoneNumber, Address, PlanID FROM Patient WHERE PatientID = ?")) {
+            ps.setInt(1, id);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package clinic.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Menu option 9: one schedule_appointment call per operation, each on a fresh doctor slot.
+ * Booked rows are removed after every iteration.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class ScheduleBenchmark {
+
+    private static final String TAG = "Bench schedule";
+    // Far beyond the seeded appointments (2031 on) so bookings never collide with them.
+    private static final LocalDate FIRST_DAY = LocalDate.of(2045, 1, 1);
+    private static final int SLOTS_PER_DAY = 20;
+
+    private int[] patientIds;
+    private int[] doctorIds;
+    private int[] hospitalIds;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp(ClinicState s) {
+        patientIds = s.data.patientIds();
+        doctorIds = s.data.doctorIds();
+        hospitalIds = s.data.hospitalIds();
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeBooked(ClinicState s) throws Throwable {
+        try (Connection conn = s.connection();
+             PreparedStatement ps = conn.prepareStatement(
+                     "DELETE FROM Appointment WHERE ApptDate >= ? AND VisitReason = ?")) {
+            ps.setObject(1, FIRST_DAY);
+            ps.setString(2, TAG);
+            ps.executeUpdate();
+        }
+    }
+
+    @Benchmark
+    public void schedule() throws Throwable {
+        int i = next++;
+        int k = i / doctorIds.length;
+        // Distinct (doctor, date, time) per call, and distinct (patient, date, time) because k grows with i.
+        String date = FIRST_DAY.plusDays(k / SLOTS_PER_DAY).toString();
+        String time = LocalTime.of(8, 0).plusMinutes(30L * (k % SLOTS_PER_DAY)) + ":00";
+        App.schedule(patientIds[i % patientIds.length], doctorIds[i % doctorIds.length],
+                hospitalIds[i % hospitalIds.length], date, time, TAG, 120);
+    }
+}
@@ -0,0 +1,158 @@
+package clinic.bench;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tops the sample database from create_and_populate.sql up to a given number of patients.
+ * Bench rows are deterministic ("Bench Patient n"), so a larger run only adds what is missing and
+ * every run at the same size sees the same data. Each new patient gets two medications and one
+ * appointment; appointments use slots from 2031 on so they never collide with the sample data.
+ */
+final class Seeder {
+
+    static final String PATIENT_PREFIX = "Bench Patient ";
+    private static final int BATCH = 1000;
+    private static final LocalDate FIRST_DAY = LocalDate.of(2031, 1, 1);
+    private static final int SLOTS_PER_DAY = 20; // 08:00-18:00 every 30 minutes
+    private static final String[] STATUSES = {"Ongoing", "Completed", "Paused"};
+
+    /**
+     * IDs the benchmarks work with, all taken from the sample data.
+     */
+    record Dataset(int patientCount, int[] patientIds, int[] doctorIds, int[] hospitalIds, int planId) {
+    }
+
+    private Seeder() {
+    }
+
+    static Dataset seed(Connection conn, int patients) throws SQLException {
+        int[] doctors = ids(conn, "SELECT DoctorID FROM Doctor ORDER BY DoctorID");
+        int[] hospitals = ids(conn, "SELECT HospitalID FROM Hospital ORDER BY HospitalID");
+        int[] plans = ids(conn, "SELECT PlanID FROM InsurancePlan ORDER BY PlanID");
+        if (doctors.length == 0 || hospitals.length < 2 || plans.length == 0) {
+            throw new IllegalStateException("Load create_and_populate.sql before running the benchmarks");
+        }
+
+        int existing = count(conn, "SELECT COUNT(*) FROM Patient");
+        int benchExisting = count(conn, "SELECT COUNT(*) FROM Patient WHERE Name LIKE '" + PATIENT_PREFIX + "%'");
+        int missing = patients - existing;
+        if (missing > 0) {
+            insertPatients(conn, benchExisting, missing, plans);
+            int[] newIds = ids(conn, "SELECT PatientID FROM Patient WHERE Name LIKE '" + PATIENT_PREFIX + "%' "
+                    + "ORDER BY PatientID LIMIT " + missing + " OFFSET " + benchExisting);
+            insertMedications(conn, benchExisting, newIds, doctors, plans);
+            insertAppointments(conn, benchExisting, newIds, doctors, hospitals);
+            try (Statement st = conn.createStatement()) {
+                st.execute("ANALYZE TABLE Patient, Medication, Appointment");
+            }
+        }
+        int[] all = ids(conn, "SELECT PatientID FROM Patient ORDER BY PatientID");
+        return new Dataset(all.length, all, doctors, hospitals, plans[0]);
+    }
+
+    private static void insertPatients(Connection conn, int firstOrdinal, int n, int[] plans) throws SQLException {
+        String sql = "INSERT INTO Patient (Name, Birthdate, Email, PhoneNumber, Address, PlanID) VALUES (?, ?, ?, ?, ?, ?)";
+        batched(conn, sql, n, (ps, i) -> {
+            int ordinal = firstOrdinal + i;
+            ps.setString(1, PATIENT_PREFIX + ordinal);
+            ps.setDate(2, Date.valueOf(LocalDate.of(1950, 1, 1).plusDays(ordinal % 20000)));
+            ps.setString(3, "bench" + ordinal + "@example.com");
+            ps.setString(4, String.format("555-%07d", ordinal % 10_000_000));
+            ps.setString(5, ordinal + " Benchmark Way");
+            ps.setInt(6, plans[ordinal % plans.length]);
+        });
+    }
+
+    private static void insertMedications(Connection conn, int firstOrdinal, int[] patientIds, int[] doctors,
+                                          int[] plans) throws SQLException {
+        String sql = "INSERT INTO Medication (PatientID, DoctorID, Name, Cost, Status, Dosage, Frequency, PlanID) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+        batched(conn, sql, patientIds.length * 2, (ps, i) -> {
+            int ordinal = firstOrdinal + i / 2;
+            ps.setInt(1, patientIds[i / 2]);
+            ps.setInt(2, doctors[(ordinal + i) % doctors.length]);
+            ps.setString(3, "Bench Med " + (i % 2));
+            ps.setBigDecimal(4, BigDecimal.valueOf(5 + (ordinal * 7 + i) % 500, 0));
+            ps.setString(5, STATUSES[(ordinal + i) % STATUSES.length]);
+            ps.setString(6, "10mg");
+            ps.setString(7, "Once daily");
+            ps.setInt(8, plans[ordinal % plans.length]);
+        });
+    }
+
+    private static void insertAppointments(Connection conn, int firstOrdinal, int[] patientIds, int[] doctors,
+                                           int[] hospitals) throws SQLException {
+        String sql = "INSERT INTO Appointment (PatientID, DoctorID, HospitalID, ApptDate, ApptTime, VisitReason, Cost) "
+                + "VALUES (?, ?, ?, ?, ?, ?, ?)";
+        batched(conn, sql, patientIds.length, (ps, i) -> {
+            int ordinal = firstOrdinal + i;
+            // Ordinal -> (doctor, slot) is one-to-one, so uq_doctor_slot always holds.
+            int doctor = doctors[ordinal % doctors.length];
+            int k = ordinal / doctors.length;
+            ps.setInt(1, patientIds[i]);
+            ps.setInt(2, doctor);
+            ps.setInt(3, hospitals[ordinal % hospitals.length]);
+            ps.setDate(4, Date.valueOf(FIRST_DAY.plusDays(k / SLOTS_PER_DAY)));
+            ps.setTime(5, Time.valueOf(LocalTime.of(8, 0).plusMinutes(30L * (k % SLOTS_PER_DAY))));
+            ps.setString(6, "Bench visit");
+            ps.setInt(7, 50 + ordinal % 400);
+        });
+    }
+
+    @FunctionalInterface
+    private interface RowBinder {
+        void bind(PreparedStatement ps, int i) throws SQLException;
+    }
+
+    private static void batched(Connection conn, String sql, int n, RowBinder binder) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (int i = 0; i < n; i++) {
+                binder.bind(ps, i);
+                ps.addBatch();
+                if ((i + 1) % BATCH == 0) {
+                    ps.executeBatch();
+                    conn.commit();
+                }
+            }
+            ps.executeBatch();
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+
+    static int[] ids(Connection conn, String sql) throws SQLException {
+        List<Integer> out = new ArrayList<>();
+        try (PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                out.add(rs.getInt(1));
+            }
+        }
+        return out.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int count(Connection conn, String sql) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package clinic.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Menu option 10: the doctor transfer transaction, moving one doctor back and forth between two
+ * hospitals. Each move also rewrites the doctor's appointments, whose number grows with the data size.
+ * The doctor ends where it started.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class TransferBenchmark {
+
+    private int doctorId;
+    private int home;
+    private int away;
+    private boolean atHome = true;
+
+    @Setup(Level.Trial)
+    public void setUp(ClinicState s) throws Throwable {
+        doctorId = s.data.doctorIds()[0];
+        try (Connection conn = s.connection()) {
+            home = firstInt(conn, "SELECT HospitalID FROM DoctorHospital WHERE DoctorID = ? ORDER BY HospitalID LIMIT 1");
+            // A hospital the doctor is not linked to yet; DoctorHospital's key forbids a duplicate link.
+            away = firstInt(conn, "SELECT h.HospitalID FROM Hospital h WHERE NOT EXISTS "
+                    + "(SELECT 1 FROM DoctorHospital dh WHERE dh.HospitalID = h.HospitalID AND dh.DoctorID = ?) "
+                    + "ORDER BY h.HospitalID LIMIT 1");
+        }
+        if (home == 0 || away == 0) {
+            throw new IllegalStateException("DoctorID " + doctorId + " needs one hospital link and one free hospital");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void moveBack() throws Throwable {
+        if (!atHome) {
+            App.transfer(doctorId, away, home);
+            atHome = true;
+        }
+    }
+
+    @Benchmark
+    public boolean transfer() throws Throwable {
+        boolean committed = atHome ? App.transfer(doctorId, home, away) : App.transfer(doctorId, away, home);
+        if (committed) {
+            atHome = !atHome;
+        }
+        return committed;
+    }
+
+    private int firstInt(Connection conn, String sql) throws Exception {
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, doctorId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package clinic.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Medication inserts, one row per call (menu option 6) against the batched importer (option 14).
+ * Both report rows per second. Rows are tagged and removed after each iteration, so the table
+ * stays at the seeded size.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class WriteBenchmark {
+
+    private static final String TAG = "Bench insert";
+    private static final int BATCH_ROWS = 500;
+
+    private int[] patientIds;
+    private int[] doctorIds;
+    private int planId;
+    private int next;
+    private Path csv;
+    private Object importer;
+
+    @Setup(Level.Trial)
+    public void setUp(ClinicState s) throws Throwable {
+        patientIds = s.data.patientIds();
+        doctorIds = s.data.doctorIds();
+        planId = s.data.planId();
+        importer = App.importer(BATCH_ROWS);
+
+        csv = Files.createTempFile("bench-medications", ".csv");
+        try (BufferedWriter w = Files.newBufferedWriter(csv)) {
+            w.write("PatientID,DoctorID,Name,Cost,Status,Dosage,Frequency,PlanID");
+            w.newLine();
+            for (int i = 0; i < BATCH_ROWS; i++) {
+                w.write(patientIds[(i * 31) % patientIds.length] + "," + doctorIds[i % doctorIds.length] + ","
+                        + TAG + "," + (10 + i % 90) + ".50,Ongoing,5mg,Once daily," + planId);
+                w.newLine();
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeInserted(ClinicState s) throws Throwable {
+        try (Connection conn = s.connection();
+             PreparedStatement ps = conn.prepareStatement("DELETE FROM Medication WHERE Name = ?")) {
+            ps.setString(1, TAG);
+            ps.executeUpdate();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() throws Throwable {
+        Files.deleteIfExists(csv);
+    }
+
+    @Benchmark
+    public int insertSingle() throws Throwable {
+        int i = next++;
+        return App.insertMedication(patientIds[(i * 31) % patientIds.length], doctorIds[i % doctorIds.length],
+                TAG, 12.5, "Ongoing", "5mg", "Once daily", planId);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_ROWS)
+    public Object insertBatched(ClinicState s) throws Throwable {
+        try (Connection conn = s.connection()) {
+            return App.importFile(importer, conn, csv);
+        }
+    }
+}
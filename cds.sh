@@ -0,0 +1,31 @@
+#!/bin/sh
+# AppCDS for the console app: class metadata for the app and MySQL Connector/J is parsed and
+# verified once, in a training run, and mapped from build/clinic.jsa on every later start.
+#
+#   ./cds.sh           build build/clinic.jar and build/clinic.jsa (needs the database, like the app)
+#   ./cds.sh run ...   start the app on the archive, building it first if missing; arguments go to Main
+#
+# CDS only archives classes loaded from jar files, hence build/clinic.jar. Rebuild after changing
+# any .java file or the driver jar: the JVM ignores (with a warning) an archive that no longer matches.
+set -e
+cd "$(dirname "$0")"
+
+DRIVER=mysql-connector-j-9.5.0.jar
+CP="build/clinic.jar:$DRIVER"
+
+build() {
+    rm -rf build/classes
+    mkdir -p build/classes
+    javac -d build/classes -cp "$DRIVER" *.java
+    jar cf build/clinic.jar -C build/classes .
+    # Training run: java Main --startup connects, initializes and warms up like the console does,
+    # then exits; every class it loaded goes into the archive.
+    java -XX:ArchiveClassesAtExit=build/clinic.jsa -cp "$CP" Main --startup
+}
+
+if [ "$1" = "run" ]; then
+    shift
+    [ -f build/clinic.jsa ] || build
+    exec java -XX:SharedArchiveFile=build/clinic.jsa -cp "$CP" Main "$@"
+fi
+build
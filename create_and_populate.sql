@@ -3,6 +3,10 @@
 
 SET FOREIGN_KEY_CHECKS = 0;
 
+DROP TABLE IF EXISTS AuditLog;
+DROP TABLE IF EXISTS PatientMedicationSummary;
+DROP TABLE IF EXISTS SnapshotDeletion;
+DROP TABLE IF EXISTS AppointmentArchive;
 DROP TABLE IF EXISTS DoctorHospital;
 DROP TABLE IF EXISTS Appointment;
 DROP TABLE IF EXISTS Medication;
@@ -12,6 +16,8 @@ DROP TABLE IF EXISTS Hospital;
 DROP TABLE IF EXISTS InsurancePlan;
 DROP VIEW IF EXISTS PatientMedicationView;
 DROP PROCEDURE IF EXISTS schedule_appointment;
+DROP PROCEDURE IF EXISTS schedule_appointments;
+DROP PROCEDURE IF EXISTS patient_chart;
 
 SET FOREIGN_KEY_CHECKS = 1;
 
@@ -46,8 +52,11 @@ CREATE TABLE Patient (
     Birthdate DATE,
     Email VARCHAR(100),
     PhoneNumber VARCHAR(20),
+    -- the phone number without punctuation, so digit searches can use an index
+    PhoneDigits VARCHAR(20) AS (REGEXP_REPLACE(COALESCE(PhoneNumber, ''), '[^0-9]', '')) STORED,
     Address VARCHAR(200),
     PlanID INT,
+    RowVersion INT NOT NULL DEFAULT 0,   -- bumped by Patient_BU_Version; updates check it to detect lost edits
     CONSTRAINT fk_pat_plan
       FOREIGN KEY (PlanID) 
       REFERENCES InsurancePlan(PlanID)
@@ -65,6 +74,8 @@ CREATE TABLE Medication (
   Dosage       VARCHAR(50),
   Frequency    VARCHAR(50),
   PlanID       INT,                      
+  UpdatedAt    TIMESTAMP(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6) ON UPDATE CURRENT_TIMESTAMP(6),
+  INDEX idx_med_updated (UpdatedAt),
   CONSTRAINT ck_med_cost   CHECK (Cost >= 0 AND Cost <= 1000),
   CONSTRAINT ck_med_status CHECK (Status IN ('Paused','Completed','Ongoing')),
   CONSTRAINT fk_med_doctor
@@ -93,7 +104,9 @@ CREATE TABLE Appointment (
   VisitReason VARCHAR(200),
   Cost        DECIMAL(8,2) NOT NULL,
   PlanID      INT NULL,
+  UpdatedAt   TIMESTAMP(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6) ON UPDATE CURRENT_TIMESTAMP(6),
   PRIMARY KEY (PatientID, ApptDate, ApptTime),
+  INDEX idx_appt_updated (UpdatedAt),
 
   CONSTRAINT fk_appt_patient
     FOREIGN KEY (PatientID)
@@ -143,6 +156,69 @@ CREATE TABLE DoctorHospital(
    PRIMARY KEY (HospitalID, DoctorID)
 );
 
+-- Per-patient medication rollup, kept current by the Medication triggers below.
+-- Rows disappear with their patient through the FK cascade (cascaded deletes do not fire triggers).
+CREATE TABLE PatientMedicationSummary (
+   PatientID      INT PRIMARY KEY,
+   PausedCount    INT NOT NULL DEFAULT 0,
+   CompletedCount INT NOT NULL DEFAULT 0,
+   OngoingCount   INT NOT NULL DEFAULT 0,
+   TotalCost      DECIMAL(12,2) NOT NULL DEFAULT 0,
+
+   CONSTRAINT fk_pms_patient
+     FOREIGN KEY (PatientID)
+     REFERENCES Patient(PatientID)
+     ON UPDATE CASCADE
+     ON DELETE CASCADE
+);
+
+-- Appointments moved out of Appointment by the archival job (AppointmentArchiver).
+-- No foreign keys, so history survives the deletion of its doctor, hospital or plan.
+CREATE TABLE AppointmentArchive (
+  PatientID   INT NOT NULL,
+  DoctorID    INT NOT NULL,
+  HospitalID  INT NOT NULL,
+  ApptDate    DATE NOT NULL,
+  ApptTime    TIME NOT NULL,
+  VisitReason VARCHAR(200),
+  Cost        DECIMAL(8,2) NOT NULL,
+  PlanID      INT NULL,
+  ArchivedAt  TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (PatientID, ApptDate, ApptTime),
+  INDEX idx_archive_date (ApptDate)
+);
+
+-- Deletions since the last columnar snapshot export (ColumnarSnapshot), filled by the triggers below.
+-- A 'Patient' row stands for all of that patient's appointments and medications, which the FK
+-- cascade removes without firing their own triggers. The exporter prunes rows it has applied.
+CREATE TABLE SnapshotDeletion (
+   Seq          BIGINT PRIMARY KEY AUTO_INCREMENT,
+   TableName    VARCHAR(20) NOT NULL,
+   PatientID    INT NOT NULL,
+   MedicationID INT NULL,
+   ApptDate     DATE NULL,
+   ApptTime     TIME NULL,
+   DeletedAt    TIMESTAMP(6) NOT NULL DEFAULT CURRENT_TIMESTAMP(6),
+   INDEX idx_snapdel_time (DeletedAt)
+);
+
+-- Who changed what (AuditLog.java, with audit.sink=table or java Main --audit replay).
+-- Origin + Seq is the writer's own sequence, so a replayed file never duplicates rows.
+-- Images are JSON objects of the changed columns; no foreign keys, history outlives its rows.
+CREATE TABLE AuditLog (
+  Origin      VARCHAR(100) NOT NULL,
+  Seq         BIGINT NOT NULL,
+  LoggedAt    TIMESTAMP(3) NOT NULL,
+  Actor       VARCHAR(100) NOT NULL,
+  Action      VARCHAR(20) NOT NULL,
+  Entity      VARCHAR(30) NOT NULL,
+  EntityKey   VARCHAR(100) NULL,
+  BeforeImage JSON NULL,
+  AfterImage  JSON NULL,
+  PRIMARY KEY (Origin, Seq),
+  INDEX idx_audit_entity (Entity, EntityKey, LoggedAt)
+);
+
 -- =========================
 -- 2. TRIGGER
 -- =========================
@@ -162,6 +238,113 @@ BEGIN
 END$$
 DELIMITER ;
 
+DELIMITER $$
+CREATE TRIGGER Med_AI_Summary
+AFTER INSERT ON Medication
+FOR EACH ROW
+BEGIN
+  INSERT INTO PatientMedicationSummary (PatientID, PausedCount, CompletedCount, OngoingCount, TotalCost)
+  VALUES (NEW.PatientID,
+          NEW.Status = 'Paused', NEW.Status = 'Completed', NEW.Status = 'Ongoing', NEW.Cost)
+  ON DUPLICATE KEY UPDATE
+    PausedCount    = PausedCount    + (NEW.Status = 'Paused'),
+    CompletedCount = CompletedCount + (NEW.Status = 'Completed'),
+    OngoingCount   = OngoingCount   + (NEW.Status = 'Ongoing'),
+    TotalCost      = TotalCost      + NEW.Cost;
+END$$
+
+CREATE TRIGGER Med_AU_Summary
+AFTER UPDATE ON Medication
+FOR EACH ROW
+BEGIN
+  UPDATE PatientMedicationSummary
+  SET PausedCount    = PausedCount    - (OLD.Status = 'Paused'),
+      CompletedCount = CompletedCount - (OLD.Status = 'Completed'),
+      OngoingCount   = OngoingCount   - (OLD.Status = 'Ongoing'),
+      TotalCost      = TotalCost      - OLD.Cost
+  WHERE PatientID = OLD.PatientID;
+
+  INSERT INTO PatientMedicationSummary (PatientID, PausedCount, CompletedCount, OngoingCount, TotalCost)
+  VALUES (NEW.PatientID,
+          NEW.Status = 'Paused', NEW.Status = 'Completed', NEW.Status = 'Ongoing', NEW.Cost)
+  ON DUPLICATE KEY UPDATE
+    PausedCount    = PausedCount    + (NEW.Status = 'Paused'),
+    CompletedCount = CompletedCount + (NEW.Status = 'Completed'),
+    OngoingCount   = OngoingCount   + (NEW.Status = 'Ongoing'),
+    TotalCost      = TotalCost      + NEW.Cost;
+END$$
+
+CREATE TRIGGER Med_AD_Summary
+AFTER DELETE ON Medication
+FOR EACH ROW
+BEGIN
+  UPDATE PatientMedicationSummary
+  SET PausedCount    = PausedCount    - (OLD.Status = 'Paused'),
+      CompletedCount = CompletedCount - (OLD.Status = 'Completed'),
+      OngoingCount   = OngoingCount   - (OLD.Status = 'Ongoing'),
+      TotalCost      = TotalCost      - OLD.Cost
+  WHERE PatientID = OLD.PatientID;
+END$$
+
+-- Every write to a Patient row, from the app or elsewhere, moves its version on.
+CREATE TRIGGER Patient_BU_Version
+BEFORE UPDATE ON Patient
+FOR EACH ROW
+BEGIN
+  SET NEW.RowVersion = OLD.RowVersion + 1;
+END$$
+
+-- Snapshot change log: deleted keys, and the old key when an update moves an appointment.
+CREATE TRIGGER Med_AD_Snapshot
+AFTER DELETE ON Medication
+FOR EACH ROW
+BEGIN
+  INSERT INTO SnapshotDeletion (TableName, PatientID, MedicationID)
+  VALUES ('Medication', OLD.PatientID, OLD.MedicationID);
+END$$
+
+CREATE TRIGGER App_AD_Snapshot
+AFTER DELETE ON Appointment
+FOR EACH ROW
+BEGIN
+  INSERT INTO SnapshotDeletion (TableName, PatientID, ApptDate, ApptTime)
+  VALUES ('Appointment', OLD.PatientID, OLD.ApptDate, OLD.ApptTime);
+END$$
+
+CREATE TRIGGER App_AU_Snapshot
+AFTER UPDATE ON Appointment
+FOR EACH ROW
+BEGIN
+  IF OLD.PatientID <> NEW.PatientID OR OLD.ApptDate <> NEW.ApptDate OR OLD.ApptTime <> NEW.ApptTime THEN
+    INSERT INTO SnapshotDeletion (TableName, PatientID, ApptDate, ApptTime)
+    VALUES ('Appointment', OLD.PatientID, OLD.ApptDate, OLD.ApptTime);
+  END IF;
+END$$
+
+CREATE TRIGGER Patient_AD_Snapshot
+AFTER DELETE ON Patient
+FOR EACH ROW
+BEGIN
+  INSERT INTO SnapshotDeletion (TableName, PatientID)
+  VALUES ('Patient', OLD.PatientID);
+END$$
+
+-- The audit trail is append-only.
+CREATE TRIGGER AuditLog_BU_Deny
+BEFORE UPDATE ON AuditLog
+FOR EACH ROW
+BEGIN
+  SIGNAL SQLSTATE '45000' SET MESSAGE_TEXT = 'AuditLog is append-only';
+END$$
+
+CREATE TRIGGER AuditLog_BD_Deny
+BEFORE DELETE ON AuditLog
+FOR EACH ROW
+BEGIN
+  SIGNAL SQLSTATE '45000' SET MESSAGE_TEXT = 'AuditLog is append-only';
+END$$
+DELIMITER ;
+
 -- =========================
 -- 3. VIEW (NEW)
 -- =========================
@@ -202,6 +385,101 @@ BEGIN
 END$$
 DELIMITER ;
 
+-- Many appointments in one round trip (AppointmentScheduler). p_items is a JSON array of
+-- {"patient", "doctor", "hospital", "date", "time", "reason", "cost"} objects. Each item is inserted
+-- on its own, so a taken slot or a bad reference fails only that item; deadlocks and lock wait
+-- timeouts still end the call. The caller owns the transaction. Plans come from one join up front,
+-- so App_BI_DefaultPlan looks one up only for patients without a plan.
+-- Returns one row per item: idx (1-based), errno (0 = booked) and message.
+DELIMITER $$
+CREATE PROCEDURE schedule_appointments(IN p_items JSON)
+BEGIN
+    DECLARE v_done BOOLEAN DEFAULT FALSE;
+    DECLARE v_idx INT;
+    DECLARE v_patient INT;
+    DECLARE v_doctor INT;
+    DECLARE v_hospital INT;
+    DECLARE v_date DATE;
+    DECLARE v_time TIME;
+    DECLARE v_reason VARCHAR(200);
+    DECLARE v_cost DECIMAL(8,2);
+    DECLARE v_plan INT;
+    DECLARE v_errno INT;
+    DECLARE v_msg VARCHAR(512);
+    DECLARE v_out JSON DEFAULT JSON_ARRAY();
+    DECLARE items CURSOR FOR
+        SELECT jt.idx, jt.patient, jt.doctor, jt.hospital, jt.appt_date, jt.appt_time, jt.reason, jt.cost, p.PlanID
+        FROM JSON_TABLE(p_items, '$[*]' COLUMNS (
+                 idx       FOR ORDINALITY,
+                 patient   INT          PATH '$.patient',
+                 doctor    INT          PATH '$.doctor',
+                 hospital  INT          PATH '$.hospital',
+                 appt_date DATE         PATH '$.date',
+                 appt_time TIME         PATH '$.time',
+                 reason    VARCHAR(200) PATH '$.reason',
+                 cost      DECIMAL(8,2) PATH '$.cost')) AS jt
+        LEFT JOIN Patient p ON p.PatientID = jt.patient
+        ORDER BY jt.idx;
+    DECLARE CONTINUE HANDLER FOR NOT FOUND SET v_done = TRUE;
+
+    OPEN items;
+    item_loop: LOOP
+        FETCH items INTO v_idx, v_patient, v_doctor, v_hospital, v_date, v_time, v_reason, v_cost, v_plan;
+        IF v_done THEN
+            LEAVE item_loop;
+        END IF;
+        SET v_errno = 0, v_msg = NULL;
+        BEGIN
+            -- null column, duplicate slot, missing patient/doctor/hospital, cost out of range
+            DECLARE EXIT HANDLER FOR 1048, 1062, 1452, 3819
+            BEGIN
+                GET DIAGNOSTICS CONDITION 1 v_errno = MYSQL_ERRNO, v_msg = MESSAGE_TEXT;
+            END;
+            INSERT INTO Appointment
+                (PatientID, DoctorID, HospitalID, ApptDate, ApptTime, VisitReason, Cost, PlanID)
+            VALUES
+                (v_patient, v_doctor, v_hospital, v_date, v_time, v_reason, v_cost, v_plan);
+        END;
+        SET v_out = JSON_ARRAY_APPEND(v_out, '$', JSON_ARRAY(v_idx, v_errno, v_msg));
+    END LOOP;
+    CLOSE items;
+
+    SELECT r.idx, r.errno, r.message
+    FROM JSON_TABLE(v_out, '$[*]' COLUMNS (
+             idx     INT          PATH '$[0]',
+             errno   INT          PATH '$[1]',
+             message VARCHAR(512) PATH '$[2]')) AS r;
+END$$
+DELIMITER ;
+
+-- Everything about one patient in one round trip: three result sets
+-- (patient + plan, medications + prescribing doctor, appointments + doctor/hospital names).
+DELIMITER $$
+CREATE PROCEDURE patient_chart(IN p_patient INT)
+BEGIN
+    SELECT p.PatientID, p.Name, p.Birthdate, p.Email, p.PhoneNumber, p.Address,
+           p.PlanID, ip.Provider, ip.Coverage
+    FROM Patient p
+    LEFT JOIN InsurancePlan ip ON ip.PlanID = p.PlanID
+    WHERE p.PatientID = p_patient;
+
+    SELECT m.MedicationID, m.Name, m.Status, m.Cost, m.Dosage, m.Frequency,
+           m.DoctorID, d.Name AS PrescribingDoctor
+    FROM Medication m
+    JOIN Doctor d ON d.DoctorID = m.DoctorID
+    WHERE m.PatientID = p_patient
+    ORDER BY m.Status, m.MedicationID;
+
+    SELECT a.ApptDate, a.ApptTime, a.VisitReason, a.Cost, a.PlanID,
+           a.DoctorID, d.Name AS DoctorName, a.HospitalID, h.Name AS HospitalName
+    FROM Appointment a
+    JOIN Doctor d ON d.DoctorID = a.DoctorID
+    JOIN Hospital h ON h.HospitalID = a.HospitalID
+    WHERE a.PatientID = p_patient
+    ORDER BY a.ApptDate, a.ApptTime;
+END$$
+DELIMITER ;
+
 -- =========================
 -- 5. INDEX
 -- =========================
@@ -209,6 +487,33 @@ DELIMITER ;
 CREATE INDEX idx_doctorname_discipline
 ON Doctor (Name, Discipline);
 
+-- patient_chart / per-patient reads: Medication by patient (also serves fk_med_patient).
+-- Appointment needs no extra index: its primary key already starts with PatientID.
+CREATE INDEX idx_med_patient_status
+ON Medication (PatientID, Status);
+
+-- Keyset pages of PatientMedicationView seek on (PatientID, MedicationID); MySQL drops the implicit
+-- FK index on PatientID once idx_med_patient_status exists, so this one is explicit.
+CREATE INDEX idx_med_patient_id
+ON Medication (PatientID, MedicationID);
+
+-- Patient search without the in-memory index (search.inMemory=false, or more than
+-- search.maxPatients rows): one lookup per field, each through its own index.
+CREATE INDEX idx_patient_name
+ON Patient (Name);
+
+CREATE FULLTEXT INDEX ft_patient_name
+ON Patient (Name);
+
+CREATE INDEX idx_patient_email
+ON Patient (Email);
+
+CREATE INDEX idx_patient_phone_digits
+ON Patient (PhoneDigits);
+
+CREATE INDEX idx_patient_phone_end
+ON Patient ((RIGHT(PhoneDigits, 4)));
+
 -- =========================
 -- 6. SAMPLE DATA
 -- =========================